@@ -0,0 +1,14 @@
+package com.github.jojotech.spring.cloud.commons.auto;
+
+import com.github.jojotech.spring.cloud.commons.config.CallRecorderConfiguration;
+
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+@Configuration(proxyBeanMethods = false)
+@Import(CallRecorderConfiguration.class)
+//需要在 resilience4j 创建 CircuitBreakerRegistry 之后，才能监听断路器打开
+@AutoConfigureAfter(name = "io.github.resilience4j.circuitbreaker.autoconfigure.CircuitBreakerAutoConfiguration")
+public class CallRecorderAutoConfiguration {
+}
@@ -2,13 +2,17 @@ package com.github.jojotech.spring.cloud.commons.auto;
 
 import com.github.jojotech.spring.cloud.commons.config.DefaultLoadBalancerConfiguration;
 import com.github.jojotech.spring.cloud.commons.config.LoadBalancerConfiguration;
+import com.github.jojotech.spring.cloud.commons.config.ServiceInstanceMetricsExportConfiguration;
 
+import org.springframework.boot.actuate.autoconfigure.metrics.export.prometheus.PrometheusMetricsExportAutoConfiguration;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
 import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
 @Configuration(proxyBeanMethods = false)
-@Import(LoadBalancerConfiguration.class)
+@Import({LoadBalancerConfiguration.class, ServiceInstanceMetricsExportConfiguration.class})
+@AutoConfigureAfter(PrometheusMetricsExportAutoConfiguration.class)
 @LoadBalancerClients(defaultConfiguration = DefaultLoadBalancerConfiguration.class)
 public class LoadBalancerAutoConfiguration {
 }
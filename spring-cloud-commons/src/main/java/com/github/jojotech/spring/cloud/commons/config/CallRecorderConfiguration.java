@@ -0,0 +1,45 @@
+package com.github.jojotech.spring.cloud.commons.config;
+
+import com.github.jojotech.spring.cloud.commons.diagnostics.CallRecorder;
+import com.github.jojotech.spring.cloud.commons.diagnostics.CallRecorderEndpoint;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration(proxyBeanMethods = false)
+@EnableConfigurationProperties(CallRecorderProperties.class)
+public class CallRecorderConfiguration {
+	@Bean
+	public CallRecorder callRecorder(CallRecorderProperties callRecorderProperties,
+			ObjectProvider<CircuitBreakerRegistry> circuitBreakerRegistry) {
+		CallRecorder callRecorder = new CallRecorder(callRecorderProperties.isEnabled(), callRecorderProperties.getCapacity(),
+				callRecorderProperties.getDumpInterval().toMillis());
+		CircuitBreakerRegistry registry = circuitBreakerRegistry.getIfAvailable();
+		if (registry != null) {
+			//断路器打开的事件在调用断路器的线程上发布，不一定是记录调用的线程，所以输出所有线程中这个断路器的记录
+			registry.getAllCircuitBreakers().forEach(circuitBreaker -> dumpOnOpen(circuitBreaker, callRecorder));
+			registry.getEventPublisher().onEntryAdded(event -> dumpOnOpen(event.getAddedEntry(), callRecorder));
+		}
+		return callRecorder;
+	}
+
+	private static void dumpOnOpen(CircuitBreaker circuitBreaker, CallRecorder callRecorder) {
+		circuitBreaker.getEventPublisher().onStateTransition(event -> {
+			if (event.getStateTransition().getToState() == CircuitBreaker.State.OPEN) {
+				callRecorder.dumpCircuitBreaker(event.getCircuitBreakerName(),
+						"circuit breaker " + event.getCircuitBreakerName() + " " + event.getStateTransition());
+			}
+		});
+	}
+
+	@Bean
+	@ConditionalOnAvailableEndpoint
+	public CallRecorderEndpoint callRecorderEndpoint(CallRecorder callRecorder) {
+		return new CallRecorderEndpoint(callRecorder);
+	}
+}
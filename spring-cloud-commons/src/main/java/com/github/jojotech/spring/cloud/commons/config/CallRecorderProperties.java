@@ -0,0 +1,26 @@
+package com.github.jojotech.spring.cloud.commons.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@NoArgsConstructor
+@ConfigurationProperties(prefix = "call-recorder")
+public class CallRecorderProperties {
+	/**
+	 * 是否记录调用，关闭之后失败的时候也不会输出调用记录
+	 */
+	private boolean enabled = true;
+	/**
+	 * 每个线程保留的最近调用条数
+	 */
+	private int capacity = 64;
+	/**
+	 * 每个线程输出调用记录的最小间隔
+	 */
+	private Duration dumpInterval = Duration.ofSeconds(1);
+}
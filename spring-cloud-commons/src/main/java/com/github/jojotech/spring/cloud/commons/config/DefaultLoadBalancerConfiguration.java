@@ -2,8 +2,14 @@ package com.github.jojotech.spring.cloud.commons.config;
 
 import brave.Tracer;
 import com.codahale.metrics.MetricRegistry;
+import com.github.jojotech.spring.cloud.commons.loadbalancer.EventDrivenServiceInstanceListSupplier;
+import com.github.jojotech.spring.cloud.commons.loadbalancer.LoadBalancerAlgorithm;
+import com.github.jojotech.spring.cloud.commons.loadbalancer.OutlierEjectionServiceInstanceListSupplier;
+import com.github.jojotech.spring.cloud.commons.loadbalancer.PeakEwmaLoadBalancer;
+import com.github.jojotech.spring.cloud.commons.loadbalancer.PowerOfTwoChoicesLoadBalancer;
 import com.github.jojotech.spring.cloud.commons.loadbalancer.RoundRobinWithRequestSeparatedPositionLoadBalancer;
 import com.github.jojotech.spring.cloud.commons.loadbalancer.SameZoneOnlyServiceInstanceListSupplier;
+import com.github.jojotech.spring.cloud.commons.loadbalancer.ServiceInstanceListRefreshNotifier;
 import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
 
 import org.springframework.beans.factory.ObjectProvider;
@@ -13,9 +19,7 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingClas
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
-import org.springframework.cloud.loadbalancer.cache.LoadBalancerCacheManager;
 import org.springframework.cloud.loadbalancer.config.LoadBalancerZoneConfig;
-import org.springframework.cloud.loadbalancer.core.CachingServiceInstanceListSupplier;
 import org.springframework.cloud.loadbalancer.core.DiscoveryClientServiceInstanceListSupplier;
 import org.springframework.cloud.loadbalancer.core.ReactorLoadBalancer;
 import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
@@ -36,25 +40,34 @@ public class DefaultLoadBalancerConfiguration {
             DiscoveryClient discoveryClient,
             Environment env,
             ConfigurableApplicationContext context,
-            LoadBalancerZoneConfig zoneConfig
+            LoadBalancerZoneConfig zoneConfig,
+            LoadBalancerConfigurationProperties loadBalancerConfigurationProperties,
+            ServiceInstanceMetrics serviceInstanceMetrics
     ) {
-        ObjectProvider<LoadBalancerCacheManager> cacheManagerProvider = context
-                //获取缓存管理器（这里其实就是 Caffeine），不能直接注入，会有找不到 Bean 的问题，因为加载顺序不可控
-                .getBeanProvider(LoadBalancerCacheManager.class);
+        ObjectProvider<ServiceInstanceListRefreshNotifier> notifierProvider = context
+                //刷新通知是注册在主 ApplicationContext 中的，与之前获取缓存管理器一样，不直接注入，因为加载顺序不可控
+                .getBeanProvider(ServiceInstanceListRefreshNotifier.class);
+        String name = env.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+        LoadBalancerConfigurationProperties.LoadBalancerProperties loadBalancerProperties = loadBalancerConfigurationProperties.getConfig(name);
 
         //这里的流程就是，首先通过 DiscoveryClientServiceInstanceListSupplier 使用 discoveryClient 获取对应微服务的实例列表
-        //然后通过我们自定义的 SameZoneOnlyServiceInstanceListSupplier 进行筛选
-        //最后通过 CachingServiceInstanceListSupplier 将结果缓存起来
-        return  //使用框架内置的 CachingServiceInstanceListSupplier 开启服务实例缓存，缓存需要在最外层，即缓存经过前面所有的 Supplier 筛选后的结果
-                new CachingServiceInstanceListSupplier(
-                        //使用我们自定义的 SameZoneOnlyServiceInstanceListSupplier，只能返回同一个 zone 的服务实例
-                        new SameZoneOnlyServiceInstanceListSupplier(
+        //然后通过 EventDrivenServiceInstanceListSupplier 在服务发现刷新的时候更新并推送实例列表
+        //然后通过我们自定义的 SameZoneOnlyServiceInstanceListSupplier 进行筛选，实例列表没有变化的时候筛选结果也是缓存的
+        //最后如果开启了异常实例摘除，通过 OutlierEjectionServiceInstanceListSupplier 去掉被摘除的实例
+        ServiceInstanceListSupplier serviceInstanceListSupplier =
+                //使用我们自定义的 SameZoneOnlyServiceInstanceListSupplier，只能返回同一个 zone 的服务实例（TIERED 模式下同 zone 实例不够会加入其他 zone 的实例）
+                new SameZoneOnlyServiceInstanceListSupplier(
+                        //替代之前按照 TTL 轮询的 CachingServiceInstanceListSupplier，服务发现刷新之后立刻推送新的实例列表
+                        new EventDrivenServiceInstanceListSupplier(
                                 //使用框架内置的 DiscoveryClientServiceInstanceListSupplier，通过 discoveryClient 的服务发现获取初始实例列表
                                 new DiscoveryClientServiceInstanceListSupplier(discoveryClient, env),
-                                zoneConfig
-                        )
-                        , cacheManagerProvider.getIfAvailable()
+                                notifierProvider.getIfAvailable(),
+                                loadBalancerProperties.getInstanceListMaxStaleness()
+                        ),
+                        zoneConfig,
+                        loadBalancerProperties
                 );
+        return withOutlierEjection(serviceInstanceListSupplier, serviceInstanceMetrics, loadBalancerProperties);
     }
 
     @Bean
@@ -67,25 +80,50 @@ public class DefaultLoadBalancerConfiguration {
             ReactiveDiscoveryClient reactiveDiscoveryClient,
             Environment env,
             ConfigurableApplicationContext context,
-            LoadBalancerZoneConfig zoneConfig
+            LoadBalancerZoneConfig zoneConfig,
+            LoadBalancerConfigurationProperties loadBalancerConfigurationProperties,
+            ServiceInstanceMetrics serviceInstanceMetrics
     ) {
-        ObjectProvider<LoadBalancerCacheManager> cacheManagerProvider = context
-                //获取缓存管理器（这里其实就是 Caffeine），不能直接注入，会有找不到 Bean 的问题，因为加载顺序不可控
-                .getBeanProvider(LoadBalancerCacheManager.class);
+        ObjectProvider<ServiceInstanceListRefreshNotifier> notifierProvider = context
+                //刷新通知是注册在主 ApplicationContext 中的，与之前获取缓存管理器一样，不直接注入，因为加载顺序不可控
+                .getBeanProvider(ServiceInstanceListRefreshNotifier.class);
+        String name = env.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+        LoadBalancerConfigurationProperties.LoadBalancerProperties loadBalancerProperties = loadBalancerConfigurationProperties.getConfig(name);
 
         //这里的流程就是，首先通过 DiscoveryClientServiceInstanceListSupplier 使用 discoveryClient 获取对应微服务的实例列表
-        //然后通过我们自定义的 SameZoneOnlyServiceInstanceListSupplier 进行筛选
-        //最后通过 CachingServiceInstanceListSupplier 将结果缓存起来
-        return  //使用框架内置的 CachingServiceInstanceListSupplier 开启服务实例缓存，缓存需要在最外层，即缓存经过前面所有的 Supplier 筛选后的结果
-                new CachingServiceInstanceListSupplier(
-                        //使用我们自定义的 SameZoneOnlyServiceInstanceListSupplier，只能返回同一个 zone 的服务实例
-                        new SameZoneOnlyServiceInstanceListSupplier(
+        //然后通过 EventDrivenServiceInstanceListSupplier 在服务发现刷新的时候更新并推送实例列表
+        //然后通过我们自定义的 SameZoneOnlyServiceInstanceListSupplier 进行筛选，实例列表没有变化的时候筛选结果也是缓存的
+        //最后如果开启了异常实例摘除，通过 OutlierEjectionServiceInstanceListSupplier 去掉被摘除的实例
+        ServiceInstanceListSupplier serviceInstanceListSupplier =
+                //使用我们自定义的 SameZoneOnlyServiceInstanceListSupplier，只能返回同一个 zone 的服务实例（TIERED 模式下同 zone 实例不够会加入其他 zone 的实例）
+                new SameZoneOnlyServiceInstanceListSupplier(
+                        //替代之前按照 TTL 轮询的 CachingServiceInstanceListSupplier，服务发现刷新之后立刻推送新的实例列表
+                        new EventDrivenServiceInstanceListSupplier(
                                 //使用框架内置的 DiscoveryClientServiceInstanceListSupplier，通过 discoveryClient 的服务发现获取初始实例列表
                                 new DiscoveryClientServiceInstanceListSupplier(reactiveDiscoveryClient, env),
-                                zoneConfig
-                        )
-                        , cacheManagerProvider.getIfAvailable()
+                                notifierProvider.getIfAvailable(),
+                                loadBalancerProperties.getInstanceListMaxStaleness()
+                        ),
+                        zoneConfig,
+                        loadBalancerProperties
                 );
+        return withOutlierEjection(serviceInstanceListSupplier, serviceInstanceMetrics, loadBalancerProperties);
+    }
+
+    private static ServiceInstanceListSupplier withOutlierEjection(
+            ServiceInstanceListSupplier serviceInstanceListSupplier,
+            ServiceInstanceMetrics serviceInstanceMetrics,
+            LoadBalancerConfigurationProperties.LoadBalancerProperties loadBalancerProperties
+    ) {
+        if (!loadBalancerProperties.getOutlierEjection().isEnabled()) {
+            return serviceInstanceListSupplier;
+        }
+        //摘除比例是按照同 zone 筛选之后的实例计算的，所以放在最外层
+        return new OutlierEjectionServiceInstanceListSupplier(
+                serviceInstanceListSupplier,
+                serviceInstanceMetrics,
+                loadBalancerProperties.getOutlierEjection()
+        );
     }
 
     @Bean
@@ -93,14 +131,37 @@ public class DefaultLoadBalancerConfiguration {
             Environment environment,
             ServiceInstanceListSupplier serviceInstanceListSupplier,
             Tracer tracer,
-            ServiceInstanceMetrics serviceInstanceMetrics
+            ServiceInstanceMetrics serviceInstanceMetrics,
+            LoadBalancerConfigurationProperties loadBalancerConfigurationProperties
     ) {
         String name = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+        //每个微服务可以通过 loadbalancer.configs.微服务名称.algorithm 选择不同的负载均衡算法
+        LoadBalancerConfigurationProperties.LoadBalancerProperties loadBalancerProperties = loadBalancerConfigurationProperties.getConfig(name);
+        LoadBalancerAlgorithm algorithm = loadBalancerProperties.getAlgorithm();
+        if (algorithm == LoadBalancerAlgorithm.POWER_OF_TWO_CHOICES) {
+            return new PowerOfTwoChoicesLoadBalancer(
+                    serviceInstanceListSupplier,
+                    name,
+                    tracer,
+                    serviceInstanceMetrics,
+                    loadBalancerProperties
+            );
+        }
+        if (algorithm == LoadBalancerAlgorithm.PEAK_EWMA) {
+            return new PeakEwmaLoadBalancer(
+                    serviceInstanceListSupplier,
+                    name,
+                    tracer,
+                    serviceInstanceMetrics,
+                    loadBalancerProperties
+            );
+        }
         return new RoundRobinWithRequestSeparatedPositionLoadBalancer(
                 serviceInstanceListSupplier,
                 name,
                 tracer,
-                serviceInstanceMetrics
+                serviceInstanceMetrics,
+                loadBalancerProperties
         );
     }
 }
@@ -1,15 +1,57 @@
 package com.github.jojotech.spring.cloud.commons.config;
 
 import com.codahale.metrics.MetricRegistry;
+import com.github.jojotech.spring.cloud.commons.config.LoadBalancerConfigurationProperties.JanitorProperties;
+import com.github.jojotech.spring.cloud.commons.loadbalancer.InstanceResourceJanitor;
+import com.github.jojotech.spring.cloud.commons.loadbalancer.ServiceInstanceListRefreshNotifier;
+import com.github.jojotech.spring.cloud.commons.metric.AsyncStatsRecorder;
 import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetricsExporter;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration(proxyBeanMethods = false)
+@EnableConfigurationProperties(LoadBalancerConfigurationProperties.class)
 public class LoadBalancerConfiguration {
 	@Bean
-	public ServiceInstanceMetrics getLoadBalancerMetricRegistry() {
-		return new ServiceInstanceMetrics(new MetricRegistry());
+	public ServiceInstanceMetrics getLoadBalancerMetricRegistry(LoadBalancerConfigurationProperties loadBalancerConfigurationProperties,
+			ObjectProvider<AsyncStatsRecorder> asyncStatsRecorder) {
+		return new ServiceInstanceMetrics(new MetricRegistry(),
+				(int) Math.max(loadBalancerConfigurationProperties.getMetricWindow().getSeconds(), 1),
+				asyncStatsRecorder.getIfAvailable());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "loadbalancer", name = "async-metric-recording", havingValue = "true")
+	public AsyncStatsRecorder asyncStatsRecorder(LoadBalancerConfigurationProperties loadBalancerConfigurationProperties) {
+		return new AsyncStatsRecorder(loadBalancerConfigurationProperties.getAsyncMetricQueueCapacity());
+	}
+
+	@Bean
+	public ServiceInstanceListRefreshNotifier serviceInstanceListRefreshNotifier() {
+		return new ServiceInstanceListRefreshNotifier();
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "loadbalancer.janitor", name = "enabled", matchIfMissing = true)
+	public InstanceResourceJanitor instanceResourceJanitor(
+			ObjectProvider<DiscoveryClient> discoveryClient,
+			ServiceInstanceMetrics serviceInstanceMetrics,
+			ObjectProvider<ServiceInstanceMetricsExporter> serviceInstanceMetricsExporter,
+			ObjectProvider<CircuitBreakerRegistry> circuitBreakerRegistry,
+			ObjectProvider<ThreadPoolBulkheadRegistry> threadPoolBulkheadRegistry,
+			LoadBalancerConfigurationProperties loadBalancerConfigurationProperties) {
+		JanitorProperties janitor = loadBalancerConfigurationProperties.getJanitor();
+		//这些 Bean 不一定存在（例如 WebFlux 没有线程池隔离），在后台检查的时候再获取
+		return new InstanceResourceJanitor(discoveryClient::getIfAvailable, serviceInstanceMetrics,
+				serviceInstanceMetricsExporter::getIfAvailable, circuitBreakerRegistry::getIfAvailable,
+				threadPoolBulkheadRegistry::getIfAvailable, janitor.getGracePeriod(), janitor.getInterval());
 	}
 }
@@ -0,0 +1,187 @@
+package com.github.jojotech.spring.cloud.commons.config;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import com.github.jojotech.spring.cloud.commons.loadbalancer.LoadBalancerAlgorithm;
+import com.github.jojotech.spring.cloud.commons.loadbalancer.SlowStartMode;
+import com.github.jojotech.spring.cloud.commons.loadbalancer.ZoneIsolationMode;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@NoArgsConstructor
+@ConfigurationProperties(prefix = "loadbalancer")
+public class LoadBalancerConfigurationProperties {
+	/**
+	 * 默认配置，没有在 configs 中单独配置的微服务使用这个配置
+	 */
+	private LoadBalancerProperties defaultConfig = new LoadBalancerProperties();
+	/**
+	 * 每个微服务单独的配置，key 为微服务名称
+	 */
+	private Map<String, LoadBalancerProperties> configs;
+	/**
+	 * 实例失败率的统计窗口，按秒分桶，所有微服务共用
+	 */
+	private Duration metricWindow = Duration.ofSeconds(ServiceInstanceMetrics.DEFAULT_WINDOW_SECONDS);
+	/**
+	 * 是否异步记录实例的调用结果与耗时，核数很多并且调用量很大的时候可以降低调用线程的尾延迟
+	 */
+	private boolean asyncMetricRecording = false;
+	/**
+	 * 异步记录的时候每个调用线程的队列大小，队列满了会退化为同步记录
+	 */
+	private int asyncMetricQueueCapacity = 1024;
+	/**
+	 * 实例指标导出到 prometheus 的配置，所有微服务共用
+	 */
+	private MetricExportProperties metricExport = new MetricExportProperties();
+	/**
+	 * 回收已经下线实例的指标，断路器与线程池的配置，所有微服务共用
+	 */
+	private JanitorProperties janitor = new JanitorProperties();
+
+	/**
+	 * 获取微服务的负载均衡配置
+	 * @param serviceId 微服务名称
+	 * @return 微服务单独的配置，没有则返回默认配置
+	 */
+	public LoadBalancerProperties getConfig(String serviceId) {
+		if (configs != null && serviceId != null) {
+			LoadBalancerProperties loadBalancerProperties = configs.get(serviceId);
+			if (loadBalancerProperties != null) {
+				return loadBalancerProperties;
+			}
+		}
+		return defaultConfig;
+	}
+
+	@Data
+	@NoArgsConstructor
+	public static class LoadBalancerProperties {
+		/**
+		 * 负载均衡算法
+		 */
+		private LoadBalancerAlgorithm algorithm = LoadBalancerAlgorithm.ROUND_ROBIN;
+		/**
+		 * 同一个请求重试的时候避开已经调用过的网段，IPv4 地址的网段前缀长度，例如 24 代表 /24
+		 */
+		private int ipv4PrefixLength = 24;
+		/**
+		 * IPv6 地址的网段前缀长度
+		 */
+		private int ipv6PrefixLength = 64;
+		/**
+		 * zone 之间的隔离方式，默认只调用同一个 zone 的实例
+		 */
+		private ZoneIsolationMode zoneIsolation = ZoneIsolationMode.STRICT;
+		/**
+		 * TIERED 模式下，同 zone 实例不够的时候依次加入的其他 zone，按照优先级排序
+		 */
+		private List<String> zonePreferences = List.of();
+		/**
+		 * TIERED 模式下，已经加入的实例个数低于这个值的时候才会加入下一个 zone 的实例
+		 */
+		private int zoneFailoverMinInstances = 1;
+		/**
+		 * 实例列表由服务发现的刷新事件推送，超过这个时间没有收到事件，读取实例列表的时候会在后台主动刷新一次
+		 */
+		private Duration instanceListMaxStaleness = Duration.ofSeconds(30);
+		/**
+		 * 新实例的预热时间窗口，为 0 代表不开启慢启动
+		 */
+		private Duration slowStartWindow = Duration.ZERO;
+		/**
+		 * 预热期间权重的增长方式
+		 */
+		private SlowStartMode slowStartMode = SlowStartMode.LINEAR;
+		/**
+		 * 预热开始时的权重
+		 */
+		private double slowStartMinWeight = 0.1;
+		/**
+		 * 实例元数据中记录注册时间戳（毫秒）的 key
+		 */
+		private String slowStartMetadataKey = "registration-timestamp";
+		/**
+		 * 异常实例摘除
+		 */
+		private OutlierEjectionProperties outlierEjection = new OutlierEjectionProperties();
+	}
+
+	@Data
+	@NoArgsConstructor
+	public static class OutlierEjectionProperties {
+		/**
+		 * 是否开启异常实例摘除
+		 */
+		private boolean enabled = false;
+		/**
+		 * 连续失败次数达到这个值就摘除，0 代表不按照连续失败摘除
+		 */
+		private int consecutiveFailures = 5;
+		/**
+		 * 滑动窗口内失败率（0 到 1 之间）达到这个值就摘除，0 代表不按照失败率摘除
+		 */
+		private double failedRatioThreshold = 0;
+		/**
+		 * 按照失败率摘除时，滑动窗口内至少需要的调用次数，防止调用很少的实例偶尔失败一次就被摘除
+		 */
+		private int failedRatioMinRequests = 10;
+		/**
+		 * 检查的间隔
+		 */
+		private Duration interval = Duration.ofSeconds(1);
+		/**
+		 * 第一次摘除的时间，之后每次摘除时间翻倍
+		 */
+		private Duration baseEjectionTime = Duration.ofSeconds(30);
+		/**
+		 * 最长摘除时间
+		 */
+		private Duration maxEjectionTime = Duration.ofMinutes(5);
+		/**
+		 * 最多摘除的实例占比，单位为百分比
+		 */
+		private int maxEjectionPercent = 50;
+	}
+
+	@Data
+	@NoArgsConstructor
+	public static class MetricExportProperties {
+		/**
+		 * 最多导出多少个实例的指标，每个实例最多 19 个时间序列，默认最多 3800 个
+		 */
+		private int maxInstances = 200;
+		/**
+		 * 实例超过这个时间没有被调用，就移除它的指标
+		 */
+		private Duration idleTimeout = Duration.ofMinutes(5);
+		/**
+		 * 检查新实例以及空闲实例的间隔
+		 */
+		private Duration interval = Duration.ofSeconds(30);
+	}
+
+	@Data
+	@NoArgsConstructor
+	public static class JanitorProperties {
+		/**
+		 * 是否开启回收
+		 */
+		private boolean enabled = true;
+		/**
+		 * 实例从服务发现中消失超过这个时间才回收，防止服务发现短暂抖动导致断路器等状态丢失
+		 */
+		private Duration gracePeriod = Duration.ofMinutes(5);
+		/**
+		 * 检查的间隔
+		 */
+		private Duration interval = Duration.ofMinutes(1);
+	}
+}
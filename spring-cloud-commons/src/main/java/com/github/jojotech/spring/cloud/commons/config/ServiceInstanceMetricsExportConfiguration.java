@@ -0,0 +1,27 @@
+package com.github.jojotech.spring.cloud.commons.config;
+
+import com.github.jojotech.spring.cloud.commons.config.LoadBalancerConfigurationProperties.MetricExportProperties;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetricsExporter;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.autoconfigure.metrics.export.ConditionalOnEnabledMetricsExport;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration(proxyBeanMethods = false)
+//与 Log4j2Configuration 一样，需要在引入了 prometheus 并且 actuator 暴露了 prometheus 端口的情况下才加载
+@ConditionalOnEnabledMetricsExport("prometheus")
+public class ServiceInstanceMetricsExportConfiguration {
+    @Bean
+    public ServiceInstanceMetricsExporter serviceInstanceMetricsExporter(
+            ServiceInstanceMetrics serviceInstanceMetrics,
+            ObjectProvider<PrometheusMeterRegistry> meterRegistry,
+            LoadBalancerConfigurationProperties loadBalancerConfigurationProperties
+    ) {
+        MetricExportProperties metricExport = loadBalancerConfigurationProperties.getMetricExport();
+        //prometheus 的相关 Bean 不一定已经初始化，在后台检查的时候再获取
+        return new ServiceInstanceMetricsExporter(serviceInstanceMetrics, meterRegistry::getIfAvailable,
+                metricExport.getMaxInstances(), metricExport.getIdleTimeout(), metricExport.getInterval());
+    }
+}
@@ -0,0 +1,162 @@
+package com.github.jojotech.spring.cloud.commons.diagnostics;
+
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+
+/**
+ * 一次调用的记录，在 {@link CallRecorder} 的每个线程的环形数组中预先分配，调用的时候只覆盖字段，不分配内存
+ * <ul>
+ *     <li>只有所属线程写入，其他线程（actuator 端点）读取的时候通过 version 判断读到的是不是完整的一条记录，与 seqlock 一样</li>
+ *     <li>引用类型的字段都是调用过程中已经存在的对象（例如 url），只在输出的时候才转换成字符串</li>
+ *     <li>断路器与线程池的统计数据需要加锁或者计算，只在调用失败的时候获取，成功的调用只记录断路器名称与状态</li>
+ * </ul>
+ */
+public final class CallRecord {
+	//奇数代表正在写入
+	private volatile long version;
+	//在所属线程的所有记录中的序号，用于排序
+	private long index;
+	private long timestamp;
+	private long latencyNanos;
+	private String client;
+	private String instance;
+	private String method;
+	private Object url;
+	private int status;
+	private Throwable error;
+	private long traceId;
+	private String circuitBreakerName;
+	private CircuitBreaker.State circuitBreakerState;
+	private float failureRate;
+	private int bufferedCalls;
+	private int failedCalls;
+	private long notPermittedCalls;
+	private int bulkheadQueueDepth;
+	private int bulkheadThreadPoolSize;
+
+	CallRecord() {
+	}
+
+	void beginWrite(long index) {
+		version++;
+		//后面的普通写入不能重排到 version 变成奇数之前
+		VarHandle.storeStoreFence();
+		this.index = index;
+	}
+
+	void endWrite() {
+		version++;
+	}
+
+	void set(long timestamp, long latencyNanos, String client, String instance, String method, Object url,
+			int status, Throwable error, long traceId) {
+		this.timestamp = timestamp;
+		this.latencyNanos = latencyNanos;
+		this.client = client;
+		this.instance = instance;
+		this.method = method;
+		this.url = url;
+		this.status = status;
+		this.error = error;
+		this.traceId = traceId;
+	}
+
+	void setCircuitBreaker(String name, CircuitBreaker.State state, float failureRate, int bufferedCalls, int failedCalls, long notPermittedCalls) {
+		this.circuitBreakerName = name;
+		this.circuitBreakerState = state;
+		this.failureRate = failureRate;
+		this.bufferedCalls = bufferedCalls;
+		this.failedCalls = failedCalls;
+		this.notPermittedCalls = notPermittedCalls;
+	}
+
+	void setBulkhead(int queueDepth, int threadPoolSize) {
+		this.bulkheadQueueDepth = queueDepth;
+		this.bulkheadThreadPoolSize = threadPoolSize;
+	}
+
+	/**
+	 * 复制一份，写入过程中或者复制过程中被覆盖返回 null
+	 */
+	CallRecord copy() {
+		long before = version;
+		if ((before & 1) != 0 || before == 0) {
+			return null;
+		}
+		CallRecord copy = new CallRecord();
+		copy.version = before;
+		copy.index = index;
+		copy.timestamp = timestamp;
+		copy.latencyNanos = latencyNanos;
+		copy.client = client;
+		copy.instance = instance;
+		copy.method = method;
+		copy.url = url;
+		copy.status = status;
+		copy.error = error;
+		copy.traceId = traceId;
+		copy.circuitBreakerName = circuitBreakerName;
+		copy.circuitBreakerState = circuitBreakerState;
+		copy.failureRate = failureRate;
+		copy.bufferedCalls = bufferedCalls;
+		copy.failedCalls = failedCalls;
+		copy.notPermittedCalls = notPermittedCalls;
+		copy.bulkheadQueueDepth = bulkheadQueueDepth;
+		copy.bulkheadThreadPoolSize = bulkheadThreadPoolSize;
+		//前面的普通读取不能重排到再次读取 version 之后
+		VarHandle.loadLoadFence();
+		return version == before ? copy : null;
+	}
+
+	long getIndex() {
+		return index;
+	}
+
+	String getCircuitBreakerName() {
+		return circuitBreakerName;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public Throwable getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append(Instant.ofEpochMilli(timestamp)).append(' ')
+				.append(client).append(' ').append(instance).append(' ')
+				.append(method).append(' ').append(url)
+				.append(" status=").append(status)
+				.append(" latency=").append(TimeUnit.NANOSECONDS.toMicros(latencyNanos) / 1000.0).append("ms");
+		if (error != null) {
+			sb.append(" error=").append(error);
+		}
+		if (circuitBreakerState != null) {
+			sb.append(" circuitBreaker=").append(circuitBreakerState);
+			if (bufferedCalls > 0 || notPermittedCalls > 0) {
+				sb.append("(failureRate=").append(failureRate)
+						.append(", buffered=").append(bufferedCalls)
+						.append(", failed=").append(failedCalls)
+						.append(", notPermitted=").append(notPermittedCalls).append(')');
+			}
+		}
+		if (bulkheadQueueDepth >= 0) {
+			sb.append(" bulkhead(queue=").append(bulkheadQueueDepth);
+			if (bulkheadThreadPoolSize >= 0) {
+				sb.append(", threads=").append(bulkheadThreadPoolSize);
+			}
+			sb.append(')');
+		}
+		if (traceId != 0) {
+			sb.append(" trace=").append(Long.toHexString(traceId));
+		}
+		return sb.toString();
+	}
+}
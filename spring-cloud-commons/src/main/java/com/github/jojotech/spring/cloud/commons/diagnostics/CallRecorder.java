@@ -0,0 +1,227 @@
+package com.github.jojotech.spring.cloud.commons.diagnostics;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.github.resilience4j.bulkhead.ThreadPoolBulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 调用诊断记录：每个线程一个预先分配好的固定大小的环形数组，Feign 与 WebClient 每次调用覆盖其中一条记录，
+ * 平时不输出日志，只在调用失败或者重试的时候把当前线程还没有输出过的记录输出到日志，断路器打开的时候输出所有线程中这个断路器的记录，
+ * 也可以通过 actuator 端点 callrecords 随时查看所有线程的记录
+ * <ul>
+ *     <li>记录一次调用只是对当前线程的数组元素做几次字段赋值，不分配内存，不加锁</li>
+ *     <li>每个线程输出日志有最小间隔，失败风暴的时候不会每次失败都输出，间隔内没有输出的记录留给下一次输出</li>
+ *     <li>线程结束之后它的记录在下一次查看或者有新线程加入的时候清理</li>
+ * </ul>
+ */
+@Log4j2
+public class CallRecorder {
+	private final boolean enabled;
+	private final int mask;
+	private final long dumpIntervalNanos;
+	private final ThreadLocal<Ring> rings = ThreadLocal.withInitial(this::newRing);
+	//所有线程的记录，给 actuator 端点使用
+	private final Queue<Ring> allRings = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param capacity 每个线程保留的记录条数，会向上取整到 2 的幂
+	 * @param dumpIntervalMillis 每个线程输出日志的最小间隔
+	 */
+	public CallRecorder(boolean enabled, int capacity, long dumpIntervalMillis) {
+		this.enabled = enabled;
+		int size = Integer.highestOneBit(Math.max(capacity, 1) - 1) << 1;
+		this.mask = Math.max(size, 1) - 1;
+		this.dumpIntervalNanos = TimeUnit.MILLISECONDS.toNanos(dumpIntervalMillis);
+	}
+
+	private Ring newRing() {
+		allRings.removeIf(Ring::isDead);
+		Ring ring = new Ring(Thread.currentThread(), mask + 1);
+		allRings.add(ring);
+		return ring;
+	}
+
+	/**
+	 * 记录当前线程的一次调用
+	 * @param url 调用过程中已经存在的 url 对象（String 或者 URI），输出的时候才转换成字符串
+	 * @param status http 响应码，没有响应的时候为 -1
+	 * @param error 调用抛出的异常，没有则为 null
+	 * @param circuitBreaker 调用使用的断路器，可以为 null
+	 * @param threadPoolBulkhead 调用使用的线程池隔离，可以为 null
+	 * @param traceId 链路 id，没有则为 0
+	 * @return 这次调用是否失败（有异常或者响应码大于等于 500）
+	 */
+	public boolean record(String client, String instance, String method, Object url, int status, Throwable error,
+			long latencyNanos, CircuitBreaker circuitBreaker, ThreadPoolBulkhead threadPoolBulkhead, long traceId) {
+		boolean failed = error != null || status >= 500;
+		if (!enabled) {
+			return failed;
+		}
+		Ring ring = rings.get();
+		long index = ring.count++;
+		CallRecord record = ring.records[(int) (index & mask)];
+		record.beginWrite(index);
+		record.set(System.currentTimeMillis(), latencyNanos, client, instance, method, url, status, error, traceId);
+		if (circuitBreaker == null) {
+			record.setCircuitBreaker(null, null, 0, 0, 0, 0);
+		} else if (failed) {
+			CircuitBreaker.Metrics metrics = circuitBreaker.getMetrics();
+			record.setCircuitBreaker(circuitBreaker.getName(), circuitBreaker.getState(), metrics.getFailureRate(),
+					metrics.getNumberOfBufferedCalls(), metrics.getNumberOfFailedCalls(), metrics.getNumberOfNotPermittedCalls());
+		} else {
+			record.setCircuitBreaker(circuitBreaker.getName(), circuitBreaker.getState(), 0, 0, 0, 0);
+		}
+		if (threadPoolBulkhead == null || !failed) {
+			record.setBulkhead(-1, -1);
+		} else {
+			ThreadPoolBulkhead.Metrics metrics = threadPoolBulkhead.getMetrics();
+			//排队数与线程池大小都需要获取锁（ArrayBlockingQueue.size 与 ThreadPoolExecutor.getPoolSize），只在失败的时候获取
+			record.setBulkhead(metrics.getQueueDepth(), metrics.getThreadPoolSize());
+		}
+		record.endWrite();
+		return failed;
+	}
+
+	/**
+	 * 把当前线程还没有输出过的记录输出到日志，距离上次输出不到最小间隔的时候不输出
+	 * @param reason 输出的原因，例如调用失败，重试
+	 */
+	public void dump(String reason) {
+		if (!enabled) {
+			return;
+		}
+		Ring ring = rings.get();
+		long now = System.nanoTime();
+		if (ring.lastDump != 0 && now - ring.lastDump < dumpIntervalNanos) {
+			return;
+		}
+		List<CallRecord> records = ring.snapshot(ring.dumped);
+		if (records.isEmpty()) {
+			return;
+		}
+		ring.lastDump = now;
+		ring.dumped = ring.count;
+		StringBuilder sb = new StringBuilder();
+		for (CallRecord record : records) {
+			sb.append(System.lineSeparator()).append('\t').append(record);
+		}
+		log.warn("{}, recent calls of thread {}:{}", reason, ring.threadName, sb);
+	}
+
+	/**
+	 * 输出所有线程中使用了这个断路器的记录，断路器打开的时候使用。
+	 * 状态变化的事件在调用断路器的线程上发布，这个线程不一定是记录调用的线程（例如 Feign 在线程池隔离的线程上调用断路器，
+	 * 在调用线程上记录），所以不能只输出当前线程的记录。
+	 * 不影响各个线程自己的输出进度与间隔，断路器打开本身有等待时间，不会频繁输出
+	 */
+	public void dumpCircuitBreaker(String circuitBreakerName, String reason) {
+		if (!enabled) {
+			return;
+		}
+		List<String> records = circuitBreakerRecords(circuitBreakerName);
+		if (records.isEmpty()) {
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String record : records) {
+			sb.append(System.lineSeparator()).append('\t').append(record);
+		}
+		log.warn("{}, recent calls of the circuit breaker:{}", reason, sb);
+	}
+
+	/**
+	 * @return 所有存活线程中使用了这个断路器的记录，带上线程名称
+	 */
+	List<String> circuitBreakerRecords(String circuitBreakerName) {
+		List<String> result = new ArrayList<>();
+		Iterator<Ring> iterator = allRings.iterator();
+		while (iterator.hasNext()) {
+			Ring ring = iterator.next();
+			if (ring.isDead()) {
+				iterator.remove();
+				continue;
+			}
+			for (CallRecord record : ring.snapshot(0)) {
+				if (circuitBreakerName.equals(record.getCircuitBreakerName())) {
+					result.add(ring.threadName + " " + record);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return 所有存活线程的所有记录，按照线程名称分组，每个线程内按照时间排序
+	 */
+	public Map<String, List<String>> snapshot() {
+		Map<String, List<String>> result = new LinkedHashMap<>();
+		Iterator<Ring> iterator = allRings.iterator();
+		while (iterator.hasNext()) {
+			Ring ring = iterator.next();
+			if (ring.isDead()) {
+				iterator.remove();
+				continue;
+			}
+			List<String> records = new ArrayList<>();
+			for (CallRecord record : ring.snapshot(0)) {
+				records.add(record.toString());
+			}
+			if (!records.isEmpty()) {
+				result.put(ring.threadName + "#" + ring.threadId, records);
+			}
+		}
+		return result;
+	}
+
+	private static class Ring {
+		private final WeakReference<Thread> thread;
+		private final String threadName;
+		private final long threadId;
+		private final CallRecord[] records;
+		//以下字段只有所属线程读写
+		private long count;
+		private long dumped;
+		private long lastDump;
+
+		private Ring(Thread thread, int capacity) {
+			this.thread = new WeakReference<>(thread);
+			this.threadName = thread.getName();
+			this.threadId = thread.getId();
+			this.records = new CallRecord[capacity];
+			for (int i = 0; i < capacity; i++) {
+				records[i] = new CallRecord();
+			}
+		}
+
+		private boolean isDead() {
+			Thread t = thread.get();
+			return t == null || !t.isAlive();
+		}
+
+		/**
+		 * @param from 只返回序号大于等于这个值的记录
+		 */
+		private List<CallRecord> snapshot(long from) {
+			List<CallRecord> snapshot = new ArrayList<>(records.length);
+			for (CallRecord record : records) {
+				CallRecord copy = record.copy();
+				if (copy != null && copy.getIndex() >= from) {
+					snapshot.add(copy);
+				}
+			}
+			snapshot.sort(Comparator.comparingLong(CallRecord::getIndex));
+			return snapshot;
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.github.jojotech.spring.cloud.commons.diagnostics;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+/**
+ * 随时查看所有线程最近的调用记录：/actuator/callrecords
+ */
+@Endpoint(id = "callrecords")
+public class CallRecorderEndpoint {
+	private final CallRecorder callRecorder;
+
+	public CallRecorderEndpoint(CallRecorder callRecorder) {
+		this.callRecorder = callRecorder;
+	}
+
+	@ReadOperation
+	public Map<String, List<String>> callRecords() {
+		return callRecorder.snapshot();
+	}
+}
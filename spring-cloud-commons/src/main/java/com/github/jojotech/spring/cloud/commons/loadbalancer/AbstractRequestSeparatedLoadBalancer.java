@@ -0,0 +1,141 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import brave.Span;
+import brave.Tracer;
+import com.github.jojotech.spring.cloud.commons.config.LoadBalancerConfigurationProperties.LoadBalancerProperties;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import com.google.common.annotations.VisibleForTesting;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Mono;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+/**
+ * 同一个请求（包括重试）之间共享调用记录的负载均衡器基类
+ * 负责记录同一个请求已经调用过的网段，具体选择哪个实例由子类实现
+ * 调用记录保存在跟随请求传递的 {@link LoadBalancerRequestState} 中，而不是以 traceId 为 key 的全局缓存
+ */
+//一定必须是实现ReactorServiceInstanceLoadBalancer
+//而不是ReactorLoadBalancer<ServiceInstance>
+//因为注册的时候是ReactorServiceInstanceLoadBalancer
+@Log4j2
+public abstract class AbstractRequestSeparatedLoadBalancer implements ReactorServiceInstanceLoadBalancer {
+	//滑动窗口内的调用次数少于这个值的时候失败率当作 0，调用很少的时候一次失败就会让失败率相差很多
+	protected static final long FAILED_RATIO_MIN_REQUESTS = 10;
+	//失败率相差不到这个值的时候当作相同，与之前保留两位小数一样忽略过小的差异
+	protected static final double FAILED_RATIO_TOLERANCE = 0.01;
+	private final ServiceInstanceListSupplier serviceInstanceListSupplier;
+	//目前记录这个只为了兼容之前的单元测试（调用次数测试）
+	private final LongAdder chosenCount = new LongAdder();
+	protected final String serviceId;
+	protected final Tracer tracer;
+	protected final ServiceInstanceMetrics serviceInstanceMetrics;
+	private final int ipv4PrefixLength;
+	private final int ipv6PrefixLength;
+	//实例列表没有变化的时候复用同一个网段索引
+	private volatile SubnetIndex subnetIndex;
+	private final SlowStart slowStart;
+
+	@VisibleForTesting
+	public long getChosenCount() {
+		return chosenCount.sum();
+	}
+
+	protected AbstractRequestSeparatedLoadBalancer(ServiceInstanceListSupplier serviceInstanceListSupplier, String serviceId, Tracer tracer, ServiceInstanceMetrics serviceInstanceMetrics, LoadBalancerProperties loadBalancerProperties) {
+		SubnetIndex.checkPrefixLength(loadBalancerProperties.getIpv4PrefixLength(), loadBalancerProperties.getIpv6PrefixLength());
+		this.serviceInstanceListSupplier = serviceInstanceListSupplier;
+		this.serviceId = serviceId;
+		this.tracer = tracer;
+		this.serviceInstanceMetrics = serviceInstanceMetrics;
+		this.ipv4PrefixLength = loadBalancerProperties.getIpv4PrefixLength();
+		this.ipv6PrefixLength = loadBalancerProperties.getIpv6PrefixLength();
+		this.slowStart = new SlowStart(loadBalancerProperties);
+	}
+
+	@Override
+	public Mono<Response<ServiceInstance>> choose(Request request) {
+		Span span = tracer.currentSpan();
+		//同步调用（OpenFeign）的请求状态绑定在调用 choose 的线程上，必须在这里取出来
+		LoadBalancerRequestState threadState = LoadBalancerRequestState.current();
+		return Mono.deferContextual(contextView -> {
+			//响应式调用（WebClient）的请求状态在 Reactor Context 中
+			LoadBalancerRequestState contextState = contextView.getOrDefault(LoadBalancerRequestState.CONTEXT_KEY, threadState);
+			//没有任何请求上下文，当作一个单独的请求
+			LoadBalancerRequestState state = contextState != null ? contextState : new LoadBalancerRequestState();
+			return serviceInstanceListSupplier.get().next()
+					.map(serviceInstances -> {
+						//保持 span 和调用 choose 的 span 一样
+						try (Tracer.SpanInScope cleared = tracer.withSpanInScope(span)) {
+							return getInstanceResponse(state, serviceInstances);
+						}
+					});
+		});
+	}
+
+	@VisibleForTesting
+	public Response<ServiceInstance> getInstanceResponse(LoadBalancerRequestState state, List<ServiceInstance> serviceInstances) {
+		if (serviceInstances.isEmpty()) {
+			log.warn("No servers available for service: " + this.serviceId);
+			return new EmptyResponse();
+		}
+		SubnetIndex subnetIndex = getSubnetIndex(serviceInstances);
+		int selected = selectIndex(serviceInstances, subnetIndex, state.getCalledSubnets(), slowStart.getRamp(serviceInstances));
+		//记录本次返回的网段
+		subnetIndex.markCalled(selected, state);
+		chosenCount.increment();
+		ServiceInstance serviceInstance = serviceInstances.get(selected);
+		serviceInstanceMetrics.recordServiceInstanceChosen(serviceInstance);
+		return new DefaultResponse(serviceInstance);
+	}
+
+	/**
+	 * 实例列表是不可变的，并且上游（EventDrivenServiceInstanceListSupplier 等）在实例没有变化的时候返回的是同一个列表，
+	 * 所以只在列表变化的时候重新解析网段
+	 */
+	private SubnetIndex getSubnetIndex(List<ServiceInstance> serviceInstances) {
+		SubnetIndex current = subnetIndex;
+		if (current == null || !current.isBuiltFrom(serviceInstances)) {
+			//并发构建也没关系，结果是一样的
+			current = new SubnetIndex(serviceInstances, ipv4PrefixLength, ipv6PrefixLength);
+			subnetIndex = current;
+		}
+		return current;
+	}
+
+	/**
+	 * 从非空的实例列表中选出本次调用的实例下标
+	 * @param serviceInstances 实例列表，不能修改
+	 * @param subnetIndex 实例列表对应的网段索引
+	 * @param calledSubnets 这个请求之前已经调用过的网段，通过 {@link SubnetIndex#isCalled(int, long[])} 判断
+	 * @param ramp 实例列表对应的预热状态，预热中的实例通过 {@link SlowStart.Ramp#getDemotion(int, java.util.concurrent.ThreadLocalRandom)} 按照概率降级
+	 * @return 选中实例的下标
+	 */
+	protected abstract int selectIndex(List<ServiceInstance> serviceInstances, SubnetIndex subnetIndex, long[] calledSubnets, SlowStart.Ramp ramp);
+
+	/**
+	 * 滑动窗口内的失败率，调用次数少于 {@link #FAILED_RATIO_MIN_REQUESTS} 的时候为 0
+	 * @return 失败次数 / 总次数，0 到 1 之间
+	 */
+	protected double getFailedRatio(ServiceInstance serviceInstance) {
+		return serviceInstanceMetrics.getFailedRatio(serviceInstance, FAILED_RATIO_MIN_REQUESTS);
+	}
+
+	/**
+	 * 比较失败率，相差不到 {@link #FAILED_RATIO_TOLERANCE} 的当作相同，交给后面的规则（负载，耗时）决定
+	 */
+	protected static int compareFailedRatio(double failed, double otherFailed) {
+		if (Math.abs(failed - otherFailed) < FAILED_RATIO_TOLERANCE) {
+			return 0;
+		}
+		return failed < otherFailed ? -1 : 1;
+	}
+}
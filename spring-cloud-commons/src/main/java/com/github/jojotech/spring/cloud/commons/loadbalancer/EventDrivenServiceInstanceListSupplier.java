@@ -0,0 +1,151 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.extern.log4j.Log4j2;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+/**
+ * 由服务发现的缓存刷新事件驱动的实例列表，替代按照 TTL 轮询的 CachingServiceInstanceListSupplier
+ * 收到 {@link ServiceInstanceListRefreshNotifier} 的通知后立刻通过 delegate 拉取实例列表，与当前列表对比：
+ * <ul>
+ *     <li>没有变化则保留当前列表，不会通知下游，下游按照列表对象缓存的结果（网段索引，zone 筛选等）继续有效</li>
+ *     <li>有变化则生成新的不可变列表（没有变化的实例保留原来的对象），原子替换后推送给下游</li>
+ * </ul>
+ * 读取的时候只是拿到最新的列表，不会因为缓存过期导致所有请求同时去拉取
+ * 为了防止事件丢失或者服务发现不发布事件，超过 maxStaleness 没有刷新，读取的时候会在后台触发一次刷新，读取本身依然返回当前列表
+ */
+@Log4j2
+public class EventDrivenServiceInstanceListSupplier implements ServiceInstanceListSupplier, DisposableBean {
+	private final ServiceInstanceListSupplier delegate;
+	private final long maxStalenessNanos;
+	private final Disposable registration;
+	//只保留最新的一个列表，新的订阅者立刻拿到最新的列表
+	private final Sinks.Many<List<ServiceInstance>> sink = Sinks.many().replay().latest();
+	//正在拉取实例列表
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+	//拉取过程中又收到了刷新通知，拉取完成后需要再拉取一次
+	private volatile boolean refreshRequested;
+	private volatile List<ServiceInstance> snapshot;
+	private volatile long refreshedAt;
+
+	public EventDrivenServiceInstanceListSupplier(ServiceInstanceListSupplier delegate, ServiceInstanceListRefreshNotifier notifier, Duration maxStaleness) {
+		this.delegate = delegate;
+		this.maxStalenessNanos = maxStaleness.toNanos();
+		this.registration = notifier != null ? notifier.register(this::refresh) : null;
+	}
+
+	@Override
+	public String getServiceId() {
+		return delegate.getServiceId();
+	}
+
+	@Override
+	public Flux<List<ServiceInstance>> get() {
+		if (snapshot == null || System.nanoTime() - refreshedAt > maxStalenessNanos) {
+			refresh();
+		}
+		return sink.asFlux();
+	}
+
+	/**
+	 * 在后台拉取实例列表，同一时刻最多只有一个拉取
+	 */
+	public void refresh() {
+		refreshRequested = true;
+		if (!refreshing.compareAndSet(false, true)) {
+			return;
+		}
+		refreshRequested = false;
+		delegate.get().next().subscribe(
+				this::apply,
+				throwable -> {
+					log.error("refresh service instances of {} failed", getServiceId(), throwable);
+					fetched();
+				},
+				this::fetched
+		);
+	}
+
+	private void fetched() {
+		//第一次拉取失败，也需要给下游一个空列表，否则下游会一直等待
+		if (snapshot == null) {
+			apply(List.of());
+		}
+		refreshing.set(false);
+		if (refreshRequested) {
+			refresh();
+		}
+	}
+
+	private synchronized void apply(List<ServiceInstance> serviceInstances) {
+		List<ServiceInstance> current = snapshot;
+		List<ServiceInstance> updated = applyDelta(current, serviceInstances);
+		refreshedAt = System.nanoTime();
+		if (updated == current) {
+			return;
+		}
+		snapshot = updated;
+		Sinks.EmitResult emitResult = sink.tryEmitNext(updated);
+		if (emitResult.isFailure()) {
+			log.warn("emit service instances of {} failed: {}", getServiceId(), emitResult);
+		}
+	}
+
+	/**
+	 * @return 没有变化则返回 current 本身，否则返回新的不可变列表，没有变化的实例保留 current 中的对象
+	 */
+	static List<ServiceInstance> applyDelta(List<ServiceInstance> current, List<ServiceInstance> fetched) {
+		if (current == null) {
+			return Collections.unmodifiableList(new ArrayList<>(fetched));
+		}
+		Map<String, ServiceInstance> currentByKey = new HashMap<>(current.size() * 2);
+		for (ServiceInstance serviceInstance : current) {
+			currentByKey.put(getKey(serviceInstance), serviceInstance);
+		}
+		boolean changed = current.size() != fetched.size();
+		List<ServiceInstance> updated = new ArrayList<>(fetched.size());
+		for (ServiceInstance serviceInstance : fetched) {
+			ServiceInstance existing = currentByKey.remove(getKey(serviceInstance));
+			if (existing != null && isSameInstance(existing, serviceInstance)) {
+				updated.add(existing);
+			} else {
+				updated.add(serviceInstance);
+				changed = true;
+			}
+		}
+		return changed ? Collections.unmodifiableList(updated) : current;
+	}
+
+	private static String getKey(ServiceInstance serviceInstance) {
+		String instanceId = serviceInstance.getInstanceId();
+		return instanceId != null ? instanceId : serviceInstance.getHost() + ":" + serviceInstance.getPort();
+	}
+
+	private static boolean isSameInstance(ServiceInstance a, ServiceInstance b) {
+		return a.getPort() == b.getPort()
+				&& a.isSecure() == b.isSecure()
+				&& Objects.equals(a.getHost(), b.getHost())
+				&& Objects.equals(a.getMetadata(), b.getMetadata());
+	}
+
+	@Override
+	public void destroy() {
+		if (registration != null) {
+			registration.dispose();
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.github.jojotech.spring.cloud.commons.metric.InstanceKey;
+import com.github.jojotech.spring.cloud.commons.metric.InstanceStats;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetricsExporter;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkhead;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import lombok.Data;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+
+/**
+ * 回收已经下线的实例占用的资源：实例指标，实例级别的断路器以及线程池隔离（每个线程池都有自己的线程）
+ * k8s 上每次重启都是新的 ip，这些按照 host:port 创建的资源如果不回收，会随着时间一直增长
+ * <ul>
+ *     <li>定时对比服务发现中所有的实例与 {@link ServiceInstanceMetrics} 中有记录的实例</li>
+ *     <li>实例从服务发现中消失超过 gracePeriod 并且没有正在处理的请求，才回收，防止服务发现短暂抖动导致断路器等状态丢失</li>
+ *     <li>断路器与线程池按照名称匹配：WebClient 的断路器是 host:port，OpenFeign 的断路器是 host:port:方法，线程池是 contextId:host:port</li>
+ * </ul>
+ */
+@Log4j2
+public class InstanceResourceJanitor implements DisposableBean {
+	private final Supplier<DiscoveryClient> discoveryClient;
+	private final ServiceInstanceMetrics serviceInstanceMetrics;
+	private final Supplier<ServiceInstanceMetricsExporter> serviceInstanceMetricsExporter;
+	private final Supplier<CircuitBreakerRegistry> circuitBreakerRegistry;
+	private final Supplier<ThreadPoolBulkheadRegistry> threadPoolBulkheadRegistry;
+	private final long gracePeriodNanos;
+	private final Disposable sweeping;
+	//实例第一次发现不在服务发现中的时间，只在后台检查中读写
+	private final Map<InstanceKey, Long> absentSince = new HashMap<>();
+	private final Reclaimed total = new Reclaimed();
+
+	public InstanceResourceJanitor(Supplier<DiscoveryClient> discoveryClient,
+			ServiceInstanceMetrics serviceInstanceMetrics,
+			Supplier<ServiceInstanceMetricsExporter> serviceInstanceMetricsExporter,
+			Supplier<CircuitBreakerRegistry> circuitBreakerRegistry,
+			Supplier<ThreadPoolBulkheadRegistry> threadPoolBulkheadRegistry,
+			Duration gracePeriod, Duration interval) {
+		this(discoveryClient, serviceInstanceMetrics, serviceInstanceMetricsExporter, circuitBreakerRegistry, threadPoolBulkheadRegistry,
+				gracePeriod, interval, Schedulers.parallel());
+	}
+
+	InstanceResourceJanitor(Supplier<DiscoveryClient> discoveryClient,
+			ServiceInstanceMetrics serviceInstanceMetrics,
+			Supplier<ServiceInstanceMetricsExporter> serviceInstanceMetricsExporter,
+			Supplier<CircuitBreakerRegistry> circuitBreakerRegistry,
+			Supplier<ThreadPoolBulkheadRegistry> threadPoolBulkheadRegistry,
+			Duration gracePeriod, Duration interval, Scheduler scheduler) {
+		this.discoveryClient = discoveryClient;
+		this.serviceInstanceMetrics = serviceInstanceMetrics;
+		this.serviceInstanceMetricsExporter = serviceInstanceMetricsExporter;
+		this.circuitBreakerRegistry = circuitBreakerRegistry;
+		this.threadPoolBulkheadRegistry = threadPoolBulkheadRegistry;
+		this.gracePeriodNanos = gracePeriod.toNanos();
+		long intervalMillis = interval.toMillis();
+		this.sweeping = scheduler.schedulePeriodically(this::sweep, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 后台定时检查，同一时刻只会有一个检查在执行
+	 * @return 本次回收的资源
+	 */
+	synchronized Reclaimed sweep() {
+		Reclaimed reclaimed = new Reclaimed();
+		try {
+			Set<String> alive = getAliveInstances();
+			if (alive.isEmpty()) {
+				//服务发现还没有拉取到实例，或者拉取失败，这时候不能认为所有实例都下线了
+				return reclaimed;
+			}
+			long now = System.nanoTime();
+			List<InstanceStats> expired = new ArrayList<>();
+			Set<InstanceKey> tracked = new HashSet<>();
+			for (InstanceStats instanceStats : serviceInstanceMetrics.getAllStats()) {
+				InstanceKey key = instanceStats.getKey();
+				tracked.add(key);
+				if (alive.contains(key.toString())) {
+					absentSince.remove(key);
+					continue;
+				}
+				long since = absentSince.computeIfAbsent(key, k -> now);
+				if (now - since >= gracePeriodNanos && instanceStats.getCalling() == 0) {
+					expired.add(instanceStats);
+				}
+			}
+			absentSince.keySet().retainAll(tracked);
+			if (expired.isEmpty()) {
+				return reclaimed;
+			}
+			Set<String> expiredKeys = new HashSet<>();
+			ServiceInstanceMetricsExporter exporter = serviceInstanceMetricsExporter.get();
+			for (InstanceStats instanceStats : expired) {
+				InstanceKey key = instanceStats.getKey();
+				expiredKeys.add(key.toString());
+				absentSince.remove(key);
+				if (exporter != null) {
+					exporter.remove(key);
+				}
+				if (serviceInstanceMetrics.remove(key) != null) {
+					reclaimed.instanceMetrics++;
+				}
+			}
+			reclaimCircuitBreakers(expiredKeys, reclaimed);
+			reclaimThreadPoolBulkheads(expiredKeys, reclaimed);
+			total.add(reclaimed);
+			log.info("reclaimed resources of offline instances {}: {}, total: {}", expiredKeys, reclaimed, total);
+		} catch (Throwable e) {
+			//定时任务抛出异常会导致之后不再执行
+			log.error("reclaim resources of offline instances failed", e);
+		}
+		return reclaimed;
+	}
+
+	private Set<String> getAliveInstances() {
+		Set<String> alive = new HashSet<>();
+		DiscoveryClient client = discoveryClient.get();
+		if (client == null) {
+			return alive;
+		}
+		for (String service : client.getServices()) {
+			for (ServiceInstance serviceInstance : client.getInstances(service)) {
+				alive.add(serviceInstance.getHost() + ":" + serviceInstance.getPort());
+			}
+		}
+		return alive;
+	}
+
+	private void reclaimCircuitBreakers(Set<String> expiredKeys, Reclaimed reclaimed) {
+		CircuitBreakerRegistry registry = circuitBreakerRegistry.get();
+		if (registry == null) {
+			return;
+		}
+		for (CircuitBreaker circuitBreaker : registry.getAllCircuitBreakers()) {
+			if (belongsTo(circuitBreaker.getName(), expiredKeys)) {
+				registry.remove(circuitBreaker.getName());
+				reclaimed.circuitBreakers++;
+			}
+		}
+	}
+
+	private void reclaimThreadPoolBulkheads(Set<String> expiredKeys, Reclaimed reclaimed) {
+		ThreadPoolBulkheadRegistry registry = threadPoolBulkheadRegistry.get();
+		if (registry == null) {
+			return;
+		}
+		for (ThreadPoolBulkhead threadPoolBulkhead : registry.getAllBulkheads()) {
+			if (!belongsTo(threadPoolBulkhead.getName(), expiredKeys)) {
+				continue;
+			}
+			registry.remove(threadPoolBulkhead.getName());
+			reclaimed.threadPoolBulkheads++;
+			reclaimed.threads += threadPoolBulkhead.getMetrics().getThreadPoolSize();
+			try {
+				//关闭线程池，已经提交的任务会执行完
+				threadPoolBulkhead.close();
+			} catch (Exception e) {
+				log.warn("close thread pool bulkhead {} failed", threadPoolBulkhead.getName(), e);
+			}
+		}
+	}
+
+	/**
+	 * 名称是 host:port，或者以 host:port: 开头，或者以 :host:port 结尾
+	 */
+	static boolean belongsTo(String name, Set<String> instanceKeys) {
+		for (String instanceKey : instanceKeys) {
+			if (name.equals(instanceKey)
+					|| (name.startsWith(instanceKey) && name.charAt(instanceKey.length()) == ':')
+					|| (name.endsWith(instanceKey) && name.length() > instanceKey.length()
+					&& name.charAt(name.length() - instanceKey.length() - 1) == ':')) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return 启动以来总共回收的资源
+	 */
+	public synchronized Reclaimed getTotal() {
+		Reclaimed snapshot = new Reclaimed();
+		snapshot.add(total);
+		return snapshot;
+	}
+
+	@Override
+	public void destroy() {
+		sweeping.dispose();
+	}
+
+	@Data
+	public static class Reclaimed {
+		private int instanceMetrics;
+		private int circuitBreakers;
+		private int threadPoolBulkheads;
+		//线程池中回收的线程数
+		private int threads;
+
+		private void add(Reclaimed other) {
+			instanceMetrics += other.instanceMetrics;
+			circuitBreakers += other.circuitBreakers;
+			threadPoolBulkheads += other.threadPoolBulkheads;
+			threads += other.threads;
+		}
+	}
+}
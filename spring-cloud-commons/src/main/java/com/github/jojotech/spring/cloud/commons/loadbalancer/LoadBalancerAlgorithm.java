@@ -0,0 +1,23 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+/**
+ * 负载均衡算法，可以通过 loadbalancer.configs.微服务名称.algorithm 针对每个微服务配置
+ */
+public enum LoadBalancerAlgorithm {
+	/**
+	 * 遍历所有实例，选出没调用过的网段中错误率最低、正在处理请求最少的实例
+	 * @see RoundRobinWithRequestSeparatedPositionLoadBalancer
+	 */
+	ROUND_ROBIN,
+	/**
+	 * 随机选取两个实例，选其中错误率更低、正在处理请求更少的实例
+	 * @see PowerOfTwoChoicesLoadBalancer
+	 */
+	POWER_OF_TWO_CHOICES,
+	/**
+	 * 选择 耗时峰值 EWMA × (正在处理的请求数 + 1) 最小的实例
+	 * @see PeakEwmaLoadBalancer
+	 */
+	PEAK_EWMA,
+	;
+}
@@ -0,0 +1,94 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.util.Arrays;
+
+import reactor.util.context.Context;
+
+/**
+ * 一个请求（包括它的所有重试）在负载均衡器中的状态，目前记录的是这个请求已经调用过的网段（参考 {@link SubnetIndex}）
+ * 这个状态跟随请求本身传递，请求结束就可以被回收，不再需要以 traceId 为 key 的全局缓存：
+ * <ul>
+ *     <li>响应式调用（WebClient）通过 Reactor Context 传递，key 为 {@link #CONTEXT_KEY}，在重试之外放入，所有重试共享</li>
+ *     <li>同步调用（OpenFeign）通过 {@link #open()} 绑定到当前线程，在重试之外打开，所有重试共享</li>
+ * </ul>
+ * 没有任何请求上下文的时候，每次选择都当作一个新的请求
+ */
+public class LoadBalancerRequestState {
+	public static final String CONTEXT_KEY = LoadBalancerRequestState.class.getName();
+	private static final ThreadLocal<LoadBalancerRequestState> CURRENT = new ThreadLocal<>();
+
+	private static final long[] EMPTY = new long[0];
+
+	//已经调用过的网段，每 3 个 long 为一组：地址类型，网段高 64 位，网段低 64 位
+	//一个请求调用的次数很少（一般就是重试次数），所以直接用数组，新增的时候复制
+	//同一个请求的重试是串行的，但是可能发生在不同线程，所以用 volatile 保证可见性
+	private volatile long[] calledSubnets = EMPTY;
+
+	/**
+	 * @return 当前线程绑定的请求状态，没有则返回 null
+	 */
+	public static LoadBalancerRequestState current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * 在当前线程开始一个新的请求，返回的 Scope 关闭的时候恢复之前绑定的状态
+	 */
+	public static Scope open() {
+		return open(new LoadBalancerRequestState());
+	}
+
+	/**
+	 * 将指定的请求状态绑定到当前线程，一般用于请求跨线程继续执行
+	 */
+	public static Scope open(LoadBalancerRequestState state) {
+		LoadBalancerRequestState previous = CURRENT.get();
+		CURRENT.set(state);
+		return new Scope(previous);
+	}
+
+	/**
+	 * 如果 Reactor Context 中还没有请求状态，则放入一个新的请求状态
+	 */
+	public static Context putIfAbsent(Context context) {
+		return context.hasKey(CONTEXT_KEY) ? context : context.put(CONTEXT_KEY, new LoadBalancerRequestState());
+	}
+
+	/**
+	 * @return 已经调用过的网段，不能修改
+	 */
+	public long[] getCalledSubnets() {
+		return calledSubnets;
+	}
+
+	synchronized void addCalledSubnet(long family, long high, long low) {
+		long[] current = calledSubnets;
+		for (int i = 0; i < current.length; i += 3) {
+			if (current[i] == family && current[i + 1] == high && current[i + 2] == low) {
+				return;
+			}
+		}
+		long[] updated = Arrays.copyOf(current, current.length + 3);
+		updated[current.length] = family;
+		updated[current.length + 1] = high;
+		updated[current.length + 2] = low;
+		calledSubnets = updated;
+	}
+
+	public static class Scope implements AutoCloseable {
+		private final LoadBalancerRequestState previous;
+
+		private Scope(LoadBalancerRequestState previous) {
+			this.previous = previous;
+		}
+
+		@Override
+		public void close() {
+			if (previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(previous);
+			}
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.github.jojotech.spring.cloud.commons.config.LoadBalancerConfigurationProperties.OutlierEjectionProperties;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.DelegatingServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+/**
+ * 异常实例摘除：连续失败次数或者失败率超过阈值的实例，暂时从实例列表中去掉
+ * 之前异常实例只是在负载均衡的时候排在后面，每次选择依然需要计算它的指标，并且在其他实例看起来差不多的时候重试依然可能落到它上面
+ * <ul>
+ *     <li>是否摘除在后台定时计算，不在 choose() 中计算，choose() 只是拿到已经去掉摘除实例的列表</li>
+ *     <li>摘除时间从 baseEjectionTime 开始，同一个实例每次被摘除时间翻倍，不超过 maxEjectionTime</li>
+ *     <li>被摘除的实例不超过 maxEjectionPercent，防止大面积故障时把所有实例都摘除</li>
+ * </ul>
+ * 没有被摘除的实例的时候直接返回上游的列表，有的时候按照上游列表缓存筛选结果
+ */
+@Log4j2
+public class OutlierEjectionServiceInstanceListSupplier extends DelegatingServiceInstanceListSupplier implements DisposableBean {
+	private final ServiceInstanceMetrics serviceInstanceMetrics;
+	private final OutlierEjectionProperties outlierEjectionProperties;
+	private final Disposable evaluation;
+	//最近一次上游返回的实例列表，后台检查的时候使用
+	private volatile List<ServiceInstance> upstream = List.of();
+	//每个实例的摘除记录，只在后台检查中读写
+	private final Map<String, Ejection> ejections = new HashMap<>();
+	//当前被摘除的实例，每次检查之后整体替换
+	private volatile Set<String> ejected = Set.of();
+	private volatile Filtered filtered;
+
+	public OutlierEjectionServiceInstanceListSupplier(ServiceInstanceListSupplier delegate,
+			ServiceInstanceMetrics serviceInstanceMetrics, OutlierEjectionProperties outlierEjectionProperties) {
+		this(delegate, serviceInstanceMetrics, outlierEjectionProperties, Schedulers.parallel());
+	}
+
+	OutlierEjectionServiceInstanceListSupplier(ServiceInstanceListSupplier delegate,
+			ServiceInstanceMetrics serviceInstanceMetrics, OutlierEjectionProperties outlierEjectionProperties, Scheduler scheduler) {
+		super(delegate);
+		this.serviceInstanceMetrics = serviceInstanceMetrics;
+		this.outlierEjectionProperties = outlierEjectionProperties;
+		long interval = outlierEjectionProperties.getInterval().toMillis();
+		this.evaluation = scheduler.schedulePeriodically(this::evaluate, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public Flux<List<ServiceInstance>> get() {
+		return getDelegate().get().map(this::filter);
+	}
+
+	private List<ServiceInstance> filter(List<ServiceInstance> serviceInstances) {
+		upstream = serviceInstances;
+		Set<String> currentEjected = ejected;
+		if (currentEjected.isEmpty()) {
+			return serviceInstances;
+		}
+		Filtered current = filtered;
+		if (current != null && current.upstream == serviceInstances && current.ejected == currentEjected) {
+			return current.result;
+		}
+		List<ServiceInstance> result = new ArrayList<>(serviceInstances.size());
+		for (ServiceInstance serviceInstance : serviceInstances) {
+			if (!currentEjected.contains(getKey(serviceInstance))) {
+				result.add(serviceInstance);
+			}
+		}
+		result = Collections.unmodifiableList(result);
+		filtered = new Filtered(serviceInstances, currentEjected, result);
+		return result;
+	}
+
+	/**
+	 * 后台定时检查，同一时刻只会有一个检查在执行
+	 */
+	void evaluate() {
+		try {
+			List<ServiceInstance> serviceInstances = upstream;
+			long now = System.nanoTime();
+			int maxEjected = serviceInstances.size() * outlierEjectionProperties.getMaxEjectionPercent() / 100;
+			int ejectedCount = 0;
+			Set<String> present = new HashSet<>(serviceInstances.size() * 2);
+			for (ServiceInstance serviceInstance : serviceInstances) {
+				String key = getKey(serviceInstance);
+				present.add(key);
+				Ejection ejection = ejections.get(key);
+				if (ejection != null && ejection.ejected && ejection.ejectedUntil > now) {
+					ejectedCount++;
+				}
+			}
+			for (ServiceInstance serviceInstance : serviceInstances) {
+				String key = getKey(serviceInstance);
+				Ejection ejection = ejections.get(key);
+				if (ejection != null && ejection.ejected) {
+					if (ejection.ejectedUntil > now) {
+						continue;
+					}
+					//摘除时间到了，重新加入
+					ejection.ejected = false;
+					ejection.returnedAt = now;
+					serviceInstanceMetrics.resetConsecutiveFailures(serviceInstance);
+					log.info("service instance {} returned after ejection", key);
+					continue;
+				}
+				if (isOutlier(serviceInstance)) {
+					if (ejectedCount >= maxEjected) {
+						log.warn("service instance {} is an outlier, but already ejected {} instances, max is {}", key, ejectedCount, maxEjected);
+						continue;
+					}
+					if (ejection == null) {
+						ejection = new Ejection();
+						ejections.put(key, ejection);
+					}
+					ejection.count++;
+					long ejectionNanos = Math.min(
+							outlierEjectionProperties.getBaseEjectionTime().toNanos() << Math.min(ejection.count - 1, 20),
+							outlierEjectionProperties.getMaxEjectionTime().toNanos());
+					ejection.ejected = true;
+					ejection.ejectedUntil = now + ejectionNanos;
+					ejectedCount++;
+					log.warn("eject service instance {} for {}ms, ejected {} times", key, TimeUnit.NANOSECONDS.toMillis(ejectionNanos), ejection.count);
+				} else if (ejection != null && now - ejection.returnedAt > outlierEjectionProperties.getBaseEjectionTime().toNanos()) {
+					//重新加入之后一段时间没有再被摘除，降低摘除次数，下次摘除的时间也相应缩短
+					ejection.count--;
+					ejection.returnedAt = now;
+					if (ejection.count <= 0) {
+						ejections.remove(key);
+					}
+				}
+			}
+			//已经下线的实例不再记录
+			ejections.keySet().retainAll(present);
+			Set<String> updated = new HashSet<>();
+			ejections.forEach((key, ejection) -> {
+				if (ejection.ejected) {
+					updated.add(key);
+				}
+			});
+			if (!updated.equals(ejected)) {
+				ejected = Set.copyOf(updated);
+			}
+		} catch (Throwable e) {
+			//定时任务抛出异常会导致之后不再执行
+			log.error("evaluate outlier ejection failed", e);
+		}
+	}
+
+	private boolean isOutlier(ServiceInstance serviceInstance) {
+		int consecutiveFailures = outlierEjectionProperties.getConsecutiveFailures();
+		if (consecutiveFailures > 0 && serviceInstanceMetrics.getConsecutiveFailures(serviceInstance) >= consecutiveFailures) {
+			return true;
+		}
+		double failedRatioThreshold = outlierEjectionProperties.getFailedRatioThreshold();
+		//调用次数不够的时候失败率为 0，一次读取滑动窗口
+		return failedRatioThreshold > 0
+				&& serviceInstanceMetrics.getFailedRatio(serviceInstance, outlierEjectionProperties.getFailedRatioMinRequests()) >= failedRatioThreshold;
+	}
+
+	private static String getKey(ServiceInstance serviceInstance) {
+		//与 ServiceInstanceMetrics 中的 key 保持一致
+		return serviceInstance.getHost() + ":" + serviceInstance.getPort();
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		evaluation.dispose();
+		if (getDelegate() instanceof DisposableBean) {
+			((DisposableBean) getDelegate()).destroy();
+		}
+	}
+
+	private static class Ejection {
+		//被摘除的次数，决定下次摘除的时间
+		private int count;
+		private boolean ejected;
+		private long ejectedUntil;
+		private long returnedAt;
+	}
+
+	private static class Filtered {
+		private final List<ServiceInstance> upstream;
+		private final Set<String> ejected;
+		private final List<ServiceInstance> result;
+
+		private Filtered(List<ServiceInstance> upstream, Set<String> ejected, List<ServiceInstance> result) {
+			this.upstream = upstream;
+			this.ejected = ejected;
+			this.result = result;
+		}
+	}
+}
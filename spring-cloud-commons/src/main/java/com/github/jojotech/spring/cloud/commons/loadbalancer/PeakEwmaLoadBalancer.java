@@ -0,0 +1,91 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import brave.Tracer;
+import com.github.jojotech.spring.cloud.commons.config.LoadBalancerConfigurationProperties.LoadBalancerProperties;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+/**
+ * 基于耗时的负载均衡，按照 耗时峰值 EWMA × (正在处理的请求数 + 1) 选择代价最小的实例
+ * 这样变慢但是还在成功返回的实例（例如 GC 频繁的实例）会很快失去大部分流量
+ * 之前已经调用过的网段以及错误率的排序规则与 RoundRobinWithRequestSeparatedPositionLoadBalancer 保持一致，
+ * 错误率优先是为了防止快速失败的实例因为耗时很低反而吸走所有流量
+ */
+public class PeakEwmaLoadBalancer extends AbstractRequestSeparatedLoadBalancer {
+	/**
+	 * 还没有耗时数据但是已经有请求在处理的实例的代价，与 Finagle 的 PeakEwma 一样远大于正常的代价，
+	 * 这样新实例只会被探测一次，等第一个请求返回有了耗时之后再按照耗时分配流量
+	 */
+	static final double PENALTY = Long.MAX_VALUE >> 16;
+
+	public PeakEwmaLoadBalancer(ServiceInstanceListSupplier serviceInstanceListSupplier, String serviceId, Tracer tracer, ServiceInstanceMetrics serviceInstanceMetrics) {
+		this(serviceInstanceListSupplier, serviceId, tracer, serviceInstanceMetrics, new LoadBalancerProperties());
+	}
+
+	public PeakEwmaLoadBalancer(ServiceInstanceListSupplier serviceInstanceListSupplier, String serviceId, Tracer tracer, ServiceInstanceMetrics serviceInstanceMetrics, LoadBalancerProperties loadBalancerProperties) {
+		super(serviceInstanceListSupplier, serviceId, tracer, serviceInstanceMetrics, loadBalancerProperties);
+	}
+
+	@Override
+	protected int selectIndex(List<ServiceInstance> serviceInstances, SubnetIndex subnetIndex, long[] calledSubnets, SlowStart.Ramp ramp) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int size = serviceInstances.size();
+		int selected = -1;
+		int selectedUsed = 0;
+		int selectedWarming = 0;
+		double selectedFailed = 0;
+		double selectedCost = 0;
+		int ties = 0;
+		for (int i = 0; i < size; i++) {
+			//之前已经调用过的网段排后面
+			int used = subnetIndex.isCalled(i, calledSubnets) ? 1 : 0;
+			if (selected >= 0 && used > selectedUsed) {
+				continue;
+			}
+			//预热中的实例按照概率降级
+			int warming = ramp.getDemotion(i, random);
+			if (selected >= 0 && used == selectedUsed && warming > selectedWarming) {
+				continue;
+			}
+			ServiceInstance serviceInstance = serviceInstances.get(i);
+			//当前错误率最少的
+			double failed = getFailedRatio(serviceInstance);
+			int failedCompare = selected < 0 ? 0 : compareFailedRatio(failed, selectedFailed);
+			if (selected >= 0 && used == selectedUsed && warming == selectedWarming && failedCompare > 0) {
+				continue;
+			}
+			//耗时 × (正在处理的请求数 + 1) 最小的
+			double cost = cost(serviceInstanceMetrics.getLatency(serviceInstance), serviceInstanceMetrics.getCalling(serviceInstance));
+			boolean better = selected < 0 || used < selectedUsed
+					|| (used == selectedUsed && (warming < selectedWarming
+					|| (warming == selectedWarming && (failedCompare < 0 || cost < selectedCost))));
+			if (better) {
+				selected = i;
+				selectedUsed = used;
+				selectedWarming = warming;
+				selectedFailed = failed;
+				selectedCost = cost;
+				ties = 1;
+			} else if (cost == selectedCost && random.nextInt(++ties) == 0) {
+				selected = i;
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * 没有耗时数据也没有正在处理的请求的实例代价是 0，会优先被探测；
+	 * 没有耗时数据但是已经有请求在处理的，代价是 PENALTY + 正在处理的请求数，否则新实例在第一个请求返回之前会吸走所有流量
+	 */
+	static double cost(double latency, long calling) {
+		if (latency == 0 && calling > 0) {
+			return PENALTY + calling;
+		}
+		return latency * (calling + 1);
+	}
+}
@@ -0,0 +1,100 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import brave.Tracer;
+import com.github.jojotech.spring.cloud.commons.config.LoadBalancerConfigurationProperties.LoadBalancerProperties;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+/**
+ * 随机选取两个实例，返回其中错误率更低、正在处理请求更少的那个（Power of two choices）
+ * 与 RoundRobinWithRequestSeparatedPositionLoadBalancer 每次都遍历所有实例选出全局最优不同，
+ * 这里选择的开销与实例个数无关，并且不会让所有客户端在同一时刻都涌向同一个最空闲的实例
+ * 同一个请求的重试依然会尽量避开已经调用过的网段
+ */
+public class PowerOfTwoChoicesLoadBalancer extends AbstractRequestSeparatedLoadBalancer {
+	/**
+	 * 每个候选位置随机抽取没调用过网段的实例的次数，抽不到再遍历查找
+	 */
+	private static final int MAX_RANDOM_PICK = 3;
+
+	public PowerOfTwoChoicesLoadBalancer(ServiceInstanceListSupplier serviceInstanceListSupplier, String serviceId, Tracer tracer, ServiceInstanceMetrics serviceInstanceMetrics) {
+		this(serviceInstanceListSupplier, serviceId, tracer, serviceInstanceMetrics, new LoadBalancerProperties());
+	}
+
+	public PowerOfTwoChoicesLoadBalancer(ServiceInstanceListSupplier serviceInstanceListSupplier, String serviceId, Tracer tracer, ServiceInstanceMetrics serviceInstanceMetrics, LoadBalancerProperties loadBalancerProperties) {
+		super(serviceInstanceListSupplier, serviceId, tracer, serviceInstanceMetrics, loadBalancerProperties);
+	}
+
+	@Override
+	protected int selectIndex(List<ServiceInstance> serviceInstances, SubnetIndex subnetIndex, long[] calledSubnets, SlowStart.Ramp ramp) {
+		int size = serviceInstances.size();
+		if (size == 1) {
+			return 0;
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = pick(size, subnetIndex, calledSubnets, random, -1);
+		int second = pick(size, subnetIndex, calledSubnets, random, first);
+		ServiceInstance firstInstance = serviceInstances.get(first);
+		ServiceInstance secondInstance = serviceInstances.get(second);
+		//之前已经调用过的网段排后面
+		int firstUsed = subnetIndex.isCalled(first, calledSubnets) ? 1 : 0;
+		int secondUsed = subnetIndex.isCalled(second, calledSubnets) ? 1 : 0;
+		if (firstUsed != secondUsed) {
+			return firstUsed < secondUsed ? first : second;
+		}
+		//预热中的实例按照概率降级
+		int firstWarming = ramp.getDemotion(first, random);
+		int secondWarming = ramp.getDemotion(second, random);
+		if (firstWarming != secondWarming) {
+			return firstWarming < secondWarming ? first : second;
+		}
+		//当前错误率最少的
+		double firstFailed = getFailedRatio(firstInstance);
+		double secondFailed = getFailedRatio(secondInstance);
+		int failedCompare = compareFailedRatio(firstFailed, secondFailed);
+		if (failedCompare != 0) {
+			return failedCompare < 0 ? first : second;
+		}
+		//当前负载请求最少的，两个候选本身就是随机选的，相同的时候直接用第一个
+		long firstCalling = serviceInstanceMetrics.getCalling(firstInstance);
+		long secondCalling = serviceInstanceMetrics.getCalling(secondInstance);
+		return secondCalling < firstCalling ? second : first;
+	}
+
+	/**
+	 * 随机选取一个不等于 exclude 的实例下标，优先选取没有调用过的网段的实例
+	 */
+	private static int pick(int size, SubnetIndex subnetIndex, long[] calledSubnets, ThreadLocalRandom random, int exclude) {
+		int index = -1;
+		for (int i = 0; i < MAX_RANDOM_PICK; i++) {
+			index = randomIndex(size, random, exclude);
+			if (!subnetIndex.isCalled(index, calledSubnets)) {
+				return index;
+			}
+		}
+		//大部分网段都已经调用过了（一般是重试），从随机位置开始遍历找一个没调用过的网段
+		int offset = random.nextInt(size);
+		for (int i = 0; i < size; i++) {
+			int candidate = (offset + i) % size;
+			if (candidate != exclude && !subnetIndex.isCalled(candidate, calledSubnets)) {
+				return candidate;
+			}
+		}
+		//所有网段都调用过了，就用随机选的
+		return index;
+	}
+
+	private static int randomIndex(int size, ThreadLocalRandom random, int exclude) {
+		if (exclude < 0) {
+			return random.nextInt(size);
+		}
+		//在除 exclude 之外的 size - 1 个实例中随机
+		int index = random.nextInt(size - 1);
+		return index >= exclude ? index + 1 : index;
+	}
+}
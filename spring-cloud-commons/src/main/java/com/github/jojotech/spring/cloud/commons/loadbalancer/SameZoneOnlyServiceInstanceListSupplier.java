@@ -1,5 +1,8 @@
 package com.github.jojotech.spring.cloud.commons.loadbalancer;
 
+import com.github.jojotech.spring.cloud.commons.config.LoadBalancerConfigurationProperties.LoadBalancerProperties;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.loadbalancer.config.LoadBalancerZoneConfig;
 import org.springframework.cloud.loadbalancer.core.DelegatingServiceInstanceListSupplier;
@@ -7,24 +10,49 @@ import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
 import reactor.core.publisher.Flux;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
  * 只返回与当前实例同一个 Zone 的服务实例，不同 zone 之间的服务不互相调用
+ * 配置为 {@link ZoneIsolationMode#TIERED} 的时候，同 zone 实例不够才会按照优先级依次加入其他 zone 的实例
+ * 筛选结果按照上游实例列表缓存，上游列表没有变化（同一个列表对象）的时候直接返回上次的结果，不会重新筛选
  */
-public class SameZoneOnlyServiceInstanceListSupplier extends DelegatingServiceInstanceListSupplier {
+@Log4j2
+public class SameZoneOnlyServiceInstanceListSupplier extends DelegatingServiceInstanceListSupplier implements DisposableBean {
 
     private final String ZONE = "zone";
 
     private final LoadBalancerZoneConfig zoneConfig;
 
+    private final ZoneIsolationMode zoneIsolation;
+
+    private final List<String> zonePreferences;
+
+    private final int zoneFailoverMinInstances;
+
     private String zone;
 
+    /**
+     * 上一次的筛选结果
+     */
+    private volatile Filtered filtered;
+
     public SameZoneOnlyServiceInstanceListSupplier(ServiceInstanceListSupplier delegate,
                                                    LoadBalancerZoneConfig zoneConfig) {
+        this(delegate, zoneConfig, new LoadBalancerProperties());
+    }
+
+    public SameZoneOnlyServiceInstanceListSupplier(ServiceInstanceListSupplier delegate,
+                                                   LoadBalancerZoneConfig zoneConfig,
+                                                   LoadBalancerProperties loadBalancerProperties) {
         super(delegate);
         this.zoneConfig = zoneConfig;
+        this.zoneIsolation = loadBalancerProperties.getZoneIsolation();
+        this.zonePreferences = loadBalancerProperties.getZonePreferences() == null
+                ? List.of() : List.copyOf(loadBalancerProperties.getZonePreferences());
+        this.zoneFailoverMinInstances = loadBalancerProperties.getZoneFailoverMinInstances();
     }
 
     @Override
@@ -33,21 +61,43 @@ public class SameZoneOnlyServiceInstanceListSupplier extends DelegatingServiceIn
     }
 
     private List<ServiceInstance> filteredByZone(List<ServiceInstance> serviceInstances) {
+        Filtered current = filtered;
+        if (current != null && current.upstream == serviceInstances) {
+            return current.result;
+        }
+        //并发筛选也没关系，结果是一样的
+        List<ServiceInstance> result = filter(serviceInstances);
+        filtered = new Filtered(serviceInstances, result);
+        return result;
+    }
+
+    private List<ServiceInstance> filter(List<ServiceInstance> serviceInstances) {
         if (zone == null) {
             zone = zoneConfig.getZone();
         }
-        if (zone != null) {
-            List<ServiceInstance> filteredInstances = new ArrayList<>();
-            for (ServiceInstance serviceInstance : serviceInstances) {
-                String instanceZone = getZone(serviceInstance);
-                if (zone.equalsIgnoreCase(instanceZone)) {
-                    filteredInstances.add(serviceInstance);
+        if (zone == null) {
+            return List.of();
+        }
+        List<ServiceInstance> filteredInstances = new ArrayList<>();
+        addZone(serviceInstances, zone, filteredInstances);
+        if (zoneIsolation == ZoneIsolationMode.TIERED) {
+            int localInstances = filteredInstances.size();
+            for (String preferredZone : zonePreferences) {
+                if (filteredInstances.size() >= zoneFailoverMinInstances) {
+                    break;
+                }
+                if (!zone.equalsIgnoreCase(preferredZone)) {
+                    addZone(serviceInstances, preferredZone, filteredInstances);
                 }
             }
-            if (filteredInstances.size() > 0) {
-                return filteredInstances;
+            if (filteredInstances.size() > localInstances) {
+                log.warn("zone {} only has {} instances, add {} instances from other zones {}",
+                        zone, localInstances, filteredInstances.size() - localInstances, zonePreferences);
             }
         }
+        if (filteredInstances.size() > 0) {
+            return Collections.unmodifiableList(filteredInstances);
+        }
         /**
          * @see ZonePreferenceServiceInstanceListSupplier 在没有相同zone实例的时候返回的是所有实例
          * 我们这里为了实现不同 zone 之间不互相调用需要返回空列表
@@ -55,6 +105,15 @@ public class SameZoneOnlyServiceInstanceListSupplier extends DelegatingServiceIn
         return List.of();
     }
 
+    private void addZone(List<ServiceInstance> serviceInstances, String targetZone, List<ServiceInstance> filteredInstances) {
+        for (ServiceInstance serviceInstance : serviceInstances) {
+            String instanceZone = getZone(serviceInstance);
+            if (targetZone.equalsIgnoreCase(instanceZone)) {
+                filteredInstances.add(serviceInstance);
+            }
+        }
+    }
+
     private String getZone(ServiceInstance serviceInstance) {
         Map<String, String> metadata = serviceInstance.getMetadata();
         if (metadata != null) {
@@ -63,4 +122,23 @@ public class SameZoneOnlyServiceInstanceListSupplier extends DelegatingServiceIn
         return null;
     }
 
+    /**
+     * 只有最外层的 Supplier 是 Bean，需要把销毁传递给内层（例如 EventDrivenServiceInstanceListSupplier 需要取消注册）
+     */
+    @Override
+    public void destroy() throws Exception {
+        if (getDelegate() instanceof DisposableBean) {
+            ((DisposableBean) getDelegate()).destroy();
+        }
+    }
+
+    private static class Filtered {
+        private final List<ServiceInstance> upstream;
+        private final List<ServiceInstance> result;
+
+        private Filtered(List<ServiceInstance> upstream, List<ServiceInstance> result) {
+            this.upstream = upstream;
+            this.result = result;
+        }
+    }
 }
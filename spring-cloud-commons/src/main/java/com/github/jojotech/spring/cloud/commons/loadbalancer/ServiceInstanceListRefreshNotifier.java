@@ -0,0 +1,31 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import reactor.core.Disposable;
+
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+import org.springframework.context.ApplicationListener;
+
+/**
+ * 服务发现的本地缓存刷新之后（Eureka 每次拉取完注册中心就会发布 HeartbeatEvent），通知所有的 {@link EventDrivenServiceInstanceListSupplier} 更新实例列表
+ * HeartbeatEvent 是在主 ApplicationContext 中发布的，不会传递到每个微服务的负载均衡子 ApplicationContext，
+ * 所以这个 Bean 需要注册在主 ApplicationContext 中，子 ApplicationContext 中的 Supplier 向这里注册
+ */
+public class ServiceInstanceListRefreshNotifier implements ApplicationListener<HeartbeatEvent> {
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @return 用于取消注册
+	 */
+	public Disposable register(Runnable listener) {
+		listeners.add(listener);
+		return () -> listeners.remove(listener);
+	}
+
+	@Override
+	public void onApplicationEvent(HeartbeatEvent event) {
+		listeners.forEach(Runnable::run);
+	}
+}
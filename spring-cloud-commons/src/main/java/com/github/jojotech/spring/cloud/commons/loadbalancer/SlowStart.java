@@ -0,0 +1,150 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.github.jojotech.spring.cloud.commons.config.LoadBalancerConfigurationProperties.LoadBalancerProperties;
+import com.netflix.appinfo.LeaseInfo;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.netflix.eureka.EurekaServiceInstance;
+
+/**
+ * 新实例慢启动：刚启动的实例 JIT 还没有预热，在预热时间窗口内它的权重从 minWeight 增长到 1
+ * 预热开始时间按照以下顺序获取：
+ * <ul>
+ *     <li>实例元数据中 metadataKey 对应的时间戳（毫秒）</li>
+ *     <li>Eureka 实例的 UP 时间</li>
+ *     <li>当前客户端第一次看到这个实例的时间，客户端启动时第一次拉取到的实例都认为已经预热完成</li>
+ * </ul>
+ * 权重不直接参与排序，而是在每次选择的时候，预热中的实例以 1 - 权重 的概率被降级到没有预热的实例之后，
+ * 这样它拿到的流量大致与权重成比例，同时依然遵循之前的错误率以及正在处理的请求数排序
+ */
+public class SlowStart {
+	private final long windowMillis;
+	private final SlowStartMode mode;
+	private final double minWeight;
+	private final String metadataKey;
+	//客户端第一次看到实例的时间，只保留当前实例列表中的实例
+	private final Map<String, Long> firstSeen = new HashMap<>();
+	private boolean initialized;
+	private volatile Ramp ramp;
+
+	public SlowStart(LoadBalancerProperties loadBalancerProperties) {
+		Duration window = loadBalancerProperties.getSlowStartWindow();
+		this.windowMillis = window == null ? 0 : window.toMillis();
+		this.mode = loadBalancerProperties.getSlowStartMode();
+		this.minWeight = Math.min(Math.max(loadBalancerProperties.getSlowStartMinWeight(), 0.01), 1);
+		this.metadataKey = loadBalancerProperties.getSlowStartMetadataKey();
+	}
+
+	/**
+	 * @return 实例列表对应的预热状态，实例列表没有变化的时候复用
+	 */
+	public Ramp getRamp(List<ServiceInstance> serviceInstances) {
+		if (windowMillis <= 0) {
+			return Ramp.NONE;
+		}
+		Ramp current = ramp;
+		if (current != null && current.serviceInstances == serviceInstances) {
+			return current;
+		}
+		return buildRamp(serviceInstances);
+	}
+
+	private synchronized Ramp buildRamp(List<ServiceInstance> serviceInstances) {
+		long now = System.currentTimeMillis();
+		int size = serviceInstances.size();
+		long[] startMillis = new long[size];
+		boolean warming = false;
+		Map<String, Long> seen = new HashMap<>(size * 2);
+		for (int i = 0; i < size; i++) {
+			ServiceInstance serviceInstance = serviceInstances.get(i);
+			String key = serviceInstance.getInstanceId() != null
+					? serviceInstance.getInstanceId() : serviceInstance.getHost() + ":" + serviceInstance.getPort();
+			Long firstSeenMillis = firstSeen.get(key);
+			if (firstSeenMillis == null) {
+				firstSeenMillis = initialized ? now : 0;
+			}
+			seen.put(key, firstSeenMillis);
+			startMillis[i] = getStartMillis(serviceInstance, firstSeenMillis);
+			if (now - startMillis[i] < windowMillis) {
+				warming = true;
+			}
+		}
+		firstSeen.clear();
+		firstSeen.putAll(seen);
+		initialized = true;
+		Ramp built = new Ramp(serviceInstances, warming ? startMillis : null, this);
+		ramp = built;
+		return built;
+	}
+
+	private long getStartMillis(ServiceInstance serviceInstance, long firstSeenMillis) {
+		Map<String, String> metadata = serviceInstance.getMetadata();
+		if (metadataKey != null && metadata != null) {
+			long timestamp = NumberUtils.toLong(metadata.get(metadataKey), 0);
+			if (timestamp > 0) {
+				return timestamp;
+			}
+		}
+		if (serviceInstance instanceof EurekaServiceInstance) {
+			LeaseInfo leaseInfo = ((EurekaServiceInstance) serviceInstance).getInstanceInfo().getLeaseInfo();
+			if (leaseInfo != null && leaseInfo.getServiceUpTimestamp() > 0) {
+				//客户端启动时已经存在的实例，如果 UP 时间在预热时间窗口内，也需要预热
+				return leaseInfo.getServiceUpTimestamp();
+			}
+		}
+		return firstSeenMillis;
+	}
+
+	/**
+	 * @param elapsedMillis 实例已经预热的时间
+	 * @return 实例的权重，范围是 minWeight 到 1
+	 */
+	public double getWeight(long elapsedMillis) {
+		if (elapsedMillis >= windowMillis) {
+			return 1;
+		}
+		double progress = Math.max(elapsedMillis, 0) / (double) windowMillis;
+		if (mode == SlowStartMode.EXPONENTIAL) {
+			//minWeight × (1 / minWeight) ^ progress，progress 为 0 时是 minWeight，为 1 时是 1
+			return minWeight * Math.pow(1 / minWeight, progress);
+		}
+		return minWeight + (1 - minWeight) * progress;
+	}
+
+	/**
+	 * 一个实例列表中每个实例的预热开始时间，构建之后不可变
+	 */
+	public static final class Ramp {
+		static final Ramp NONE = new Ramp(null, null, null);
+
+		private final List<ServiceInstance> serviceInstances;
+		//没有正在预热的实例的时候为 null
+		private final long[] startMillis;
+		private final SlowStart slowStart;
+
+		private Ramp(List<ServiceInstance> serviceInstances, long[] startMillis, SlowStart slowStart) {
+			this.serviceInstances = serviceInstances;
+			this.startMillis = startMillis;
+			this.slowStart = slowStart;
+		}
+
+		/**
+		 * @param index 实例在列表中的下标
+		 * @return 这次选择中这个实例是否因为还在预热而被降级，1 为降级，0 为不降级
+		 */
+		public int getDemotion(int index, ThreadLocalRandom random) {
+			if (startMillis == null) {
+				return 0;
+			}
+			double weight = slowStart.getWeight(System.currentTimeMillis() - startMillis[index]);
+			return weight >= 1 || random.nextDouble() < weight ? 0 : 1;
+		}
+	}
+}
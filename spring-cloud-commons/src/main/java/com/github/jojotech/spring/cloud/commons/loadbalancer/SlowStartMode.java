@@ -0,0 +1,17 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+/**
+ * 新实例预热期间权重的增长方式
+ * @see SlowStart
+ */
+public enum SlowStartMode {
+	/**
+	 * 从最小权重线性增长到 1
+	 */
+	LINEAR,
+	/**
+	 * 从最小权重按照指数增长到 1，前期增长慢，适合 JIT 预热比较慢的服务
+	 */
+	EXPONENTIAL,
+	;
+}
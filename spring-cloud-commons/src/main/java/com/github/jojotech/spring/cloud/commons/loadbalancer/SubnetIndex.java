@@ -0,0 +1,134 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.net.InetAddresses;
+import com.google.common.primitives.Longs;
+
+import org.springframework.cloud.client.ServiceInstance;
+
+/**
+ * 实例列表中每个实例所在网段的索引，在实例列表变化的时候构建一次
+ * 每个实例的地址解析为数字形式的网段（地址类型 + 高 64 位 + 低 64 位，已经按照前缀长度做了掩码），
+ * 判断实例是否在已经调用过的网段中只需要比较基本类型，不再做字符串扫描：
+ * <ul>
+ *     <li>IPv4 地址按照 ipv4PrefixLength 掩码，例如 /24 下 10.1.1.x 与 10.1.10.x 是不同的网段</li>
+ *     <li>IPv6 地址按照 ipv6PrefixLength 掩码，默认 /64</li>
+ *     <li>不是 IP 的主机名无法得知网段，整个主机名的哈希当作一个网段，即只有主机名完全相同才算同一个网段</li>
+ * </ul>
+ * 构建之后不可变，可以被多个线程同时读取
+ */
+public final class SubnetIndex {
+	/**
+	 * 地址为空，不参与网段判断
+	 */
+	static final long FAMILY_NONE = 0;
+	static final long FAMILY_IPV4 = 4;
+	static final long FAMILY_IPV6 = 6;
+	static final long FAMILY_HOSTNAME = 1;
+
+	private final List<ServiceInstance> serviceInstances;
+	private final long[] families;
+	private final long[] highs;
+	private final long[] lows;
+
+	public SubnetIndex(List<ServiceInstance> serviceInstances, int ipv4PrefixLength, int ipv6PrefixLength) {
+		checkPrefixLength(ipv4PrefixLength, ipv6PrefixLength);
+		int size = serviceInstances.size();
+		this.serviceInstances = serviceInstances;
+		this.families = new long[size];
+		this.highs = new long[size];
+		this.lows = new long[size];
+		for (int i = 0; i < size; i++) {
+			parse(i, serviceInstances.get(i).getHost(), ipv4PrefixLength, ipv6PrefixLength);
+		}
+	}
+
+	public static void checkPrefixLength(int ipv4PrefixLength, int ipv6PrefixLength) {
+		Preconditions.checkArgument(ipv4PrefixLength >= 0 && ipv4PrefixLength <= 32, "ipv4PrefixLength must be between 0 and 32, but is %s", ipv4PrefixLength);
+		Preconditions.checkArgument(ipv6PrefixLength >= 0 && ipv6PrefixLength <= 128, "ipv6PrefixLength must be between 0 and 128, but is %s", ipv6PrefixLength);
+	}
+
+	/**
+	 * @return 这个索引是否是通过这个实例列表构建的，实例列表是不可变的，所以比较引用即可
+	 */
+	public boolean isBuiltFrom(List<ServiceInstance> serviceInstances) {
+		return this.serviceInstances == serviceInstances;
+	}
+
+	/**
+	 * @param index 实例在列表中的下标
+	 * @param calledSubnets {@link LoadBalancerRequestState#getCalledSubnets()}
+	 * @return 这个实例是否在已经调用过的网段中
+	 */
+	public boolean isCalled(int index, long[] calledSubnets) {
+		long family = families[index];
+		if (family == FAMILY_NONE) {
+			return false;
+		}
+		long high = highs[index];
+		long low = lows[index];
+		for (int i = 0; i < calledSubnets.length; i += 3) {
+			if (calledSubnets[i] == family && calledSubnets[i + 1] == high && calledSubnets[i + 2] == low) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 将这个实例所在网段记录为已经调用过
+	 */
+	public void markCalled(int index, LoadBalancerRequestState state) {
+		if (families[index] != FAMILY_NONE) {
+			state.addCalledSubnet(families[index], highs[index], lows[index]);
+		}
+	}
+
+	private void parse(int index, String host, int ipv4PrefixLength, int ipv6PrefixLength) {
+		if (host == null || host.isEmpty()) {
+			families[index] = FAMILY_NONE;
+			return;
+		}
+		//IPv6 地址可能带有方括号
+		String address = host.charAt(0) == '[' && host.charAt(host.length() - 1) == ']'
+				? host.substring(1, host.length() - 1) : host;
+		//只解析 IP 字面量，不能用 InetAddress.getByName，那样主机名会触发 DNS 查询
+		if (InetAddresses.isInetAddress(address)) {
+			byte[] bytes = InetAddresses.forString(address).getAddress();
+			if (bytes.length == 4) {
+				long value = (bytes[0] & 0xFFL) << 24 | (bytes[1] & 0xFFL) << 16 | (bytes[2] & 0xFFL) << 8 | (bytes[3] & 0xFFL);
+				families[index] = FAMILY_IPV4;
+				highs[index] = 0;
+				lows[index] = value & mask(ipv4PrefixLength, 32);
+			} else {
+				families[index] = FAMILY_IPV6;
+				highs[index] = Longs.fromBytes(bytes[0], bytes[1], bytes[2], bytes[3], bytes[4], bytes[5], bytes[6], bytes[7])
+						& mask(Math.min(ipv6PrefixLength, 64), 64);
+				lows[index] = Longs.fromBytes(bytes[8], bytes[9], bytes[10], bytes[11], bytes[12], bytes[13], bytes[14], bytes[15])
+						& mask(Math.max(ipv6PrefixLength - 64, 0), 64);
+			}
+			return;
+		}
+		HashCode hashCode = Hashing.murmur3_128().hashString(host, StandardCharsets.UTF_8);
+		byte[] bytes = hashCode.asBytes();
+		families[index] = FAMILY_HOSTNAME;
+		highs[index] = Longs.fromBytes(bytes[0], bytes[1], bytes[2], bytes[3], bytes[4], bytes[5], bytes[6], bytes[7]);
+		lows[index] = Longs.fromBytes(bytes[8], bytes[9], bytes[10], bytes[11], bytes[12], bytes[13], bytes[14], bytes[15]);
+	}
+
+	/**
+	 * @return 长度为 bits 的值中，高 prefixLength 位为 1 的掩码
+	 */
+	private static long mask(int prefixLength, int bits) {
+		if (prefixLength == 0) {
+			return 0;
+		}
+		long mask = -1L << (bits - prefixLength);
+		return bits == 64 ? mask : mask & ((1L << bits) - 1);
+	}
+}
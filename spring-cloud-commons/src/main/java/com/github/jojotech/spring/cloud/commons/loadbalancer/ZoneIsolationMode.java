@@ -0,0 +1,18 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+/**
+ * 不同 zone 之间的隔离方式，可以通过 loadbalancer.configs.微服务名称.zone-isolation 针对每个微服务配置
+ * @see SameZoneOnlyServiceInstanceListSupplier
+ */
+public enum ZoneIsolationMode {
+	/**
+	 * 只调用与当前实例同一个 zone 的实例，同 zone 没有实例的时候返回空列表
+	 */
+	STRICT,
+	/**
+	 * 优先调用同一个 zone 的实例，同 zone 实例个数低于 zone-failover-min-instances 的时候，
+	 * 按照 zone-preferences 的顺序依次加入其他 zone 的实例
+	 */
+	TIERED,
+	;
+}
@@ -0,0 +1,142 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.filter.AbstractFilter;
+import org.apache.logging.log4j.core.filter.Filterable;
+import org.apache.logging.log4j.core.jmx.RingBufferAdmin;
+
+/**
+ * 异步日志的监控，直接读取 RingBufferAdmin，不再每次抓取都通过 JMX 按照名称查找 MBean
+ * <ul>
+ *     <li>每个 AsyncLogger 配置（以及全异步的 AsyncLoggerContext）的 RingBuffer 剩余容量与总大小，指标名称与之前通过 JMX 读取的一致</li>
+ *     <li>RingBuffer 满的次数，丢弃的日志数，业务线程阻塞的时间，需要启用 {@link CountingAsyncQueueFullPolicy}</li>
+ *     <li>每个 Appender 处理的日志数，通过给 Appender 加一个只计数的 Filter 实现</li>
+ *     <li>{@link BackpressureSamplingFilter} 采样丢弃的日志数</li>
+ * </ul>
+ * log4j2 重新加载配置之后 RingBuffer 与 Appender 都会重新创建，所以监听配置变化，重新绑定
+ */
+@Log4j2
+public class AsyncLoggingMetrics implements PropertyChangeListener {
+	private final MeterRegistry meterRegistry;
+	private final LoggerContext loggerContext;
+	private final List<Meter> globalMeters = new ArrayList<>();
+	//与当前配置绑定的指标，重新加载配置的时候移除
+	private final List<Meter> boundMeters = new ArrayList<>();
+	//按照 Appender 名称计数，重新加载配置之后同名的 Appender 继续累加，计数不会倒退
+	private final Map<String, LongAdder> appenderEvents = new ConcurrentHashMap<>();
+
+	public AsyncLoggingMetrics(MeterRegistry meterRegistry, LoggerContext loggerContext) {
+		this.meterRegistry = meterRegistry;
+		this.loggerContext = loggerContext;
+		globalMeters.add(FunctionCounter.builder("log4j2.async.queue.full", CountingAsyncQueueFullPolicy.class,
+				c -> CountingAsyncQueueFullPolicy.getQueueFullCount())
+				.description("times the async logging ring buffer is full")
+				.register(meterRegistry));
+		globalMeters.add(FunctionCounter.builder("log4j2.async.discarded", CountingAsyncQueueFullPolicy.class,
+				c -> CountingAsyncQueueFullPolicy.getDiscardedCount())
+				.description("log events discarded because the ring buffer is full")
+				.register(meterRegistry));
+		globalMeters.add(FunctionCounter.builder("log4j2.async.blocked", CountingAsyncQueueFullPolicy.class,
+				c -> CountingAsyncQueueFullPolicy.getBlockedNanos() / (double) TimeUnit.SECONDS.toNanos(1))
+				.description("time application threads spent blocked on a full ring buffer")
+				.baseUnit("seconds")
+				.register(meterRegistry));
+		globalMeters.add(FunctionCounter.builder("log4j2.sampling.dropped", BackpressureSamplingFilter.class,
+				c -> BackpressureSamplingFilter.getDroppedCount())
+				.description("log events dropped by BackpressureSamplingFilter")
+				.register(meterRegistry));
+		bind(loggerContext.getConfiguration());
+		loggerContext.addPropertyChangeListener(this);
+	}
+
+	@Override
+	public void propertyChange(PropertyChangeEvent evt) {
+		if (LoggerContext.PROPERTY_CONFIG.equals(evt.getPropertyName()) && evt.getNewValue() instanceof Configuration) {
+			bind((Configuration) evt.getNewValue());
+		}
+	}
+
+	synchronized void bind(Configuration configuration) {
+		try {
+			unbind();
+			Map<String, RingBufferAdmin> ringBuffers = RingBuffers.resolve(loggerContext, configuration);
+			CountingAsyncQueueFullPolicy.bind(ringBuffers.values());
+			ringBuffers.forEach((name, ringBuffer) -> {
+				//RingBufferAdmin 是每次新建的，只有指标引用它，需要强引用
+				boundMeters.add(Gauge.builder(name + "_ring_buffer_remaining_capacity", ringBuffer, RingBufferAdmin::getRemainingCapacity)
+						.strongReference(true)
+						.register(meterRegistry));
+				boundMeters.add(Gauge.builder(name + "_ring_buffer_size", ringBuffer, RingBufferAdmin::getBufferSize)
+						.strongReference(true)
+						.register(meterRegistry));
+			});
+			for (Appender appender : configuration.getAppenders().values()) {
+				if (!(appender instanceof Filterable)) {
+					continue;
+				}
+				LongAdder events = appenderEvents.computeIfAbsent(appender.getName(), k -> new LongAdder());
+				CountingFilter countingFilter = new CountingFilter(events);
+				countingFilter.start();
+				((Filterable) appender).addFilter(countingFilter);
+				boundMeters.add(FunctionCounter.builder("log4j2.appender.events", events, LongAdder::sum)
+						.description("log events handled by the appender")
+						.tag("appender", appender.getName())
+						.register(meterRegistry));
+			}
+			log.info("bind async logging metrics, ring buffers: {}, appenders: {}", ringBuffers.keySet(), configuration.getAppenders().keySet());
+		} catch (Throwable e) {
+			log.error("bind async logging metrics failed", e);
+		}
+	}
+
+	private void unbind() {
+		for (Meter meter : boundMeters) {
+			meterRegistry.remove(meter);
+		}
+		boundMeters.clear();
+	}
+
+	public synchronized void destroy() {
+		loggerContext.removePropertyChangeListener(this);
+		unbind();
+		for (Meter meter : globalMeters) {
+			meterRegistry.remove(meter);
+		}
+		globalMeters.clear();
+		CountingAsyncQueueFullPolicy.bind(new ArrayList<>());
+	}
+
+	/**
+	 * 只计数，不影响 Appender 是否输出
+	 */
+	private static class CountingFilter extends AbstractFilter {
+		private final LongAdder events;
+
+		private CountingFilter(LongAdder events) {
+			this.events = events;
+		}
+
+		@Override
+		public Result filter(LogEvent event) {
+			events.increment();
+			return Result.NEUTRAL;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginConfiguration;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.filter.AbstractFilter;
+import org.apache.logging.log4j.core.jmx.RingBufferAdmin;
+import org.apache.logging.log4j.message.Message;
+
+/**
+ * 异步日志 RingBuffer 快满的时候，对热点 logger 的 INFO 日志采样，防止 RingBuffer 满了之后阻塞业务线程
+ * <pre>{@code
+ * <Configuration>
+ *     <Filters>
+ *         <BackpressureSamplingFilter loggers="com.github.jojotech.spring.cloud.webflux,com.github.jojotech.spring.cloud.webmvc"
+ *                 lowWatermark="0.1" highWatermark="0.5" samplingRate="10"/>
+ *     </Filters>
+ * </Configuration>
+ * }</pre>
+ * <ul>
+ *     <li>loggers：热点 logger 名称前缀，逗号分隔，只有这些 logger 会被采样</li>
+ *     <li>level：采样的最高级别，默认 INFO，比它低的级别（DEBUG，TRACE）也会被采样；WARN 及以上永远不会被采样</li>
+ *     <li>lowWatermark：任何一个 RingBuffer 剩余容量比例低于这个值开始采样，默认 0.1</li>
+ *     <li>highWatermark：所有 RingBuffer 剩余容量比例恢复到这个值以上之后停止采样，恢复完整输出，默认 0.5</li>
+ *     <li>samplingRate：采样期间每 N 条日志保留一条，默认 10，0 代表全部丢弃</li>
+ * </ul>
+ * 建议作为全局 Filter 配置，这样在创建日志事件之前就会被过滤；丢弃的条数可以通过 {@link #getDroppedCount()} 获取，
+ * {@link AsyncLoggingMetrics} 会注册为 log4j2.sampling.dropped 指标
+ */
+@Plugin(name = "BackpressureSamplingFilter", category = Node.CATEGORY, elementType = Filter.ELEMENT_TYPE, printObject = true)
+public final class BackpressureSamplingFilter extends AbstractFilter {
+	private static final LongAdder DROPPED = new LongAdder();
+
+	private final PackagePrefixTrie loggers;
+	private final Level level;
+	private final double lowWatermark;
+	private final double highWatermark;
+	private final int samplingRate;
+	//所有 RingBuffer 中最小的剩余容量比例
+	private final DoubleSupplier remainingRatio;
+	private final AtomicLong sampled = new AtomicLong();
+	private volatile boolean sampling;
+
+	BackpressureSamplingFilter(PackagePrefixTrie loggers, Level level, double lowWatermark, double highWatermark,
+			int samplingRate, DoubleSupplier remainingRatio) {
+		super(Result.DENY, Result.NEUTRAL);
+		this.loggers = loggers;
+		this.level = level;
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		this.samplingRate = samplingRate;
+		this.remainingRatio = remainingRatio;
+	}
+
+	@PluginFactory
+	public static BackpressureSamplingFilter createFilter(
+			@PluginAttribute("loggers") final String loggers,
+			@PluginAttribute("level") final Level level,
+			@PluginAttribute(value = "lowWatermark", defaultDouble = 0.1) final double lowWatermark,
+			@PluginAttribute(value = "highWatermark", defaultDouble = 0.5) final double highWatermark,
+			@PluginAttribute(value = "samplingRate", defaultInt = 10) final int samplingRate,
+			@PluginConfiguration final Configuration configuration) {
+		if (lowWatermark < 0 || lowWatermark > highWatermark || highWatermark > 1) {
+			throw new IllegalArgumentException("lowWatermark and highWatermark should satisfy 0 <= lowWatermark <= highWatermark <= 1");
+		}
+		if (samplingRate < 0) {
+			throw new IllegalArgumentException("samplingRate should not be negative");
+		}
+		return new BackpressureSamplingFilter(
+				PackagePrefixTrie.compile(loggers == null ? null : Arrays.asList(loggers.split("\\s*,\\s*"))),
+				level == null ? Level.INFO : level, lowWatermark, highWatermark, samplingRate,
+				new RingBufferRemainingRatio(configuration));
+	}
+
+	/**
+	 * @return 进程内所有采样 Filter 丢弃的日志条数
+	 */
+	public static long getDroppedCount() {
+		return DROPPED.sum();
+	}
+
+	/**
+	 * @return 当前是否在采样
+	 */
+	public boolean isSampling() {
+		return sampling;
+	}
+
+	private Result filter(String loggerName, Level level) {
+		//WARN 及以上永远不采样
+		if (level.isMoreSpecificThan(Level.WARN) || !level.isLessSpecificThan(this.level)
+				|| loggerName == null || !loggers.matches(loggerName)) {
+			return onMismatch;
+		}
+		if (!updateSampling()) {
+			return onMismatch;
+		}
+		if (samplingRate > 0 && sampled.getAndIncrement() % samplingRate == 0) {
+			return onMismatch;
+		}
+		DROPPED.increment();
+		return onMatch;
+	}
+
+	/**
+	 * 低于 lowWatermark 开始采样，恢复到 highWatermark 以上停止采样，两个水位之间保持之前的状态，防止来回切换
+	 */
+	private boolean updateSampling() {
+		double ratio = remainingRatio.getAsDouble();
+		boolean sampling = this.sampling;
+		if (!sampling && ratio < lowWatermark) {
+			this.sampling = true;
+			LOGGER.warn("Async logger ring buffer remaining {} is below {}, start sampling", ratio, lowWatermark);
+			return true;
+		}
+		if (sampling && ratio >= highWatermark) {
+			this.sampling = false;
+			LOGGER.warn("Async logger ring buffer remaining {} recovered to {}, stop sampling", ratio, highWatermark);
+			return false;
+		}
+		return sampling;
+	}
+
+	@Override
+	public Result filter(LogEvent event) {
+		return filter(event.getLoggerName(), event.getLevel());
+	}
+
+	@Override
+	public Result filter(Logger logger, Level level, Marker marker, Message msg, Throwable t) {
+		return filter(logger.getName(), level);
+	}
+
+	@Override
+	public Result filter(Logger logger, Level level, Marker marker, Object msg, Throwable t) {
+		return filter(logger.getName(), level);
+	}
+
+	@Override
+	public Result filter(Logger logger, Level level, Marker marker, String msg, Object... params) {
+		return filter(logger.getName(), level);
+	}
+
+	@Override
+	public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0) {
+		return filter(logger.getName(), level);
+	}
+
+	@Override
+	public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1) {
+		return filter(logger.getName(), level);
+	}
+
+	@Override
+	public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2) {
+		return filter(logger.getName(), level);
+	}
+
+	@Override
+	public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+			Object p3) {
+		return filter(logger.getName(), level);
+	}
+
+	@Override
+	public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+			Object p3, Object p4) {
+		return filter(logger.getName(), level);
+	}
+
+	@Override
+	public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+			Object p3, Object p4, Object p5) {
+		return filter(logger.getName(), level);
+	}
+
+	@Override
+	public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+			Object p3, Object p4, Object p5, Object p6) {
+		return filter(logger.getName(), level);
+	}
+
+	@Override
+	public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+			Object p3, Object p4, Object p5, Object p6, Object p7) {
+		return filter(logger.getName(), level);
+	}
+
+	@Override
+	public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+			Object p3, Object p4, Object p5, Object p6, Object p7, Object p8) {
+		return filter(logger.getName(), level);
+	}
+
+	@Override
+	public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+			Object p3, Object p4, Object p5, Object p6, Object p7, Object p8, Object p9) {
+		return filter(logger.getName(), level);
+	}
+
+	@Override
+	public String toString() {
+		return "BackpressureSamplingFilter[level=" + level + ", lowWatermark=" + lowWatermark
+				+ ", highWatermark=" + highWatermark + ", samplingRate=" + samplingRate + "]";
+	}
+
+	/**
+	 * 所有 RingBuffer 中最小的剩余容量比例
+	 * Filter 创建的时候配置还没有启动，AsyncLoggerConfig 的 RingBuffer 还不存在，所以在配置启动之后第一次用到的时候再获取
+	 */
+	private static class RingBufferRemainingRatio implements DoubleSupplier {
+		private final Configuration configuration;
+		private volatile RingBufferAdmin[] ringBuffers;
+
+		private RingBufferRemainingRatio(Configuration configuration) {
+			this.configuration = configuration;
+		}
+
+		@Override
+		public double getAsDouble() {
+			RingBufferAdmin[] ringBuffers = this.ringBuffers;
+			if (ringBuffers == null) {
+				if (!configuration.isStarted() || configuration.getLoggerContext() == null) {
+					return 1;
+				}
+				Collection<RingBufferAdmin> resolved = RingBuffers.resolve(configuration.getLoggerContext(), configuration).values();
+				ringBuffers = resolved.toArray(new RingBufferAdmin[0]);
+				this.ringBuffers = ringBuffers;
+			}
+			double min = 1;
+			for (RingBufferAdmin ringBuffer : ringBuffers) {
+				long bufferSize = ringBuffer.getBufferSize();
+				if (bufferSize > 0) {
+					min = Math.min(min, ringBuffer.getRemainingCapacity() / (double) bufferSize);
+				}
+			}
+			return min;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.async.AsyncQueueFullPolicy;
+import org.apache.logging.log4j.core.async.DefaultAsyncQueueFullPolicy;
+import org.apache.logging.log4j.core.async.DiscardingAsyncQueueFullPolicy;
+import org.apache.logging.log4j.core.async.EventRoute;
+import org.apache.logging.log4j.core.jmx.RingBufferAdmin;
+import org.apache.logging.log4j.util.PropertiesUtil;
+
+/**
+ * 统计异步日志 RingBuffer 满的情况：满的次数，丢弃的日志数，业务线程因为 RingBuffer 满阻塞的时间
+ * 通过 log4j2.component.properties 中的 log4j2.AsyncQueueFullPolicy=com.github.jojotech.spring.cloud.commons.log4j2.CountingAsyncQueueFullPolicy 启用
+ * <ul>
+ *     <li>配置了 log4j2.discardThreshold 的时候与 log4j2 的 Discard 策略一样，丢弃这个级别及以下的日志，否则与默认策略一样阻塞等待</li>
+ *     <li>阻塞等待的时候先在这里等到 RingBuffer 有空位再交给 log4j2 放入，这样才能统计阻塞的时间；
+ *     每次最多在这里等 {@link #MAX_AWAIT_NANOS}，剩下的交给 log4j2 自己阻塞，防止等错了 RingBuffer 一直等下去</li>
+ *     <li>log4j2 对于每个 RingBuffer 都会创建一个策略对象，并且重新加载配置之后会重新创建，所以统计数据是进程级别的静态变量</li>
+ * </ul>
+ */
+public class CountingAsyncQueueFullPolicy implements AsyncQueueFullPolicy {
+	private static final String DISCARD_THRESHOLD = "log4j2.discardThreshold";
+	private static final long MAX_AWAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+	private static final LongAdder QUEUE_FULL = new LongAdder();
+	private static final LongAdder DISCARDED = new LongAdder();
+	private static final LongAdder BLOCKED_NANOS = new LongAdder();
+	//当前配置的所有 RingBuffer，由 AsyncLoggingMetrics 在每次加载配置之后更新
+	private static volatile List<RingBufferAdmin> ringBuffers = Collections.emptyList();
+
+	private final AsyncQueueFullPolicy delegate;
+
+	public CountingAsyncQueueFullPolicy() {
+		String discardThreshold = PropertiesUtil.getProperties().getStringProperty(DISCARD_THRESHOLD);
+		this.delegate = discardThreshold == null ? new DefaultAsyncQueueFullPolicy()
+				: new DiscardingAsyncQueueFullPolicy(Level.toLevel(discardThreshold, Level.INFO));
+	}
+
+	CountingAsyncQueueFullPolicy(AsyncQueueFullPolicy delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public EventRoute getRoute(long backgroundThreadId, Level level) {
+		//只有 RingBuffer 满了 log4j2 才会调用这里
+		QUEUE_FULL.increment();
+		EventRoute route = delegate.getRoute(backgroundThreadId, level);
+		if (route == EventRoute.DISCARD) {
+			DISCARDED.increment();
+		} else if (route == EventRoute.ENQUEUE) {
+			awaitCapacity();
+		}
+		return route;
+	}
+
+	private static void awaitCapacity() {
+		RingBufferAdmin full = null;
+		for (RingBufferAdmin ringBuffer : ringBuffers) {
+			if (ringBuffer.getRemainingCapacity() == 0) {
+				full = ringBuffer;
+				break;
+			}
+		}
+		if (full == null) {
+			return;
+		}
+		long start = System.nanoTime();
+		long elapsed = 0;
+		while (full.getRemainingCapacity() == 0 && elapsed < MAX_AWAIT_NANOS) {
+			LockSupport.parkNanos(PARK_NANOS);
+			elapsed = System.nanoTime() - start;
+		}
+		BLOCKED_NANOS.add(System.nanoTime() - start);
+	}
+
+	static void bind(Collection<RingBufferAdmin> current) {
+		ringBuffers = Collections.unmodifiableList(new ArrayList<>(current));
+	}
+
+	/**
+	 * @return RingBuffer 满的次数
+	 */
+	public static long getQueueFullCount() {
+		return QUEUE_FULL.sum();
+	}
+
+	/**
+	 * @return 因为 RingBuffer 满丢弃的日志数
+	 */
+	public static long getDiscardedCount() {
+		return DISCARDED.sum();
+	}
+
+	/**
+	 * @return 业务线程因为 RingBuffer 满阻塞的总时间，单位纳秒
+	 */
+	public static long getBlockedNanos() {
+		return BLOCKED_NANOS.sum();
+	}
+}
@@ -1,5 +1,8 @@
 package com.github.jojotech.spring.cloud.commons.log4j2;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.config.Configuration;
 import org.apache.logging.log4j.core.config.plugins.Plugin;
@@ -7,33 +10,248 @@ import org.apache.logging.log4j.core.impl.CustomizedThrowableProxyRenderer;
 import org.apache.logging.log4j.core.impl.ThrowableProxy;
 import org.apache.logging.log4j.core.pattern.ConverterKeys;
 import org.apache.logging.log4j.core.pattern.PatternConverter;
+import org.apache.logging.log4j.core.pattern.PlainTextRenderer;
+import org.apache.logging.log4j.core.pattern.TextRenderer;
 import org.apache.logging.log4j.core.pattern.ThrowablePatternConverter;
+import org.apache.logging.log4j.util.Strings;
 
+/**
+ * 在 log4j2 默认的 %xEx 基础上，filters 中的包名代表需要输出的栈帧，其他栈帧折叠成一行
+ * 额外支持的选项（需要在交给父类解析之前去掉）：
+ * <ul>
+ *     <li>dedup(秒数)：异常风暴去重，同一个异常栈在时间窗口内只输出一次完整的栈，参考 {@link ExceptionDeduplicator}，例如 %cusEx{filters(com.github.jojotech.)}{dedup(60)}</li>
+ *     <li>packaging(full|cached|none)：栈帧后面的 jar 包信息，full 是默认值，与 log4j2 一样通过 ThrowableProxy 解析；
+ *     cached 从进程共享的 {@link PackagingInfoCache} 中获取；none 不输出 jar 包信息。后两种都不会创建 ThrowableProxy</li>
+ * </ul>
+ * 不分配内存的只是栈帧的渲染（{@link CustomizedThrowableProxyRenderer}）：full 的时候每个事件的 ThrowableProxy 由 log4j2 创建，
+ * cached 与 none 的时候每个事件都会创建 {@link StackTraceNode}
+ */
 @Plugin(name = "CustomizedThrowablePatternConverter", category = PatternConverter.CATEGORY)
 @ConverterKeys({ "cusEx", "cusThrowable", "cusException" })
 public class CustomizedThrowablePatternConverter extends ThrowablePatternConverter {
+	//缓存的栈帧块个数
+	private static final int RENDERED_FRAME_CACHE_SIZE = 256;
+	private static final String DEDUP = "dedup";
+	private static final String PACKAGING = "packaging";
+	private static final String PACKAGING_FULL = "full";
+	private static final String PACKAGING_CACHED = "cached";
+	private static final String PACKAGING_NONE = "none";
+	//不指定时间窗口的时候默认 60 秒
+	private static final long DEFAULT_DEDUP_WINDOW_SECONDS = 60;
+	//去重记录的指纹个数上限
+	private static final int DEDUP_MAX_FINGERPRINTS = 1024;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	//每个 converter 只编译一次，不用每一行栈都遍历所有包名
+	private final PackagePrefixTrie whiteListedPackages;
+	private final RenderedFrameCache renderedFrameCache = new RenderedFrameCache(RENDERED_FRAME_CACHE_SIZE);
+	//没有打开去重的时候为 null
+	private final ExceptionDeduplicator exceptionDeduplicator;
+	private final long dedupWindowSeconds;
+	//纯文本输出的时候为 null，直接 append，不经过 TextRenderer
+	private final TextRenderer textRenderer;
+	//为 false 代表不创建 ThrowableProxy，直接从 Throwable 构造 StackTraceNode
+	private final boolean throwableProxy;
+	private final boolean packagingInfoCached;
+
 	public static CustomizedThrowablePatternConverter newInstance(final Configuration config, final String[] options) {
 		return new CustomizedThrowablePatternConverter(config, options);
 	}
 	private CustomizedThrowablePatternConverter(final Configuration config, final String[] options) {
-		super("CustomizedThrowable", "throwable", options, config);
+		super("CustomizedThrowable", "throwable", removeCustomizedOptions(options), config);
+		this.whiteListedPackages = PackagePrefixTrie.compile(this.options.getIgnorePackages());
+		this.textRenderer = this.options.getTextRenderer() instanceof PlainTextRenderer ? null : this.options.getTextRenderer();
+		String dedup = getCustomizedOption(options, DEDUP);
+		if (dedup != null) {
+			this.dedupWindowSeconds = dedup.isEmpty() ? DEFAULT_DEDUP_WINDOW_SECONDS : Long.parseLong(dedup.trim());
+			this.exceptionDeduplicator = new ExceptionDeduplicator(dedupWindowSeconds, DEDUP_MAX_FINGERPRINTS);
+		} else {
+			this.dedupWindowSeconds = 0;
+			this.exceptionDeduplicator = null;
+		}
+		String packaging = getCustomizedOption(options, PACKAGING);
+		if (packaging == null || packaging.isEmpty() || PACKAGING_FULL.equalsIgnoreCase(packaging.trim())) {
+			this.throwableProxy = true;
+			this.packagingInfoCached = false;
+		} else if (PACKAGING_CACHED.equalsIgnoreCase(packaging.trim())) {
+			this.throwableProxy = false;
+			this.packagingInfoCached = true;
+		} else if (PACKAGING_NONE.equalsIgnoreCase(packaging.trim())) {
+			this.throwableProxy = false;
+			this.packagingInfoCached = false;
+		} else {
+			throw new IllegalArgumentException("packaging option of cusEx should be one of full, cached, none: " + packaging);
+		}
+	}
+
+	/**
+	 * 父类不认识的选项会被当成行数解析，所以需要先去掉
+	 */
+	private static String[] removeCustomizedOptions(final String[] options) {
+		if (options == null) {
+			return null;
+		}
+		List<String> remained = new ArrayList<>(options.length);
+		for (String option : options) {
+			if (getCustomizedOptionValue(option, DEDUP) == null && getCustomizedOptionValue(option, PACKAGING) == null) {
+				remained.add(option);
+			}
+		}
+		return remained.toArray(new String[0]);
+	}
+
+	/**
+	 * @return 选项括号中的值，没有括号返回空字符串，没有这个选项返回 null
+	 */
+	private static String getCustomizedOption(final String[] options, final String name) {
+		if (options != null) {
+			for (String option : options) {
+				String value = getCustomizedOptionValue(option, name);
+				if (value != null) {
+					return value;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static String getCustomizedOptionValue(final String option, final String name) {
+		if (option == null) {
+			return null;
+		}
+		String trimmed = option.trim();
+		if (trimmed.equalsIgnoreCase(name)) {
+			return "";
+		}
+		if (trimmed.regionMatches(true, 0, name + "(", 0, name.length() + 1) && trimmed.endsWith(")")) {
+			return trimmed.substring(name.length() + 1, trimmed.length() - 1);
+		}
+		return null;
 	}
 
 	@Override
 	public void format(final LogEvent event, final StringBuilder toAppendTo) {
-		final ThrowableProxy proxy = event.getThrownProxy();
 		final Throwable throwable = event.getThrown();
+		if (!throwableProxy && throwable != null) {
+			if (options.anyLines()) {
+				format(event, null, StackTraceNode.of(throwable, packagingInfoCached), toAppendTo);
+			}
+			return;
+		}
+		final ThrowableProxy proxy = event.getThrownProxy();
 		if ((throwable != null || proxy != null) && options.anyLines()) {
 			if (proxy == null) {
 				super.format(event, toAppendTo);
 				return;
 			}
-			final int len = toAppendTo.length();
-			if (len > 0 && !Character.isWhitespace(toAppendTo.charAt(len - 1))) {
-				toAppendTo.append(' ');
-			}
-			CustomizedThrowableProxyRenderer.formatExtendedStackTraceTo(proxy, toAppendTo, options.getIgnorePackages(),
-					options.getTextRenderer(), getSuffix(event), options.getSeparator());
+			format(event, proxy, null, toAppendTo);
+		}
+	}
+
+	/**
+	 * proxy 与 node 只有一个不为 null
+	 */
+	private void format(final LogEvent event, final ThrowableProxy proxy, final StackTraceNode node, final StringBuilder toAppendTo) {
+		final int len = toAppendTo.length();
+		if (len > 0 && !Character.isWhitespace(toAppendTo.charAt(len - 1))) {
+			toAppendTo.append(' ');
+		}
+		final String suffix = getSuffix(event);
+		if (exceptionDeduplicator == null) {
+			formatStackTrace(proxy, node, toAppendTo, suffix);
+			return;
+		}
+		final int fingerprint = proxy != null ? ExceptionDeduplicator.fingerprint(proxy) : ExceptionDeduplicator.fingerprint(node);
+		final String name = proxy != null ? proxy.getName() : node.getName();
+		final long count = proxy != null ? exceptionDeduplicator.occur(fingerprint, proxy) : exceptionDeduplicator.occur(fingerprint, node);
+		if (count > 1) {
+			formatOmitted(name, proxy != null ? proxy.getMessage() : node.getMessage(), toAppendTo, fingerprint, count, suffix);
+			return;
+		}
+		formatStackTrace(proxy, node, toAppendTo, suffix);
+		//第一次输出完整的异常栈的时候带上指纹 id，之后省略的日志可以通过 id 找到这里
+		render("\t[stack trace ", toAppendTo, "More");
+		renderHex(fingerprint, toAppendTo);
+		render(", repeats in the next ", toAppendTo, "More");
+		render(dedupWindowSeconds, toAppendTo, "More");
+		render(" seconds are omitted]", toAppendTo, "More");
+		renderSuffix(suffix, toAppendTo);
+		render(options.getSeparator(), toAppendTo, "Text");
+	}
+
+	private void formatStackTrace(final ThrowableProxy proxy, final StackTraceNode node, final StringBuilder toAppendTo, final String suffix) {
+		if (proxy != null) {
+			CustomizedThrowableProxyRenderer.formatExtendedStackTraceTo(proxy, toAppendTo, whiteListedPackages, renderedFrameCache,
+					textRenderer, suffix, options.getSeparator());
+		} else {
+			CustomizedThrowableProxyRenderer.formatExtendedStackTraceTo(node, toAppendTo, whiteListedPackages, renderedFrameCache,
+					textRenderer, suffix, options.getSeparator());
+		}
+	}
+
+	/**
+	 * 没有配置 suffix 的时候直接返回空字符串，父类每次都会新建 StringBuilder
+	 */
+	@Override
+	protected String getSuffix(final LogEvent event) {
+		return options.getSuffix() == null ? Strings.EMPTY : super.getSuffix(event);
+	}
+
+	/**
+	 * 同一个异常栈在时间窗口内重复出现，只输出异常消息，指纹 id 以及窗口内的第几次
+	 */
+	private void formatOmitted(final String name, final String message, final StringBuilder toAppendTo, final int fingerprint, final long count, final String suffix) {
+		render(name, toAppendTo, "Name");
+		if (message != null) {
+			render(": ", toAppendTo, "NameMessageSeparator");
+			render(message, toAppendTo, "Message");
+		}
+		render(" [stack trace ", toAppendTo, "More");
+		renderHex(fingerprint, toAppendTo);
+		render(" omitted, repeated ", toAppendTo, "More");
+		render(count, toAppendTo, "More");
+		render(" times in ", toAppendTo, "More");
+		render(dedupWindowSeconds, toAppendTo, "More");
+		render(" seconds]", toAppendTo, "More");
+		renderSuffix(suffix, toAppendTo);
+		render(options.getSeparator(), toAppendTo, "Text");
+	}
+
+	private void renderSuffix(final String suffix, final StringBuilder toAppendTo) {
+		if (!suffix.isEmpty()) {
+			render(" ", toAppendTo, "Suffix");
+			render(suffix, toAppendTo, "Suffix");
+		}
+	}
+
+	private void render(final String text, final StringBuilder toAppendTo, final String styleName) {
+		if (textRenderer == null) {
+			toAppendTo.append(text);
+		} else {
+			textRenderer.render(text, toAppendTo, styleName);
+		}
+	}
+
+	private void render(final long number, final StringBuilder toAppendTo, final String styleName) {
+		if (textRenderer == null) {
+			toAppendTo.append(number);
+		} else {
+			textRenderer.render(Long.toString(number), toAppendTo, styleName);
+		}
+	}
+
+	/**
+	 * 与 Integer.toHexString 的结果一致，直接写入不生成字符串
+	 */
+	private void renderHex(final int fingerprint, final StringBuilder toAppendTo) {
+		if (textRenderer != null) {
+			textRenderer.render(Integer.toHexString(fingerprint), toAppendTo, "More");
+			return;
+		}
+		int shift = (Math.max(1, 32 - Integer.numberOfLeadingZeros(fingerprint)) + 3) / 4 * 4;
+		while (shift > 0) {
+			shift -= 4;
+			toAppendTo.append(HEX_DIGITS[(fingerprint >>> shift) & 0xf]);
 		}
 	}
 }
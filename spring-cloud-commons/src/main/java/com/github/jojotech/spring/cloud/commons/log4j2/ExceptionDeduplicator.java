@@ -0,0 +1,345 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.logging.log4j.core.impl.ExtendedStackTraceElement;
+import org.apache.logging.log4j.core.impl.ThrowableProxy;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * 异常风暴去重：下游挂掉的时候每个请求都会输出同一个上百行的异常栈，占满 log4j2 的 RingBuffer 之后会阻塞业务线程
+ * <ul>
+ *     <li>异常栈的指纹只包含异常类型与栈帧（包括 cause 与 suppressed），不包含异常消息，消息里面经常带着请求相关的内容</li>
+ *     <li>一个指纹在一个时间窗口内只有第一次输出完整的异常栈，之后只输出异常消息，指纹 id 以及窗口内的第几次</li>
+ *     <li>定时输出一次汇总，包含每个指纹在这段时间被省略的次数</li>
+ *     <li>记录的指纹个数有上限，超过上限的新指纹不去重，照常输出</li>
+ *     <li>指纹只有 32 位，命中之后还会比较异常类型与栈帧，不同的异常指纹冲突的时候不去重，不会丢失异常栈</li>
+ * </ul>
+ */
+@Log4j2
+public class ExceptionDeduplicator {
+	private static final int RECENT_SIZE = 256;
+
+	private final long windowNanos;
+	private final int maxFingerprints;
+	private final Scheduler scheduler;
+	private final Map<Integer, Occurrence> occurrences = new ConcurrentHashMap<>();
+	//按照指纹直接映射的最近使用的记录，命中的时候不用把指纹装箱去查 Map，保持渲染过程不分配内存
+	private final Occurrence[] recent = new Occurrence[RECENT_SIZE];
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	public ExceptionDeduplicator(long windowSeconds, int maxFingerprints) {
+		this(windowSeconds, maxFingerprints, Schedulers.parallel());
+	}
+
+	ExceptionDeduplicator(long windowSeconds, int maxFingerprints, Scheduler scheduler) {
+		this.windowNanos = TimeUnit.SECONDS.toNanos(windowSeconds);
+		this.maxFingerprints = maxFingerprints;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * 异常栈的指纹，包括 cause 与 suppressed
+	 */
+	public static int fingerprint(ThrowableProxy throwableProxy) {
+		int hash = throwableProxy.getName().hashCode();
+		for (ExtendedStackTraceElement element : throwableProxy.getExtendedStackTrace()) {
+			hash = 31 * hash + element.getStackTraceElement().hashCode();
+		}
+		ThrowableProxy[] suppressedProxies = throwableProxy.getSuppressedProxies();
+		if (suppressedProxies != null) {
+			for (ThrowableProxy suppressedProxy : suppressedProxies) {
+				hash = 31 * hash + fingerprint(suppressedProxy);
+			}
+		}
+		ThrowableProxy causeProxy = throwableProxy.getCauseProxy();
+		if (causeProxy != null) {
+			hash = 31 * hash + fingerprint(causeProxy);
+		}
+		return hash;
+	}
+
+	/**
+	 * 与 {@link #fingerprint(ThrowableProxy)} 的算法一致
+	 */
+	public static int fingerprint(StackTraceNode stackTraceNode) {
+		int hash = stackTraceNode.getName().hashCode();
+		for (ExtendedStackTraceElement element : stackTraceNode.getExtendedStackTrace()) {
+			hash = 31 * hash + element.getStackTraceElement().hashCode();
+		}
+		for (StackTraceNode suppressed : stackTraceNode.getSuppressed()) {
+			hash = 31 * hash + fingerprint(suppressed);
+		}
+		StackTraceNode cause = stackTraceNode.getCause();
+		if (cause != null) {
+			hash = 31 * hash + fingerprint(cause);
+		}
+		return hash;
+	}
+
+	/**
+	 * 记录一次出现
+	 * @return 当前窗口内第几次出现，1 代表需要输出完整的异常栈
+	 */
+	public long occur(int fingerprint, ThrowableProxy throwableProxy) {
+		return occur(fingerprint, throwableProxy, null, System.nanoTime());
+	}
+
+	/**
+	 * 与 {@link #occur(int, ThrowableProxy)} 一致
+	 */
+	public long occur(int fingerprint, StackTraceNode stackTraceNode) {
+		return occur(fingerprint, null, stackTraceNode, System.nanoTime());
+	}
+
+	/**
+	 * proxy 与 node 只有一个不为 null
+	 */
+	long occur(int fingerprint, ThrowableProxy proxy, StackTraceNode node, long now) {
+		int index = (fingerprint ^ (fingerprint >>> 16)) & (RECENT_SIZE - 1);
+		Occurrence occurrence = recent[index];
+		if (occurrence == null || occurrence.fingerprint != fingerprint || occurrence.removed) {
+			occurrence = occurrences.get(fingerprint);
+			if (occurrence == null) {
+				if (occurrences.size() >= maxFingerprints) {
+					return 1;
+				}
+				occurrence = occurrences.computeIfAbsent(fingerprint, k -> new Occurrence(fingerprint, Shape.of(proxy, node), now));
+				scheduleSummary();
+			}
+			recent[index] = occurrence;
+		}
+		//指纹冲突，是另一个异常，按照新出现处理，照常输出完整的异常栈
+		if (!occurrence.shape.matches(proxy, node)) {
+			return 1;
+		}
+		return occurrence.occur(now, windowNanos);
+	}
+
+	/**
+	 * converter 没有生命周期，重新加载配置之后旧的 converter 直接被丢弃，
+	 * 所以定时任务只持有弱引用，converter 被回收之后定时任务自己结束
+	 */
+	private void scheduleSummary() {
+		if (!scheduled.compareAndSet(false, true)) {
+			return;
+		}
+		WeakReference<ExceptionDeduplicator> reference = new WeakReference<>(this);
+		Disposable[] summary = new Disposable[1];
+		long windowMillis = TimeUnit.NANOSECONDS.toMillis(windowNanos);
+		summary[0] = scheduler.schedulePeriodically(() -> {
+			ExceptionDeduplicator exceptionDeduplicator = reference.get();
+			if (exceptionDeduplicator == null) {
+				summary[0].dispose();
+				return;
+			}
+			exceptionDeduplicator.summarize(System.nanoTime());
+		}, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 输出被省略的次数，并移除已经不再出现的指纹
+	 */
+	void summarize(long now) {
+		try {
+			Iterator<Map.Entry<Integer, Occurrence>> iterator = occurrences.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<Integer, Occurrence> entry = iterator.next();
+				Occurrence occurrence = entry.getValue();
+				long omitted = occurrence.omitted.getAndSet(0);
+				if (omitted > 0) {
+					log.warn("exception {} stack trace {} omitted {} times in the last {} seconds",
+							occurrence.shape.names[0], Integer.toHexString(entry.getKey()), omitted, TimeUnit.NANOSECONDS.toSeconds(windowNanos));
+				} else if (now - occurrence.windowStart >= windowNanos) {
+					occurrence.removed = true;
+					iterator.remove();
+				}
+			}
+		} catch (Throwable e) {
+			//定时任务抛出异常会导致之后不再执行
+			log.error("summarize omitted exceptions failed", e);
+		}
+	}
+
+	int getFingerprintCount() {
+		return occurrences.size();
+	}
+
+	private static class Occurrence {
+		private final int fingerprint;
+		private final Shape shape;
+		private volatile long windowStart;
+		//已经从 Map 中移除，最近使用的记录中还有引用的时候需要重新查找
+		private volatile boolean removed;
+		//当前窗口内的出现次数
+		private final AtomicLong count = new AtomicLong();
+		//上次汇总之后省略的次数
+		private final AtomicLong omitted = new AtomicLong();
+
+		private Occurrence(int fingerprint, Shape shape, long windowStart) {
+			this.fingerprint = fingerprint;
+			this.shape = shape;
+			this.windowStart = windowStart;
+		}
+
+		private long occur(long now, long windowNanos) {
+			long start = windowStart;
+			if (now - start >= windowNanos) {
+				//只有一个线程能开始新的窗口，其他线程按照新窗口计数
+				synchronized (this) {
+					if (windowStart == start) {
+						count.set(0);
+						windowStart = now;
+					}
+				}
+			}
+			long current = count.incrementAndGet();
+			if (current > 1) {
+				omitted.incrementAndGet();
+			}
+			return current;
+		}
+	}
+
+	/**
+	 * 异常栈的结构，与指纹的计算顺序一致：异常本身，suppressed，cause。
+	 * 比较的时候不分配内存，保持渲染过程不分配内存
+	 */
+	private static final class Shape {
+		private final String[] names;
+		private final ExtendedStackTraceElement[][] stackTraces;
+		private final int[] suppressedCounts;
+		private final boolean[] hasCauses;
+
+		private Shape(List<String> names, List<ExtendedStackTraceElement[]> stackTraces, List<Integer> suppressedCounts, List<Boolean> hasCauses) {
+			int size = names.size();
+			this.names = names.toArray(new String[0]);
+			this.stackTraces = stackTraces.toArray(new ExtendedStackTraceElement[0][]);
+			this.suppressedCounts = new int[size];
+			this.hasCauses = new boolean[size];
+			for (int i = 0; i < size; i++) {
+				this.suppressedCounts[i] = suppressedCounts.get(i);
+				this.hasCauses[i] = hasCauses.get(i);
+			}
+		}
+
+		private static Shape of(ThrowableProxy proxy, StackTraceNode node) {
+			List<String> names = new ArrayList<>();
+			List<ExtendedStackTraceElement[]> stackTraces = new ArrayList<>();
+			List<Integer> suppressedCounts = new ArrayList<>();
+			List<Boolean> hasCauses = new ArrayList<>();
+			if (proxy != null) {
+				collect(proxy, names, stackTraces, suppressedCounts, hasCauses);
+			} else {
+				collect(node, names, stackTraces, suppressedCounts, hasCauses);
+			}
+			return new Shape(names, stackTraces, suppressedCounts, hasCauses);
+		}
+
+		private static void collect(ThrowableProxy proxy, List<String> names, List<ExtendedStackTraceElement[]> stackTraces,
+				List<Integer> suppressedCounts, List<Boolean> hasCauses) {
+			ThrowableProxy[] suppressedProxies = proxy.getSuppressedProxies();
+			ThrowableProxy causeProxy = proxy.getCauseProxy();
+			names.add(proxy.getName());
+			stackTraces.add(proxy.getExtendedStackTrace());
+			suppressedCounts.add(suppressedProxies == null ? 0 : suppressedProxies.length);
+			hasCauses.add(causeProxy != null);
+			if (suppressedProxies != null) {
+				for (ThrowableProxy suppressedProxy : suppressedProxies) {
+					collect(suppressedProxy, names, stackTraces, suppressedCounts, hasCauses);
+				}
+			}
+			if (causeProxy != null) {
+				collect(causeProxy, names, stackTraces, suppressedCounts, hasCauses);
+			}
+		}
+
+		private static void collect(StackTraceNode node, List<String> names, List<ExtendedStackTraceElement[]> stackTraces,
+				List<Integer> suppressedCounts, List<Boolean> hasCauses) {
+			names.add(node.getName());
+			stackTraces.add(node.getExtendedStackTrace());
+			suppressedCounts.add(node.getSuppressed().length);
+			hasCauses.add(node.getCause() != null);
+			for (StackTraceNode suppressed : node.getSuppressed()) {
+				collect(suppressed, names, stackTraces, suppressedCounts, hasCauses);
+			}
+			if (node.getCause() != null) {
+				collect(node.getCause(), names, stackTraces, suppressedCounts, hasCauses);
+			}
+		}
+
+		private boolean matches(ThrowableProxy proxy, StackTraceNode node) {
+			return (proxy != null ? matches(proxy, 0) : matches(node, 0)) == names.length;
+		}
+
+		/**
+		 * @return 比较完这棵树之后的下标，不相同返回 -1
+		 */
+		private int matches(ThrowableProxy proxy, int index) {
+			ThrowableProxy[] suppressedProxies = proxy.getSuppressedProxies();
+			ThrowableProxy causeProxy = proxy.getCauseProxy();
+			if (!matches(index, proxy.getName(), proxy.getExtendedStackTrace(), suppressedProxies == null ? 0 : suppressedProxies.length,
+					causeProxy != null)) {
+				return -1;
+			}
+			index++;
+			if (suppressedProxies != null) {
+				for (ThrowableProxy suppressedProxy : suppressedProxies) {
+					index = matches(suppressedProxy, index);
+					if (index < 0) {
+						return -1;
+					}
+				}
+			}
+			return causeProxy == null ? index : matches(causeProxy, index);
+		}
+
+		private int matches(StackTraceNode node, int index) {
+			StackTraceNode[] suppressed = node.getSuppressed();
+			StackTraceNode cause = node.getCause();
+			if (!matches(index, node.getName(), node.getExtendedStackTrace(), suppressed.length, cause != null)) {
+				return -1;
+			}
+			index++;
+			for (StackTraceNode suppressedNode : suppressed) {
+				index = matches(suppressedNode, index);
+				if (index < 0) {
+					return -1;
+				}
+			}
+			return cause == null ? index : matches(cause, index);
+		}
+
+		private boolean matches(int index, String name, ExtendedStackTraceElement[] stackTrace, int suppressedCount, boolean hasCause) {
+			if (index >= names.length || !names[index].equals(name) || suppressedCounts[index] != suppressedCount
+					|| hasCauses[index] != hasCause) {
+				return false;
+			}
+			ExtendedStackTraceElement[] expected = stackTraces[index];
+			if (expected == stackTrace) {
+				return true;
+			}
+			if (expected.length != stackTrace.length) {
+				return false;
+			}
+			//与指纹一致，只比较栈帧本身，不比较 jar 包信息
+			for (int i = 0; i < stackTrace.length; i++) {
+				if (!expected[i].getStackTraceElement().equals(stackTrace[i].getStackTraceElement())) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
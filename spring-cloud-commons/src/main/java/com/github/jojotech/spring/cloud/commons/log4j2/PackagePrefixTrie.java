@@ -0,0 +1,96 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 把异常栈过滤的包名前缀编译成字典树，在创建 {@link CustomizedThrowablePatternConverter} 的时候编译一次
+ * 原来每一行栈都要对每一个包名调用一次 startsWith，包名越多越慢；字典树只需要按类名的字符走一遍，
+ * 走到任何一个包名的结尾就代表匹配，与包名个数无关
+ * 编译之后只读，可以被多个线程同时使用，匹配过程不分配内存
+ */
+public final class PackagePrefixTrie {
+	private static final char[] NO_KEYS = new char[0];
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private final Node root = new Node();
+	private final boolean empty;
+
+	private PackagePrefixTrie(List<String> prefixes) {
+		boolean empty = true;
+		if (prefixes != null) {
+			for (String prefix : prefixes) {
+				if (prefix == null) {
+					continue;
+				}
+				Node node = root;
+				for (int i = 0; i < prefix.length(); i++) {
+					node = node.getOrAdd(prefix.charAt(i));
+				}
+				node.terminal = true;
+				empty = false;
+			}
+		}
+		this.empty = empty;
+	}
+
+	public static PackagePrefixTrie compile(List<String> prefixes) {
+		return new PackagePrefixTrie(prefixes);
+	}
+
+	/**
+	 * @return 是否没有任何包名，没有包名代表不过滤
+	 */
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * @return 类名是否以任何一个包名开头
+	 */
+	public boolean matches(String className) {
+		Node node = root;
+		for (int i = 0; i < className.length(); i++) {
+			if (node.terminal) {
+				return true;
+			}
+			node = node.get(className.charAt(i));
+			if (node == null) {
+				return false;
+			}
+		}
+		return node.terminal;
+	}
+
+	private static final class Node {
+		//子节点按照字符排序，二分查找；包名的字符集很小，每层的子节点不多
+		private char[] keys = NO_KEYS;
+		private Node[] children = NO_CHILDREN;
+		private boolean terminal;
+
+		private Node get(char c) {
+			int index = Arrays.binarySearch(keys, c);
+			return index >= 0 ? children[index] : null;
+		}
+
+		private Node getOrAdd(char c) {
+			int index = Arrays.binarySearch(keys, c);
+			if (index >= 0) {
+				return children[index];
+			}
+			int insertion = -index - 1;
+			char[] newKeys = new char[keys.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, insertion);
+			System.arraycopy(children, 0, newChildren, 0, insertion);
+			System.arraycopy(keys, insertion, newKeys, insertion + 1, keys.length - insertion);
+			System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+			Node child = new Node();
+			newKeys[insertion] = c;
+			newChildren[insertion] = child;
+			keys = newKeys;
+			children = newChildren;
+			return child;
+		}
+	}
+}
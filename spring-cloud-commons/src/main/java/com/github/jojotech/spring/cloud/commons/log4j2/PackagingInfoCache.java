@@ -0,0 +1,104 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.core.impl.ExtendedClassInfo;
+
+/**
+ * 进程内共享的类名到 jar 包信息（位置与版本）的缓存
+ * log4j2 的 ThrowableProxy 每次创建都要对每一行栈的类做类加载与 CodeSource 查找，缓存只在一个 ThrowableProxy 内有效，
+ * 冷路径上一个异常可能要花几毫秒；这里每个类只解析一次，之后所有日志事件共享
+ * <ul>
+ *     <li>按照类名缓存，同一个类名在不同 ClassLoader 中的情况按照第一次解析的结果输出</li>
+ *     <li>加载类的时候不初始化，不会触发类的静态代码块</li>
+ *     <li>与 log4j2 按类名加载的结果一样，输出的是 ~[jar:版本]；找不到类输出 ~[?:?]</li>
+ *     <li>缓存的类名个数有上限，超过上限之后新的类名每次都重新解析</li>
+ * </ul>
+ */
+public final class PackagingInfoCache {
+	private static final int MAX_SIZE = 16384;
+	private static final String UNKNOWN = "?";
+	private static final ExtendedClassInfo UNKNOWN_CLASS_INFO = new ExtendedClassInfo(false, UNKNOWN, UNKNOWN);
+	private static final Map<String, ExtendedClassInfo> CACHE = new ConcurrentHashMap<>();
+
+	private PackagingInfoCache() {
+	}
+
+	public static ExtendedClassInfo get(String className) {
+		ExtendedClassInfo extendedClassInfo = CACHE.get(className);
+		if (extendedClassInfo != null) {
+			return extendedClassInfo;
+		}
+		extendedClassInfo = resolve(className);
+		if (CACHE.size() < MAX_SIZE) {
+			CACHE.putIfAbsent(className, extendedClassInfo);
+		}
+		return extendedClassInfo;
+	}
+
+	static int size() {
+		return CACHE.size();
+	}
+
+	private static ExtendedClassInfo resolve(String className) {
+		Class<?> clazz = loadClass(className);
+		if (clazz == null) {
+			return UNKNOWN_CLASS_INFO;
+		}
+		return new ExtendedClassInfo(false, getLocation(clazz), getVersion(clazz));
+	}
+
+	private static Class<?> loadClass(String className) {
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		if (classLoader != null) {
+			try {
+				return Class.forName(className, false, classLoader);
+			} catch (Throwable ignore) {
+				//尝试当前类的 ClassLoader
+			}
+		}
+		try {
+			return Class.forName(className, false, PackagingInfoCache.class.getClassLoader());
+		} catch (Throwable ignore) {
+			return null;
+		}
+	}
+
+	/**
+	 * 与 log4j2 一样，只取 jar 包（或者目录）的名称
+	 */
+	private static String getLocation(Class<?> clazz) {
+		try {
+			CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+			if (codeSource == null) {
+				return UNKNOWN;
+			}
+			URL location = codeSource.getLocation();
+			if (location == null) {
+				return UNKNOWN;
+			}
+			String path = location.toString().replace('\\', '/');
+			int index = path.lastIndexOf('/');
+			if (index >= 0 && index == path.length() - 1) {
+				index = path.lastIndexOf('/', index - 1);
+			}
+			return path.substring(index + 1);
+		} catch (Throwable ignore) {
+			return UNKNOWN;
+		}
+	}
+
+	private static String getVersion(Class<?> clazz) {
+		Package pkg = clazz.getPackage();
+		if (pkg != null) {
+			String version = pkg.getImplementationVersion();
+			if (version != null) {
+				return version;
+			}
+		}
+		return UNKNOWN;
+	}
+}
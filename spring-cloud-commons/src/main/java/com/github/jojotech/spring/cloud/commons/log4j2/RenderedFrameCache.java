@@ -0,0 +1,110 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.util.Objects;
+
+import org.apache.logging.log4j.core.impl.ExtendedClassInfo;
+import org.apache.logging.log4j.core.impl.ExtendedStackTraceElement;
+
+/**
+ * 异常栈指纹到渲染好的栈帧块的缓存，故障的时候同一个形状的异常每秒会输出成千上万次，命中缓存之后只需要一次 StringBuilder.append
+ * <ul>
+ *     <li>直接映射的定长数组，指纹决定槽位，冲突直接覆盖，内存有上限，查找不分配内存</li>
+ *     <li>指纹只用来定位，命中之后还会逐个比较栈帧（包括 jar 包信息），不会因为指纹冲突输出错误的栈</li>
+ *     <li>缓存项不可变，数组槽位的读写不加锁，多线程下最坏情况是没命中重新渲染</li>
+ *     <li>缓存的是同一个 converter 渲染的结果，TextRenderer 固定，所以可以直接复用</li>
+ * </ul>
+ */
+public final class RenderedFrameCache {
+	//太长的栈帧块不缓存，限制缓存占用的内存
+	private static final int MAX_BLOCK_LENGTH = 32 * 1024;
+
+	private final Entry[] entries;
+	private final int mask;
+
+	/**
+	 * @param size 缓存的栈帧块个数，会向上取整到 2 的幂
+	 */
+	public RenderedFrameCache(int size) {
+		int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		this.entries = new Entry[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * 栈帧块的指纹，包含影响渲染结果的所有输入
+	 */
+	public static int fingerprint(ExtendedStackTraceElement[] elements, int commonCount, int depth, String suffix) {
+		int hash = commonCount;
+		for (ExtendedStackTraceElement element : elements) {
+			hash = 31 * hash + element.getStackTraceElement().hashCode();
+			//ExtendedClassInfo.hashCode 可能分配内存（Objects.hash 的可变参数），这里自己计算
+			ExtendedClassInfo extraClassInfo = element.getExtraClassInfo();
+			if (extraClassInfo != null) {
+				hash = 31 * hash + (extraClassInfo.getExact() ? 1 : 0);
+				hash = 31 * hash + Objects.hashCode(extraClassInfo.getLocation());
+				hash = 31 * hash + Objects.hashCode(extraClassInfo.getVersion());
+			}
+		}
+		hash = 31 * hash + depth;
+		hash = 31 * hash + suffix.hashCode();
+		return hash;
+	}
+
+	/**
+	 * @return 渲染好的栈帧块，没有缓存返回 null
+	 */
+	public String get(int fingerprint, ExtendedStackTraceElement[] elements, int commonCount, int depth, String suffix) {
+		Entry entry = entries[index(fingerprint)];
+		if (entry != null && entry.matches(fingerprint, elements, commonCount, depth, suffix)) {
+			return entry.rendered;
+		}
+		return null;
+	}
+
+	public void put(int fingerprint, ExtendedStackTraceElement[] elements, int commonCount, int depth, String suffix, String rendered) {
+		if (rendered.length() > MAX_BLOCK_LENGTH) {
+			return;
+		}
+		entries[index(fingerprint)] = new Entry(fingerprint, elements, commonCount, depth, suffix, rendered);
+	}
+
+	private int index(int fingerprint) {
+		//打散高位，栈帧 hash 的低位分布不均匀
+		return (fingerprint ^ (fingerprint >>> 16)) & mask;
+	}
+
+	private static final class Entry {
+		private final int fingerprint;
+		private final ExtendedStackTraceElement[] elements;
+		private final int commonCount;
+		private final int depth;
+		private final String suffix;
+		private final String rendered;
+
+		private Entry(int fingerprint, ExtendedStackTraceElement[] elements, int commonCount, int depth, String suffix, String rendered) {
+			this.fingerprint = fingerprint;
+			this.elements = elements;
+			this.commonCount = commonCount;
+			this.depth = depth;
+			this.suffix = suffix;
+			this.rendered = rendered;
+		}
+
+		private boolean matches(int fingerprint, ExtendedStackTraceElement[] elements, int commonCount, int depth, String suffix) {
+			if (this.fingerprint != fingerprint || this.commonCount != commonCount
+					|| this.elements.length != elements.length
+					|| this.depth != depth || !this.suffix.equals(suffix)) {
+				return false;
+			}
+			if (this.elements == elements) {
+				return true;
+			}
+			for (int i = 0; i < elements.length; i++) {
+				if (!this.elements[i].equals(elements[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
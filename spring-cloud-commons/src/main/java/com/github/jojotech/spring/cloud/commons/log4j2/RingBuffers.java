@@ -0,0 +1,40 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.async.AsyncLoggerConfig;
+import org.apache.logging.log4j.core.async.AsyncLoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.jmx.RingBufferAdmin;
+
+/**
+ * 获取一个配置下所有异步日志的 RingBuffer，需要在配置启动之后调用，否则 AsyncLoggerConfig 的 RingBuffer 还没有创建
+ */
+final class RingBuffers {
+	static final String CONTEXT = "async_logger_context";
+
+	private RingBuffers() {
+	}
+
+	/**
+	 * @return 名称到 RingBuffer 的映射，全异步的 AsyncLoggerContext 名称为 {@link #CONTEXT}，AsyncLogger 配置的名称为 logger 名称加上 _logger
+	 */
+	static Map<String, RingBufferAdmin> resolve(LoggerContext loggerContext, Configuration configuration) {
+		Map<String, RingBufferAdmin> ringBuffers = new LinkedHashMap<>();
+		if (loggerContext instanceof AsyncLoggerContext) {
+			ringBuffers.put(CONTEXT, ((AsyncLoggerContext) loggerContext).createRingBufferAdmin());
+		}
+		for (Map.Entry<String, LoggerConfig> entry : configuration.getLoggers().entrySet()) {
+			if (entry.getValue() instanceof AsyncLoggerConfig) {
+				//针对 RootLogger，它的名称是空字符串，为了显示好看，命名为 root
+				String name = StringUtils.isBlank(entry.getKey()) ? "root" : entry.getKey();
+				ringBuffers.put(name + "_logger", ((AsyncLoggerConfig) entry.getValue()).createRingBufferAdmin(loggerContext.getName()));
+			}
+		}
+		return ringBuffers;
+	}
+}
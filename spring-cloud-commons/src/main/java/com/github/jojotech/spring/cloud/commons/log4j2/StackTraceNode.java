@@ -0,0 +1,106 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.apache.logging.log4j.core.impl.ExtendedClassInfo;
+import org.apache.logging.log4j.core.impl.ExtendedStackTraceElement;
+
+/**
+ * 直接从 Throwable 构造的异常栈，结构与 ThrowableProxy 一样（cause 只保留与外层不同的栈帧，suppressed 单独成树），
+ * 但是 jar 包信息不做解析或者从 {@link PackagingInfoCache} 中获取，不会像 ThrowableProxy 那样每次都做类加载与 CodeSource 查找
+ */
+public final class StackTraceNode {
+	private static final StackTraceNode[] NO_SUPPRESSED = new StackTraceNode[0];
+
+	private final String name;
+	private final String message;
+	private final ExtendedStackTraceElement[] extendedStackTrace;
+	private final int commonElementCount;
+	private final StackTraceNode[] suppressed;
+	private final StackTraceNode cause;
+
+	/**
+	 * 与 ThrowableProxy 一样，cause 链与 suppressed 分别记录访问过的异常，防止循环引用
+	 */
+	private StackTraceNode(Throwable throwable, StackTraceElement[] parentTrace, boolean packagingInfo,
+			Set<Throwable> causeVisited, Set<Throwable> suppressedVisited) {
+		causeVisited.add(throwable);
+		this.name = throwable.getClass().getName();
+		this.message = throwable.getMessage();
+		StackTraceElement[] stackTrace = throwable.getStackTrace();
+		this.commonElementCount = parentTrace == null ? 0 : commonElementCount(parentTrace, stackTrace);
+		this.extendedStackTrace = new ExtendedStackTraceElement[stackTrace.length - commonElementCount];
+		for (int i = 0; i < extendedStackTrace.length; i++) {
+			ExtendedClassInfo extendedClassInfo = packagingInfo ? PackagingInfoCache.get(stackTrace[i].getClassName()) : null;
+			extendedStackTrace[i] = new ExtendedStackTraceElement(stackTrace[i], extendedClassInfo);
+		}
+		Throwable[] suppressedThrowables = throwable.getSuppressed();
+		if (suppressedThrowables.length == 0) {
+			this.suppressed = NO_SUPPRESSED;
+		} else {
+			StackTraceNode[] suppressed = new StackTraceNode[suppressedThrowables.length];
+			int count = 0;
+			for (Throwable suppressedThrowable : suppressedThrowables) {
+				if (suppressedVisited.add(suppressedThrowable)) {
+					suppressed[count++] = new StackTraceNode(suppressedThrowable, null, packagingInfo, newVisited(), suppressedVisited);
+				}
+			}
+			this.suppressed = count == suppressed.length ? suppressed : Arrays.copyOf(suppressed, count);
+		}
+		Throwable causeThrowable = throwable.getCause();
+		//循环引用的 cause 不再输出
+		this.cause = causeThrowable == null || causeVisited.contains(causeThrowable) ? null
+				: new StackTraceNode(causeThrowable, stackTrace, packagingInfo, causeVisited, suppressedVisited);
+	}
+
+	/**
+	 * @param packagingInfo 是否需要 jar 包信息，需要的话从进程共享的缓存中获取
+	 */
+	public static StackTraceNode of(Throwable throwable, boolean packagingInfo) {
+		return new StackTraceNode(throwable, null, packagingInfo, newVisited(), newVisited());
+	}
+
+	private static Set<Throwable> newVisited() {
+		return Collections.newSetFromMap(new IdentityHashMap<>());
+	}
+
+	/**
+	 * 与外层异常栈末尾相同的栈帧个数，与 ThrowableProxy 的算法一致
+	 */
+	private static int commonElementCount(StackTraceElement[] parentTrace, StackTraceElement[] stackTrace) {
+		int m = stackTrace.length - 1;
+		int n = parentTrace.length - 1;
+		while (m >= 0 && n >= 0 && stackTrace[m].equals(parentTrace[n])) {
+			m--;
+			n--;
+		}
+		return stackTrace.length - 1 - m;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public ExtendedStackTraceElement[] getExtendedStackTrace() {
+		return extendedStackTrace;
+	}
+
+	public int getCommonElementCount() {
+		return commonElementCount;
+	}
+
+	public StackTraceNode[] getSuppressed() {
+		return suppressed;
+	}
+
+	public StackTraceNode getCause() {
+		return cause;
+	}
+}
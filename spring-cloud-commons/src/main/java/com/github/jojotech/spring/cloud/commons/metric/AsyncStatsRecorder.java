@@ -0,0 +1,284 @@
+package com.github.jojotech.spring.cloud.commons.metric;
+
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.log4j.Log4j2;
+import org.jctools.queues.MessagePassingQueue;
+import org.jctools.queues.SpscArrayQueue;
+
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * 异步记录实例指标：调用线程只是把事件（实例，类型，数值）放入自己的 SPSC 队列（JCTools 的 {@link SpscArrayQueue}），由单独的聚合线程写入 {@link InstanceStats}
+ * 同步记录的时候，每次调用结束都要更新滑动窗口的计数（多个线程 CAS 同一个桶），以及更新耗时的峰值 EWMA，
+ * 在核数很多的机器上这些竞争会拉长调用线程的尾延迟；异步之后这些写入只在聚合线程中发生
+ * <ul>
+ *     <li>每个调用线程一个队列，只有这个线程写入，聚合线程读取，记录过程没有 CAS，也不会与其他调用线程竞争同一个缓存行</li>
+ *     <li>事件对象预先分配好，聚合线程处理完之后通过另一个 SPSC 队列还给调用线程复用，记录过程不分配内存</li>
+ *     <li>预先分配的事件用完了（聚合线程跟不上），直接同步记录，不会丢失也不会阻塞</li>
+ *     <li>停止之后放入的事件由调用线程自己处理，聚合线程退出之前把所有队列处理到空为止，停止的过程中不会丢失事件</li>
+ *     <li>聚合线程没有事件的时候一直休眠，调用线程放入事件之后发现它在休眠才唤醒它，空闲的时候没有定时唤醒</li>
+ *     <li>只异步记录调用结果与耗时；正在处理的请求数负载均衡每次都要读取，依然同步记录；断路器的结果也依然同步上报，
+ *     因为断路器的状态决定了下一个请求能不能发出去，半开状态下的许可也需要与结果一一对应</li>
+ * </ul>
+ */
+@Log4j2
+public class AsyncStatsRecorder implements DisposableBean {
+	private static final int CALLED_SUCCESS = 0;
+	private static final int CALLED_FAILED = 1;
+	private static final int LATENCY = 2;
+	//聚合线程每次从一个队列最多处理的事件个数，防止一个线程的事件太多饿死其他线程
+	private static final int DRAIN_LIMIT = 1024;
+
+	private final int capacity;
+	private final ThreadLocal<Ring> rings = ThreadLocal.withInitial(this::newRing);
+	private final Queue<Ring> allRings = new ConcurrentLinkedQueue<>();
+	private final Thread aggregator;
+	private final AtomicBoolean sleeping = new AtomicBoolean();
+	private volatile boolean running = true;
+	//已经结束的线程的同步记录次数
+	private final AtomicLong retiredFallback = new AtomicLong();
+
+	/**
+	 * @param capacity 每个调用线程的队列大小，会向上取整到 2 的幂，最小为 4
+	 */
+	public AsyncStatsRecorder(int capacity) {
+		this.capacity = capacity;
+		this.aggregator = new Thread(this::run, "instance-stats-aggregator");
+		this.aggregator.setDaemon(true);
+		this.aggregator.start();
+	}
+
+	private Ring newRing() {
+		Ring ring = new Ring(Thread.currentThread(), capacity);
+		allRings.add(ring);
+		return ring;
+	}
+
+	boolean offerCalled(InstanceStats instanceStats, boolean isSuccess) {
+		return offer(instanceStats, isSuccess ? CALLED_SUCCESS : CALLED_FAILED, 0);
+	}
+
+	boolean offerLatency(InstanceStats instanceStats, long latencyNanos) {
+		return offer(instanceStats, LATENCY, latencyNanos);
+	}
+
+	/**
+	 * @return false 代表没有放入队列，需要调用方同步记录
+	 */
+	private boolean offer(InstanceStats instanceStats, int type, long value) {
+		if (!running) {
+			return false;
+		}
+		Ring ring = rings.get();
+		if (!ring.offer(instanceStats, type, value)) {
+			return false;
+		}
+		//放入队列只是 release 写入，之后读取 running 与休眠标记之前需要 StoreLoad 屏障，
+		//否则可能读到旧的值，错过聚合线程退出之前的处理或者错过唤醒
+		VarHandle.fullFence();
+		if (!running) {
+			//聚合线程可能已经处理完所有队列退出了，自己把这个事件处理掉
+			ring.drain(Integer.MAX_VALUE);
+			return true;
+		}
+		//大部分时候聚合线程没有休眠，这里只是读取一个很少变化的缓存行
+		if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+			LockSupport.unpark(aggregator);
+		}
+		return true;
+	}
+
+	private void run() {
+		while (running) {
+			try {
+				if (drainAll(DRAIN_LIMIT) > 0) {
+					continue;
+				}
+				sleeping.set(true);
+				//设置休眠标记之后再检查一次，调用线程放入事件的时候可能还没看到休眠标记
+				if (drainAll(DRAIN_LIMIT) > 0 || !running) {
+					sleeping.set(false);
+					continue;
+				}
+				LockSupport.park(this);
+				sleeping.set(false);
+			} catch (Throwable e) {
+				log.error("aggregate instance stats failed", e);
+			}
+		}
+		//停止之后把剩下的事件处理完，直到所有队列都是空的
+		int drained;
+		do {
+			drained = drainAll(Integer.MAX_VALUE);
+		} while (drained > 0);
+	}
+
+	private int drainAll(int limit) {
+		int drained = 0;
+		Iterator<Ring> iterator = allRings.iterator();
+		while (iterator.hasNext()) {
+			Ring ring = iterator.next();
+			int count = ring.drain(limit);
+			drained += count;
+			//线程已经结束并且没有剩下的事件，移除它的队列
+			if (count == 0 && ring.isDead() && ring.isEmpty()) {
+				iterator.remove();
+				retiredFallback.addAndGet(ring.fallback);
+			}
+		}
+		return drained;
+	}
+
+	private static void apply(InstanceStats instanceStats, int type, long value) {
+		try {
+			switch (type) {
+				case CALLED_SUCCESS:
+					instanceStats.applyCalled(true);
+					break;
+				case CALLED_FAILED:
+					instanceStats.applyCalled(false);
+					break;
+				case LATENCY:
+					instanceStats.applyLatency(value);
+					break;
+				default:
+					break;
+			}
+		} catch (Throwable e) {
+			//一个事件失败不能影响后面的事件
+			log.error("apply instance stats failed", e);
+		}
+	}
+
+	/**
+	 * 等待调用这个方法之前放入的所有事件都写入 {@link InstanceStats}，测试使用
+	 * @return 超时返回 false
+	 */
+	boolean flush(Duration timeout) {
+		long deadline = System.nanoTime() + timeout.toNanos();
+		for (Ring ring : allRings) {
+			long target = ring.events.currentProducerIndex();
+			while (ring.events.currentConsumerIndex() < target) {
+				if (System.nanoTime() - deadline > 0) {
+					return false;
+				}
+				if (sleeping.compareAndSet(true, false)) {
+					LockSupport.unpark(aggregator);
+				}
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return 还没有处理的事件个数
+	 */
+	public long getPending() {
+		long pending = 0;
+		for (Ring ring : allRings) {
+			pending += ring.events.size();
+		}
+		return pending;
+	}
+
+	/**
+	 * @return 由于预先分配的事件用完了，同步记录的次数
+	 */
+	public long getFallbackCount() {
+		long fallback = retiredFallback.get();
+		for (Ring ring : allRings) {
+			fallback += ring.fallback;
+		}
+		return fallback;
+	}
+
+	/**
+	 * @return 当前线程同步记录的次数，benchmark 使用
+	 */
+	long getCurrentThreadFallbackCount() {
+		return rings.get().fallback;
+	}
+
+	@Override
+	public void destroy() throws InterruptedException {
+		running = false;
+		LockSupport.unpark(aggregator);
+		aggregator.join(TimeUnit.SECONDS.toMillis(1));
+	}
+
+	/**
+	 * 一个调用线程的队列：events 由调用线程放入，聚合线程取出；free 是预先分配的事件，由聚合线程还回来，调用线程取出复用。
+	 * 两个队列大小相同，所有事件加起来不超过 events 的容量，所以从 free 取到事件之后放入 events 一定成功
+	 */
+	private static final class Ring {
+		private final WeakReference<Thread> thread;
+		private final SpscArrayQueue<Event> events;
+		private final SpscArrayQueue<Event> free;
+		private final MessagePassingQueue.Consumer<Event> applier = this::apply;
+		//只有调用线程写入，会被其他线程不精确地读取
+		private volatile long fallback;
+
+		private Ring(Thread thread, int capacity) {
+			this.thread = new WeakReference<>(thread);
+			this.events = new SpscArrayQueue<>(capacity);
+			this.free = new SpscArrayQueue<>(capacity);
+			for (int i = 0; i < events.capacity(); i++) {
+				free.offer(new Event());
+			}
+		}
+
+		private boolean offer(InstanceStats instanceStats, int type, long value) {
+			Event event = free.relaxedPoll();
+			if (event == null) {
+				fallback++;
+				return false;
+			}
+			event.instanceStats = instanceStats;
+			event.type = type;
+			event.value = value;
+			events.offer(event);
+			return true;
+		}
+
+		/**
+		 * 正常情况下只有聚合线程调用；停止之后调用线程也会处理自己的队列，加锁保证同一时间只有一个消费者
+		 */
+		private synchronized int drain(int limit) {
+			return events.drain(applier, limit);
+		}
+
+		private void apply(Event event) {
+			InstanceStats instanceStats = event.instanceStats;
+			//不持有实例指标的引用，已经下线的实例可以被回收
+			event.instanceStats = null;
+			AsyncStatsRecorder.apply(instanceStats, event.type, event.value);
+			free.offer(event);
+		}
+
+		private boolean isEmpty() {
+			return events.isEmpty();
+		}
+
+		private boolean isDead() {
+			Thread t = thread.get();
+			return t == null || !t.isAlive();
+		}
+	}
+
+	private static final class Event {
+		private InstanceStats instanceStats;
+		private int type;
+		private long value;
+	}
+}
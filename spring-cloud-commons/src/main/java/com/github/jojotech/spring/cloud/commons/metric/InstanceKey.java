@@ -0,0 +1,65 @@
+package com.github.jojotech.spring.cloud.commons.metric;
+
+import java.util.Objects;
+
+/**
+ * 实例的 key，由 host 与 port 组成，与之前 host + ":" + port 的字符串 key 含义相同
+ * 存放在 {@link ServiceInstanceMetrics} 中的 key 是不可变的；查找的时候使用线程本地的探针对象，
+ * 只是把 host 的引用与 port 放进去，不需要拼接字符串，也不创建新的对象（String 的 hashCode 是缓存的）
+ */
+public final class InstanceKey {
+	private String host;
+	private int port;
+	private int hash;
+
+	InstanceKey() {
+	}
+
+	InstanceKey(String host, int port) {
+		set(host, port);
+	}
+
+	/**
+	 * 只能用于线程本地的探针对象
+	 */
+	InstanceKey set(String host, int port) {
+		this.host = host;
+		this.port = port;
+		this.hash = 31 * Objects.hashCode(host) + port;
+		return this;
+	}
+
+	InstanceKey copy() {
+		return new InstanceKey(host, port);
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof InstanceKey)) {
+			return false;
+		}
+		InstanceKey that = (InstanceKey) o;
+		return port == that.port && Objects.equals(host, that.host);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return host + ":" + port;
+	}
+}
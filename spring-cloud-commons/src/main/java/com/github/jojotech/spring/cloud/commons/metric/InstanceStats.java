@@ -0,0 +1,146 @@
+package com.github.jojotech.spring.cloud.commons.metric;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * 一个实例的所有调用指标，每个实例只有一个，记录与读取都直接操作这里的字段，不再按照名称查找 MetricRegistry
+ * 配置了 {@link AsyncStatsRecorder} 的时候，调用结果与耗时交给聚合线程异步写入，正在处理的请求数依然同步记录，因为负载均衡每次都要读取
+ */
+public final class InstanceStats {
+	//耗时的峰值 EWMA 衰减时间常数
+	private static final long LATENCY_DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private final InstanceKey key;
+	//正在处理的请求数
+	private final LongAdder calling = new LongAdder();
+	//最近一段时间的成功，失败次数与耗时总和
+	private final SlidingWindow window;
+	//连续失败次数，成功一次就清零
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+	private final PeakEwma latency = new PeakEwma(LATENCY_DECAY_NANOS);
+	//被负载均衡选中的次数
+	private final LongAdder chosen = new LongAdder();
+	//导出到 Micrometer 的耗时直方图，没有导出的时候为 null
+	private volatile Timer latencyTimer;
+	//为 null 代表同步记录
+	private final AsyncStatsRecorder asyncStatsRecorder;
+
+	InstanceStats(InstanceKey key, int windowSeconds) {
+		this(key, windowSeconds, null);
+	}
+
+	InstanceStats(InstanceKey key, int windowSeconds, AsyncStatsRecorder asyncStatsRecorder) {
+		this.key = key;
+		this.window = new SlidingWindow(windowSeconds);
+		this.asyncStatsRecorder = asyncStatsRecorder;
+	}
+
+	public InstanceKey getKey() {
+		return key;
+	}
+
+	public void recordChosen() {
+		chosen.increment();
+	}
+
+	public void recordCall() {
+		calling.increment();
+	}
+
+	public void recordCalled(boolean isSuccess) {
+		calling.decrement();
+		if (asyncStatsRecorder == null || !asyncStatsRecorder.offerCalled(this, isSuccess)) {
+			applyCalled(isSuccess);
+		}
+	}
+
+	void applyCalled(boolean isSuccess) {
+		if (!isSuccess) {
+			window.recordFailed();
+			consecutiveFailures.incrementAndGet();
+		} else {
+			window.recordSuccess();
+			if (consecutiveFailures.get() != 0) {
+				consecutiveFailures.set(0);
+			}
+		}
+	}
+
+	/**
+	 * 调用方取消了请求，只结束正在处理的计数，不算成功也不算失败
+	 */
+	public void recordCancelled() {
+		calling.decrement();
+	}
+
+	public void recordLatency(long latencyNanos) {
+		if (asyncStatsRecorder == null || !asyncStatsRecorder.offerLatency(this, latencyNanos)) {
+			applyLatency(latencyNanos);
+		}
+	}
+
+	void applyLatency(long latencyNanos) {
+		latency.observe(latencyNanos);
+		window.recordLatency(latencyNanos);
+		Timer timer = latencyTimer;
+		if (timer != null) {
+			timer.record(latencyNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	void setLatencyTimer(Timer latencyTimer) {
+		this.latencyTimer = latencyTimer;
+	}
+
+	public long getChosen() {
+		return chosen.sum();
+	}
+
+	public long getCalling() {
+		return calling.sum();
+	}
+
+	/**
+	 * @return 窗口内的调用次数
+	 */
+	public long getRequests() {
+		return window.getRequests();
+	}
+
+	/**
+	 * @return 窗口内的失败率，0 到 1 之间
+	 */
+	public double getFailedRatio() {
+		return window.getFailedRatio();
+	}
+
+	/**
+	 * @return 窗口内的失败率，窗口内的调用次数少于 minRequests 的时候为 0
+	 */
+	public double getFailedRatio(long minRequests) {
+		return window.getFailedRatio(minRequests);
+	}
+
+	/**
+	 * @return 窗口内的平均耗时，单位纳秒
+	 */
+	public double getAverageLatency() {
+		return window.getAverageLatency();
+	}
+
+	public int getConsecutiveFailures() {
+		return consecutiveFailures.get();
+	}
+
+	public void resetConsecutiveFailures() {
+		consecutiveFailures.set(0);
+	}
+
+	public double getLatency() {
+		return latency.get();
+	}
+}
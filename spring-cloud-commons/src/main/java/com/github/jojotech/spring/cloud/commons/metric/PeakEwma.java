@@ -0,0 +1,86 @@
+package com.github.jojotech.spring.cloud.commons.metric;
+
+/**
+ * 峰值敏感的指数加权移动平均（Peak EWMA），参考 Finagle 的同名实现
+ * 新的耗时比当前值大的时候直接取新值，这样实例变慢（例如 GC 频繁）能被立刻感知
+ * 新的耗时比当前值小的时候按照距离上次记录的时间衰减，时间越久之前的耗时影响越小
+ * 读取的时候也会按照时间衰减，这样长时间没有被调用的实例耗时会逐渐归零，从而重新获得请求来探测真实耗时
+ * <ul>
+ *     <li>当前值与更新时间通过版本号（seqlock）发布，读取不加锁，并且读取只是计算衰减之后的值，不修改状态</li>
+ *     <li>负载均衡每次选择都要读取所有实例的耗时，写入只在调用结束的时候发生，所以只有写入加锁</li>
+ *     <li>每次调用结束都会写入，写入不创建新的对象</li>
+ * </ul>
+ */
+public class PeakEwma {
+	/**
+	 * 衰减时间常数，单位纳秒
+	 */
+	private final double decayNanos;
+	/**
+	 * 写入之前与之后各加一，奇数代表正在写入；读取前后的版本号相同并且是偶数，读到的耗时与更新时间才是同一次写入的
+	 */
+	private volatile long version;
+	/**
+	 * 当前的耗时估计，单位纳秒
+	 */
+	private volatile double cost;
+	/**
+	 * 更新时间
+	 */
+	private volatile long stamp;
+
+	public PeakEwma(long decayNanos) {
+		this.decayNanos = decayNanos;
+		this.stamp = System.nanoTime();
+	}
+
+	/**
+	 * 记录一次调用的耗时
+	 * @param latencyNanos 耗时，单位纳秒
+	 */
+	public void observe(long latencyNanos) {
+		observe(latencyNanos, System.nanoTime());
+	}
+
+	synchronized void observe(long latencyNanos, long now) {
+		double currentCost = cost;
+		long currentStamp = stamp;
+		double nextCost;
+		if (latencyNanos > currentCost) {
+			nextCost = latencyNanos;
+		} else {
+			double weight = weight(currentStamp, now);
+			nextCost = currentCost * weight + latencyNanos * (1 - weight);
+		}
+		version++;
+		cost = nextCost;
+		//并发的时候更新时间可能比之前的早，不回退，避免之后读取的时候重复衰减
+		stamp = Math.max(now, currentStamp);
+		version++;
+	}
+
+	/**
+	 * @return 当前的耗时估计，单位纳秒
+	 */
+	public double get() {
+		return get(System.nanoTime());
+	}
+
+	double get(long now) {
+		while (true) {
+			long before = version;
+			double currentCost = cost;
+			long currentStamp = stamp;
+			if ((before & 1) == 0 && version == before) {
+				return currentCost * weight(currentStamp, now);
+			}
+			//写入只有几条赋值，很快就会结束
+			Thread.onSpinWait();
+		}
+	}
+
+	private double weight(long stamp, long now) {
+		long elapsed = Math.max(now - stamp, 0);
+		return Math.exp(-elapsed / decayNanos);
+	}
+}
@@ -1,22 +1,123 @@
 package com.github.jojotech.spring.cloud.commons.metric;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
-import lombok.extern.log4j.Log4j2;
 
 import org.springframework.cloud.client.ServiceInstance;
 
-@Log4j2
+/**
+ * 实例调用指标，每个实例（host + port）对应一个 {@link InstanceStats}，第一次访问的时候创建，之后记录与读取都不会分配内存：
+ * <ul>
+ *     <li>查找使用线程本地的 {@link InstanceKey} 探针，不拼接字符串</li>
+ *     <li>正在处理的请求数使用 LongAdder，失败次数与连续失败次数直接保存在 {@link InstanceStats} 中，不再按名称查找 MetricRegistry</li>
+ *     <li>成功失败次数按秒记录在 {@link SlidingWindow} 中，负载均衡读取的是最近 windowSeconds 秒准确的失败率</li>
+ * </ul>
+ * 读取会在每次负载均衡的时候对每个实例调用，不能打日志
+ */
 public class ServiceInstanceMetrics {
-	private static final String CALLING = "-Calling";
-	private static final String FAILED = "-Failed";
+	private static final String FAILED_RATIO = "-FailedRatio";
+	public static final int DEFAULT_WINDOW_SECONDS = 10;
+	private static final ThreadLocal<InstanceKey> PROBE = ThreadLocal.withInitial(InstanceKey::new);
 
 	private MetricRegistry metricRegistry;
+	private int windowSeconds = DEFAULT_WINDOW_SECONDS;
+	//为 null 代表同步记录
+	private AsyncStatsRecorder asyncStatsRecorder;
+	private final ConcurrentMap<InstanceKey, InstanceStats> stats = new ConcurrentHashMap<>();
 
 	ServiceInstanceMetrics() {
 	}
 
 	public ServiceInstanceMetrics(MetricRegistry metricRegistry) {
+		this(metricRegistry, DEFAULT_WINDOW_SECONDS);
+	}
+
+	/**
+	 * @param metricRegistry
+	 * @param windowSeconds 统计失败率的滑动窗口长度，单位秒
+	 */
+	public ServiceInstanceMetrics(MetricRegistry metricRegistry, int windowSeconds) {
+		this(metricRegistry, windowSeconds, null);
+	}
+
+	/**
+	 * @param metricRegistry
+	 * @param windowSeconds 统计失败率的滑动窗口长度，单位秒
+	 * @param asyncStatsRecorder 不为 null 则调用结果与耗时异步记录
+	 */
+	public ServiceInstanceMetrics(MetricRegistry metricRegistry, int windowSeconds, AsyncStatsRecorder asyncStatsRecorder) {
+		if (windowSeconds <= 0) {
+			throw new IllegalArgumentException("windowSeconds must be positive, but is " + windowSeconds);
+		}
 		this.metricRegistry = metricRegistry;
+		this.windowSeconds = windowSeconds;
+		this.asyncStatsRecorder = asyncStatsRecorder;
+	}
+
+	/**
+	 * 获取实例的指标，不存在则创建，调用方可以持有返回的对象，避免每次查找
+	 * @param serviceInstance
+	 * @return
+	 */
+	public InstanceStats getStats(ServiceInstance serviceInstance) {
+		return getStats(serviceInstance.getHost(), serviceInstance.getPort());
+	}
+
+	/**
+	 * 按照 host 与 port 获取实例的指标，不需要为了查找构造 ServiceInstance
+	 * @param host
+	 * @param port
+	 * @return
+	 */
+	public InstanceStats getStats(String host, int port) {
+		InstanceKey probe = PROBE.get().set(host, port);
+		InstanceStats instanceStats = stats.get(probe);
+		if (instanceStats != null) {
+			return instanceStats;
+		}
+		return stats.computeIfAbsent(probe.copy(), this::createStats);
+	}
+
+	private InstanceStats createStats(InstanceKey key) {
+		InstanceStats instanceStats = new InstanceStats(key, windowSeconds, asyncStatsRecorder);
+		//失败率注册在 MetricRegistry 中，只在创建的时候拼接一次名称
+		if (metricRegistry != null) {
+			metricRegistry.register(key + FAILED_RATIO, (Gauge<Double>) instanceStats::getFailedRatio);
+		}
+		return instanceStats;
+	}
+
+	/**
+	 * @return 所有实例的指标，只读视图
+	 */
+	public Collection<InstanceStats> getAllStats() {
+		return Collections.unmodifiableCollection(stats.values());
+	}
+
+	/**
+	 * 移除实例的指标，实例已经下线的时候使用，之后再调用这个实例会重新创建
+	 * @param key
+	 * @return 被移除的指标，不存在返回 null
+	 */
+	public InstanceStats remove(InstanceKey key) {
+		//先移除 MetricRegistry 中的指标，这样之后重新创建的时候可以重新注册
+		if (metricRegistry != null) {
+			metricRegistry.remove(key + FAILED_RATIO);
+		}
+		return stats.remove(key);
+	}
+
+	/**
+	 * 记录实例被负载均衡选中
+	 * @param serviceInstance
+	 */
+	public void recordServiceInstanceChosen(ServiceInstance serviceInstance) {
+		getStats(serviceInstance).recordChosen();
 	}
 
 	/**
@@ -24,21 +125,33 @@ public class ServiceInstanceMetrics {
 	 * @param serviceInstance
 	 */
 	public void recordServiceInstanceCall(ServiceInstance serviceInstance) {
-		String key = serviceInstance.getHost() + ":" + serviceInstance.getPort();
-		metricRegistry.counter(key + CALLING).inc();
+		getStats(serviceInstance).recordCall();
 	}
+
 	/**
 	 * 记录调用实例结束
 	 * @param serviceInstance
 	 * @param isSuccess 是否成功
 	 */
 	public void recordServiceInstanceCalled(ServiceInstance serviceInstance, boolean isSuccess) {
-		String key = serviceInstance.getHost() + ":" + serviceInstance.getPort();
-		metricRegistry.counter(key + CALLING).dec();
-		if (!isSuccess) {
-			//不成功则记录失败
-			metricRegistry.meter(key + FAILED).mark();
-		}
+		getStats(serviceInstance).recordCalled(isSuccess);
+	}
+
+	/**
+	 * 获取实例当前的连续失败次数
+	 * @param serviceInstance
+	 * @return
+	 */
+	public int getConsecutiveFailures(ServiceInstance serviceInstance) {
+		return getStats(serviceInstance).getConsecutiveFailures();
+	}
+
+	/**
+	 * 清零实例的连续失败次数，实例被摘除之后重新加入时使用，防止因为摘除前的失败被立刻再次摘除
+	 * @param serviceInstance
+	 */
+	public void resetConsecutiveFailures(ServiceInstance serviceInstance) {
+		getStats(serviceInstance).resetConsecutiveFailures();
 	}
 
 	/**
@@ -47,21 +160,52 @@ public class ServiceInstanceMetrics {
 	 * @return
 	 */
 	public long getCalling(ServiceInstance serviceInstance) {
-		String key = serviceInstance.getHost() + ":" + serviceInstance.getPort();
-		long count = metricRegistry.counter(key + CALLING).getCount();
-		log.info("ServiceInstanceMetrics-getCalling: {} -> {}", key, count);
-		return count;
+		return getStats(serviceInstance).getCalling();
 	}
 
 	/**
-	 * 获取最近一分钟调用失败次数分钟速率，其实是滑动平均数
+	 * 获取滑动窗口内结束的调用次数
 	 * @param serviceInstance
 	 * @return
 	 */
-	public double getFailedInRecentOneMin(ServiceInstance serviceInstance) {
-		String key = serviceInstance.getHost() + ":" + serviceInstance.getPort();
-		double rate = metricRegistry.meter(key + FAILED).getOneMinuteRate();
-		log.info("ServiceInstanceMetrics-getFailedInRecentOneMin: {} -> {}", key, rate);
-		return rate;
+	public long getRequests(ServiceInstance serviceInstance) {
+		return getStats(serviceInstance).getRequests();
+	}
+
+	/**
+	 * 获取滑动窗口内的失败率，窗口内没有调用返回 0
+	 * @param serviceInstance
+	 * @return 失败次数 / 总次数，0 到 1 之间
+	 */
+	public double getFailedRatio(ServiceInstance serviceInstance) {
+		return getStats(serviceInstance).getFailedRatio();
+	}
+
+	/**
+	 * 获取滑动窗口内的失败率，窗口内的调用次数少于 minRequests 的时候返回 0
+	 * @param serviceInstance
+	 * @param minRequests
+	 * @return 失败次数 / 总次数，0 到 1 之间
+	 */
+	public double getFailedRatio(ServiceInstance serviceInstance, long minRequests) {
+		return getStats(serviceInstance).getFailedRatio(minRequests);
+	}
+
+	/**
+	 * 记录调用实例的耗时
+	 * @param serviceInstance
+	 * @param latencyNanos 耗时，单位纳秒
+	 */
+	public void recordServiceInstanceLatency(ServiceInstance serviceInstance, long latencyNanos) {
+		getStats(serviceInstance).recordLatency(latencyNanos);
+	}
+
+	/**
+	 * 获取实例的耗时峰值 EWMA，从来没有调用过的实例返回 0
+	 * @param serviceInstance
+	 * @return 耗时，单位纳秒
+	 */
+	public double getLatency(ServiceInstance serviceInstance) {
+		return getStats(serviceInstance).getLatency();
 	}
 }
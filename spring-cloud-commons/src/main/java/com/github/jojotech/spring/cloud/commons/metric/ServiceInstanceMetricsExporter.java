@@ -0,0 +1,225 @@
+package com.github.jojotech.spring.cloud.commons.metric;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * 把每个实例的负载均衡指标通过 Micrometer 导出（正在处理的请求数，失败率，被选中次数，最近的平均耗时以及耗时直方图），
+ * 从监控上就能看出负载均衡为什么把流量偏向某些实例
+ * <ul>
+ *     <li>导出的实例个数有上限，超过上限的实例不导出，防止实例频繁变化（例如 k8s 每次重启都是新的 ip）导致时间序列爆炸</li>
+ *     <li>实例一段时间没有任何调用（一般是已经下线了）就移除它的所有指标，空出的名额留给新的实例</li>
+ *     <li>耗时直方图只使用固定的 {@link #LATENCY_SLOS} 个桶，不使用 publishPercentileHistogram（1ms 到 30s 之间大约 70 个桶）。
+ *     每个实例最多 {@link #SERIES_PER_INSTANCE} 个时间序列（4 个 gauge/counter，timer 的 count，sum，max，以及 11 个桶加上 +Inf），
+ *     默认上限 200 个实例的时候最多 3800 个</li>
+ * </ul>
+ * 注册与移除都在后台定时执行，不影响调用本身
+ */
+@Log4j2
+public class ServiceInstanceMetricsExporter implements DisposableBean {
+	private static final String PREFIX = "loadbalancer.instance.";
+	//prometheus 的 instance 标签是抓取的目标（也就是当前进程），所以用 target 代表被调用的实例
+	private static final String TAG_TARGET = "target";
+	//耗时直方图的桶，覆盖正常调用到超时的范围
+	static final Duration[] LATENCY_SLOS = {
+			Duration.ofMillis(5), Duration.ofMillis(10), Duration.ofMillis(25), Duration.ofMillis(50),
+			Duration.ofMillis(100), Duration.ofMillis(250), Duration.ofMillis(500), Duration.ofSeconds(1),
+			Duration.ofMillis(2500), Duration.ofSeconds(5), Duration.ofSeconds(10)
+	};
+	//4 个 gauge/counter，timer 的 count，sum，max，每个桶一个以及 +Inf
+	static final int SERIES_PER_INSTANCE = 4 + 3 + LATENCY_SLOS.length + 1;
+
+	private final ServiceInstanceMetrics serviceInstanceMetrics;
+	private final Supplier<MeterRegistry> meterRegistrySupplier;
+	private final int maxInstances;
+	private final long idleTimeoutNanos;
+	private final Disposable sweeping;
+	//已经导出的实例，只在后台检查中读写
+	private final Map<InstanceKey, Exported> exported = new HashMap<>();
+	//没有导出的实例上次检查时的被选中次数，只有与上次检查相比有调用的实例才导出，只在后台检查中读写
+	private Map<InstanceKey, Long> lastChosen = new HashMap<>();
+	//超过上限没有导出的实例个数，只在变化的时候打日志
+	private int lastSkipped;
+
+	public ServiceInstanceMetricsExporter(ServiceInstanceMetrics serviceInstanceMetrics, Supplier<MeterRegistry> meterRegistrySupplier,
+			int maxInstances, Duration idleTimeout, Duration interval) {
+		this(serviceInstanceMetrics, meterRegistrySupplier, maxInstances, idleTimeout, interval, Schedulers.parallel());
+	}
+
+	ServiceInstanceMetricsExporter(ServiceInstanceMetrics serviceInstanceMetrics, Supplier<MeterRegistry> meterRegistrySupplier,
+			int maxInstances, Duration idleTimeout, Duration interval, Scheduler scheduler) {
+		this.serviceInstanceMetrics = serviceInstanceMetrics;
+		this.meterRegistrySupplier = meterRegistrySupplier;
+		this.maxInstances = maxInstances;
+		this.idleTimeoutNanos = idleTimeout.toNanos();
+		long intervalMillis = interval.toMillis();
+		this.sweeping = scheduler.schedulePeriodically(this::sweep, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 后台定时检查，同一时刻只会有一个检查在执行
+	 */
+	synchronized void sweep() {
+		try {
+			MeterRegistry meterRegistry = meterRegistrySupplier.get();
+			if (meterRegistry == null) {
+				return;
+			}
+			long now = System.nanoTime();
+			Map<InstanceKey, Long> nextChosen = new HashMap<>();
+			//先移除空闲的实例，空出名额
+			Iterator<Exported> iterator = exported.values().iterator();
+			while (iterator.hasNext()) {
+				Exported current = iterator.next();
+				if (current.isActive(now) || now - current.activeAt < idleTimeoutNanos) {
+					continue;
+				}
+				remove(meterRegistry, current);
+				iterator.remove();
+				//移除时的被选中次数作为基准，之后有新的调用才会重新导出，否则同一次检查里又会被注册回来
+				nextChosen.put(current.instanceStats.getKey(), current.lastChosen);
+				log.info("remove idle load balancer metrics of {}", current.instanceStats.getKey());
+			}
+			int skipped = 0;
+			for (InstanceStats instanceStats : serviceInstanceMetrics.getAllStats()) {
+				InstanceKey key = instanceStats.getKey();
+				if (exported.containsKey(key)) {
+					continue;
+				}
+				long chosen = instanceStats.getChosen();
+				Long previous = nextChosen.containsKey(key) ? nextChosen.get(key) : lastChosen.get(key);
+				nextChosen.put(key, chosen);
+				//与上次检查相比没有调用的实例不导出，包括从来没有被调用过的以及已经下线的
+				if (chosen == (previous == null ? 0 : previous) && instanceStats.getCalling() == 0) {
+					continue;
+				}
+				if (exported.size() >= maxInstances) {
+					skipped++;
+					continue;
+				}
+				Exported current = register(meterRegistry, instanceStats);
+				current.isActive(now);
+				exported.put(key, current);
+				nextChosen.remove(key);
+			}
+			//只保留还存在的实例
+			lastChosen = nextChosen;
+			if (skipped != lastSkipped) {
+				if (skipped > 0) {
+					log.warn("{} instances exported, reach the limit, {} instances are not exported", exported.size(), skipped);
+				}
+				lastSkipped = skipped;
+			}
+		} catch (Throwable e) {
+			//定时任务抛出异常会导致之后不再执行
+			log.error("export load balancer metrics failed", e);
+		}
+	}
+
+	/**
+	 * 立刻移除实例的所有指标，实例确认下线的时候使用
+	 */
+	public synchronized void remove(InstanceKey key) {
+		Exported current = exported.remove(key);
+		if (current == null) {
+			return;
+		}
+		//之后有新的调用才会重新导出
+		lastChosen.put(key, current.instanceStats.getChosen());
+		MeterRegistry meterRegistry = meterRegistrySupplier.get();
+		if (meterRegistry != null) {
+			remove(meterRegistry, current);
+		}
+	}
+
+	/**
+	 * @return 当前导出的实例个数
+	 */
+	public synchronized int getExportedCount() {
+		return exported.size();
+	}
+
+	private Exported register(MeterRegistry meterRegistry, InstanceStats instanceStats) {
+		Tags tags = Tags.of(Tag.of(TAG_TARGET, instanceStats.getKey().toString()));
+		List<Meter> meters = new ArrayList<>(5);
+		meters.add(Gauge.builder(PREFIX + "calling", instanceStats, InstanceStats::getCalling)
+				.description("in-flight requests of the instance")
+				.tags(tags).register(meterRegistry));
+		meters.add(Gauge.builder(PREFIX + "failed.ratio", instanceStats, InstanceStats::getFailedRatio)
+				.description("failed ratio of the instance in the sliding window")
+				.tags(tags).register(meterRegistry));
+		meters.add(FunctionCounter.builder(PREFIX + "chosen", instanceStats, InstanceStats::getChosen)
+				.description("times the instance is chosen by the load balancer")
+				.tags(tags).register(meterRegistry));
+		meters.add(Gauge.builder(PREFIX + "latency.recent", instanceStats, stats -> stats.getAverageLatency() / TimeUnit.MILLISECONDS.toNanos(1))
+				.description("average latency of the instance in the sliding window")
+				.baseUnit("milliseconds")
+				.tags(tags).register(meterRegistry));
+		Timer latencyTimer = Timer.builder(PREFIX + "latency")
+				.description("latency of the instance")
+				//固定的桶，每个实例的时间序列个数是确定的
+				.serviceLevelObjectives(LATENCY_SLOS)
+				.tags(tags).register(meterRegistry);
+		meters.add(latencyTimer);
+		instanceStats.setLatencyTimer(latencyTimer);
+		log.info("export load balancer metrics of {}", instanceStats.getKey());
+		return new Exported(instanceStats, meters);
+	}
+
+	private static void remove(MeterRegistry meterRegistry, Exported current) {
+		current.instanceStats.setLatencyTimer(null);
+		for (Meter meter : current.meters) {
+			meterRegistry.remove(meter);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		sweeping.dispose();
+	}
+
+	private static class Exported {
+		private final InstanceStats instanceStats;
+		private final List<Meter> meters;
+		private long lastChosen = -1;
+		private long activeAt;
+
+		private Exported(InstanceStats instanceStats, List<Meter> meters) {
+			this.instanceStats = instanceStats;
+			this.meters = meters;
+		}
+
+		/**
+		 * 与上次检查相比有没有被选中过，或者还有正在处理的请求，有则更新最后活跃的时间
+		 */
+		private boolean isActive(long now) {
+			long chosen = instanceStats.getChosen();
+			boolean active = chosen != lastChosen || instanceStats.getCalling() > 0;
+			lastChosen = chosen;
+			if (active) {
+				activeAt = now;
+			}
+			return active;
+		}
+	}
+}
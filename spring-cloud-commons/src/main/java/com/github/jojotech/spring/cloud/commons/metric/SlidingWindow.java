@@ -0,0 +1,145 @@
+package com.github.jojotech.spring.cloud.commons.metric;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按秒分桶的滑动窗口，记录最近 N 秒的成功次数，失败次数以及耗时总和
+ * 之前使用的 Dropwizard Meter 一分钟 EWMA 对突发的失败反应慢，失败之后又要几分钟才能恢复，实例早就恢复了却一直分不到请求
+ * <ul>
+ *     <li>所有桶放在一个 AtomicLongArray 中，每个桶依次是：秒数，成功次数，失败次数，耗时总和</li>
+ *     <li>记录时如果桶的秒数不是当前秒，通过 CAS 抢到这个桶的线程负责清零，整个过程不加锁</li>
+ *     <li>读取时只统计秒数在窗口内的桶，窗口内没有任何调用的时候失败率为 0</li>
+ * </ul>
+ * 清零与其他线程的记录并发时可能丢失极少数几次记录，对于负载均衡来说可以接受
+ */
+public final class SlidingWindow {
+	private static final int STRIDE = 4;
+	private static final int SECOND = 0;
+	private static final int SUCCESS = 1;
+	private static final int FAILED = 2;
+	private static final int LATENCY = 3;
+	//桶的秒数初始值，保证不会与任何真实的秒数相同
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private final int buckets;
+	private final AtomicLongArray data;
+
+	/**
+	 * @param windowSeconds 窗口长度，单位秒
+	 */
+	public SlidingWindow(int windowSeconds) {
+		if (windowSeconds <= 0) {
+			throw new IllegalArgumentException("windowSeconds must be positive, but is " + windowSeconds);
+		}
+		this.buckets = windowSeconds;
+		this.data = new AtomicLongArray(windowSeconds * STRIDE);
+		for (int i = 0; i < windowSeconds; i++) {
+			data.set(i * STRIDE + SECOND, EMPTY);
+		}
+	}
+
+	public void recordSuccess() {
+		recordSuccess(currentSecond());
+	}
+
+	void recordSuccess(long second) {
+		add(second, SUCCESS, 1);
+	}
+
+	public void recordFailed() {
+		recordFailed(currentSecond());
+	}
+
+	void recordFailed(long second) {
+		add(second, FAILED, 1);
+	}
+
+	public void recordLatency(long latencyNanos) {
+		add(currentSecond(), LATENCY, latencyNanos);
+	}
+
+	private void add(long second, int field, long value) {
+		int base = bucket(second);
+		long bucketSecond = data.get(base + SECOND);
+		if (bucketSecond != second) {
+			if (bucketSecond > second) {
+				//已经被更新的秒数占用，这条记录已经不在窗口内了
+				return;
+			}
+			if (data.compareAndSet(base + SECOND, bucketSecond, second)) {
+				data.set(base + SUCCESS, 0);
+				data.set(base + FAILED, 0);
+				data.set(base + LATENCY, 0);
+			}
+		}
+		data.addAndGet(base + field, value);
+	}
+
+	public long getSuccess() {
+		return sum(currentSecond(), SUCCESS);
+	}
+
+	public long getFailed() {
+		return sum(currentSecond(), FAILED);
+	}
+
+	/**
+	 * @return 窗口内的总次数
+	 */
+	public long getRequests() {
+		long second = currentSecond();
+		return sum(second, SUCCESS) + sum(second, FAILED);
+	}
+
+	/**
+	 * @return 窗口内的失败次数 / 总次数，窗口内没有调用返回 0
+	 */
+	public double getFailedRatio() {
+		return getFailedRatio(currentSecond(), 0);
+	}
+
+	/**
+	 * @param minRequests 窗口内的总次数少于这个值的时候返回 0，调用很少的时候一两次偶然的失败不代表实例有问题
+	 * @return 窗口内的失败次数 / 总次数
+	 */
+	public double getFailedRatio(long minRequests) {
+		return getFailedRatio(currentSecond(), minRequests);
+	}
+
+	double getFailedRatio(long second, long minRequests) {
+		long failed = sum(second, FAILED);
+		long total = failed + sum(second, SUCCESS);
+		return total == 0 || total < minRequests ? 0 : (double) failed / total;
+	}
+
+	/**
+	 * @return 窗口内的平均耗时，单位纳秒，窗口内没有调用返回 0
+	 */
+	public double getAverageLatency() {
+		long second = currentSecond();
+		long total = sum(second, SUCCESS) + sum(second, FAILED);
+		return total == 0 ? 0 : (double) sum(second, LATENCY) / total;
+	}
+
+	private long sum(long second, int field) {
+		long sum = 0;
+		long oldest = second - buckets;
+		for (int i = 0; i < buckets; i++) {
+			int base = i * STRIDE;
+			long bucketSecond = data.get(base + SECOND);
+			if (bucketSecond > oldest && bucketSecond <= second) {
+				sum += data.get(base + field);
+			}
+		}
+		return sum;
+	}
+
+	private int bucket(long second) {
+		return (int) Math.floorMod(second, (long) buckets) * STRIDE;
+	}
+
+	private static long currentSecond() {
+		return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+	}
+}
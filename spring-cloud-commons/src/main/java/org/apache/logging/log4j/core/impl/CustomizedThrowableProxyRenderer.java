@@ -1,142 +1,194 @@
 package org.apache.logging.log4j.core.impl;
 
-import java.util.List;
-
+import com.github.jojotech.spring.cloud.commons.log4j2.PackagePrefixTrie;
+import com.github.jojotech.spring.cloud.commons.log4j2.RenderedFrameCache;
+import com.github.jojotech.spring.cloud.commons.log4j2.StackTraceNode;
 import org.apache.logging.log4j.core.pattern.TextRenderer;
-import org.apache.logging.log4j.util.Strings;
 
+/**
+ * 给定 ThrowableProxy 或者 StackTraceNode 之后，渲染过程不分配内存（预热之后，并且栈帧块缓存不再变化）。
+ * ThrowableProxy 与 StackTraceNode 本身每个事件都要创建，不在这个范围内：Throwable.getStackTrace 每次都返回新的数组拷贝，
+ * 即使用线程本地的对象复用节点，每个事件依然要分配，所以没有做复用
+ * <ul>
+ *     <li>缩进只记录层级，输出的时候追加对应个数的 \t，不拼接 prefix 字符串</li>
+ *     <li>数字直接 append，不转换成字符串</li>
+ *     <li>textRenderer 为 null 代表纯文本，直接 append，不经过 TextRenderer；只有带样式的输出才使用 TextRenderer</li>
+ *     <li>栈帧直接按照 StackTraceElement 的格式输出，不经过 ExtendedStackTraceElement.renderOn 中的 Integer.toString</li>
+ * </ul>
+ */
 public class CustomizedThrowableProxyRenderer {
-	private static final String TAB = "\t";
+	private static final char TAB = '\t';
 	private static final String CAUSED_BY_LABEL = "Caused by: ";
 	private static final String SUPPRESSED_LABEL = "Suppressed: ";
 	private static final String WRAPPED_BY_LABEL = "Wrapped by: ";
+	//带样式的输出需要把缩进作为一个字符串交给 TextRenderer，常见的层级预先生成好
+	private static final String[] PREFIXES = new String[8];
+
+	static {
+		for (int i = 0; i < PREFIXES.length; i++) {
+			PREFIXES[i] = "\t".repeat(i);
+		}
+	}
 
 	private CustomizedThrowableProxyRenderer() {
 		// Utility Class
 	}
 
 	@SuppressWarnings("ThrowableResultOfMethodCallIgnored")
-	static void formatWrapper(final StringBuilder sb, final ThrowableProxy cause, final List<String> whiteListedPackages,
+	static void formatWrapper(final StringBuilder sb, final ThrowableProxy cause, final PackagePrefixTrie whiteListedPackages, final RenderedFrameCache renderedFrameCache,
 			final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
 		final Throwable caused = cause.getCauseProxy() != null ? cause.getCauseProxy().getThrowable() : null;
 		if (caused != null) {
-			formatWrapper(sb, cause.getCauseProxy(), whiteListedPackages, textRenderer, suffix, lineSeparator);
+			formatWrapper(sb, cause.getCauseProxy(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
 			sb.append(WRAPPED_BY_LABEL);
 			renderSuffix(suffix, sb, textRenderer);
 		}
 		renderOn(cause, sb, textRenderer);
 		renderSuffix(suffix, sb, textRenderer);
-		textRenderer.render(lineSeparator, sb, "Text");
-		formatElements(sb, Strings.EMPTY, cause.getCommonElementCount(),
-				cause.getThrowable().getStackTrace(), cause.getExtendedStackTrace(), whiteListedPackages, textRenderer, suffix, lineSeparator);
+		render(lineSeparator, sb, "Text", textRenderer);
+		formatElements(sb, 0, cause.getCommonElementCount(), cause.getExtendedStackTrace(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
 	}
 
-	private static void formatCause(final StringBuilder sb, final String prefix, final ThrowableProxy cause,
-			final List<String> whiteListedPackages, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
-		formatThrowableProxy(sb, prefix, CAUSED_BY_LABEL, cause, whiteListedPackages, textRenderer, suffix, lineSeparator);
+	private static void formatCause(final StringBuilder sb, final int depth, final ThrowableProxy cause,
+			final PackagePrefixTrie whiteListedPackages, final RenderedFrameCache renderedFrameCache, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
+		formatThrowableProxy(sb, depth, CAUSED_BY_LABEL, cause, whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
 	}
 
-	private static void formatThrowableProxy(final StringBuilder sb, final String prefix, final String causeLabel,
-			final ThrowableProxy throwableProxy, final List<String> whiteListedPackages,
+	private static void formatThrowableProxy(final StringBuilder sb, final int depth, final String causeLabel,
+			final ThrowableProxy throwableProxy, final PackagePrefixTrie whiteListedPackages, final RenderedFrameCache renderedFrameCache,
 			final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
 		if (throwableProxy == null) {
 			return;
 		}
-		textRenderer.render(prefix, sb, "Prefix");
-		textRenderer.render(causeLabel, sb, "CauseLabel");
+		renderPrefix(depth, sb, textRenderer);
+		render(causeLabel, sb, "CauseLabel", textRenderer);
 		renderOn(throwableProxy, sb, textRenderer);
 		renderSuffix(suffix, sb, textRenderer);
-		textRenderer.render(lineSeparator, sb, "Text");
-		formatElements(sb, prefix, throwableProxy.getCommonElementCount(),
-				throwableProxy.getStackTrace(), throwableProxy.getExtendedStackTrace(), whiteListedPackages, textRenderer, suffix, lineSeparator);
-		formatSuppressed(sb, prefix + TAB, throwableProxy.getSuppressedProxies(), whiteListedPackages, textRenderer, suffix, lineSeparator);
-		formatCause(sb, prefix, throwableProxy.getCauseProxy(), whiteListedPackages, textRenderer, suffix, lineSeparator);
+		render(lineSeparator, sb, "Text", textRenderer);
+		formatElements(sb, depth, throwableProxy.getCommonElementCount(), throwableProxy.getExtendedStackTrace(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
+		formatSuppressed(sb, depth + 1, throwableProxy.getSuppressedProxies(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
+		formatCause(sb, depth, throwableProxy.getCauseProxy(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
 	}
 
-	private static void formatSuppressed(final StringBuilder sb, final String prefix, final ThrowableProxy[] suppressedProxies,
-			final List<String> whiteListedPackages, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
+	private static void formatSuppressed(final StringBuilder sb, final int depth, final ThrowableProxy[] suppressedProxies,
+			final PackagePrefixTrie whiteListedPackages, final RenderedFrameCache renderedFrameCache, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
 		if (suppressedProxies == null) {
 			return;
 		}
 		for (final ThrowableProxy suppressedProxy : suppressedProxies) {
-			formatThrowableProxy(sb, prefix, SUPPRESSED_LABEL, suppressedProxy, whiteListedPackages, textRenderer, suffix, lineSeparator);
+			formatThrowableProxy(sb, depth, SUPPRESSED_LABEL, suppressedProxy, whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
+		}
+	}
+
+	private static void formatCause(final StringBuilder sb, final int depth, final StackTraceNode cause,
+			final PackagePrefixTrie whiteListedPackages, final RenderedFrameCache renderedFrameCache, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
+		formatStackTraceNode(sb, depth, CAUSED_BY_LABEL, cause, whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
+	}
+
+	private static void formatStackTraceNode(final StringBuilder sb, final int depth, final String causeLabel,
+			final StackTraceNode stackTraceNode, final PackagePrefixTrie whiteListedPackages, final RenderedFrameCache renderedFrameCache,
+			final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
+		if (stackTraceNode == null) {
+			return;
+		}
+		renderPrefix(depth, sb, textRenderer);
+		render(causeLabel, sb, "CauseLabel", textRenderer);
+		renderOn(stackTraceNode, sb, textRenderer);
+		renderSuffix(suffix, sb, textRenderer);
+		render(lineSeparator, sb, "Text", textRenderer);
+		formatElements(sb, depth, stackTraceNode.getCommonElementCount(), stackTraceNode.getExtendedStackTrace(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
+		formatSuppressed(sb, depth + 1, stackTraceNode.getSuppressed(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
+		formatCause(sb, depth, stackTraceNode.getCause(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
+	}
+
+	private static void formatSuppressed(final StringBuilder sb, final int depth, final StackTraceNode[] suppressed,
+			final PackagePrefixTrie whiteListedPackages, final RenderedFrameCache renderedFrameCache, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
+		for (final StackTraceNode stackTraceNode : suppressed) {
+			formatStackTraceNode(sb, depth, SUPPRESSED_LABEL, stackTraceNode, whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
+		}
+	}
+
+	private static void formatElements(final StringBuilder sb, final int depth, final int commonCount,
+			final ExtendedStackTraceElement[] extStackTrace, final PackagePrefixTrie whiteListedPackages,
+			final RenderedFrameCache renderedFrameCache, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
+		if (renderedFrameCache == null) {
+			renderElements(sb, depth, commonCount, extStackTrace, whiteListedPackages, textRenderer, suffix, lineSeparator);
+			return;
+		}
+		//同一个形状的异常直接复用之前渲染好的栈帧块
+		final int fingerprint = RenderedFrameCache.fingerprint(extStackTrace, commonCount, depth, suffix);
+		final String rendered = renderedFrameCache.get(fingerprint, extStackTrace, commonCount, depth, suffix);
+		if (rendered != null) {
+			sb.append(rendered);
+			return;
 		}
+		final int start = sb.length();
+		renderElements(sb, depth, commonCount, extStackTrace, whiteListedPackages, textRenderer, suffix, lineSeparator);
+		renderedFrameCache.put(fingerprint, extStackTrace, commonCount, depth, suffix, sb.substring(start));
 	}
 
-	private static void formatElements(final StringBuilder sb, final String prefix, final int commonCount,
-			final StackTraceElement[] causedTrace, final ExtendedStackTraceElement[] extStackTrace,
-			final List<String> whiteListedPackages, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
+	private static void renderElements(final StringBuilder sb, final int depth, final int commonCount,
+			final ExtendedStackTraceElement[] extStackTrace, final PackagePrefixTrie whiteListedPackages,
+			final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
 		if (whiteListedPackages == null || whiteListedPackages.isEmpty()) {
 			for (final ExtendedStackTraceElement element : extStackTrace) {
-				formatEntry(element, sb, prefix, textRenderer, suffix, lineSeparator);
+				formatEntry(element, sb, depth, textRenderer, suffix, lineSeparator);
 			}
 		} else {
 			int count = 0;
-			for (int i = 0; i < extStackTrace.length; ++i) {
-				if (whiteListedElement(causedTrace[i], whiteListedPackages)) {
+			for (final ExtendedStackTraceElement element : extStackTrace) {
+				if (whiteListedPackages.matches(element.getClassName())) {
 					if (count > 0) {
-						appendSuppressedCount(sb, prefix, count, textRenderer, suffix, lineSeparator);
+						appendSuppressedCount(sb, depth, count, textRenderer, suffix, lineSeparator);
 						count = 0;
 					}
-					formatEntry(extStackTrace[i], sb, prefix, textRenderer, suffix, lineSeparator);
+					formatEntry(element, sb, depth, textRenderer, suffix, lineSeparator);
 				} else {
 					++count;
 				}
 			}
 			if (count > 0) {
-				appendSuppressedCount(sb, prefix, count, textRenderer, suffix, lineSeparator);
+				appendSuppressedCount(sb, depth, count, textRenderer, suffix, lineSeparator);
 			}
 		}
 		if (commonCount != 0) {
-			textRenderer.render(prefix, sb, "Prefix");
-			textRenderer.render("\t... ", sb, "More");
-			textRenderer.render(Integer.toString(commonCount), sb, "More");
-			textRenderer.render(" more", sb, "More");
+			renderPrefix(depth, sb, textRenderer);
+			render("\t... ", sb, "More", textRenderer);
+			render(commonCount, sb, "More", textRenderer);
+			render(" more", sb, "More", textRenderer);
 			renderSuffix(suffix, sb, textRenderer);
-			textRenderer.render(lineSeparator, sb, "Text");
+			render(lineSeparator, sb, "Text", textRenderer);
 		}
 	}
 
 	private static void renderSuffix(final String suffix, final StringBuilder sb, final TextRenderer textRenderer) {
 		if (!suffix.isEmpty()) {
-			textRenderer.render(" ", sb, "Suffix");
-			textRenderer.render(suffix, sb, "Suffix");
+			render(" ", sb, "Suffix", textRenderer);
+			render(suffix, sb, "Suffix", textRenderer);
 		}
 	}
 
-	private static void appendSuppressedCount(final StringBuilder sb, final String prefix, final int count,
+	private static void appendSuppressedCount(final StringBuilder sb, final int depth, final int count,
 			final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
-		textRenderer.render(prefix, sb, "Prefix");
+		renderPrefix(depth, sb, textRenderer);
 		if (count == 1) {
-			textRenderer.render("\t... ", sb, "Suppressed");
+			render("\t... ", sb, "Suppressed", textRenderer);
 		} else {
-			textRenderer.render("\t... suppressed ", sb, "Suppressed");
-			textRenderer.render(Integer.toString(count), sb, "Suppressed");
-			textRenderer.render(" lines", sb, "Suppressed");
+			render("\t... suppressed ", sb, "Suppressed", textRenderer);
+			render(count, sb, "Suppressed", textRenderer);
+			render(" lines", sb, "Suppressed", textRenderer);
 		}
 		renderSuffix(suffix, sb, textRenderer);
-		textRenderer.render(lineSeparator, sb, "Text");
+		render(lineSeparator, sb, "Text", textRenderer);
 	}
 
 	private static void formatEntry(final ExtendedStackTraceElement extStackTraceElement, final StringBuilder sb,
-			final String prefix, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
-		textRenderer.render(prefix, sb, "Prefix");
-		textRenderer.render("\tat ", sb, "At");
-		extStackTraceElement.renderOn(sb, textRenderer);
+			final int depth, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
+		renderPrefix(depth, sb, textRenderer);
+		render("\tat ", sb, "At", textRenderer);
+		renderOn(extStackTraceElement, sb, textRenderer);
 		renderSuffix(suffix, sb, textRenderer);
-		textRenderer.render(lineSeparator, sb, "Text");
-	}
-
-	private static boolean whiteListedElement(final StackTraceElement element, final List<String> whiteListedPackages) {
-		if (whiteListedPackages != null) {
-			final String className = element.getClassName();
-			for (final String pkg : whiteListedPackages) {
-				if (className.startsWith(pkg)) {
-					return true;
-				}
-			}
-		}
-		return false;
+		render(lineSeparator, sb, "Text", textRenderer);
 	}
 
 	/**
@@ -144,21 +196,43 @@ public class CustomizedThrowableProxyRenderer {
 	 *
 	 * @param src            ThrowableProxy instance to format
 	 * @param sb             Destination.
-	 * @param whiteListedPackages List of packages to be ignored in the trace.
-	 * @param textRenderer   The message renderer.
+	 * @param whiteListedPackages Compiled packages to be kept in the trace, other frames are folded.
+	 * @param renderedFrameCache Cache of rendered frame blocks, null means no cache.
+	 * @param textRenderer   The message renderer, null means plain text appended directly.
 	 * @param suffix         Append this to the end of each stack frame.
 	 * @param lineSeparator  The end-of-line separator.
 	 */
-	public static void formatExtendedStackTraceTo(final ThrowableProxy src, final StringBuilder sb, final List<String> whiteListedPackages, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
-		textRenderer.render(src.getName(), sb, "Name");
-		textRenderer.render(": ", sb, "NameMessageSeparator");
-		textRenderer.render(src.getMessage(), sb, "Message");
+	public static void formatExtendedStackTraceTo(final ThrowableProxy src, final StringBuilder sb, final PackagePrefixTrie whiteListedPackages, final RenderedFrameCache renderedFrameCache, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
+		render(src.getName(), sb, "Name", textRenderer);
+		render(": ", sb, "NameMessageSeparator", textRenderer);
+		render(src.getMessage(), sb, "Message", textRenderer);
 		renderSuffix(suffix, sb, textRenderer);
-		textRenderer.render(lineSeparator, sb, "Text");
-		final StackTraceElement[] causedTrace = src.getThrowable() != null ? src.getThrowable().getStackTrace() : null;
-		formatElements(sb, Strings.EMPTY, 0, causedTrace, src.getExtendedStackTrace(), whiteListedPackages, textRenderer, suffix, lineSeparator);
-		formatSuppressed(sb, TAB, src.getSuppressedProxies(), whiteListedPackages, textRenderer, suffix, lineSeparator);
-		formatCause(sb, Strings.EMPTY, src.getCauseProxy(), whiteListedPackages, textRenderer, suffix, lineSeparator);
+		render(lineSeparator, sb, "Text", textRenderer);
+		formatElements(sb, 0, 0, src.getExtendedStackTrace(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
+		formatSuppressed(sb, 1, src.getSuppressedProxies(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
+		formatCause(sb, 0, src.getCauseProxy(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
+	}
+
+	/**
+	 * Formats the stack trace built directly from the Throwable, without creating a ThrowableProxy.
+	 *
+	 * @param src            StackTraceNode instance to format
+	 * @param sb             Destination.
+	 * @param whiteListedPackages Compiled packages to be kept in the trace, other frames are folded.
+	 * @param renderedFrameCache Cache of rendered frame blocks, null means no cache.
+	 * @param textRenderer   The message renderer, null means plain text appended directly.
+	 * @param suffix         Append this to the end of each stack frame.
+	 * @param lineSeparator  The end-of-line separator.
+	 */
+	public static void formatExtendedStackTraceTo(final StackTraceNode src, final StringBuilder sb, final PackagePrefixTrie whiteListedPackages, final RenderedFrameCache renderedFrameCache, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
+		render(src.getName(), sb, "Name", textRenderer);
+		render(": ", sb, "NameMessageSeparator", textRenderer);
+		render(src.getMessage(), sb, "Message", textRenderer);
+		renderSuffix(suffix, sb, textRenderer);
+		render(lineSeparator, sb, "Text", textRenderer);
+		formatElements(sb, 0, 0, src.getExtendedStackTrace(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
+		formatSuppressed(sb, 1, src.getSuppressed(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
+		formatCause(sb, 0, src.getCause(), whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
 	}
 
 	/**
@@ -166,31 +240,108 @@ public class CustomizedThrowableProxyRenderer {
 	 *
 	 * @param src            Throwable whose cause to render
 	 * @param sb             Destination to render the formatted Throwable that caused this Throwable onto.
-	 * @param whiteListedPackages The List of packages to be suppressed from the stack trace.
-	 * @param textRenderer   The text renderer.
+	 * @param whiteListedPackages Compiled packages to be kept in the trace, other frames are folded.
+	 * @param renderedFrameCache Cache of rendered frame blocks, null means no cache.
+	 * @param textRenderer   The text renderer, null means plain text appended directly.
 	 * @param suffix         Append this to the end of each stack frame.
 	 * @param lineSeparator  The end-of-line separator.
 	 */
-	static void formatCauseStackTrace(final ThrowableProxy src, final StringBuilder sb, final List<String> whiteListedPackages, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
+	static void formatCauseStackTrace(final ThrowableProxy src, final StringBuilder sb, final PackagePrefixTrie whiteListedPackages, final RenderedFrameCache renderedFrameCache, final TextRenderer textRenderer, final String suffix, final String lineSeparator) {
 		final ThrowableProxy causeProxy = src.getCauseProxy();
 		if (causeProxy != null) {
-			formatWrapper(sb, causeProxy, whiteListedPackages, textRenderer, suffix, lineSeparator);
+			formatWrapper(sb, causeProxy, whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
 			sb.append(WRAPPED_BY_LABEL);
 			renderSuffix(suffix, sb, textRenderer);
 		}
 		renderOn(src, sb, textRenderer);
 		renderSuffix(suffix, sb, textRenderer);
-		textRenderer.render(lineSeparator, sb, "Text");
-		formatElements(sb, Strings.EMPTY, 0, src.getStackTrace(), src.getExtendedStackTrace(),
-				whiteListedPackages, textRenderer, suffix, lineSeparator);
+		render(lineSeparator, sb, "Text", textRenderer);
+		formatElements(sb, 0, 0, src.getExtendedStackTrace(),
+				whiteListedPackages, renderedFrameCache, textRenderer, suffix, lineSeparator);
 	}
 
 	private static void renderOn(final ThrowableProxy src, final StringBuilder output, final TextRenderer textRenderer) {
 		final String msg = src.getMessage();
-		textRenderer.render(src.getName(), output, "Name");
+		render(src.getName(), output, "Name", textRenderer);
+		if (msg != null) {
+			render(": ", output, "NameMessageSeparator", textRenderer);
+			render(msg, output, "Message", textRenderer);
+		}
+	}
+
+	private static void renderOn(final StackTraceNode src, final StringBuilder output, final TextRenderer textRenderer) {
+		final String msg = src.getMessage();
+		render(src.getName(), output, "Name", textRenderer);
 		if (msg != null) {
-			textRenderer.render(": ", output, "NameMessageSeparator");
-			textRenderer.render(msg, output, "Message");
+			render(": ", output, "NameMessageSeparator", textRenderer);
+			render(msg, output, "Message", textRenderer);
+		}
+	}
+
+	/**
+	 * 与 ExtendedStackTraceElement.renderOn 的输出一致
+	 */
+	private static void renderOn(final ExtendedStackTraceElement element, final StringBuilder output, final TextRenderer textRenderer) {
+		final StackTraceElement stackTraceElement = element.getStackTraceElement();
+		final String fileName = stackTraceElement.getFileName();
+		final int lineNumber = stackTraceElement.getLineNumber();
+		render(stackTraceElement.getClassName(), output, "StackTraceElement.ClassName", textRenderer);
+		render(".", output, "StackTraceElement.ClassMethodSeparator", textRenderer);
+		render(stackTraceElement.getMethodName(), output, "StackTraceElement.MethodName", textRenderer);
+		if (stackTraceElement.isNativeMethod()) {
+			render("(Native Method)", output, "StackTraceElement.NativeMethod", textRenderer);
+		} else if (fileName != null && lineNumber >= 0) {
+			render("(", output, "StackTraceElement.Container", textRenderer);
+			render(fileName, output, "StackTraceElement.FileName", textRenderer);
+			render(":", output, "StackTraceElement.ContainerSeparator", textRenderer);
+			render(lineNumber, output, "StackTraceElement.LineNumber", textRenderer);
+			render(")", output, "StackTraceElement.Container", textRenderer);
+		} else if (fileName != null) {
+			render("(", output, "StackTraceElement.Container", textRenderer);
+			render(fileName, output, "StackTraceElement.FileName", textRenderer);
+			render(")", output, "StackTraceElement.Container", textRenderer);
+		} else {
+			render("(", output, "StackTraceElement.Container", textRenderer);
+			render("Unknown Source", output, "StackTraceElement.UnknownSource", textRenderer);
+			render(")", output, "StackTraceElement.Container", textRenderer);
+		}
+		final ExtendedClassInfo extraClassInfo = element.getExtraClassInfo();
+		if (extraClassInfo != null) {
+			render(" ", output, "Text", textRenderer);
+			if (!extraClassInfo.getExact()) {
+				render("~", output, "ExtraClassInfo.Inexact", textRenderer);
+			}
+			render("[", output, "ExtraClassInfo.Container", textRenderer);
+			render(extraClassInfo.getLocation(), output, "ExtraClassInfo.Location", textRenderer);
+			render(":", output, "ExtraClassInfo.ContainerSeparator", textRenderer);
+			render(extraClassInfo.getVersion(), output, "ExtraClassInfo.Version", textRenderer);
+			render("]", output, "ExtraClassInfo.Container", textRenderer);
+		}
+	}
+
+	private static void renderPrefix(final int depth, final StringBuilder output, final TextRenderer textRenderer) {
+		if (textRenderer == null) {
+			for (int i = 0; i < depth; i++) {
+				output.append(TAB);
+			}
+			return;
+		}
+		textRenderer.render(depth < PREFIXES.length ? PREFIXES[depth] : "\t".repeat(depth), output, "Prefix");
+	}
+
+	private static void render(final String text, final StringBuilder output, final String styleName, final TextRenderer textRenderer) {
+		if (textRenderer == null) {
+			output.append(text);
+		} else {
+			textRenderer.render(text, output, styleName);
+		}
+	}
+
+	private static void render(final int number, final StringBuilder output, final String styleName, final TextRenderer textRenderer) {
+		if (textRenderer == null) {
+			output.append(number);
+		} else {
+			textRenderer.render(Integer.toString(number), output, styleName);
 		}
 	}
 }
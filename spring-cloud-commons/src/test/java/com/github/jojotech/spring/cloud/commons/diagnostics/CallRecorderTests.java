@@ -0,0 +1,100 @@
+package com.github.jojotech.spring.cloud.commons.diagnostics;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.github.resilience4j.bulkhead.ThreadPoolBulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class CallRecorderTests {
+	@Test
+	public void ring() {
+		CallRecorder callRecorder = new CallRecorder(true, 3, 0);
+		CircuitBreaker circuitBreaker = CircuitBreaker.ofDefaults("call-recorder-test");
+		for (int i = 0; i < 6; i++) {
+			Assertions.assertFalse(callRecorder.record("test-service", "127.0.0.1:8080", "GET", "http://127.0.0.1:8080/" + i,
+					200, null, 1000, circuitBreaker, null, 0));
+		}
+		Assertions.assertTrue(callRecorder.record("test-service", "127.0.0.1:8080", "GET", "http://127.0.0.1:8080/6",
+				-1, new IOException("connect refused"), 1000, circuitBreaker, null, 0x1a));
+		List<String> records = records(callRecorder);
+		//容量向上取整到 4，只保留最近的 4 条，按照时间排序
+		Assertions.assertEquals(4, records.size());
+		Assertions.assertTrue(records.get(0).contains("http://127.0.0.1:8080/3"));
+		Assertions.assertTrue(records.get(3).contains("http://127.0.0.1:8080/6"));
+		Assertions.assertTrue(records.get(3).contains("connect refused"));
+		Assertions.assertTrue(records.get(3).contains("circuitBreaker=CLOSED"));
+		Assertions.assertTrue(records.get(3).contains("trace=1a"));
+		Assertions.assertTrue(callRecorder.record("test-service", "127.0.0.1:8080", "POST", "http://127.0.0.1:8080/7",
+				503, null, 1000, null, null, 0));
+		//输出日志不影响 actuator 端点查看
+		callRecorder.dump("test");
+		Assertions.assertEquals(4, records(callRecorder).size());
+	}
+
+	@Test
+	public void otherThreads() throws InterruptedException {
+		CallRecorder callRecorder = new CallRecorder(true, 4, 0);
+		AtomicReference<Map<String, List<String>>> snapshot = new AtomicReference<>();
+		Thread thread = new Thread(() -> {
+			callRecorder.record("test-service", "127.0.0.1:8080", "GET", "http://127.0.0.1:8080/", 200, null, 1000, null, null, 0);
+			snapshot.set(callRecorder.snapshot());
+		}, "call-recorder-test-thread");
+		thread.start();
+		thread.join();
+		Assertions.assertEquals(1, snapshot.get().size());
+		Assertions.assertTrue(snapshot.get().keySet().iterator().next().startsWith("call-recorder-test-thread"));
+		//线程结束之后记录被清理
+		Assertions.assertTrue(callRecorder.snapshot().isEmpty());
+	}
+
+	@Test
+	public void circuitBreakerRecords() throws InterruptedException {
+		CallRecorder callRecorder = new CallRecorder(true, 4, 0);
+		CircuitBreaker circuitBreaker = CircuitBreaker.ofDefaults("call-recorder-test-instance");
+		CircuitBreaker other = CircuitBreaker.ofDefaults("call-recorder-test-other");
+		//调用在当前线程上记录，断路器打开的事件在另一个线程上发布（例如 Feign 的线程池隔离线程）
+		callRecorder.record("test-service", "127.0.0.1:8080", "GET", "http://127.0.0.1:8080/3", 500, null, 1000, circuitBreaker, null, 0);
+		callRecorder.record("test-service", "127.0.0.1:8081", "GET", "http://127.0.0.1:8081/4", 200, null, 1000, other, null, 0);
+		AtomicReference<List<String>> records = new AtomicReference<>();
+		Thread breakerThread = new Thread(() -> records.set(callRecorder.circuitBreakerRecords("call-recorder-test-instance")),
+				"call-recorder-test-bulkhead");
+		breakerThread.start();
+		breakerThread.join();
+		Assertions.assertEquals(1, records.get().size());
+		Assertions.assertTrue(records.get().get(0).startsWith(Thread.currentThread().getName()));
+		Assertions.assertTrue(records.get().get(0).contains("http://127.0.0.1:8080/3"));
+	}
+
+	@Test
+	public void bulkheadOnlyOnFailure() throws Exception {
+		CallRecorder callRecorder = new CallRecorder(true, 4, 0);
+		ThreadPoolBulkhead threadPoolBulkhead = ThreadPoolBulkhead.ofDefaults("call-recorder-test");
+		try {
+			//成功的调用不读取线程池的排队数，排队数需要获取队列的锁
+			callRecorder.record("test-service", "127.0.0.1:8080", "GET", "http://127.0.0.1:8080/", 200, null, 1000, null, threadPoolBulkhead, 0);
+			callRecorder.record("test-service", "127.0.0.1:8080", "GET", "http://127.0.0.1:8080/", 503, null, 1000, null, threadPoolBulkhead, 0);
+			List<String> records = records(callRecorder);
+			Assertions.assertFalse(records.get(0).contains("bulkhead("));
+			Assertions.assertTrue(records.get(1).contains("bulkhead(queue=0"));
+		} finally {
+			threadPoolBulkhead.close();
+		}
+	}
+
+	@Test
+	public void disabled() {
+		CallRecorder callRecorder = new CallRecorder(false, 4, 0);
+		Assertions.assertTrue(callRecorder.record("test-service", "127.0.0.1:8080", "GET", "http://127.0.0.1:8080/", 500, null, 1000, null, null, 0));
+		Assertions.assertTrue(callRecorder.snapshot().isEmpty());
+	}
+
+	private static List<String> records(CallRecorder callRecorder) {
+		String thread = Thread.currentThread().getName() + "#" + Thread.currentThread().getId();
+		return callRecorder.snapshot().get(thread);
+	}
+}
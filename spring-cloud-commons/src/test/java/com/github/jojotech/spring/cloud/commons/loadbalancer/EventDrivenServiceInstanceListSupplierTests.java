@@ -0,0 +1,94 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+import org.springframework.cloud.loadbalancer.core.DiscoveryClientServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.mock.env.MockEnvironment;
+
+class EventDrivenServiceInstanceListSupplierTests {
+	private final ServiceInstance instance1 = new DefaultServiceInstance("instance1", "test", "10.238.1.1", 8080, false);
+	private final ServiceInstance instance2 = new DefaultServiceInstance("instance2", "test", "10.238.2.2", 8080, false);
+
+	@Test
+	public void pushOnRefresh() throws Exception {
+		InMemoryDiscoveryClient discoveryClient = new InMemoryDiscoveryClient();
+		discoveryClient.instances = List.of(instance1);
+		ServiceInstanceListRefreshNotifier notifier = new ServiceInstanceListRefreshNotifier();
+		EventDrivenServiceInstanceListSupplier supplier = new EventDrivenServiceInstanceListSupplier(
+				new DiscoveryClientServiceInstanceListSupplier(discoveryClient,
+						new MockEnvironment().withProperty(LoadBalancerClientFactory.PROPERTY_NAME, "test")),
+				notifier, Duration.ofMinutes(10));
+		List<ServiceInstance> first = supplier.get().blockFirst(Duration.ofSeconds(5));
+		Assertions.assertEquals(List.of(instance1), first);
+
+		//服务发现刷新了，但是实例没有变化，还是原来的列表对象
+		notifier.onApplicationEvent(new HeartbeatEvent(this, 1));
+		Thread.sleep(200);
+		Assertions.assertSame(first, supplier.get().blockFirst(Duration.ofSeconds(5)));
+
+		//新增实例，刷新之后立刻推送，不需要等待缓存过期
+		discoveryClient.instances = List.of(instance1, instance2);
+		notifier.onApplicationEvent(new HeartbeatEvent(this, 2));
+		List<ServiceInstance> second = waitForChange(supplier, first);
+		Assertions.assertEquals(List.of(instance1, instance2), second);
+		//没有变化的实例保留原来的对象
+		Assertions.assertSame(first.get(0), second.get(0));
+
+		//取消注册之后不再更新
+		supplier.destroy();
+		discoveryClient.instances = List.of(instance2);
+		notifier.onApplicationEvent(new HeartbeatEvent(this, 3));
+		Thread.sleep(200);
+		Assertions.assertSame(second, supplier.get().blockFirst(Duration.ofSeconds(5)));
+	}
+
+	@Test
+	public void applyDelta() {
+		List<ServiceInstance> current = List.of(instance1, instance2);
+		Assertions.assertSame(current, EventDrivenServiceInstanceListSupplier.applyDelta(current, List.of(instance1, instance2)));
+		DefaultServiceInstance movedInstance2 = new DefaultServiceInstance("instance2", "test", "10.238.3.3", 8080, false);
+		List<ServiceInstance> updated = EventDrivenServiceInstanceListSupplier.applyDelta(current, List.of(instance1, movedInstance2));
+		Assertions.assertSame(instance1, updated.get(0));
+		Assertions.assertSame(movedInstance2, updated.get(1));
+		Assertions.assertEquals(List.of(instance1), EventDrivenServiceInstanceListSupplier.applyDelta(current, List.of(instance1)));
+	}
+
+	private static List<ServiceInstance> waitForChange(EventDrivenServiceInstanceListSupplier supplier, List<ServiceInstance> previous) throws InterruptedException {
+		for (int i = 0; i < 50; i++) {
+			List<ServiceInstance> current = supplier.get().blockFirst(Duration.ofSeconds(5));
+			if (current != previous) {
+				return current;
+			}
+			Thread.sleep(100);
+		}
+		return previous;
+	}
+
+	private static class InMemoryDiscoveryClient implements DiscoveryClient {
+		private volatile List<ServiceInstance> instances = List.of();
+
+		@Override
+		public String description() {
+			return "in memory";
+		}
+
+		@Override
+		public List<ServiceInstance> getInstances(String serviceId) {
+			return instances;
+		}
+
+		@Override
+		public List<String> getServices() {
+			return List.of("test");
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkhead;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+
+class InstanceResourceJanitorTests {
+	private final ServiceInstance instance1 = new DefaultServiceInstance("instance1", "test", "10.238.1.1", 8080, false);
+	private final ServiceInstance instance2 = new DefaultServiceInstance("instance2", "test", "10.238.2.2", 8080, false);
+
+	@Test
+	public void reclaim() throws Exception {
+		InMemoryDiscoveryClient discoveryClient = new InMemoryDiscoveryClient();
+		discoveryClient.instances = List.of(instance1, instance2);
+		ServiceInstanceMetrics serviceInstanceMetrics = new ServiceInstanceMetrics(new MetricRegistry());
+		CircuitBreakerRegistry circuitBreakerRegistry = CircuitBreakerRegistry.ofDefaults();
+		ThreadPoolBulkheadRegistry threadPoolBulkheadRegistry = ThreadPoolBulkheadRegistry.ofDefaults();
+		for (ServiceInstance serviceInstance : List.of(instance1, instance2)) {
+			String instanceId = serviceInstance.getHost() + ":" + serviceInstance.getPort();
+			serviceInstanceMetrics.recordServiceInstanceCall(serviceInstance);
+			serviceInstanceMetrics.recordServiceInstanceCalled(serviceInstance, true);
+			//与 WebClient 以及 OpenFeign 中的命名方式相同
+			circuitBreakerRegistry.circuitBreaker(instanceId);
+			circuitBreakerRegistry.circuitBreaker(instanceId + ":public abstract java.lang.String Client.get()");
+			threadPoolBulkheadRegistry.bulkhead("test-client:" + instanceId);
+		}
+		ThreadPoolBulkhead bulkhead = threadPoolBulkheadRegistry.bulkhead("test-client:10.238.1.1:8080");
+		Scheduler scheduler = Schedulers.newSingle("janitor-test");
+		//手动触发检查，下线就立刻回收
+		InstanceResourceJanitor janitor = new InstanceResourceJanitor(() -> discoveryClient, serviceInstanceMetrics, () -> null,
+				() -> circuitBreakerRegistry, () -> threadPoolBulkheadRegistry, Duration.ZERO, Duration.ofHours(1), scheduler);
+		try {
+			Assertions.assertEquals(0, janitor.sweep().getInstanceMetrics());
+
+			//instance1 下线
+			discoveryClient.instances = List.of(instance2);
+			InstanceResourceJanitor.Reclaimed reclaimed = janitor.sweep();
+			Assertions.assertEquals(1, reclaimed.getInstanceMetrics());
+			Assertions.assertEquals(2, reclaimed.getCircuitBreakers());
+			Assertions.assertEquals(1, reclaimed.getThreadPoolBulkheads());
+			Assertions.assertEquals(1, serviceInstanceMetrics.getAllStats().size());
+			Assertions.assertEquals(2, circuitBreakerRegistry.getAllCircuitBreakers().size());
+			Assertions.assertEquals(1, threadPoolBulkheadRegistry.getAllBulkheads().size());
+			Assertions.assertThrows(Exception.class, () -> bulkhead.submit(() -> "closed").toCompletableFuture().join());
+
+			//服务发现没有任何实例（例如还没有拉取成功），不回收
+			discoveryClient.instances = List.of();
+			Assertions.assertEquals(0, janitor.sweep().getInstanceMetrics());
+			Assertions.assertEquals(1, janitor.getTotal().getInstanceMetrics());
+		} finally {
+			janitor.destroy();
+			scheduler.dispose();
+		}
+	}
+
+	@Test
+	public void belongsTo() {
+		Set<String> keys = Set.of("10.238.1.1:80");
+		Assertions.assertTrue(InstanceResourceJanitor.belongsTo("10.238.1.1:80", keys));
+		Assertions.assertTrue(InstanceResourceJanitor.belongsTo("10.238.1.1:80:method", keys));
+		Assertions.assertTrue(InstanceResourceJanitor.belongsTo("client:10.238.1.1:80", keys));
+		Assertions.assertFalse(InstanceResourceJanitor.belongsTo("10.238.1.1:8080", keys));
+		Assertions.assertFalse(InstanceResourceJanitor.belongsTo("client:110.238.1.1:80", keys));
+	}
+
+	private static class InMemoryDiscoveryClient implements DiscoveryClient {
+		private volatile List<ServiceInstance> instances = List.of();
+
+		@Override
+		public String description() {
+			return "in memory";
+		}
+
+		@Override
+		public List<ServiceInstance> getInstances(String serviceId) {
+			return instances;
+		}
+
+		@Override
+		public List<String> getServices() {
+			return List.of("test");
+		}
+	}
+}
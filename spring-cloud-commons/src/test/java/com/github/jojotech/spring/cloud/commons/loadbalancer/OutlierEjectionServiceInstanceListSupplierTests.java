@@ -0,0 +1,63 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.time.Duration;
+import java.util.List;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.jojotech.spring.cloud.commons.config.LoadBalancerConfigurationProperties.OutlierEjectionProperties;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+import static org.mockito.Mockito.when;
+
+class OutlierEjectionServiceInstanceListSupplierTests {
+	@Test
+	public void eject() throws Exception {
+		ServiceInstance instance1 = new DefaultServiceInstance("instance1", "test", "10.238.1.1", 8080, false);
+		ServiceInstance instance2 = new DefaultServiceInstance("instance2", "test", "10.238.2.2", 8080, false);
+		ServiceInstance instance3 = new DefaultServiceInstance("instance3", "test", "10.238.3.3", 8080, false);
+		List<ServiceInstance> serviceInstances = List.of(instance1, instance2, instance3);
+		ServiceInstanceListSupplier delegate = Mockito.mock(ServiceInstanceListSupplier.class);
+		when(delegate.get()).thenReturn(Flux.just(serviceInstances));
+		ServiceInstanceMetrics serviceInstanceMetrics = new ServiceInstanceMetrics(new MetricRegistry());
+		OutlierEjectionProperties outlierEjectionProperties = new OutlierEjectionProperties();
+		outlierEjectionProperties.setEnabled(true);
+		outlierEjectionProperties.setConsecutiveFailures(3);
+		//手动触发检查
+		outlierEjectionProperties.setInterval(Duration.ofHours(1));
+		Scheduler scheduler = Schedulers.newSingle("outlier-ejection-test");
+		OutlierEjectionServiceInstanceListSupplier supplier = new OutlierEjectionServiceInstanceListSupplier(
+				delegate, serviceInstanceMetrics, outlierEjectionProperties, scheduler);
+		try {
+			//没有摘除的实例，直接返回上游的列表
+			Assertions.assertSame(serviceInstances, supplier.get().blockFirst());
+
+			fail(serviceInstanceMetrics, instance1, 3);
+			fail(serviceInstanceMetrics, instance2, 3);
+			supplier.evaluate();
+			//最多摘除 50%，也就是 1 个实例
+			List<ServiceInstance> filtered = supplier.get().blockFirst();
+			Assertions.assertEquals(List.of(instance2, instance3), filtered);
+			Assertions.assertSame(filtered, supplier.get().blockFirst());
+		} finally {
+			supplier.destroy();
+			scheduler.dispose();
+		}
+	}
+
+	private static void fail(ServiceInstanceMetrics serviceInstanceMetrics, ServiceInstance serviceInstance, int times) {
+		for (int i = 0; i < times; i++) {
+			serviceInstanceMetrics.recordServiceInstanceCall(serviceInstance);
+			serviceInstanceMetrics.recordServiceInstanceCalled(serviceInstance, false);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+import static org.mockito.Mockito.when;
+
+class PeakEwmaLoadBalancerTests {
+	@Test
+	public void unobservedInstanceWithCallsInFlight() {
+		DefaultServiceInstance service1Instance1 = new DefaultServiceInstance();
+		service1Instance1.setHost("10.238.1.1");
+		service1Instance1.setPort(1);
+		DefaultServiceInstance service1Instance2 = new DefaultServiceInstance();
+		service1Instance2.setHost("10.238.2.2");
+		service1Instance2.setPort(2);
+		ServiceInstanceMetrics serviceInstanceMetrics = Mockito.mock(ServiceInstanceMetrics.class);
+		PeakEwmaLoadBalancer peakEwmaLoadBalancer
+				= new PeakEwmaLoadBalancer(Mockito.mock(ServiceInstanceListSupplier.class), "test", null, serviceInstanceMetrics);
+		ArrayList<ServiceInstance> serviceInstances = Lists.newArrayList(service1Instance1, service1Instance2);
+		//实例 1 是新实例，还没有耗时数据，实例 2 耗时 50ms，有两个请求在处理
+		when(serviceInstanceMetrics.getLatency(service1Instance2)).thenReturn((double) TimeUnit.MILLISECONDS.toNanos(50));
+		when(serviceInstanceMetrics.getCalling(service1Instance2)).thenReturn(2L);
+		//没有请求在处理，代价是 0，优先探测
+		Assertions.assertEquals(service1Instance1, peakEwmaLoadBalancer.getInstanceResponse(new LoadBalancerRequestState(), serviceInstances).getServer());
+		//探测的请求还没有返回，之后的请求不再发给它
+		for (long calling = 1; calling <= 5; calling++) {
+			when(serviceInstanceMetrics.getCalling(service1Instance1)).thenReturn(calling);
+			Assertions.assertEquals(service1Instance2, peakEwmaLoadBalancer.getInstanceResponse(new LoadBalancerRequestState(), serviceInstances).getServer());
+		}
+		//请求返回有了耗时之后按照耗时 × (正在处理的请求数 + 1) 比较
+		when(serviceInstanceMetrics.getLatency(service1Instance1)).thenReturn((double) TimeUnit.MILLISECONDS.toNanos(10));
+		when(serviceInstanceMetrics.getCalling(service1Instance1)).thenReturn(1L);
+		Assertions.assertEquals(service1Instance1, peakEwmaLoadBalancer.getInstanceResponse(new LoadBalancerRequestState(), serviceInstances).getServer());
+	}
+
+	@Test
+	public void cost() {
+		Assertions.assertEquals(0, PeakEwmaLoadBalancer.cost(0, 0));
+		Assertions.assertEquals(PeakEwmaLoadBalancer.PENALTY + 3, PeakEwmaLoadBalancer.cost(0, 3));
+		Assertions.assertEquals(40, PeakEwmaLoadBalancer.cost(10, 3));
+		//正在处理的请求越多代价越大
+		Assertions.assertTrue(PeakEwmaLoadBalancer.cost(0, 4) > PeakEwmaLoadBalancer.cost(0, 3));
+	}
+}
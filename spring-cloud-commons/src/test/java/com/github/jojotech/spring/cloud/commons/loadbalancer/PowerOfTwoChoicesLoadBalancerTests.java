@@ -0,0 +1,73 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.util.ArrayList;
+
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+import static org.mockito.Mockito.when;
+
+class PowerOfTwoChoicesLoadBalancerTests {
+	@Test
+	public void getInstanceResponse() {
+		DefaultServiceInstance service1Instance1 = new DefaultServiceInstance();
+		service1Instance1.setHost("10.238.1.1");
+		service1Instance1.setPort(1);
+		DefaultServiceInstance service1Instance2 = new DefaultServiceInstance();
+		service1Instance2.setHost("10.238.2.2");
+		service1Instance2.setPort(2);
+		ServiceInstanceListSupplier serviceInstanceListSupplier = Mockito.mock(ServiceInstanceListSupplier.class);
+		ServiceInstanceMetrics serviceInstanceMetrics = Mockito.mock(ServiceInstanceMetrics.class);
+		PowerOfTwoChoicesLoadBalancer powerOfTwoChoicesLoadBalancer
+				= new PowerOfTwoChoicesLoadBalancer(serviceInstanceListSupplier, "test", null, serviceInstanceMetrics);
+		//只有两个实例的时候，两个候选一定是这两个实例，结果是确定的
+		ArrayList<ServiceInstance> serviceInstances = Lists.newArrayList(service1Instance1, service1Instance2);
+		LoadBalancerRequestState state = new LoadBalancerRequestState();
+		when(serviceInstanceMetrics.getCalling(service1Instance1)).thenReturn(1L);
+		when(serviceInstanceMetrics.getCalling(service1Instance2)).thenReturn(2L);
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance1, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(0.1);
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance2, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(0.1);
+		Response<ServiceInstance> response = powerOfTwoChoicesLoadBalancer.getInstanceResponse(state, serviceInstances);
+		//错误率相同，实例 1 的调用小于实例 2，所以返回实例 1
+		Assertions.assertEquals(service1Instance1, response.getServer());
+		response = powerOfTwoChoicesLoadBalancer.getInstanceResponse(state, serviceInstances);
+		//同一个请求，实例 1 的网段已经调用过，这次调用的是实例 2
+		Assertions.assertEquals(service1Instance2, response.getServer());
+
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance1, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(0.5);
+		response = powerOfTwoChoicesLoadBalancer.getInstanceResponse(new LoadBalancerRequestState(), serviceInstances);
+		//新的请求，实例 1 错误率更高，虽然调用更少，还是返回实例 2
+		Assertions.assertEquals(service1Instance2, response.getServer());
+	}
+
+	@Test
+	public void failedRatioTolerance() {
+		DefaultServiceInstance service1Instance1 = new DefaultServiceInstance();
+		service1Instance1.setHost("10.238.1.1");
+		service1Instance1.setPort(1);
+		DefaultServiceInstance service1Instance2 = new DefaultServiceInstance();
+		service1Instance2.setHost("10.238.2.2");
+		service1Instance2.setPort(2);
+		ServiceInstanceMetrics serviceInstanceMetrics = Mockito.mock(ServiceInstanceMetrics.class);
+		PowerOfTwoChoicesLoadBalancer powerOfTwoChoicesLoadBalancer
+				= new PowerOfTwoChoicesLoadBalancer(Mockito.mock(ServiceInstanceListSupplier.class), "test", null, serviceInstanceMetrics);
+		ArrayList<ServiceInstance> serviceInstances = Lists.newArrayList(service1Instance1, service1Instance2);
+		when(serviceInstanceMetrics.getCalling(service1Instance1)).thenReturn(1L);
+		when(serviceInstanceMetrics.getCalling(service1Instance2)).thenReturn(2L);
+		//失败率相差不到 1%，当作相同，实例 1 的调用更少
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance1, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(0.105);
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance2, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(0.1);
+		Assertions.assertEquals(service1Instance1, powerOfTwoChoicesLoadBalancer.getInstanceResponse(new LoadBalancerRequestState(), serviceInstances).getServer());
+		//相差超过 1%，失败率低的优先
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance1, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(0.12);
+		Assertions.assertEquals(service1Instance2, powerOfTwoChoicesLoadBalancer.getInstanceResponse(new LoadBalancerRequestState(), serviceInstances).getServer());
+	}
+}
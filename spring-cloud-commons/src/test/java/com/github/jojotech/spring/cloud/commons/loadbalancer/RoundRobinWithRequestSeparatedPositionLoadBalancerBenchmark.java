@@ -0,0 +1,102 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+/**
+ * 负载均衡选择实例的基准测试，分别测试 10，100，1000 个实例的情况
+ * 直接运行 main 方法即可，加上 -prof gc 可以看到每次选择的内存分配
+ * <ul>
+ *     <li>每次选择都模拟一个新的请求，请求状态在每轮迭代开始之前创建好，通过计数器依次取用，不在测量的调用中创建</li>
+ *     <li>选择之后会把实例的网段记录到请求状态中，请求状态不能重复使用（否则就变成了所有网段都调用过的重试），
+ *     所以使用 SingleShotTime，每轮迭代固定调用 {@link #REQUESTS} 次，正好用完创建好的请求状态</li>
+ *     <li>结果是每轮迭代 {@link #REQUESTS} 次选择的总耗时，除以 {@link #REQUESTS} 就是每次选择的耗时</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, batchSize = RoundRobinWithRequestSeparatedPositionLoadBalancerBenchmark.REQUESTS)
+@Measurement(iterations = 20, batchSize = RoundRobinWithRequestSeparatedPositionLoadBalancerBenchmark.REQUESTS)
+@Fork(1)
+public class RoundRobinWithRequestSeparatedPositionLoadBalancerBenchmark {
+	static final int REQUESTS = 1 << 16;
+
+	@Param({"10", "100", "1000"})
+	private int instanceCount;
+
+	private RoundRobinWithRequestSeparatedPositionLoadBalancer loadBalancer;
+	private List<ServiceInstance> serviceInstances;
+	private final LoadBalancerRequestState[] states = new LoadBalancerRequestState[REQUESTS];
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		ServiceInstanceMetrics serviceInstanceMetrics = new ServiceInstanceMetrics(new MetricRegistry());
+		serviceInstances = new ArrayList<>(instanceCount);
+		for (int i = 0; i < instanceCount; i++) {
+			DefaultServiceInstance serviceInstance = new DefaultServiceInstance();
+			serviceInstance.setInstanceId("instance" + i);
+			serviceInstance.setHost("10." + (i / 65536) + "." + (i / 256 % 256) + "." + (i % 256));
+			serviceInstance.setPort(8080);
+			serviceInstances.add(serviceInstance);
+			//模拟部分实例有正在处理的请求以及失败
+			for (int j = 0; j < i % 5; j++) {
+				serviceInstanceMetrics.recordServiceInstanceCall(serviceInstance);
+			}
+			if (i % 7 == 0) {
+				serviceInstanceMetrics.recordServiceInstanceCall(serviceInstance);
+				serviceInstanceMetrics.recordServiceInstanceCalled(serviceInstance, false);
+			}
+		}
+		loadBalancer = new RoundRobinWithRequestSeparatedPositionLoadBalancer(
+				Mockito.mock(ServiceInstanceListSupplier.class), "benchmark", null, serviceInstanceMetrics);
+	}
+
+	@Setup(Level.Iteration)
+	public void newRequests() {
+		for (int i = 0; i < REQUESTS; i++) {
+			states[i] = new LoadBalancerRequestState();
+		}
+		next = 0;
+	}
+
+	@Benchmark
+	public Response<ServiceInstance> choose() {
+		//防御性取模，正常情况下每轮迭代正好调用 REQUESTS 次
+		return loadBalancer.getInstanceResponseByRoundRobin(states[next++ & (REQUESTS - 1)], serviceInstances);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(RoundRobinWithRequestSeparatedPositionLoadBalancerBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -37,41 +37,41 @@ class RoundRobinWithRequestSeparatedPositionLoadBalancerTests {
 				= new RoundRobinWithRequestSeparatedPositionLoadBalancer(serviceInstanceListSupplier, serviceId, null, serviceInstanceMetrics);
 		ArrayList<ServiceInstance> serviceInstances = Lists
 				.newArrayList(service1Instance1, service1Instance2, service1Instance3, service1Instance4);
-		long traceId = 1234;
+		LoadBalancerRequestState state = new LoadBalancerRequestState();
 		when(serviceInstanceMetrics.getCalling(service1Instance1)).thenReturn(1L);
 		when(serviceInstanceMetrics.getCalling(service1Instance2)).thenReturn(2L);
 		when(serviceInstanceMetrics.getCalling(service1Instance3)).thenReturn(1L);
 		when(serviceInstanceMetrics.getCalling(service1Instance4)).thenReturn(1L);
-		when(serviceInstanceMetrics.getFailedInRecentOneMin(service1Instance1)).thenReturn(0.1);
-		when(serviceInstanceMetrics.getFailedInRecentOneMin(service1Instance2)).thenReturn(0.1);
-		when(serviceInstanceMetrics.getFailedInRecentOneMin(service1Instance3)).thenReturn(0.2);
-		when(serviceInstanceMetrics.getFailedInRecentOneMin(service1Instance4)).thenReturn(0.3);
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance1, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(0.1);
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance2, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(0.1);
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance3, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(0.2);
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance4, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(0.3);
 		Response<ServiceInstance> instanceResponseByRoundRobin = roundRobinWithRequestSeparatedPositionLoadBalancer
-				.getInstanceResponseByRoundRobin(traceId, serviceInstances);
+				.getInstanceResponseByRoundRobin(state, serviceInstances);
 		//第一次调用，实例 1 和实例 2 错误率 最少，同时 实例 1 的调用小于 实例 2，所以返回 实例 1
 		Assertions.assertEquals(instanceResponseByRoundRobin.getServer(), service1Instance1);
 		instanceResponseByRoundRobin = roundRobinWithRequestSeparatedPositionLoadBalancer
-				.getInstanceResponseByRoundRobin(traceId, serviceInstances);
+				.getInstanceResponseByRoundRobin(state, serviceInstances);
 		//由于实例 1 已经调用过，这次调用的是实例 2
 		Assertions.assertEquals(instanceResponseByRoundRobin.getServer(), service1Instance2);
 		instanceResponseByRoundRobin = roundRobinWithRequestSeparatedPositionLoadBalancer
-				.getInstanceResponseByRoundRobin(traceId, serviceInstances);
+				.getInstanceResponseByRoundRobin(state, serviceInstances);
 		//这时候还没调用过实例 3，所以返回实例 3
 		Assertions.assertEquals(instanceResponseByRoundRobin.getServer(), service1Instance3);
 		instanceResponseByRoundRobin = roundRobinWithRequestSeparatedPositionLoadBalancer
-				.getInstanceResponseByRoundRobin(traceId, serviceInstances);
+				.getInstanceResponseByRoundRobin(state, serviceInstances);
 		//这时候还没调用过实例 4，所以返回实例 4
 		Assertions.assertEquals(instanceResponseByRoundRobin.getServer(), service1Instance4);
 		when(serviceInstanceMetrics.getCalling(service1Instance1)).thenReturn(2L);
 		when(serviceInstanceMetrics.getCalling(service1Instance2)).thenReturn(1L);
 		when(serviceInstanceMetrics.getCalling(service1Instance3)).thenReturn(2L);
 		when(serviceInstanceMetrics.getCalling(service1Instance4)).thenReturn(2L);
-		when(serviceInstanceMetrics.getFailedInRecentOneMin(service1Instance1)).thenReturn(1.0);
-		when(serviceInstanceMetrics.getFailedInRecentOneMin(service1Instance2)).thenReturn(1.0);
-		when(serviceInstanceMetrics.getFailedInRecentOneMin(service1Instance3)).thenReturn(1.0);
-		when(serviceInstanceMetrics.getFailedInRecentOneMin(service1Instance4)).thenReturn(1.0);
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance1, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(1.0);
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance2, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(1.0);
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance3, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(1.0);
+		when(serviceInstanceMetrics.getFailedRatio(service1Instance4, AbstractRequestSeparatedLoadBalancer.FAILED_RATIO_MIN_REQUESTS)).thenReturn(1.0);
 		instanceResponseByRoundRobin = roundRobinWithRequestSeparatedPositionLoadBalancer
-				.getInstanceResponseByRoundRobin(traceId, serviceInstances);
+				.getInstanceResponseByRoundRobin(state, serviceInstances);
 		//所有实例都调用过，错误率一样，调用量实例 2 最少，所以返回实例 2
 		Assertions.assertEquals(instanceResponseByRoundRobin.getServer(), service1Instance2);
 	}
@@ -0,0 +1,66 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.util.List;
+import java.util.Map;
+
+import com.github.jojotech.spring.cloud.commons.config.LoadBalancerConfigurationProperties.LoadBalancerProperties;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import reactor.core.publisher.Flux;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.config.LoadBalancerZoneConfig;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+import static org.mockito.Mockito.when;
+
+class SameZoneOnlyServiceInstanceListSupplierTests {
+	private final ServiceInstance zone1Instance1 = instance("instance1", "zone1");
+	private final ServiceInstance zone2Instance2 = instance("instance2", "zone2");
+	private final ServiceInstance zone3Instance3 = instance("instance3", "zone3");
+
+	@Test
+	public void strict() {
+		List<ServiceInstance> serviceInstances = List.of(zone1Instance1, zone2Instance2, zone3Instance3);
+		SameZoneOnlyServiceInstanceListSupplier supplier = new SameZoneOnlyServiceInstanceListSupplier(
+				delegate(serviceInstances), new LoadBalancerZoneConfig("zone1"));
+		List<ServiceInstance> first = supplier.get().blockFirst();
+		Assertions.assertEquals(List.of(zone1Instance1), first);
+		//上游列表没有变化，直接返回上次的结果
+		Assertions.assertSame(first, supplier.get().blockFirst());
+
+		//同 zone 没有实例，返回空列表
+		supplier = new SameZoneOnlyServiceInstanceListSupplier(
+				delegate(List.of(zone2Instance2, zone3Instance3)), new LoadBalancerZoneConfig("zone1"));
+		Assertions.assertTrue(supplier.get().blockFirst().isEmpty());
+	}
+
+	@Test
+	public void tiered() {
+		LoadBalancerProperties loadBalancerProperties = new LoadBalancerProperties();
+		loadBalancerProperties.setZoneIsolation(ZoneIsolationMode.TIERED);
+		loadBalancerProperties.setZonePreferences(List.of("zone3", "zone2"));
+		loadBalancerProperties.setZoneFailoverMinInstances(2);
+		SameZoneOnlyServiceInstanceListSupplier supplier = new SameZoneOnlyServiceInstanceListSupplier(
+				delegate(List.of(zone1Instance1, zone2Instance2, zone3Instance3)), new LoadBalancerZoneConfig("zone1"), loadBalancerProperties);
+		//同 zone 只有 1 个实例，低于 2 个，加入优先级最高的 zone3，够了就不再加入 zone2
+		Assertions.assertEquals(List.of(zone1Instance1, zone3Instance3), supplier.get().blockFirst());
+
+		//同 zone 实例挂了，依次加入 zone3 与 zone2
+		supplier = new SameZoneOnlyServiceInstanceListSupplier(
+				delegate(List.of(zone2Instance2, zone3Instance3)), new LoadBalancerZoneConfig("zone1"), loadBalancerProperties);
+		Assertions.assertEquals(List.of(zone3Instance3, zone2Instance2), supplier.get().blockFirst());
+	}
+
+	private static ServiceInstanceListSupplier delegate(List<ServiceInstance> serviceInstances) {
+		ServiceInstanceListSupplier delegate = Mockito.mock(ServiceInstanceListSupplier.class);
+		when(delegate.get()).thenReturn(Flux.just(serviceInstances));
+		return delegate;
+	}
+
+	private static ServiceInstance instance(String instanceId, String zone) {
+		return new DefaultServiceInstance(instanceId, "test", "10.238.1.1", 8080, false, Map.of("zone", zone));
+	}
+}
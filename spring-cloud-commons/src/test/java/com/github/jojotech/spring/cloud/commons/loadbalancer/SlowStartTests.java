@@ -0,0 +1,69 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.github.jojotech.spring.cloud.commons.config.LoadBalancerConfigurationProperties.LoadBalancerProperties;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+class SlowStartTests {
+	@Test
+	public void weight() {
+		LoadBalancerProperties loadBalancerProperties = new LoadBalancerProperties();
+		loadBalancerProperties.setSlowStartWindow(Duration.ofSeconds(100));
+		loadBalancerProperties.setSlowStartMinWeight(0.1);
+		SlowStart linear = new SlowStart(loadBalancerProperties);
+		Assertions.assertEquals(0.1, linear.getWeight(0), 0.0001);
+		Assertions.assertEquals(0.55, linear.getWeight(50_000), 0.0001);
+		Assertions.assertEquals(1, linear.getWeight(100_000), 0.0001);
+
+		loadBalancerProperties.setSlowStartMode(SlowStartMode.EXPONENTIAL);
+		SlowStart exponential = new SlowStart(loadBalancerProperties);
+		Assertions.assertEquals(0.1, exponential.getWeight(0), 0.0001);
+		//指数增长前期比线性慢
+		Assertions.assertEquals(Math.sqrt(0.1), exponential.getWeight(50_000), 0.0001);
+		Assertions.assertEquals(1, exponential.getWeight(100_000), 0.0001);
+	}
+
+	@Test
+	public void ramp() {
+		LoadBalancerProperties loadBalancerProperties = new LoadBalancerProperties();
+		loadBalancerProperties.setSlowStartWindow(Duration.ofMinutes(10));
+		//最小权重设置得很小，预热刚开始的实例基本上一定会被降级
+		loadBalancerProperties.setSlowStartMinWeight(0.01);
+		SlowStart slowStart = new SlowStart(loadBalancerProperties);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		ServiceInstance instance1 = instance("instance1", Map.of());
+		ServiceInstance instance2 = instance("instance2", Map.of());
+		//客户端启动时第一次看到的实例认为已经预热完成
+		SlowStart.Ramp ramp = slowStart.getRamp(List.of(instance1));
+		Assertions.assertEquals(0, ramp.getDemotion(0, random));
+
+		//之后新出现的实例需要预热
+		List<ServiceInstance> serviceInstances = List.of(instance1, instance2);
+		ramp = slowStart.getRamp(serviceInstances);
+		Assertions.assertSame(ramp, slowStart.getRamp(serviceInstances));
+		Assertions.assertEquals(0, ramp.getDemotion(0, random));
+		int demoted = 0;
+		for (int i = 0; i < 100; i++) {
+			demoted += ramp.getDemotion(1, random);
+		}
+		Assertions.assertTrue(demoted > 90);
+
+		//元数据中的注册时间早于预热时间窗口，不需要预热
+		ServiceInstance instance3 = instance("instance3",
+				Map.of("registration-timestamp", String.valueOf(System.currentTimeMillis() - Duration.ofHours(1).toMillis())));
+		ramp = slowStart.getRamp(List.of(instance1, instance3));
+		Assertions.assertEquals(0, ramp.getDemotion(1, random));
+	}
+
+	private static ServiceInstance instance(String instanceId, Map<String, String> metadata) {
+		return new DefaultServiceInstance(instanceId, "test", "10.238.1.1", 8080, false, metadata);
+	}
+}
@@ -0,0 +1,58 @@
+package com.github.jojotech.spring.cloud.commons.loadbalancer;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+class SubnetIndexTests {
+	@Test
+	public void ipv4() {
+		List<ServiceInstance> serviceInstances = List.of(
+				instance("10.1.1.1"), instance("10.1.10.1"), instance("10.1.1.200"), instance("10.2.1.1"));
+		SubnetIndex subnetIndex = new SubnetIndex(serviceInstances, 24, 64);
+		LoadBalancerRequestState state = new LoadBalancerRequestState();
+		subnetIndex.markCalled(0, state);
+		//10.1.1 不能匹配到 10.1.10
+		Assertions.assertTrue(subnetIndex.isCalled(0, state.getCalledSubnets()));
+		Assertions.assertFalse(subnetIndex.isCalled(1, state.getCalledSubnets()));
+		Assertions.assertTrue(subnetIndex.isCalled(2, state.getCalledSubnets()));
+		Assertions.assertFalse(subnetIndex.isCalled(3, state.getCalledSubnets()));
+
+		//按照 /16 划分网段，10.1.10.1 与 10.1.1.1 是同一个网段
+		subnetIndex = new SubnetIndex(serviceInstances, 16, 64);
+		state = new LoadBalancerRequestState();
+		subnetIndex.markCalled(0, state);
+		Assertions.assertTrue(subnetIndex.isCalled(1, state.getCalledSubnets()));
+		Assertions.assertFalse(subnetIndex.isCalled(3, state.getCalledSubnets()));
+	}
+
+	@Test
+	public void ipv6AndHostname() {
+		List<ServiceInstance> serviceInstances = List.of(
+				instance("2001:db8:0:1::1"), instance("[2001:db8:0:1::2]"), instance("2001:db8:0:2::1"),
+				instance("httpbin.org"), instance("www.httpbin.org"), instance(null));
+		SubnetIndex subnetIndex = new SubnetIndex(serviceInstances, 24, 64);
+		LoadBalancerRequestState state = new LoadBalancerRequestState();
+		subnetIndex.markCalled(0, state);
+		subnetIndex.markCalled(3, state);
+		subnetIndex.markCalled(5, state);
+		Assertions.assertTrue(subnetIndex.isCalled(1, state.getCalledSubnets()));
+		Assertions.assertFalse(subnetIndex.isCalled(2, state.getCalledSubnets()));
+		//主机名只有完全相同才算同一个网段
+		Assertions.assertTrue(subnetIndex.isCalled(3, state.getCalledSubnets()));
+		Assertions.assertFalse(subnetIndex.isCalled(4, state.getCalledSubnets()));
+		//没有地址的实例不参与网段判断
+		Assertions.assertFalse(subnetIndex.isCalled(5, state.getCalledSubnets()));
+	}
+
+	private static ServiceInstance instance(String host) {
+		DefaultServiceInstance serviceInstance = new DefaultServiceInstance();
+		serviceInstance.setHost(host);
+		serviceInstance.setPort(8080);
+		return serviceInstance;
+	}
+}
@@ -0,0 +1,74 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.async.EventRoute;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilder;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilderFactory;
+import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class AsyncLoggingMetricsTests {
+	@Test
+	public void bindAndRebind() throws InterruptedException {
+		LoggerContext loggerContext = new LoggerContext("async-logging-metrics-test");
+		loggerContext.start(configuration("first", "test.first"));
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		AsyncLoggingMetrics asyncLoggingMetrics = new AsyncLoggingMetrics(meterRegistry, loggerContext);
+		try {
+			Assertions.assertTrue(meterRegistry.get("test.first_logger_ring_buffer_size").gauge().value() > 0);
+			Assertions.assertNotNull(meterRegistry.get("test.first_logger_ring_buffer_remaining_capacity").gauge());
+			Assertions.assertNotNull(meterRegistry.find("log4j2.async.queue.full").functionCounter());
+
+			loggerContext.getLogger("test.first").info("test");
+			//异步输出，等待后台线程处理
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (meterRegistry.get("log4j2.appender.events").tag("appender", "first").functionCounter().count() < 1
+					&& System.nanoTime() < deadline) {
+				TimeUnit.MILLISECONDS.sleep(10);
+			}
+			Assertions.assertEquals(1, meterRegistry.get("log4j2.appender.events").tag("appender", "first").functionCounter().count());
+
+			//重新加载配置之后，旧的指标移除，绑定新的 RingBuffer 与 Appender
+			loggerContext.setConfiguration(configuration("second", "test.second"));
+			Assertions.assertNull(meterRegistry.find("test.first_logger_ring_buffer_size").gauge());
+			Assertions.assertNull(meterRegistry.find("log4j2.appender.events").tag("appender", "first").functionCounter());
+			Assertions.assertTrue(meterRegistry.get("test.second_logger_ring_buffer_size").gauge().value() > 0);
+			Assertions.assertNotNull(meterRegistry.get("log4j2.appender.events").tag("appender", "second").functionCounter());
+
+			asyncLoggingMetrics.destroy();
+			Assertions.assertTrue(meterRegistry.getMeters().isEmpty());
+		} finally {
+			loggerContext.stop();
+		}
+	}
+
+	@Test
+	public void countQueueFull() {
+		long queueFull = CountingAsyncQueueFullPolicy.getQueueFullCount();
+		long discarded = CountingAsyncQueueFullPolicy.getDiscardedCount();
+		CountingAsyncQueueFullPolicy discarding = new CountingAsyncQueueFullPolicy((backgroundThreadId, level) -> EventRoute.DISCARD);
+		CountingAsyncQueueFullPolicy enqueue = new CountingAsyncQueueFullPolicy((backgroundThreadId, level) -> EventRoute.ENQUEUE);
+		Assertions.assertEquals(EventRoute.DISCARD, discarding.getRoute(1, Level.INFO));
+		//没有已满的 RingBuffer，不会阻塞
+		Assertions.assertEquals(EventRoute.ENQUEUE, enqueue.getRoute(1, Level.INFO));
+		Assertions.assertTrue(CountingAsyncQueueFullPolicy.getQueueFullCount() - queueFull >= 2);
+		Assertions.assertTrue(CountingAsyncQueueFullPolicy.getDiscardedCount() - discarded >= 1);
+	}
+
+	private static Configuration configuration(String appender, String logger) {
+		ConfigurationBuilder<BuiltConfiguration> builder = ConfigurationBuilderFactory.newConfigurationBuilder();
+		builder.setConfigurationName(appender);
+		builder.add(builder.newAppender(appender, "Null"));
+		builder.add(builder.newAsyncLogger(logger, Level.INFO)
+				.add(builder.newAppenderRef(appender))
+				.addAttribute("additivity", false));
+		builder.add(builder.newRootLogger(Level.WARN).add(builder.newAppenderRef(appender)));
+		return builder.build(false);
+	}
+}
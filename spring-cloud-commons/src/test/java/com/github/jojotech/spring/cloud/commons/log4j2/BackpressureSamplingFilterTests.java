@@ -0,0 +1,64 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class BackpressureSamplingFilterTests {
+	@Test
+	public void sampleBelowWatermark() {
+		AtomicReference<Double> remaining = new AtomicReference<>(1.0);
+		BackpressureSamplingFilter filter = new BackpressureSamplingFilter(
+				PackagePrefixTrie.compile(Collections.singletonList("com.github.jojotech.hot")),
+				Level.INFO, 0.1, 0.5, 10, remaining::get);
+		//容量充足的时候不采样
+		Assertions.assertEquals(Filter.Result.NEUTRAL, filter.filter(event("com.github.jojotech.hot.Client", Level.INFO)));
+		Assertions.assertFalse(filter.isSampling());
+
+		remaining.set(0.05);
+		long dropped = BackpressureSamplingFilter.getDroppedCount();
+		int kept = 0;
+		for (int i = 0; i < 100; i++) {
+			if (filter.filter(event("com.github.jojotech.hot.Client", Level.INFO)) == Filter.Result.NEUTRAL) {
+				kept++;
+			}
+		}
+		Assertions.assertTrue(filter.isSampling());
+		Assertions.assertEquals(10, kept);
+		Assertions.assertEquals(90, BackpressureSamplingFilter.getDroppedCount() - dropped);
+		//WARN 及以上，非热点 logger 不采样
+		Assertions.assertEquals(Filter.Result.NEUTRAL, filter.filter(event("com.github.jojotech.hot.Client", Level.WARN)));
+		Assertions.assertEquals(Filter.Result.NEUTRAL, filter.filter(event("com.github.jojotech.hot.Client", Level.ERROR)));
+		Assertions.assertEquals(Filter.Result.NEUTRAL, filter.filter(event("com.github.jojotech.other.Client", Level.INFO)));
+
+		//两个水位之间保持采样，恢复到 highWatermark 以上之后完整输出
+		remaining.set(0.3);
+		filter.filter(event("com.github.jojotech.hot.Client", Level.INFO));
+		Assertions.assertTrue(filter.isSampling());
+		remaining.set(0.6);
+		for (int i = 0; i < 10; i++) {
+			Assertions.assertEquals(Filter.Result.NEUTRAL, filter.filter(event("com.github.jojotech.hot.Client", Level.INFO)));
+		}
+		Assertions.assertFalse(filter.isSampling());
+	}
+
+	@Test
+	public void dropAll() {
+		BackpressureSamplingFilter filter = new BackpressureSamplingFilter(
+				PackagePrefixTrie.compile(Collections.singletonList("com.github.jojotech.hot")),
+				Level.INFO, 0.1, 0.5, 0, () -> 0);
+		Assertions.assertEquals(Filter.Result.DENY, filter.filter(event("com.github.jojotech.hot.Client", Level.INFO)));
+		Assertions.assertEquals(Filter.Result.DENY, filter.filter(event("com.github.jojotech.hot.Client", Level.DEBUG)));
+		Assertions.assertEquals(Filter.Result.NEUTRAL, filter.filter(event("com.github.jojotech.hot.Client", Level.WARN)));
+	}
+
+	private static LogEvent event(String loggerName, Level level) {
+		return Log4jLogEvent.newBuilder().setLoggerName(loggerName).setLevel(level).build();
+	}
+}
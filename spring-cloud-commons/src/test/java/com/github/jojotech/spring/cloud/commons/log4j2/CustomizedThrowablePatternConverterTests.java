@@ -0,0 +1,203 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import com.sun.management.ThreadMXBean;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.CustomizedThrowableProxyRenderer;
+import org.apache.logging.log4j.core.impl.ExtendedClassInfo;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.impl.ThrowableProxy;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+class CustomizedThrowablePatternConverterTests {
+	@Test
+	public void packagePrefixTrie() {
+		PackagePrefixTrie trie = PackagePrefixTrie.compile(Arrays.asList("com.github.jojotech.", "org.springframework.cloud"));
+		Assertions.assertFalse(trie.isEmpty());
+		Assertions.assertTrue(trie.matches("com.github.jojotech.spring.cloud.Test"));
+		Assertions.assertTrue(trie.matches("org.springframework.cloud.client.ServiceInstance"));
+		//与 startsWith 一致，包名本身也算匹配
+		Assertions.assertTrue(trie.matches("org.springframework.cloud"));
+		Assertions.assertFalse(trie.matches("org.springframework.web.Test"));
+		Assertions.assertFalse(trie.matches("com.github"));
+		Assertions.assertTrue(PackagePrefixTrie.compile(null).isEmpty());
+	}
+
+	@Test
+	public void foldFramesNotInPackages() {
+		CustomizedThrowablePatternConverter converter = CustomizedThrowablePatternConverter.newInstance(null, new String[] {"filters(com.github.jojotech.)"});
+		StringBuilder sb = new StringBuilder();
+		converter.format(event(new IllegalStateException("test")), sb);
+		String rendered = sb.toString();
+		Assertions.assertTrue(rendered.startsWith("java.lang.IllegalStateException: test"));
+		Assertions.assertTrue(rendered.contains("\tat com.github.jojotech.app.Service.call(Service.java:10)"));
+		Assertions.assertTrue(rendered.contains("\t... suppressed 2 lines"));
+		Assertions.assertFalse(rendered.contains("reactor.core"));
+	}
+
+	@Test
+	public void renderedFrameCache() {
+		CustomizedThrowablePatternConverter converter = CustomizedThrowablePatternConverter.newInstance(null, new String[] {"filters(com.github.jojotech.)"});
+		StringBuilder first = new StringBuilder();
+		converter.format(event(new IllegalStateException("first")), first);
+		//栈相同，消息不同，命中缓存的结果与重新渲染一致
+		StringBuilder second = new StringBuilder();
+		converter.format(event(new IllegalStateException("second")), second);
+		Assertions.assertEquals(first.toString().replace("first", "second"), second.toString());
+		//行号不同，不能命中缓存
+		IllegalStateException other = new IllegalStateException("first");
+		StackTraceElement[] stackTrace = stackTrace();
+		stackTrace[0] = new StackTraceElement("com.github.jojotech.app.Service", "call", "Service.java", 11);
+		other.setStackTrace(stackTrace);
+		StringBuilder third = new StringBuilder();
+		converter.format(Log4jLogEvent.newBuilder().setThrown(other).build(), third);
+		Assertions.assertTrue(third.toString().contains("Service.java:11"));
+		Assertions.assertFalse(third.toString().contains("Service.java:10"));
+	}
+
+	@Test
+	public void dedup() {
+		CustomizedThrowablePatternConverter converter = CustomizedThrowablePatternConverter.newInstance(null,
+				new String[] {"filters(com.github.jojotech.)", "dedup(60)"});
+		StringBuilder first = new StringBuilder();
+		converter.format(event(new IllegalStateException("first")), first);
+		Assertions.assertTrue(first.toString().contains("\tat com.github.jojotech.app.Service.call(Service.java:10)"));
+		Assertions.assertTrue(first.toString().contains("repeats in the next 60 seconds are omitted]"));
+		//同一个异常栈，只输出消息与重复次数
+		StringBuilder second = new StringBuilder();
+		converter.format(event(new IllegalStateException("second")), second);
+		Assertions.assertTrue(second.toString().startsWith("java.lang.IllegalStateException: second [stack trace "));
+		Assertions.assertTrue(second.toString().contains("omitted, repeated 2 times in 60 seconds]"));
+		Assertions.assertFalse(second.toString().contains("\tat "));
+	}
+
+	@Test
+	public void garbageFree() {
+		ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assumptions.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+		for (String[] options : new String[][] {{"filters(com.github.jojotech.)"}, {"filters(com.github.jojotech.)", "dedup(60)"}}) {
+			CustomizedThrowablePatternConverter converter = CustomizedThrowablePatternConverter.newInstance(null, options);
+			Throwable cause = new IllegalArgumentException("cause");
+			Throwable throwable = new IllegalStateException("test", cause);
+			throwable.addSuppressed(new IllegalStateException("suppressed"));
+			LogEvent event = event(throwable);
+			//ThrowableProxy 由 log4j2 创建（每个事件一次），不在这里统计，这里只统计栈帧的渲染
+			event.getThrownProxy();
+			StringBuilder sb = new StringBuilder(64 * 1024);
+			//预热，缓存渲染好的栈帧块
+			for (int i = 0; i < 10000; i++) {
+				sb.setLength(0);
+				converter.format(event, sb);
+			}
+			long threadId = Thread.currentThread().getId();
+			int iterations = 10000;
+			long before = threadMXBean.getThreadAllocatedBytes(threadId);
+			for (int i = 0; i < iterations; i++) {
+				sb.setLength(0);
+				converter.format(event, sb);
+			}
+			long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+			//除了测量本身，渲染过程不分配内存
+			Assertions.assertTrue(allocated < iterations, "allocated " + allocated + " bytes in " + iterations + " renders with " + Arrays.toString(options));
+		}
+	}
+
+	@Test
+	public void garbageFreeWithoutFrameCache() {
+		ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assumptions.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+		PackagePrefixTrie whiteListedPackages = PackagePrefixTrie.compile(Arrays.asList("com.github.jojotech."));
+		//每个异常的行号都不同，并且不使用栈帧块缓存，每次都是真正的渲染（缩进层级，行号，折叠的行数）
+		int shapes = 64;
+		ThrowableProxy[] proxies = new ThrowableProxy[shapes];
+		StackTraceNode[] nodes = new StackTraceNode[shapes];
+		for (int i = 0; i < shapes; i++) {
+			Throwable cause = new IllegalArgumentException("cause");
+			cause.setStackTrace(stackTrace(2000 + i));
+			Throwable throwable = new IllegalStateException("test", cause);
+			throwable.setStackTrace(stackTrace(1000 + i));
+			Throwable suppressed = new IllegalStateException("suppressed");
+			suppressed.setStackTrace(stackTrace(3000 + i));
+			throwable.addSuppressed(suppressed);
+			//ThrowableProxy 与 StackTraceNode 由调用方创建，不在这里统计
+			proxies[i] = new ThrowableProxy(throwable);
+			nodes[i] = StackTraceNode.of(throwable, false);
+		}
+		StringBuilder sb = new StringBuilder(64 * 1024);
+		for (int i = 0; i < 10000; i++) {
+			sb.setLength(0);
+			CustomizedThrowableProxyRenderer.formatExtendedStackTraceTo(proxies[i % shapes], sb, whiteListedPackages, null, null, "", "\n");
+			CustomizedThrowableProxyRenderer.formatExtendedStackTraceTo(nodes[i % shapes], sb, whiteListedPackages, null, null, "", "\n");
+		}
+		Assertions.assertTrue(sb.toString().contains("Service.java:" + (1000 + 9999 % shapes)));
+		long threadId = Thread.currentThread().getId();
+		int iterations = 10000;
+		long before = threadMXBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < iterations; i++) {
+			sb.setLength(0);
+			CustomizedThrowableProxyRenderer.formatExtendedStackTraceTo(proxies[i % shapes], sb, whiteListedPackages, null, null, "", "\n");
+			CustomizedThrowableProxyRenderer.formatExtendedStackTraceTo(nodes[i % shapes], sb, whiteListedPackages, null, null, "", "\n");
+		}
+		long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+		Assertions.assertTrue(allocated < iterations, "allocated " + allocated + " bytes in " + iterations + " uncached renders");
+	}
+
+	@Test
+	public void packaging() {
+		Throwable cause = new IllegalArgumentException("cause");
+		StackTraceElement[] causeStackTrace = stackTrace();
+		causeStackTrace[0] = new StackTraceElement("com.github.jojotech.app.Dao", "query", "Dao.java", 30);
+		cause.setStackTrace(causeStackTrace);
+		Throwable throwable = new IllegalStateException("test", cause);
+		Throwable suppressed = new IllegalStateException("suppressed");
+		suppressed.setStackTrace(stackTrace());
+		throwable.addSuppressed(suppressed);
+		StringBuilder full = new StringBuilder();
+		CustomizedThrowablePatternConverter.newInstance(null, new String[] {"filters(com.github.jojotech.)"})
+				.format(event(throwable), full);
+		//找不到的类与 ThrowableProxy 一样输出 ~[?:?]，cause 与外层相同的栈帧一样折叠成 ... n more
+		StringBuilder cached = new StringBuilder();
+		CustomizedThrowablePatternConverter.newInstance(null, new String[] {"filters(com.github.jojotech.)", "packaging(cached)"})
+				.format(event(throwable), cached);
+		Assertions.assertEquals(full.toString(), cached.toString());
+		Assertions.assertTrue(cached.toString().contains("\tat com.github.jojotech.app.Dao.query(Dao.java:30) ~[?:?]"));
+		Assertions.assertTrue(cached.toString().contains("... 3 more"));
+		StringBuilder none = new StringBuilder();
+		CustomizedThrowablePatternConverter.newInstance(null, new String[] {"filters(com.github.jojotech.)", "packaging(none)"})
+				.format(event(throwable), none);
+		Assertions.assertEquals(full.toString().replaceAll(" ~\\[[^\\]]*\\]", ""), none.toString());
+	}
+
+	@Test
+	public void packagingInfoCache() {
+		ExtendedClassInfo extendedClassInfo = PackagingInfoCache.get(Test.class.getName());
+		Assertions.assertFalse(extendedClassInfo.getExact());
+		Assertions.assertTrue(extendedClassInfo.getLocation().startsWith("junit-jupiter-api"));
+		//进程内共享，同一个类只解析一次
+		Assertions.assertSame(extendedClassInfo, PackagingInfoCache.get(Test.class.getName()));
+		Assertions.assertEquals("?", PackagingInfoCache.get("com.github.jojotech.app.NotExist").getLocation());
+	}
+
+	private static LogEvent event(Throwable throwable) {
+		throwable.setStackTrace(stackTrace());
+		return Log4jLogEvent.newBuilder().setThrown(throwable).build();
+	}
+
+	private static StackTraceElement[] stackTrace() {
+		return stackTrace(10);
+	}
+
+	private static StackTraceElement[] stackTrace(int lineNumber) {
+		return new StackTraceElement[] {
+				new StackTraceElement("com.github.jojotech.app.Service", "call", "Service.java", lineNumber),
+				new StackTraceElement("reactor.core.publisher.MonoMap$MapSubscriber", "onNext", "MonoMap.java", 106),
+				new StackTraceElement("reactor.core.publisher.FluxOnAssembly$OnAssemblySubscriber", "onNext", "FluxOnAssembly.java", 385),
+				new StackTraceElement("com.github.jojotech.app.Controller", "get", "Controller.java", 20),
+		};
+	}
+}
@@ -0,0 +1,111 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.core.impl.BaselineThrowableProxyRenderer;
+import org.apache.logging.log4j.core.impl.CustomizedThrowableProxyRenderer;
+import org.apache.logging.log4j.core.impl.ThrowableProxy;
+import org.apache.logging.log4j.core.pattern.PlainTextRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 在一个很深的 Spring 与 Reactor 异常栈（两层 cause，每层 150 行）上渲染 %cusEx 的基准测试
+ * <ul>
+ *     <li>baseline：优化之前的实现（{@link BaselineThrowableProxyRenderer}），作为对比的基线</li>
+ *     <li>uncached：前缀树匹配包名，不使用栈帧块缓存，每次都重新渲染所有栈帧</li>
+ *     <li>cached：与 converter 一样使用栈帧块缓存，命中之后直接 append</li>
+ * </ul>
+ * 与 converter 一致，纯文本输出的时候优化之后的实现 textRenderer 传 null，基线使用 PlainTextRenderer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomizedThrowableProxyRendererBenchmark {
+	private static final int DEPTH = 150;
+	private static final String[][] FRAMES = {
+			{"reactor.core.publisher.FluxOnAssembly$OnAssemblySubscriber", "onNext", "FluxOnAssembly.java"},
+			{"reactor.core.publisher.MonoFlatMap$FlatMapMain", "onNext", "MonoFlatMap.java"},
+			{"reactor.core.publisher.Operators$MonoSubscriber", "complete", "Operators.java"},
+			{"reactor.core.publisher.FluxMap$MapSubscriber", "onNext", "FluxMap.java"},
+			{"org.springframework.web.reactive.DispatcherHandler", "invokeHandler", "DispatcherHandler.java"},
+			{"org.springframework.cloud.client.loadbalancer.reactive.ReactorLoadBalancerExchangeFilterFunction", "filter", "ReactorLoadBalancerExchangeFilterFunction.java"},
+			{"org.springframework.web.reactive.function.client.ExchangeFilterFunction", "lambda$apply$2", "ExchangeFilterFunction.java"},
+			{"io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerSubscriber", "hookOnNext", "CircuitBreakerSubscriber.java"},
+			{"com.github.jojotech.spring.cloud.webflux.webclient.ServiceInstanceMetricsFilterFunction", "filter", "ServiceInstanceMetricsFilterFunction.java"},
+			{"reactor.netty.http.client.HttpClientConnect$HttpObserver", "onStateChange", "HttpClientConnect.java"},
+	};
+
+	@Param({"baseline", "uncached", "cached"})
+	private String renderer;
+
+	private boolean baseline;
+	private ThrowableProxy throwableProxy;
+	private List<String> packages;
+	private PackagePrefixTrie whiteListedPackages;
+	private RenderedFrameCache renderedFrameCache;
+	private final StringBuilder sb = new StringBuilder(64 * 1024);
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Throwable root = withStackTrace(new java.net.ConnectException("Connection refused: /10.238.1.1:8080"), 0);
+		Throwable cause = withStackTrace(new IllegalStateException("call instance failed", root), 1);
+		Throwable throwable = withStackTrace(new RuntimeException("request failed", cause), 2);
+		throwableProxy = new ThrowableProxy(throwable);
+		baseline = "baseline".equals(renderer);
+		packages = Collections.singletonList("com.github.jojotech.");
+		whiteListedPackages = PackagePrefixTrie.compile(packages);
+		renderedFrameCache = "cached".equals(renderer) ? new RenderedFrameCache(256) : null;
+	}
+
+	private static Throwable withStackTrace(Throwable throwable, int seed) {
+		StackTraceElement[] stackTrace = new StackTraceElement[DEPTH];
+		for (int i = 0; i < DEPTH; i++) {
+			String[] frame = FRAMES[(i + seed) % FRAMES.length];
+			stackTrace[i] = new StackTraceElement(frame[0], frame[1], frame[2], 100 + i);
+		}
+		throwable.setStackTrace(stackTrace);
+		return throwable;
+	}
+
+	@Benchmark
+	public int render() {
+		sb.setLength(0);
+		if (baseline) {
+			BaselineThrowableProxyRenderer.formatExtendedStackTraceTo(throwableProxy, sb, packages,
+					PlainTextRenderer.getInstance(), "", System.lineSeparator());
+		} else {
+			CustomizedThrowableProxyRenderer.formatExtendedStackTraceTo(throwableProxy, sb, whiteListedPackages, renderedFrameCache,
+					null, "", System.lineSeparator());
+		}
+		return sb.length();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(CustomizedThrowableProxyRendererBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,85 @@
+package com.github.jojotech.spring.cloud.commons.log4j2;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.core.impl.ThrowableProxy;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+class ExceptionDeduplicatorTests {
+	@Test
+	public void fingerprint() {
+		ThrowableProxy first = new ThrowableProxy(create("first"));
+		ThrowableProxy second = new ThrowableProxy(create("second"));
+		//消息不同，异常栈相同，指纹相同
+		Assertions.assertEquals(ExceptionDeduplicator.fingerprint(first), ExceptionDeduplicator.fingerprint(second));
+		Assertions.assertNotEquals(ExceptionDeduplicator.fingerprint(first),
+				ExceptionDeduplicator.fingerprint(new ThrowableProxy(new IllegalArgumentException("first"))));
+	}
+
+	@Test
+	public void window() {
+		Scheduler scheduler = Schedulers.newSingle("exception-deduplicator-test");
+		try {
+			ExceptionDeduplicator exceptionDeduplicator = new ExceptionDeduplicator(60, 1, scheduler);
+			ThrowableProxy proxy = new ThrowableProxy(create("test"));
+			int fingerprint = ExceptionDeduplicator.fingerprint(proxy);
+			long now = System.nanoTime();
+			Assertions.assertEquals(1, exceptionDeduplicator.occur(fingerprint, proxy, null, now));
+			Assertions.assertEquals(2, exceptionDeduplicator.occur(fingerprint, proxy, null, now + 1));
+			//超过指纹个数上限，新的指纹不去重
+			Assertions.assertEquals(1, exceptionDeduplicator.occur(fingerprint + 1, proxy, null, now + 1));
+			Assertions.assertEquals(1, exceptionDeduplicator.occur(fingerprint + 1, proxy, null, now + 2));
+			//新的窗口重新输出完整的异常栈
+			long next = now + TimeUnit.SECONDS.toNanos(60);
+			Assertions.assertEquals(1, exceptionDeduplicator.occur(fingerprint, proxy, null, next));
+			//第一次汇总输出省略的次数，第二次汇总没有再出现过，移除指纹
+			exceptionDeduplicator.summarize(next);
+			Assertions.assertEquals(1, exceptionDeduplicator.getFingerprintCount());
+			exceptionDeduplicator.summarize(next + TimeUnit.SECONDS.toNanos(60));
+			Assertions.assertEquals(0, exceptionDeduplicator.getFingerprintCount());
+		} finally {
+			scheduler.dispose();
+		}
+	}
+
+	@Test
+	public void collision() {
+		Scheduler scheduler = Schedulers.newSingle("exception-deduplicator-test");
+		try {
+			ExceptionDeduplicator exceptionDeduplicator = new ExceptionDeduplicator(60, 16, scheduler);
+			ThrowableProxy proxy = new ThrowableProxy(create("test"));
+			int fingerprint = ExceptionDeduplicator.fingerprint(proxy);
+			Throwable other = new IllegalArgumentException("other");
+			other.setStackTrace(new StackTraceElement[] {
+					new StackTraceElement("com.github.jojotech.app.Other", "call", "Other.java", 20),
+			});
+			ThrowableProxy otherProxy = new ThrowableProxy(other);
+			long now = System.nanoTime();
+			Assertions.assertEquals(1, exceptionDeduplicator.occur(fingerprint, proxy, null, now));
+			//指纹相同但是异常不同，每次都输出完整的异常栈
+			Assertions.assertEquals(1, exceptionDeduplicator.occur(fingerprint, otherProxy, null, now + 1));
+			Assertions.assertEquals(1, exceptionDeduplicator.occur(fingerprint, otherProxy, null, now + 2));
+			//只有异常类型不同也不去重
+			Throwable sameFramesThrowable = new IllegalArgumentException("test");
+			sameFramesThrowable.setStackTrace(create("test").getStackTrace());
+			Assertions.assertEquals(1, exceptionDeduplicator.occur(fingerprint, null, StackTraceNode.of(sameFramesThrowable, false), now + 3));
+			//原来的异常照常去重
+			Assertions.assertEquals(2, exceptionDeduplicator.occur(fingerprint, proxy, null, now + 4));
+			//结构相同的 StackTraceNode 与 ThrowableProxy 是同一个异常
+			Assertions.assertEquals(3, exceptionDeduplicator.occur(fingerprint, null, StackTraceNode.of(create("node"), false), now + 5));
+		} finally {
+			scheduler.dispose();
+		}
+	}
+
+	private static Throwable create(String message) {
+		Throwable throwable = new IllegalStateException(message);
+		throwable.setStackTrace(new StackTraceElement[] {
+				new StackTraceElement("com.github.jojotech.app.Service", "call", "Service.java", 10),
+		});
+		return throwable;
+	}
+}
@@ -0,0 +1,108 @@
+package com.github.jojotech.spring.cloud.commons.metric;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+class AsyncStatsRecorderTests {
+	@Test
+	public void recordAsync() throws Exception {
+		AsyncStatsRecorder asyncStatsRecorder = new AsyncStatsRecorder(4);
+		try {
+			ServiceInstanceMetrics serviceInstanceMetrics = new ServiceInstanceMetrics(new MetricRegistry(),
+					ServiceInstanceMetrics.DEFAULT_WINDOW_SECONDS, asyncStatsRecorder);
+			ServiceInstance serviceInstance = new DefaultServiceInstance("instance1", "test", "10.238.1.1", 8080, false);
+			for (int i = 0; i < 100; i++) {
+				serviceInstanceMetrics.recordServiceInstanceCall(serviceInstance);
+				serviceInstanceMetrics.recordServiceInstanceCalled(serviceInstance, i % 2 == 0);
+			}
+			//正在处理的请求数是同步记录的
+			Assertions.assertEquals(0, serviceInstanceMetrics.getCalling(serviceInstance));
+			//等待之前放入的事件都处理完
+			Assertions.assertTrue(asyncStatsRecorder.flush(Duration.ofSeconds(5)));
+			Assertions.assertEquals(0, asyncStatsRecorder.getPending());
+			//环形数组满了的时候同步记录，结果依然完整
+			Assertions.assertEquals(100, serviceInstanceMetrics.getRequests(serviceInstance));
+			Assertions.assertEquals(0.5, serviceInstanceMetrics.getFailedRatio(serviceInstance));
+		} finally {
+			asyncStatsRecorder.destroy();
+		}
+	}
+
+	@Test
+	public void recordFromManyThreads() throws Exception {
+		AsyncStatsRecorder asyncStatsRecorder = new AsyncStatsRecorder(16);
+		try {
+			ServiceInstanceMetrics serviceInstanceMetrics = new ServiceInstanceMetrics(new MetricRegistry(),
+					ServiceInstanceMetrics.DEFAULT_WINDOW_SECONDS, asyncStatsRecorder);
+			ServiceInstance serviceInstance = new DefaultServiceInstance("instance1", "test", "10.238.1.1", 8080, false);
+			Thread[] threads = new Thread[8];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread(() -> {
+					for (int j = 0; j < 1000; j++) {
+						serviceInstanceMetrics.recordServiceInstanceCall(serviceInstance);
+						serviceInstanceMetrics.recordServiceInstanceCalled(serviceInstance, true);
+					}
+				});
+				threads[i].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			Assertions.assertTrue(asyncStatsRecorder.flush(Duration.ofSeconds(5)));
+			Assertions.assertEquals(8000, serviceInstanceMetrics.getRequests(serviceInstance));
+			//聚合线程空闲之后休眠，新的事件会唤醒它
+			serviceInstanceMetrics.recordServiceInstanceCall(serviceInstance);
+			serviceInstanceMetrics.recordServiceInstanceCalled(serviceInstance, false);
+			Assertions.assertTrue(asyncStatsRecorder.flush(Duration.ofSeconds(5)));
+			Assertions.assertEquals(8001, serviceInstanceMetrics.getRequests(serviceInstance));
+		} finally {
+			asyncStatsRecorder.destroy();
+		}
+	}
+
+	@Test
+	public void destroyWhileRecording() throws Exception {
+		for (int round = 0; round < 20; round++) {
+			AsyncStatsRecorder asyncStatsRecorder = new AsyncStatsRecorder(1024);
+			ServiceInstanceMetrics serviceInstanceMetrics = new ServiceInstanceMetrics(new MetricRegistry(),
+					ServiceInstanceMetrics.DEFAULT_WINDOW_SECONDS, asyncStatsRecorder);
+			ServiceInstance serviceInstance = new DefaultServiceInstance("instance1", "test", "10.238.1.1", 8080, false);
+			AtomicLong recorded = new AtomicLong();
+			CountDownLatch started = new CountDownLatch(4);
+			AtomicBoolean stop = new AtomicBoolean();
+			Thread[] threads = new Thread[4];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread(() -> {
+					started.countDown();
+					while (!stop.get()) {
+						serviceInstanceMetrics.recordServiceInstanceCall(serviceInstance);
+						serviceInstanceMetrics.recordServiceInstanceCalled(serviceInstance, true);
+						recorded.incrementAndGet();
+					}
+				});
+				threads[i].start();
+			}
+			Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+			//停止的时候调用线程还在不断放入事件
+			asyncStatsRecorder.destroy();
+			//停止之后放入的事件也不能丢失
+			Thread.sleep(5);
+			stop.set(true);
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			Assertions.assertEquals(0, asyncStatsRecorder.getPending());
+			Assertions.assertEquals(recorded.get(), serviceInstanceMetrics.getRequests(serviceInstance), "round " + round);
+		}
+	}
+}
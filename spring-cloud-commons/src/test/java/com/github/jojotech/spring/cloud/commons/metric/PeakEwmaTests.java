@@ -0,0 +1,36 @@
+package com.github.jojotech.spring.cloud.commons.metric;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class PeakEwmaTests {
+	private static final long DECAY = TimeUnit.SECONDS.toNanos(10);
+
+	@Test
+	public void peak() {
+		PeakEwma peakEwma = new PeakEwma(DECAY);
+		long now = System.nanoTime();
+		peakEwma.observe(1000, now);
+		//更大的耗时直接生效
+		peakEwma.observe(5000, now);
+		Assertions.assertEquals(5000, peakEwma.get(now));
+		//更小的耗时按照距离上次记录的时间加权
+		peakEwma.observe(1000, now + DECAY);
+		Assertions.assertEquals(5000 * Math.exp(-1) + 1000 * (1 - Math.exp(-1)), peakEwma.get(now + DECAY), 1e-6);
+	}
+
+	@Test
+	public void getDoesNotMutate() {
+		PeakEwma peakEwma = new PeakEwma(DECAY);
+		long now = System.nanoTime();
+		peakEwma.observe(1000, now);
+		//读取只计算衰减之后的值，多次读取结果相同，也不会影响之后的衰减
+		Assertions.assertEquals(1000 * Math.exp(-1), peakEwma.get(now + DECAY), 1e-6);
+		Assertions.assertEquals(1000 * Math.exp(-1), peakEwma.get(now + DECAY), 1e-6);
+		Assertions.assertEquals(1000 * Math.exp(-2), peakEwma.get(now + 2 * DECAY), 1e-6);
+		//读取的时间早于更新时间，不衰减
+		Assertions.assertEquals(1000, peakEwma.get(now - DECAY));
+	}
+}
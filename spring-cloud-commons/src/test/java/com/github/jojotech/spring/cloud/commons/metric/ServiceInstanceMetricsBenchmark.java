@@ -0,0 +1,69 @@
+package com.github.jojotech.spring.cloud.commons.metric;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+/**
+ * 实例指标记录与读取的基准测试，一次记录（开始与结束）加上一次读取（负载均衡使用的指标）
+ * main 方法中已经加上了 GC profiler，预热之后 gc.alloc.rate.norm 应该是 0 B/op，
+ * 同样的路径（加上耗时记录）在 ServiceInstanceMetricsTests.garbageFree 中通过 ThreadMXBean 断言不分配内存
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ServiceInstanceMetricsBenchmark {
+	private ServiceInstanceMetrics serviceInstanceMetrics;
+	private ServiceInstance serviceInstance;
+	//与负载均衡之后重新构造的实例一样，host 是不同的 String 对象
+	private ServiceInstance rebuiltServiceInstance;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		serviceInstanceMetrics = new ServiceInstanceMetrics(new MetricRegistry());
+		serviceInstance = new DefaultServiceInstance("instance1", "benchmark", "10.238.1.1", 8080, false);
+		rebuiltServiceInstance = new DefaultServiceInstance("instance1", "benchmark", new String("10.238.1.1"), 8080, false);
+		serviceInstanceMetrics.recordServiceInstanceCall(serviceInstance);
+	}
+
+	@Benchmark
+	public void recordAndRead(Blackhole blackhole) {
+		serviceInstanceMetrics.recordServiceInstanceCall(serviceInstance);
+		serviceInstanceMetrics.recordServiceInstanceCalled(rebuiltServiceInstance, true);
+		blackhole.consume(serviceInstanceMetrics.getCalling(serviceInstance));
+		blackhole.consume(serviceInstanceMetrics.getFailedRatio(serviceInstance));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(ServiceInstanceMetricsBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,70 @@
+package com.github.jojotech.spring.cloud.commons.metric;
+
+import java.time.Duration;
+
+import com.codahale.metrics.MetricRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+class ServiceInstanceMetricsExporterTests {
+	@Test
+	public void capAndRemoveIdle() {
+		ServiceInstanceMetrics serviceInstanceMetrics = new ServiceInstanceMetrics(new MetricRegistry());
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		Scheduler scheduler = Schedulers.newSingle("metrics-export-test");
+		//手动触发检查，空闲时间为 0，一次检查没有调用就移除
+		ServiceInstanceMetricsExporter exporter = new ServiceInstanceMetricsExporter(serviceInstanceMetrics, () -> meterRegistry,
+				2, Duration.ZERO, Duration.ofHours(1), scheduler);
+		try {
+			ServiceInstance instance1 = new DefaultServiceInstance("instance1", "test", "10.238.1.1", 8080, false);
+			ServiceInstance instance2 = new DefaultServiceInstance("instance2", "test", "10.238.2.2", 8080, false);
+			ServiceInstance instance3 = new DefaultServiceInstance("instance3", "test", "10.238.3.3", 8080, false);
+			serviceInstanceMetrics.recordServiceInstanceChosen(instance1);
+			serviceInstanceMetrics.recordServiceInstanceChosen(instance2);
+			exporter.sweep();
+			Assertions.assertEquals(2, exporter.getExportedCount());
+
+			//已经满了，instance3 超过上限不导出
+			serviceInstanceMetrics.recordServiceInstanceChosen(instance1);
+			serviceInstanceMetrics.recordServiceInstanceChosen(instance2);
+			serviceInstanceMetrics.recordServiceInstanceChosen(instance3);
+			exporter.sweep();
+			//最多导出 2 个实例
+			Assertions.assertEquals(2, exporter.getExportedCount());
+			Assertions.assertEquals(2, meterRegistry.find("loadbalancer.instance.chosen").meters().size());
+			Assertions.assertNull(meterRegistry.find("loadbalancer.instance.chosen").tag("target", "10.238.3.3:8080").functionCounter());
+
+			//instance1 与 instance3 还在被调用，空闲的 instance2 被移除，空出的名额给 instance3
+			serviceInstanceMetrics.recordServiceInstanceChosen(instance1);
+			serviceInstanceMetrics.recordServiceInstanceChosen(instance3);
+			exporter.sweep();
+			Assertions.assertEquals(2, exporter.getExportedCount());
+			Assertions.assertNotNull(meterRegistry.find("loadbalancer.instance.chosen").tag("target", "10.238.1.1:8080").functionCounter());
+			Assertions.assertNotNull(meterRegistry.find("loadbalancer.instance.chosen").tag("target", "10.238.3.3:8080").functionCounter());
+			Assertions.assertNull(meterRegistry.find("loadbalancer.instance.chosen").tag("target", "10.238.2.2:8080").functionCounter());
+
+			//instance2 之后一直没有调用，不会被重新导出
+			serviceInstanceMetrics.recordServiceInstanceChosen(instance1);
+			serviceInstanceMetrics.recordServiceInstanceChosen(instance3);
+			exporter.sweep();
+			Assertions.assertNull(meterRegistry.find("loadbalancer.instance.chosen").tag("target", "10.238.2.2:8080").functionCounter());
+
+			serviceInstanceMetrics.recordServiceInstanceLatency(instance1, Duration.ofMillis(10).toNanos());
+			Timer latencyTimer = meterRegistry.find("loadbalancer.instance.latency").tag("target", "10.238.1.1:8080").timer();
+			Assertions.assertEquals(1, latencyTimer.count());
+			//直方图只有固定的几个桶，不随耗时范围增长
+			Assertions.assertEquals(ServiceInstanceMetricsExporter.LATENCY_SLOS.length, latencyTimer.takeSnapshot().histogramCounts().length);
+			Assertions.assertEquals(1, latencyTimer.takeSnapshot().histogramCounts()[1].count());
+		} finally {
+			exporter.destroy();
+			scheduler.dispose();
+		}
+	}
+}
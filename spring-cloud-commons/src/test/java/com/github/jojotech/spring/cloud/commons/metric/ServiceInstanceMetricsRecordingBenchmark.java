@@ -0,0 +1,114 @@
+package com.github.jojotech.spring.cloud.commons.metric;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+/**
+ * 同步记录与异步记录的对比，32 个线程同时记录同一个实例的调用结果与耗时（也就是竞争最激烈的情况）
+ * <ul>
+ *     <li>record 使用 SampleTime 模式，关注的是调用线程的 p99 以及更高分位的耗时，而不只是平均值</li>
+ *     <li>recordThroughput 使用 Throughput 模式，同时通过 AuxCounters 输出异步记录退化为同步记录的次数（fallbacks），
+ *     次数很多说明聚合线程跟不上，这时候异步记录的结果没有意义</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(32)
+@Fork(1)
+public class ServiceInstanceMetricsRecordingBenchmark {
+	@Param({"sync", "async"})
+	private String mode;
+
+	private AsyncStatsRecorder asyncStatsRecorder;
+	private InstanceStats instanceStats;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		asyncStatsRecorder = "async".equals(mode) ? new AsyncStatsRecorder(1024) : null;
+		ServiceInstanceMetrics serviceInstanceMetrics = new ServiceInstanceMetrics(new MetricRegistry(),
+				ServiceInstanceMetrics.DEFAULT_WINDOW_SECONDS, asyncStatsRecorder);
+		ServiceInstance serviceInstance = new DefaultServiceInstance("instance1", "benchmark", "10.238.1.1", 8080, false);
+		instanceStats = serviceInstanceMetrics.getStats(serviceInstance);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		if (asyncStatsRecorder != null) {
+			asyncStatsRecorder.destroy();
+		}
+	}
+
+	/**
+	 * 每个线程在一次迭代中退化为同步记录的次数，JMH 会把所有线程的加起来
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class FallbackCounters {
+		public long fallbacks;
+		private long start;
+
+		@Setup(Level.Iteration)
+		public void setup(ServiceInstanceMetricsRecordingBenchmark benchmark) {
+			fallbacks = 0;
+			start = benchmark.currentThreadFallbackCount();
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown(ServiceInstanceMetricsRecordingBenchmark benchmark) {
+			fallbacks = benchmark.currentThreadFallbackCount() - start;
+		}
+	}
+
+	private long currentThreadFallbackCount() {
+		return asyncStatsRecorder == null ? 0 : asyncStatsRecorder.getCurrentThreadFallbackCount();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public void record() {
+		instanceStats.recordCall();
+		instanceStats.recordLatency(1_000_000);
+		instanceStats.recordCalled(true);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void recordThroughput(FallbackCounters fallbackCounters) {
+		record();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(ServiceInstanceMetricsRecordingBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
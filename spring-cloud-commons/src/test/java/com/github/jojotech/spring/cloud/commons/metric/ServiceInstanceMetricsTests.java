@@ -0,0 +1,53 @@
+package com.github.jojotech.spring.cloud.commons.metric;
+
+import java.lang.management.ManagementFactory;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+class ServiceInstanceMetricsTests {
+	@Test
+	public void garbageFree() {
+		ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assumptions.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+		ServiceInstanceMetrics serviceInstanceMetrics = new ServiceInstanceMetrics(new MetricRegistry());
+		ServiceInstance serviceInstance = new DefaultServiceInstance("instance1", "test", "10.238.1.1", 8080, false);
+		//与负载均衡之后重新构造的实例一样，host 是不同的 String 对象，通过 computeIfAbsent 找到同一个实例指标
+		ServiceInstance rebuiltServiceInstance = new DefaultServiceInstance("instance1", "test", new String("10.238.1.1"), 8080, false);
+		double sink = 0;
+		//预热，创建实例指标
+		for (int i = 0; i < 10000; i++) {
+			sink += recordAndRead(serviceInstanceMetrics, serviceInstance, rebuiltServiceInstance, i);
+		}
+		long threadId = Thread.currentThread().getId();
+		int iterations = 10000;
+		long before = threadMXBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < iterations; i++) {
+			sink += recordAndRead(serviceInstanceMetrics, serviceInstance, rebuiltServiceInstance, i);
+		}
+		long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+		Assertions.assertTrue(sink > 0);
+		//除了测量本身，记录与读取都不分配内存
+		Assertions.assertTrue(allocated < iterations, "allocated " + allocated + " bytes in " + iterations + " record and read");
+	}
+
+	/**
+	 * 与 ServiceInstanceMetricsBenchmark 一样，一次记录（开始，结束与耗时）加上负载均衡读取的指标
+	 */
+	private static double recordAndRead(ServiceInstanceMetrics serviceInstanceMetrics, ServiceInstance serviceInstance,
+			ServiceInstance rebuiltServiceInstance, int i) {
+		serviceInstanceMetrics.recordServiceInstanceCall(serviceInstance);
+		serviceInstanceMetrics.recordServiceInstanceLatency(rebuiltServiceInstance, 1_000_000);
+		serviceInstanceMetrics.recordServiceInstanceCalled(rebuiltServiceInstance, i % 10 != 0);
+		return serviceInstanceMetrics.getCalling(serviceInstance)
+				+ serviceInstanceMetrics.getFailedRatio(serviceInstance)
+				+ serviceInstanceMetrics.getFailedRatio(serviceInstance, 10)
+				+ serviceInstanceMetrics.getLatency(serviceInstance);
+	}
+}
@@ -0,0 +1,50 @@
+package com.github.jojotech.spring.cloud.commons.metric;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class SlidingWindowTests {
+	@Test
+	public void failedRatio() {
+		SlidingWindow slidingWindow = new SlidingWindow(10);
+		Assertions.assertEquals(0, slidingWindow.getFailedRatio(100, 0));
+		slidingWindow.recordSuccess(100);
+		slidingWindow.recordSuccess(100);
+		slidingWindow.recordSuccess(101);
+		slidingWindow.recordFailed(101);
+		//准确的失败率，不是移动平均
+		Assertions.assertEquals(0.25, slidingWindow.getFailedRatio(101, 0));
+		//第 110 秒，第 100 秒的桶已经不在窗口内
+		Assertions.assertEquals(0.5, slidingWindow.getFailedRatio(110, 0));
+		//第 111 秒，窗口内没有调用
+		Assertions.assertEquals(0, slidingWindow.getFailedRatio(111, 0));
+	}
+
+	@Test
+	public void reuseBucket() {
+		SlidingWindow slidingWindow = new SlidingWindow(10);
+		slidingWindow.recordFailed(100);
+		//第 110 秒与第 100 秒是同一个桶，需要先清零
+		slidingWindow.recordSuccess(110);
+		Assertions.assertEquals(0, slidingWindow.getFailedRatio(110, 0));
+		//比桶里更早的记录已经不在窗口内，直接丢弃
+		slidingWindow.recordFailed(100);
+		Assertions.assertEquals(0, slidingWindow.getFailedRatio(110, 0));
+	}
+
+	@Test
+	public void minRequests() {
+		SlidingWindow slidingWindow = new SlidingWindow(10);
+		slidingWindow.recordFailed(100);
+		for (int i = 0; i < 8; i++) {
+			slidingWindow.recordSuccess(100);
+		}
+		//9 次调用，少于 10 次，一次失败不算
+		Assertions.assertEquals(0, slidingWindow.getFailedRatio(100, 10));
+		//正好 10 次，按照真实的失败率
+		slidingWindow.recordSuccess(100);
+		Assertions.assertEquals(0.1, slidingWindow.getFailedRatio(100, 10));
+		//不限制次数
+		Assertions.assertEquals(0.1, slidingWindow.getFailedRatio(100, 0));
+	}
+}
@@ -1,10 +1,16 @@
 package com.github.jojotech.spring.cloud.webflux.config;
 
+import com.github.jojotech.spring.cloud.webflux.webclient.WebClientLoopResources;
 import com.github.jojotech.spring.cloud.webflux.webclient.WebClientNamedContextFactory;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorResourceFactory;
+import reactor.netty.resources.LoopResources;
 
+@Log4j2
 @Configuration(proxyBeanMethods = false)
 @EnableConfigurationProperties(WebClientConfigurationProperties.class)
 public class WebClientConfiguration {
@@ -12,4 +18,25 @@ public class WebClientConfiguration {
     public WebClientNamedContextFactory getWebClientNamedContextFactory() {
         return new WebClientNamedContextFactory();
     }
+
+    /**
+     * 所有 WebClient 共用的 EventLoop，在父 ApplicationContext 中创建，所有微服务的子 ApplicationContext 共用
+     */
+    @Bean
+    public WebClientLoopResources webClientLoopResources(
+            WebClientConfigurationProperties webClientConfigurationProperties,
+            ObjectProvider<ReactorResourceFactory> reactorResourceFactory
+    ) {
+        WebClientConfigurationProperties.LoopProperties loop = webClientConfigurationProperties.getLoop();
+        if (loop.isColocate()) {
+            //WebFlux 服务端使用的就是 ReactorResourceFactory 中的 EventLoop
+            ReactorResourceFactory resourceFactory = reactorResourceFactory.getIfAvailable();
+            if (resourceFactory != null) {
+                return new WebClientLoopResources(resourceFactory.getLoopResources(), loop.isPreferNative(), false);
+            }
+            log.warn("ReactorResourceFactory not available, webclient uses a dedicated event loop");
+        }
+        int threads = loop.getThreads() > 0 ? loop.getThreads() : LoopResources.DEFAULT_IO_WORKER_COUNT;
+        return new WebClientLoopResources(LoopResources.create(WebClientNamedContextFactory.NAMESPACE, threads, true), loop.isPreferNative(), true);
+    }
 }
@@ -7,6 +7,7 @@ import lombok.NoArgsConstructor;
 import org.apache.commons.collections4.CollectionUtils;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.util.AntPathMatcher;
+import reactor.netty.resources.ConnectionProvider;
 
 import java.time.Duration;
 import java.util.List;
@@ -17,11 +18,37 @@ import java.util.Map;
 @ConfigurationProperties(prefix = "webclient")
 public class WebClientConfigurationProperties {
     private Map<String, WebClientProperties> configs;
+    /**
+     * 所有 WebClient 共用的 EventLoop 配置
+     */
+    private LoopProperties loop = new LoopProperties();
+
+    @Data
+    @NoArgsConstructor
+    public static class LoopProperties {
+        /**
+         * EventLoop 线程数，为 0 代表与 reactor-netty 默认一样（核数，最少 4 个）
+         */
+        private int threads = 0;
+        /**
+         * 是否优先使用 native 传输（Linux 上的 epoll），不可用的时候使用 NIO
+         */
+        private boolean preferNative = true;
+        /**
+         * 是否与 WebFlux 服务端共用 EventLoop，共用的时候 threads 不生效，线程数由服务端决定
+         */
+        private boolean colocate = false;
+    }
+
     @Data
     @NoArgsConstructor
     public static class WebClientProperties {
         private static AntPathMatcher antPathMatcher = new AntPathMatcher();
+        //路径中可能带有 id 之类的参数，匹配结果的缓存需要限制个数
+        private static final int MAX_PATH_MATCH_RESULTS = 10000;
         private Cache<String, Boolean> retryablePathsMatchResult = Caffeine.newBuilder().build();
+        //匹配到的 pathTimeouts 下标，没有匹配的为 -1
+        private Cache<String, Integer> pathTimeoutsMatchResult = Caffeine.newBuilder().maximumSize(MAX_PATH_MATCH_RESULTS).build();
         /**
          * 服务地址，不填写则为 http://serviceName
          */
@@ -42,6 +69,18 @@ public class WebClientConfigurationProperties {
          * 响应超时
          */
         private Duration responseTimeout = Duration.ofSeconds(8);
+        /**
+         * 针对某些路径单独的响应超时，与 retryablePaths 一样使用 Ant 风格匹配，按照顺序第一个匹配的生效，没有匹配的使用 responseTimeout
+         */
+        private List<PathTimeoutProperties> pathTimeouts;
+        /**
+         * 根据每个路径实际的响应耗时自适应调整响应超时
+         */
+        private AdaptiveTimeoutProperties adaptiveTimeout = new AdaptiveTimeoutProperties();
+        /**
+         * 这个微服务独立的连接池
+         */
+        private PoolProperties pool = new PoolProperties();
 
         /**
          * 是否匹配
@@ -56,5 +95,109 @@ public class WebClientConfigurationProperties {
                 return retryablePaths.stream().anyMatch(pattern -> antPathMatcher.match(pattern, path));
             });
         }
+
+        /**
+         * 获取路径匹配的超时配置
+         * @param path
+         * @return 没有匹配的返回 null
+         */
+        public PathTimeoutProperties pathTimeoutMatch(String path) {
+            if (CollectionUtils.isEmpty(pathTimeouts)) {
+                return null;
+            }
+            int index = pathTimeoutsMatchResult.get(path, k -> {
+                for (int i = 0; i < pathTimeouts.size(); i++) {
+                    if (antPathMatcher.match(pathTimeouts.get(i).getPath(), path)) {
+                        return i;
+                    }
+                }
+                return -1;
+            });
+            return index < 0 ? null : pathTimeouts.get(index);
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static class PathTimeoutProperties {
+        /**
+         * 路径，Ant 风格，例如 /orders/**
+         */
+        private String path;
+        /**
+         * 响应超时，毫秒精度
+         */
+        private Duration responseTimeout;
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static class AdaptiveTimeoutProperties {
+        /**
+         * 是否开启，开启之后响应超时为观察到的 p99 耗时乘以 multiplier，
+         * 并且不超过配置的超时（pathTimeouts 或者 responseTimeout），不低于 minTimeout；
+         * 耗时按照匹配到的 pathTimeouts 模式分别统计，没有匹配的路径共用一个统计
+         */
+        private boolean enabled = false;
+        /**
+         * p99 耗时的倍数
+         */
+        private double multiplier = 3;
+        /**
+         * 自适应超时的下限
+         */
+        private Duration minTimeout = Duration.ofMillis(100);
+        /**
+         * 统计的请求数达到这个值之前使用配置的超时
+         */
+        private int minSamples = 100;
+        /**
+         * 耗时统计的时间窗口，保留当前与上一个窗口的数据
+         */
+        private Duration window = Duration.ofMinutes(1);
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static class PoolProperties {
+        /**
+         * 最大连接数
+         */
+        private int maxConnections = ConnectionProvider.DEFAULT_POOL_MAX_CONNECTIONS;
+        /**
+         * 等待获取连接的请求个数上限，为 0 代表 maxConnections 的两倍，-1 代表不限制
+         */
+        private int pendingAcquireMaxCount = 0;
+        /**
+         * 等待获取连接的超时
+         */
+        private Duration pendingAcquireTimeout = Duration.ofMillis(ConnectionProvider.DEFAULT_POOL_ACQUIRE_TIMEOUT);
+        /**
+         * 连接空闲超过这个时间之后关闭，不填写代表不限制
+         */
+        private Duration maxIdleTime;
+        /**
+         * 连接存活超过这个时间之后关闭，不填写代表不限制
+         */
+        private Duration maxLifeTime;
+        /**
+         * 后台检查并关闭空闲或者过期连接的间隔，不填写代表只在获取连接的时候检查
+         */
+        private Duration evictionInterval;
+        /**
+         * 获取连接的顺序，LIFO 优先使用最近归还的连接，让多余的连接空闲下来被回收
+         */
+        private LeasingStrategy leasingStrategy = LeasingStrategy.FIFO;
+        /**
+         * 是否将连接池指标注册到 Micrometer，默认关闭：reactor-netty 按照远端地址给连接池指标打标签，
+         * 实例频繁上下线（例如 K8s 中 Pod 滚动发布）的时候指标个数会一直增长并且不会删除，
+         * 与实例指标导出限制个数的目的冲突；开启之前需要确认实例地址相对固定
+         */
+        private boolean metrics = false;
+    }
+
+    public enum LeasingStrategy {
+        FIFO,
+        LIFO,
     }
 }
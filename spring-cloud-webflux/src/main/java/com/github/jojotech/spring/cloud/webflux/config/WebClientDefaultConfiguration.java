@@ -1,6 +1,11 @@
 package com.github.jojotech.spring.cloud.webflux.config;
 
-import com.alibaba.fastjson.JSON;
+import com.github.jojotech.spring.cloud.commons.diagnostics.CallRecorder;
+import com.github.jojotech.spring.cloud.commons.loadbalancer.LoadBalancerRequestState;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import com.github.jojotech.spring.cloud.webflux.webclient.ResponseTimeoutFilterFunction;
+import com.github.jojotech.spring.cloud.webflux.webclient.ServiceInstanceMetricsFilterFunction;
+import com.github.jojotech.spring.cloud.webflux.webclient.WebClientLoopResources;
 import com.github.jojotech.spring.cloud.webflux.webclient.WebClientNamedContextFactory;
 import com.github.jojotech.spring.cloud.webflux.webclient.resilience4j.ClientResponseCircuitBreakerOperator;
 import com.github.jojotech.spring.cloud.webflux.webclient.resilience4j.retry.ClientResponseRetryOperator;
@@ -13,7 +18,6 @@ import io.github.resilience4j.retry.RetryConfig;
 import io.github.resilience4j.retry.RetryRegistry;
 import io.netty.channel.ChannelOption;
 import io.netty.handler.timeout.ReadTimeoutException;
-import io.netty.handler.timeout.ReadTimeoutHandler;
 import io.netty.handler.timeout.WriteTimeoutHandler;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.StringUtils;
@@ -28,30 +32,65 @@ import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientRequestException;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import java.net.URI;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Log4j2
 @Configuration(proxyBeanMethods = false)
 public class WebClientDefaultConfiguration {
+    /**
+     * 每个微服务独立的连接池，子 ApplicationContext 关闭的时候释放
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider webClientConnectionProvider(
+            WebClientConfigurationProperties webClientConfigurationProperties,
+            Environment environment
+    ) {
+        String name = environment.getProperty(WebClientNamedContextFactory.PROPERTY_NAME);
+        WebClientConfigurationProperties.PoolProperties pool = getWebClientProperties(name, webClientConfigurationProperties).getPool();
+        //名称会作为连接池指标的 name 标签
+        ConnectionProvider.Builder builder = ConnectionProvider.builder(WebClientNamedContextFactory.NAMESPACE + "-" + name)
+                .maxConnections(pool.getMaxConnections())
+                .pendingAcquireTimeout(pool.getPendingAcquireTimeout())
+                .metrics(pool.isMetrics());
+        //不设置的时候 reactor-netty 默认为 maxConnections 的两倍
+        if (pool.getPendingAcquireMaxCount() != 0) {
+            builder.pendingAcquireMaxCount(pool.getPendingAcquireMaxCount());
+        }
+        if (pool.getMaxIdleTime() != null) {
+            builder.maxIdleTime(pool.getMaxIdleTime());
+        }
+        if (pool.getMaxLifeTime() != null) {
+            builder.maxLifeTime(pool.getMaxLifeTime());
+        }
+        if (pool.getEvictionInterval() != null) {
+            builder.evictInBackground(pool.getEvictionInterval());
+        }
+        if (pool.getLeasingStrategy() == WebClientConfigurationProperties.LeasingStrategy.LIFO) {
+            builder.lifo();
+        } else {
+            builder.fifo();
+        }
+        return builder.build();
+    }
+
     @Bean
     public WebClient getWebClient(
             ReactorLoadBalancerExchangeFilterFunction lbFunction,
             WebClientConfigurationProperties webClientConfigurationProperties,
             Environment environment,
             RetryRegistry retryRegistry,
-            CircuitBreakerRegistry circuitBreakerRegistry
+            CircuitBreakerRegistry circuitBreakerRegistry,
+            ServiceInstanceMetrics serviceInstanceMetrics,
+            CallRecorder callRecorder,
+            ConnectionProvider webClientConnectionProvider,
+            WebClientLoopResources webClientLoopResources
     ) {
         String name = environment.getProperty(WebClientNamedContextFactory.PROPERTY_NAME);
-        Map<String, WebClientConfigurationProperties.WebClientProperties> configs = webClientConfigurationProperties.getConfigs();
-        if (configs == null || configs.size() == 0) {
-            throw new BeanCreationException("Failed to create webClient, please provide configurations under namespace: webclient.configs");
-        }
-        WebClientConfigurationProperties.WebClientProperties webClientProperties = configs.get(name);
-        if (webClientProperties == null) {
-            throw new BeanCreationException("Failed to create webClient, please provide configurations under namespace: webclient.configs." + name);
-        }
+        WebClientConfigurationProperties.WebClientProperties webClientProperties = getWebClientProperties(name, webClientConfigurationProperties);
         String serviceName = webClientProperties.getServiceName();
         //如果没填写微服务名称，就使用配置 key 作为微服务名称
         if (StringUtils.isBlank(serviceName)) {
@@ -121,12 +160,15 @@ public class WebClientDefaultConfiguration {
 
 
         HttpClient httpClient = HttpClient
-                .create()
+                .create(webClientConnectionProvider)
+                //所有微服务共用同一组 EventLoop
+                .runOn(webClientLoopResources.getLoopResources(), webClientLoopResources.isPreferNative())
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) webClientProperties.getConnectTimeout().toMillis())
+                //默认的响应超时，每个请求会在 ResponseTimeoutFilterFunction 中按照路径覆盖
+                .responseTimeout(webClientProperties.getResponseTimeout())
                 .doOnConnected(connection ->
                         connection
-                                .addHandlerLast(new ReadTimeoutHandler((int) webClientProperties.getResponseTimeout().toSeconds()))
-                                .addHandlerLast(new WriteTimeoutHandler((int) webClientProperties.getResponseTimeout().toSeconds()))
+                                .addHandlerLast(new WriteTimeoutHandler(webClientProperties.getResponseTimeout().toMillis(), TimeUnit.MILLISECONDS))
                 );
 
         Retry finalRetry = retry;
@@ -137,7 +179,9 @@ public class WebClientDefaultConfiguration {
                 .filter((clientRequest, exchangeFunction) -> {
                     return exchangeFunction
                             .exchange(clientRequest)
-                            .transform(ClientResponseRetryOperator.of(finalRetry));
+                            .transform(ClientResponseRetryOperator.of(finalRetry, callRecorder))
+                            //负载均衡的请求状态放在重试之外，这样同一个请求的所有重试共享同一个状态
+                            .contextWrite(LoadBalancerRequestState::putIfAbsent);
                 })
                 //负载均衡器，改写url
                 .filter(lbFunction)
@@ -152,10 +196,45 @@ public class WebClientDefaultConfiguration {
                     } catch (ConfigurationNotFoundException e) {
                         circuitBreaker = circuitBreakerRegistry.circuitBreaker(instancId);
                     }
-                    log.info("webclient circuit breaker [{}-{}] status: {}, data: {}", finalServiceName, instancId, circuitBreaker.getState(), JSON.toJSONString(circuitBreaker.getMetrics()));
-                    return exchangeFunction.exchange(clientRequest).transform(ClientResponseCircuitBreakerOperator.of(circuitBreaker, webClientProperties));
+                    //调用记录在响应或者异常到达的线程上记录，失败的时候输出这个线程最近的调用记录，代替每次调用都输出日志
+                    CircuitBreaker finalCircuitBreaker = circuitBreaker;
+                    String method = clientRequest.method().name();
+                    URI url = clientRequest.url();
+                    long start = System.nanoTime();
+                    return exchangeFunction.exchange(clientRequest)
+                            .transform(ClientResponseCircuitBreakerOperator.of(circuitBreaker, webClientProperties))
+                            .doOnNext(clientResponse -> {
+                                if (callRecorder.record(finalServiceName, instancId, method, url, clientResponse.rawStatusCode(), null,
+                                        System.nanoTime() - start, finalCircuitBreaker, null, 0)) {
+                                    callRecorder.dump("webclient call " + finalServiceName + " " + instancId + " failed");
+                                }
+                            })
+                            .doOnError(throwable -> {
+                                //不能重试的请求在断路器中被封装成了 WebClientResponseException，从中取出响应码
+                                int status = throwable instanceof WebClientResponseException ? ((WebClientResponseException) throwable).getRawStatusCode() : -1;
+                                callRecorder.record(finalServiceName, instancId, method, url, status, throwable,
+                                        System.nanoTime() - start, finalCircuitBreaker, null, 0);
+                                callRecorder.dump("webclient call " + finalServiceName + " " + instancId + " failed");
+                            });
                 })
+                //记录实例的调用指标，给负载均衡器使用，需要在断路器之后，这样断路器打开没有发出的请求不会被统计
+                .filter(new ServiceInstanceMetricsFilterFunction(serviceInstanceMetrics))
+                //按照路径设置响应超时，放在最后，每次重试单独计时
+                .filter(new ResponseTimeoutFilterFunction(webClientProperties))
                 .baseUrl(baseUrl)
                 .build();
     }
+
+    private static WebClientConfigurationProperties.WebClientProperties getWebClientProperties(
+            String name, WebClientConfigurationProperties webClientConfigurationProperties) {
+        Map<String, WebClientConfigurationProperties.WebClientProperties> configs = webClientConfigurationProperties.getConfigs();
+        if (configs == null || configs.size() == 0) {
+            throw new BeanCreationException("Failed to create webClient, please provide configurations under namespace: webclient.configs");
+        }
+        WebClientConfigurationProperties.WebClientProperties webClientProperties = configs.get(name);
+        if (webClientProperties == null) {
+            throw new BeanCreationException("Failed to create webClient, please provide configurations under namespace: webclient.configs." + name);
+        }
+        return webClientProperties;
+    }
 }
@@ -0,0 +1,113 @@
+package com.github.jojotech.spring.cloud.webflux.webclient;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 有界的耗时直方图，用于估算耗时的分位数
+ * <ul>
+ *     <li>按照毫秒的对数分桶，相邻两个桶相差 10%，固定 {@link #BUCKETS} 个桶，最大覆盖一个多小时，超过的记录到最后一个桶</li>
+ *     <li>只保留当前与上一个时间窗口的数据，分位数按照这两个窗口计算，耗时的变化在两个窗口之后完全生效</li>
+ *     <li>记录只是对一个桶做一次原子加，只有切换窗口的时候分配内存</li>
+ * </ul>
+ */
+public class LatencyHistogram {
+    static final int BUCKETS = 160;
+    private static final double BASE = 1.1;
+    private static final double LOG_BASE = Math.log(BASE);
+    //每个桶的上界，单位毫秒
+    private static final long[] UPPER_BOUNDS = new long[BUCKETS];
+
+    static {
+        for (int i = 0; i < BUCKETS; i++) {
+            UPPER_BOUNDS[i] = (long) Math.ceil(Math.pow(BASE, i + 1));
+        }
+    }
+
+    private final long windowNanos;
+    private volatile AtomicLongArray current = new AtomicLongArray(BUCKETS);
+    private volatile AtomicLongArray previous = new AtomicLongArray(BUCKETS);
+    private volatile long windowStart;
+
+    public LatencyHistogram(long windowNanos, long now) {
+        this.windowNanos = windowNanos;
+        this.windowStart = now;
+    }
+
+    static int bucket(long millis) {
+        if (millis <= 1) {
+            return 0;
+        }
+        int bucket = (int) (Math.log(millis) / LOG_BASE);
+        //浮点误差可能落到相邻的桶
+        while (bucket > 0 && UPPER_BOUNDS[bucket - 1] >= millis) {
+            bucket--;
+        }
+        while (bucket < BUCKETS - 1 && UPPER_BOUNDS[bucket] < millis) {
+            bucket++;
+        }
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    public void record(long millis, long now) {
+        rotate(now);
+        current.incrementAndGet(bucket(millis));
+    }
+
+    /**
+     * @return 当前与上一个时间窗口的记录个数
+     */
+    public long count(long now) {
+        rotate(now);
+        AtomicLongArray current = this.current;
+        AtomicLongArray previous = this.previous;
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += current.get(i) + previous.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile 分位，例如 0.99
+     * @return 分位数所在桶的上界，单位毫秒，没有记录返回 0
+     */
+    public long percentile(double percentile, long now) {
+        rotate(now);
+        AtomicLongArray current = this.current;
+        AtomicLongArray previous = this.previous;
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = current.get(i) + previous.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return UPPER_BOUNDS[i];
+            }
+        }
+        return UPPER_BOUNDS[BUCKETS - 1];
+    }
+
+    private void rotate(long now) {
+        if (now - windowStart < windowNanos) {
+            return;
+        }
+        synchronized (this) {
+            long elapsed = now - windowStart;
+            if (elapsed < windowNanos) {
+                return;
+            }
+            //超过两个窗口没有记录，上一个窗口的数据也已经过期
+            previous = elapsed >= 2 * windowNanos ? new AtomicLongArray(BUCKETS) : current;
+            current = new AtomicLongArray(BUCKETS);
+            windowStart = now;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.jojotech.spring.cloud.webflux.webclient;
+
+import com.github.jojotech.spring.cloud.webflux.config.WebClientConfigurationProperties;
+import io.netty.handler.timeout.ReadTimeoutException;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClientRequest;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按照路径设置每个请求的响应超时，毫秒精度
+ * <ul>
+ *     <li>超时先按照 pathTimeouts 匹配，没有匹配的使用 responseTimeout</li>
+ *     <li>开启 adaptiveTimeout 之后，超时为 p99 耗时的倍数，并且不超过配置的超时，卡住的请求可以尽快失败并释放连接</li>
+ *     <li>耗时按照匹配到的 pathTimeouts 模式分别统计，没有匹配的路径共用一个统计（与它们共用 responseTimeout 一样），
+ *     不按照实际路径统计，路径中带有 id 之类的参数的时候统计的个数也不会增长</li>
+ *     <li>耗时记录到收到响应头为止，响应超时的请求按照超时时间记录，这样超时设置过低的时候 p99 会逐渐升高，不会一直超时</li>
+ * </ul>
+ * 需要放在最后，这样每次重试都单独计时，并且不包括负载均衡与断路器的耗时
+ */
+public class ResponseTimeoutFilterFunction implements ExchangeFilterFunction {
+    private static final double PERCENTILE = 0.99;
+    //自适应超时的计算结果缓存一段时间，避免每个请求都遍历直方图
+    private static final long RECOMPUTE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final WebClientConfigurationProperties.WebClientProperties webClientProperties;
+    //key 为 pathTimeouts 中的模式，个数不超过配置的个数
+    private final Map<String, PathLatency> pathLatencies = new ConcurrentHashMap<>();
+    //没有匹配 pathTimeouts 的路径共用
+    private volatile PathLatency defaultLatency;
+
+    public ResponseTimeoutFilterFunction(WebClientConfigurationProperties.WebClientProperties webClientProperties) {
+        this.webClientProperties = webClientProperties;
+    }
+
+    /**
+     * @param path 请求路径
+     * @return 这个路径当前的响应超时
+     */
+    public Duration getResponseTimeout(String path) {
+        WebClientConfigurationProperties.PathTimeoutProperties pathTimeout = webClientProperties.pathTimeoutMatch(path);
+        long configuredMillis = configuredMillis(pathTimeout);
+        PathLatency pathLatency = pathLatency(pathTimeout);
+        return Duration.ofMillis(pathLatency == null ? configuredMillis : pathLatency.timeoutMillis(configuredMillis, System.nanoTime()));
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest clientRequest, ExchangeFunction exchangeFunction) {
+        return Mono.defer(() -> {
+            String path = clientRequest.url().getPath();
+            WebClientConfigurationProperties.PathTimeoutProperties pathTimeout = webClientProperties.pathTimeoutMatch(path);
+            long configuredMillis = configuredMillis(pathTimeout);
+            PathLatency pathLatency = pathLatency(pathTimeout);
+            long start = System.nanoTime();
+            Duration responseTimeout = Duration.ofMillis(pathLatency == null ? configuredMillis : pathLatency.timeoutMillis(configuredMillis, start));
+            ClientRequest request = ClientRequest.from(clientRequest)
+                    .httpRequest(clientHttpRequest -> {
+                        //覆盖 HttpClient 上设置的默认响应超时
+                        Object nativeRequest = clientHttpRequest.getNativeRequest();
+                        if (nativeRequest instanceof HttpClientRequest) {
+                            ((HttpClientRequest) nativeRequest).responseTimeout(responseTimeout);
+                        }
+                    })
+                    .build();
+            if (pathLatency == null) {
+                return exchangeFunction.exchange(request);
+            }
+            return exchangeFunction.exchange(request)
+                    .doOnNext(clientResponse -> pathLatency.record(System.nanoTime() - start))
+                    .doOnError(throwable -> {
+                        //其他异常（例如连接失败）与路径的耗时无关，不记录
+                        if (throwable instanceof ReadTimeoutException || throwable.getCause() instanceof ReadTimeoutException) {
+                            pathLatency.record(System.nanoTime() - start);
+                        }
+                    });
+        });
+    }
+
+    private long configuredMillis(WebClientConfigurationProperties.PathTimeoutProperties pathTimeout) {
+        if (pathTimeout != null && pathTimeout.getResponseTimeout() != null) {
+            return pathTimeout.getResponseTimeout().toMillis();
+        }
+        return webClientProperties.getResponseTimeout().toMillis();
+    }
+
+    private PathLatency pathLatency(WebClientConfigurationProperties.PathTimeoutProperties pathTimeout) {
+        WebClientConfigurationProperties.AdaptiveTimeoutProperties adaptiveTimeout = webClientProperties.getAdaptiveTimeout();
+        if (adaptiveTimeout == null || !adaptiveTimeout.isEnabled()) {
+            return null;
+        }
+        if (pathTimeout != null) {
+            return pathLatencies.computeIfAbsent(pathTimeout.getPath(), k -> new PathLatency(adaptiveTimeout));
+        }
+        PathLatency pathLatency = defaultLatency;
+        if (pathLatency == null) {
+            synchronized (this) {
+                pathLatency = defaultLatency;
+                if (pathLatency == null) {
+                    pathLatency = new PathLatency(adaptiveTimeout);
+                    defaultLatency = pathLatency;
+                }
+            }
+        }
+        return pathLatency;
+    }
+
+    private static class PathLatency {
+        private final WebClientConfigurationProperties.AdaptiveTimeoutProperties adaptiveTimeout;
+        private final LatencyHistogram latencyHistogram;
+        private volatile long timeoutMillis = -1;
+        private volatile long computedAt;
+
+        private PathLatency(WebClientConfigurationProperties.AdaptiveTimeoutProperties adaptiveTimeout) {
+            this.adaptiveTimeout = adaptiveTimeout;
+            this.latencyHistogram = new LatencyHistogram(adaptiveTimeout.getWindow().toNanos(), System.nanoTime());
+        }
+
+        private void record(long latencyNanos) {
+            latencyHistogram.record(TimeUnit.NANOSECONDS.toMillis(latencyNanos), System.nanoTime());
+        }
+
+        private long timeoutMillis(long configuredMillis, long now) {
+            long timeoutMillis = this.timeoutMillis;
+            if (timeoutMillis >= 0 && now - computedAt < RECOMPUTE_INTERVAL_NANOS) {
+                return Math.min(timeoutMillis, configuredMillis);
+            }
+            //样本不够的时候使用配置的超时，并且不缓存，样本够了之后立刻生效
+            if (latencyHistogram.count(now) < adaptiveTimeout.getMinSamples()) {
+                return configuredMillis;
+            }
+            long adaptiveMillis = (long) (latencyHistogram.percentile(PERCENTILE, now) * adaptiveTimeout.getMultiplier());
+            timeoutMillis = Math.max(adaptiveMillis, adaptiveTimeout.getMinTimeout().toMillis());
+            this.timeoutMillis = timeoutMillis;
+            this.computedAt = now;
+            return Math.min(timeoutMillis, configuredMillis);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.jojotech.spring.cloud.webflux.webclient;
+
+import com.github.jojotech.spring.cloud.commons.metric.InstanceStats;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 记录实例的调用指标（正在处理的请求数，成功失败，响应耗时），给负载均衡器使用
+ * 需要放在负载均衡器之后，这时候的 url 是实例的 url；放在实例断路器之后，这样断路器打开没有发出的请求不会被统计
+ * <ul>
+ *     <li>每次订阅（包括每次重试）都是一次独立的调用，记录到这次调用实际选中的实例上</li>
+ *     <li>收到响应头就结束这次调用，与 Feign 的统计口径一致；响应体由调用方读取，断路器对失败的响应也不会读取响应体，
+ *     所以不能等响应体结束，否则正在处理的请求数会泄漏，流式响应体也不会一直占着计数</li>
+ *     <li>响应，异常，取消只会记录一次，取消只结束正在处理的计数，不算失败</li>
+ * </ul>
+ */
+public class ServiceInstanceMetricsFilterFunction implements ExchangeFilterFunction {
+    private final ServiceInstanceMetrics serviceInstanceMetrics;
+
+    public ServiceInstanceMetricsFilterFunction(ServiceInstanceMetrics serviceInstanceMetrics) {
+        this.serviceInstanceMetrics = serviceInstanceMetrics;
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest clientRequest, ExchangeFunction exchangeFunction) {
+        return Mono.defer(() -> {
+            URI url = clientRequest.url();
+            InstanceStats instanceStats = serviceInstanceMetrics.getStats(url.getHost(), url.getPort());
+            AtomicBoolean recorded = new AtomicBoolean();
+            long start = System.nanoTime();
+            instanceStats.recordCall();
+            return exchangeFunction.exchange(clientRequest)
+                    .doOnNext(clientResponse -> {
+                        if (recorded.compareAndSet(false, true)) {
+                            instanceStats.recordLatency(System.nanoTime() - start);
+                            //5xx 代表实例本身有问题，4xx 是请求的问题，不算实例失败
+                            instanceStats.recordCalled(clientResponse.rawStatusCode() < 500);
+                        }
+                    })
+                    .doOnError(throwable -> {
+                        if (recorded.compareAndSet(false, true)) {
+                            instanceStats.recordLatency(System.nanoTime() - start);
+                            instanceStats.recordCalled(false);
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        if (recorded.compareAndSet(false, true)) {
+                            instanceStats.recordCancelled();
+                        }
+                    })
+                    .doOnSuccess(clientResponse -> {
+                        //没有响应就结束了，一般不会出现，按失败处理
+                        if (clientResponse == null && recorded.compareAndSet(false, true)) {
+                            instanceStats.recordCalled(false);
+                        }
+                    });
+        });
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.jojotech.spring.cloud.webflux.webclient;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import reactor.netty.resources.LoopResources;
+
+/**
+ * 所有 WebClient 共用的 EventLoop
+ * <ul>
+ *     <li>在 Linux 上并且引入了 netty-transport-native-epoll 的时候使用 epoll，否则使用 NIO</li>
+ *     <li>可以与 WebFlux 服务端共用 EventLoop，在服务端的 EventLoop 线程上发起的请求会使用同一个 EventLoop，减少线程切换</li>
+ *     <li>每个 EventLoop 的待处理任务数注册为指标 webclient.event.loop.pending.tasks</li>
+ * </ul>
+ */
+@Log4j2
+public class WebClientLoopResources implements MeterBinder, DisposableBean {
+    private final LoopResources loopResources;
+    private final boolean preferNative;
+    //与 WebFlux 服务端共用的时候不是这里创建的，不能释放
+    private final boolean owned;
+
+    public WebClientLoopResources(LoopResources loopResources, boolean preferNative, boolean owned) {
+        this.loopResources = loopResources;
+        this.preferNative = preferNative;
+        this.owned = owned;
+        log.info("webclient event loop: {}, shared with server: {}", isNative() ? "epoll" : "nio", !owned);
+    }
+
+    public LoopResources getLoopResources() {
+        return loopResources;
+    }
+
+    public boolean isPreferNative() {
+        return preferNative;
+    }
+
+    /**
+     * @return 是否真正使用了 native 传输
+     */
+    public boolean isNative() {
+        return preferNative && LoopResources.hasNativeSupport();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        String transport = isNative() ? "epoll" : "nio";
+        int index = 0;
+        for (EventExecutor eventExecutor : loopResources.onClient(preferNative)) {
+            if (eventExecutor instanceof SingleThreadEventExecutor) {
+                Gauge.builder("webclient.event.loop.pending.tasks", (SingleThreadEventExecutor) eventExecutor, SingleThreadEventExecutor::pendingTasks)
+                        .description("pending tasks of the webclient event loop")
+                        .tag("loop", String.valueOf(index))
+                        .tag("transport", transport)
+                        .register(registry);
+            }
+            index++;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (owned) {
+            loopResources.dispose();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.jojotech.spring.cloud.webflux.webclient.resilience4j.retry;
 
+import com.github.jojotech.spring.cloud.commons.diagnostics.CallRecorder;
 import io.github.resilience4j.reactor.IllegalPublisherException;
 import io.github.resilience4j.reactor.retry.RetryOperator;
 import io.github.resilience4j.retry.Retry;
@@ -13,31 +14,33 @@ import java.time.Duration;
 import java.util.function.UnaryOperator;
 
 /**
- * 在官方原始版本的基础上，特定了形参并增加了日志
+ * 在官方原始版本的基础上，特定了形参并增加了日志，重试的时候输出当前线程最近的调用记录
  * @see RetryOperator
  */
 @Log4j2
 public class ClientResponseRetryOperator implements UnaryOperator<Publisher<ClientResponse>> {
     private final Retry retry;
+    private final CallRecorder callRecorder;
 
-    private ClientResponseRetryOperator(Retry retry) {
+    private ClientResponseRetryOperator(Retry retry, CallRecorder callRecorder) {
         this.retry = retry;
+        this.callRecorder = callRecorder;
     }
 
-    public static ClientResponseRetryOperator of(Retry retry) {
-        return new ClientResponseRetryOperator(retry);
+    public static ClientResponseRetryOperator of(Retry retry, CallRecorder callRecorder) {
+        return new ClientResponseRetryOperator(retry, callRecorder);
     }
 
     @Override
     public Publisher<ClientResponse> apply(Publisher<ClientResponse> publisher) {
         if (publisher instanceof Mono) {
-            ClientResponseContext clientResponseContext = new ClientResponseContext(retry.asyncContext());
+            ClientResponseContext clientResponseContext = new ClientResponseContext(retry.asyncContext(), callRecorder);
             Mono<ClientResponse> upstream = (Mono<ClientResponse>) publisher;
             return upstream.doOnNext(clientResponseContext::handleResult)
                     .retryWhen(reactor.util.retry.Retry.withThrowable(errors -> errors.flatMap(clientResponseContext::handleErrors)))
                     .doOnSuccess(t -> clientResponseContext.onComplete());
         } else if (publisher instanceof Flux) {
-            ClientResponseContext clientResponseContext = new ClientResponseContext(retry.asyncContext());
+            ClientResponseContext clientResponseContext = new ClientResponseContext(retry.asyncContext(), callRecorder);
             Flux<ClientResponse> upstream = (Flux<ClientResponse>) publisher;
             return upstream.doOnNext(clientResponseContext::handleResult)
                     .retryWhen(reactor.util.retry.Retry.withThrowable(errors -> errors.flatMap(clientResponseContext::handleErrors)))
@@ -50,9 +53,11 @@ public class ClientResponseRetryOperator implements UnaryOperator<Publisher<Clie
     private static class ClientResponseContext {
 
         private final Retry.AsyncContext<ClientResponse> retryContext;
+        private final CallRecorder callRecorder;
 
-        ClientResponseContext(Retry.AsyncContext<ClientResponse> retryContext) {
+        ClientResponseContext(Retry.AsyncContext<ClientResponse> retryContext, CallRecorder callRecorder) {
             this.retryContext = retryContext;
+            this.callRecorder = callRecorder;
         }
 
         void onComplete() {
@@ -70,6 +75,7 @@ public class ClientResponseRetryOperator implements UnaryOperator<Publisher<Clie
             if (throwable instanceof RetryDueToResultException) {
                 long waitDurationMillis = ((RetryDueToResultException) throwable).waitDurationMillis;
                 log.info("web client retry: got RetryDueToResultException: {}, retry waitDurationMillis: {}", throwable.getLocalizedMessage(), waitDurationMillis);
+                callRecorder.dump("web client retry");
                 return Mono.delay(Duration.ofMillis(waitDurationMillis));
             }
             // Filter Error to not retry on it
@@ -83,6 +89,7 @@ public class ClientResponseRetryOperator implements UnaryOperator<Publisher<Clie
             if (waitDurationMillis == -1) {
                 return Mono.error(throwable);
             }
+            callRecorder.dump("web client retry");
 
             return Mono.delay(Duration.ofMillis(waitDurationMillis));
         }
@@ -0,0 +1,112 @@
+package com.github.jojotech.spring.cloud.webflux.test.webclient;
+
+import com.github.jojotech.spring.cloud.webflux.config.WebClientConfigurationProperties;
+import com.github.jojotech.spring.cloud.webflux.webclient.LatencyHistogram;
+import com.github.jojotech.spring.cloud.webflux.webclient.ResponseTimeoutFilterFunction;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ResponseTimeoutFilterFunctionTest {
+    @Test
+    public void testPathTimeouts() {
+        WebClientConfigurationProperties.WebClientProperties webClientProperties = new WebClientConfigurationProperties.WebClientProperties();
+        webClientProperties.setResponseTimeout(Duration.ofMillis(1500));
+        webClientProperties.setPathTimeouts(List.of(
+                pathTimeout("/orders/**", Duration.ofMillis(300)),
+                pathTimeout("/**/export", Duration.ofSeconds(30))
+        ));
+        ResponseTimeoutFilterFunction filterFunction = new ResponseTimeoutFilterFunction(webClientProperties);
+        //按照顺序第一个匹配的生效
+        Assertions.assertEquals(Duration.ofMillis(300), filterFunction.getResponseTimeout("/orders/1/export"));
+        Assertions.assertEquals(Duration.ofSeconds(30), filterFunction.getResponseTimeout("/users/export"));
+        //毫秒精度，不会被截断到 1 秒
+        Assertions.assertEquals(Duration.ofMillis(1500), filterFunction.getResponseTimeout("/users/1"));
+    }
+
+    @Test
+    public void testAdaptiveTimeout() {
+        WebClientConfigurationProperties.WebClientProperties webClientProperties = new WebClientConfigurationProperties.WebClientProperties();
+        webClientProperties.setResponseTimeout(Duration.ofSeconds(8));
+        webClientProperties.setPathTimeouts(List.of(
+                pathTimeout("/slow/**", Duration.ofMillis(20)),
+                pathTimeout("/items/**", Duration.ofSeconds(5))
+        ));
+        WebClientConfigurationProperties.AdaptiveTimeoutProperties adaptiveTimeout = webClientProperties.getAdaptiveTimeout();
+        adaptiveTimeout.setEnabled(true);
+        adaptiveTimeout.setMinSamples(10);
+        adaptiveTimeout.setMinTimeout(Duration.ofSeconds(1));
+        //第一次请求有类加载的耗时，会被统计成几百毫秒的样本，先用另一个实例预热
+        exchange(new ResponseTimeoutFilterFunction(webClientProperties), "/fast");
+        ResponseTimeoutFilterFunction filterFunction = new ResponseTimeoutFilterFunction(webClientProperties);
+
+        //样本不够的时候使用配置的超时
+        for (int i = 0; i < 9; i++) {
+            exchange(filterFunction, "/fast");
+        }
+        Assertions.assertEquals(Duration.ofSeconds(8), filterFunction.getResponseTimeout("/fast"));
+        //样本够了之后为 p99 的倍数，不低于下限
+        exchange(filterFunction, "/fast");
+        Assertions.assertEquals(Duration.ofSeconds(1), filterFunction.getResponseTimeout("/fast"));
+
+        //不超过配置的超时
+        for (int i = 0; i < 10; i++) {
+            exchange(filterFunction, "/slow/" + i);
+        }
+        Assertions.assertEquals(Duration.ofMillis(20), filterFunction.getResponseTimeout("/slow/1"));
+
+        //没有匹配 pathTimeouts 的路径共用一个统计，不按照实际路径统计
+        Assertions.assertEquals(Duration.ofSeconds(1), filterFunction.getResponseTimeout("/other/1"));
+        //匹配同一个模式的不同路径共用一个统计，样本数是这些路径加起来的
+        for (int i = 0; i < 9; i++) {
+            exchange(filterFunction, "/items/" + i);
+        }
+        Assertions.assertEquals(Duration.ofSeconds(5), filterFunction.getResponseTimeout("/items/100"));
+        exchange(filterFunction, "/items/9");
+        Assertions.assertEquals(Duration.ofSeconds(1), filterFunction.getResponseTimeout("/items/100"));
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        long window = TimeUnit.SECONDS.toNanos(60);
+        LatencyHistogram latencyHistogram = new LatencyHistogram(window, 0);
+        for (int i = 1; i <= 1000; i++) {
+            latencyHistogram.record(i, 0);
+        }
+        Assertions.assertEquals(1000, latencyHistogram.count(0));
+        //分桶相差 10%，误差在 10% 以内
+        long p99 = latencyHistogram.percentile(0.99, 0);
+        Assertions.assertTrue(p99 >= 990 && p99 <= 990 * 1.1, "p99: " + p99);
+        long p50 = latencyHistogram.percentile(0.5, 0);
+        Assertions.assertTrue(p50 >= 500 && p50 <= 500 * 1.1, "p50: " + p50);
+        //超过一个窗口，之前的数据还在上一个窗口中
+        latencyHistogram.record(5, window);
+        Assertions.assertEquals(1001, latencyHistogram.count(window));
+        //再超过一个窗口，最早的数据过期
+        Assertions.assertEquals(1, latencyHistogram.count(2 * window));
+        //超过两个窗口没有记录，全部过期
+        Assertions.assertEquals(0, latencyHistogram.count(5 * window));
+        Assertions.assertEquals(0, latencyHistogram.percentile(0.99, 5 * window));
+    }
+
+    private static WebClientConfigurationProperties.PathTimeoutProperties pathTimeout(String path, Duration responseTimeout) {
+        WebClientConfigurationProperties.PathTimeoutProperties pathTimeout = new WebClientConfigurationProperties.PathTimeoutProperties();
+        pathTimeout.setPath(path);
+        pathTimeout.setResponseTimeout(responseTimeout);
+        return pathTimeout;
+    }
+
+    private static void exchange(ResponseTimeoutFilterFunction filterFunction, String path) {
+        ClientRequest clientRequest = ClientRequest.create(HttpMethod.GET, URI.create("http://10.238.1.1:8080" + path)).build();
+        filterFunction.filter(clientRequest, request -> Mono.just(ClientResponse.create(HttpStatus.OK).build())).block();
+    }
+}
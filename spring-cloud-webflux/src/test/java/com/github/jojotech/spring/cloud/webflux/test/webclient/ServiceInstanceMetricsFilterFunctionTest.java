@@ -0,0 +1,60 @@
+package com.github.jojotech.spring.cloud.webflux.test.webclient;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.jojotech.spring.cloud.commons.metric.InstanceStats;
+import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
+import com.github.jojotech.spring.cloud.webflux.webclient.ServiceInstanceMetricsFilterFunction;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.URI;
+
+public class ServiceInstanceMetricsFilterFunctionTest {
+    private final ServiceInstanceMetrics serviceInstanceMetrics = new ServiceInstanceMetrics(new MetricRegistry());
+    private final ServiceInstanceMetricsFilterFunction filterFunction = new ServiceInstanceMetricsFilterFunction(serviceInstanceMetrics);
+    private final ClientRequest clientRequest = ClientRequest.create(HttpMethod.GET, URI.create("http://10.238.1.1:8080/anything")).build();
+
+    @Test
+    public void testRecordOutcome() {
+        InstanceStats instanceStats = serviceInstanceMetrics.getStats("10.238.1.1", 8080);
+        filterFunction.filter(clientRequest, request -> Mono.just(ClientResponse.create(HttpStatus.OK).build())).block();
+        filterFunction.filter(clientRequest, request -> Mono.just(ClientResponse.create(HttpStatus.INTERNAL_SERVER_ERROR).build())).block();
+        Assertions.assertThrows(RuntimeException.class, () ->
+                filterFunction.filter(clientRequest, request -> Mono.error(new IOException("connect refused"))).block());
+        Assertions.assertEquals(0, instanceStats.getCalling());
+        Assertions.assertEquals(3, instanceStats.getRequests());
+        Assertions.assertEquals(2.0 / 3, instanceStats.getFailedRatio(), 0.0001);
+    }
+
+    @Test
+    public void testCancel() {
+        InstanceStats instanceStats = serviceInstanceMetrics.getStats("10.238.1.1", 8080);
+        Mono<ClientResponse> response = filterFunction.filter(clientRequest, request -> Mono.never());
+        //没订阅之前不会记录
+        Assertions.assertEquals(0, instanceStats.getCalling());
+        Disposable disposable = response.subscribe();
+        Assertions.assertEquals(1, instanceStats.getCalling());
+        //调用方取消，计数不能泄漏，也不算失败
+        disposable.dispose();
+        Assertions.assertEquals(0, instanceStats.getCalling());
+        Assertions.assertEquals(0, instanceStats.getRequests());
+    }
+
+    @Test
+    public void testResubscribe() {
+        InstanceStats instanceStats = serviceInstanceMetrics.getStats("10.238.1.1", 8080);
+        Mono<ClientResponse> response = filterFunction.filter(clientRequest, request -> Mono.just(ClientResponse.create(HttpStatus.OK).build()));
+        //重试就是重新订阅，每次订阅单独记录
+        response.block();
+        response.block();
+        Assertions.assertEquals(0, instanceStats.getCalling());
+        Assertions.assertEquals(2, instanceStats.getRequests());
+    }
+}
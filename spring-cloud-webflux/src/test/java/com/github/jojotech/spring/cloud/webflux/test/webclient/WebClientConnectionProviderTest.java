@@ -0,0 +1,225 @@
+package com.github.jojotech.spring.cloud.webflux.test.webclient;
+
+import com.github.jojotech.spring.cloud.webflux.config.WebClientConfigurationProperties;
+import com.github.jojotech.spring.cloud.webflux.config.WebClientDefaultConfiguration;
+import com.github.jojotech.spring.cloud.webflux.webclient.WebClientNamedContextFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.mock.env.MockEnvironment;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+public class WebClientConnectionProviderTest {
+    private static final String SERVICE = "testService";
+
+    private final WebClientDefaultConfiguration webClientDefaultConfiguration = new WebClientDefaultConfiguration();
+    //服务端看到的连接建立与关闭次数，用来验证连接池的行为
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+    private DisposableServer server;
+
+    @BeforeEach
+    public void startServer() {
+        server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .doOnConnection(connection -> {
+                    opened.incrementAndGet();
+                    connection.onDispose(closed::incrementAndGet);
+                })
+                //返回客户端的端口，用来区分请求使用的是哪个连接
+                .route(routes -> routes
+                        .get("/port", (request, response) -> response.sendString(Mono.just(clientPort(request))))
+                        .get("/delay/{millis}", (request, response) -> response.sendString(
+                                Mono.delay(Duration.ofMillis(Long.parseLong(request.param("millis")))).map(l -> clientPort(request)))))
+                .bindNow();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.disposeNow();
+    }
+
+    @Test
+    public void testPerServicePool() {
+        ConnectionProvider connectionProvider = connectionProvider(pool -> pool.setMaxConnections(32));
+        try {
+            Assertions.assertEquals(32, connectionProvider.maxConnections());
+        } finally {
+            connectionProvider.disposeLater().block(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    public void testMetricsDisabledByDefault() {
+        //reactor-netty 的连接池指标按照远端地址打标签，实例频繁变化的时候指标个数会一直增长
+        Assertions.assertFalse(new WebClientConfigurationProperties.PoolProperties().isMetrics());
+    }
+
+    @Test
+    public void testLeasingStrategy() {
+        //先后归还两个连接，FIFO 复用先归还的，LIFO 复用后归还的
+        for (WebClientConfigurationProperties.LeasingStrategy leasingStrategy : WebClientConfigurationProperties.LeasingStrategy.values()) {
+            ConnectionProvider connectionProvider = connectionProvider(pool -> pool.setLeasingStrategy(leasingStrategy));
+            try {
+                HttpClient httpClient = httpClient(connectionProvider);
+                String[] ports = Mono.zip(get(httpClient, "/delay/100"), get(httpClient, "/delay/500"))
+                        .map(tuple -> new String[] {tuple.getT1(), tuple.getT2()})
+                        .block(Duration.ofSeconds(5));
+                Assertions.assertNotEquals(ports[0], ports[1]);
+                //响应结束之后连接在 EventLoop 上异步归还，等两个连接都回到连接池再获取
+                sleep(100);
+                String expected = leasingStrategy == WebClientConfigurationProperties.LeasingStrategy.FIFO ? ports[0] : ports[1];
+                Assertions.assertEquals(expected, get(httpClient, "/port").block(Duration.ofSeconds(5)), leasingStrategy.name());
+            } finally {
+                connectionProvider.disposeLater().block(Duration.ofSeconds(5));
+            }
+        }
+    }
+
+    @Test
+    public void testPendingAcquireMaxCount() {
+        //一个连接，等待获取连接的请求超过上限之后直接失败
+        Assertions.assertEquals(1, failedRequests(1, 3));
+        //0 代表 maxConnections 的两倍
+        Assertions.assertEquals(0, failedRequests(0, 3));
+        Assertions.assertEquals(1, failedRequests(0, 4));
+        //-1 代表不限制
+        Assertions.assertEquals(0, failedRequests(-1, 8));
+    }
+
+    @Test
+    public void testMaxIdleTime() {
+        ConnectionProvider connectionProvider = connectionProvider(pool -> {
+            pool.setMaxIdleTime(Duration.ofMillis(200));
+            pool.setEvictionInterval(Duration.ofMillis(50));
+        });
+        try {
+            get(httpClient(connectionProvider), "/port").block(Duration.ofSeconds(5));
+            //空闲的连接在后台被关闭，不需要等下一次获取连接
+            awaitClosed(1);
+        } finally {
+            connectionProvider.disposeLater().block(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    public void testMaxLifeTime() {
+        ConnectionProvider connectionProvider = connectionProvider(pool -> {
+            pool.setMaxIdleTime(Duration.ofMinutes(1));
+            pool.setMaxLifeTime(Duration.ofMillis(300));
+            pool.setEvictionInterval(Duration.ofMillis(50));
+        });
+        try {
+            HttpClient httpClient = httpClient(connectionProvider);
+            String port = get(httpClient, "/port").block(Duration.ofSeconds(5));
+            awaitClosed(1);
+            //过期的连接关闭之后新建连接
+            Assertions.assertNotEquals(port, get(httpClient, "/port").block(Duration.ofSeconds(5)));
+            Assertions.assertEquals(2, opened.get());
+        } finally {
+            connectionProvider.disposeLater().block(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    public void testDisposeWithContext() {
+        WebClientConfigurationProperties webClientConfigurationProperties = properties(pool -> {
+        });
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.setEnvironment(new MockEnvironment().withProperty(WebClientNamedContextFactory.PROPERTY_NAME, SERVICE));
+        context.registerBean(WebClientConfigurationProperties.class, () -> webClientConfigurationProperties);
+        context.register(WebClientDefaultConfiguration.class);
+        //只验证连接池，WebClient 需要的负载均衡等 Bean 不创建
+        context.addBeanFactoryPostProcessor(beanFactory -> beanFactory.getBeanDefinition("getWebClient").setLazyInit(true));
+        context.refresh();
+        try {
+            get(httpClient(context.getBean(ConnectionProvider.class)), "/port").block(Duration.ofSeconds(5));
+            Assertions.assertEquals(0, closed.get());
+        } finally {
+            context.close();
+        }
+        //子 ApplicationContext 关闭的时候连接池释放，空闲的连接被关闭
+        awaitClosed(1);
+    }
+
+    @Test
+    public void testMissingConfig() {
+        WebClientConfigurationProperties webClientConfigurationProperties = new WebClientConfigurationProperties();
+        webClientConfigurationProperties.setConfigs(Map.of(SERVICE, new WebClientConfigurationProperties.WebClientProperties()));
+        Assertions.assertThrows(BeanCreationException.class, () -> webClientDefaultConfiguration.webClientConnectionProvider(webClientConfigurationProperties,
+                new MockEnvironment().withProperty(WebClientNamedContextFactory.PROPERTY_NAME, "otherService")));
+    }
+
+    private long failedRequests(int pendingAcquireMaxCount, int concurrency) {
+        ConnectionProvider connectionProvider = connectionProvider(pool -> {
+            pool.setMaxConnections(1);
+            pool.setPendingAcquireMaxCount(pendingAcquireMaxCount);
+        });
+        try {
+            HttpClient httpClient = httpClient(connectionProvider);
+            return Flux.range(0, concurrency)
+                    .flatMap(i -> get(httpClient, "/delay/100").map(port -> false).onErrorReturn(true), concurrency)
+                    .filter(failed -> failed)
+                    .count()
+                    .block(Duration.ofSeconds(10));
+        } finally {
+            connectionProvider.disposeLater().block(Duration.ofSeconds(5));
+        }
+    }
+
+    private void awaitClosed(int expected) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (closed.get() < expected && System.nanoTime() - deadline < 0) {
+            sleep(10);
+        }
+        Assertions.assertEquals(expected, closed.get());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ConnectionProvider connectionProvider(Consumer<WebClientConfigurationProperties.PoolProperties> customizer) {
+        return webClientDefaultConfiguration.webClientConnectionProvider(properties(customizer),
+                new MockEnvironment().withProperty(WebClientNamedContextFactory.PROPERTY_NAME, SERVICE));
+    }
+
+    private static WebClientConfigurationProperties properties(Consumer<WebClientConfigurationProperties.PoolProperties> customizer) {
+        WebClientConfigurationProperties.WebClientProperties webClientProperties = new WebClientConfigurationProperties.WebClientProperties();
+        customizer.accept(webClientProperties.getPool());
+        WebClientConfigurationProperties webClientConfigurationProperties = new WebClientConfigurationProperties();
+        webClientConfigurationProperties.setConfigs(Map.of(SERVICE, webClientProperties));
+        return webClientConfigurationProperties;
+    }
+
+    private HttpClient httpClient(ConnectionProvider connectionProvider) {
+        return HttpClient.create(connectionProvider).baseUrl("http://127.0.0.1:" + server.port());
+    }
+
+    private static Mono<String> get(HttpClient httpClient, String uri) {
+        return httpClient.get().uri(uri).responseContent().aggregate().asString();
+    }
+
+    private static String clientPort(HttpServerRequest request) {
+        return String.valueOf(request.remoteAddress().getPort());
+    }
+}
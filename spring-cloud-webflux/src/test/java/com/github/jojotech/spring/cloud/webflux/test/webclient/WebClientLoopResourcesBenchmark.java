@@ -0,0 +1,136 @@
+package com.github.jojotech.spring.cloud.webflux.test.webclient;
+
+import com.github.jojotech.spring.cloud.webflux.webclient.WebClientLoopResources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebClient 的 EventLoop 配置对比：传输方式（NIO 与 epoll，也就是 preferNative）以及是否与服务端共用 EventLoop（colocate）
+ * <ul>
+ *     <li>模拟网关场景：前端 HttpServer 收到请求之后在自己的 EventLoop 线程上通过 WebClient 调用后端 HttpServer，
+ *     这样 colocate 的时候 WebClient 的请求才是从同一个 EventLoop 发出的</li>
+ *     <li>dedicated：WebClient 使用单独的 EventLoop，与 loop.colocate=false 一样；colocate：与前端服务端共用 EventLoop</li>
+ *     <li>后端服务端与压测客户端各自使用单独的 EventLoop，传输方式与被测的一致</li>
+ *     <li>epoll 不可用的时候 epoll 的组合直接失败，避免把 NIO 的结果当作 epoll</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebClientLoopResourcesBenchmark {
+    private static final int CONCURRENCY = 64;
+    private static final int THREADS = 4;
+
+    @Param({"nio", "epoll"})
+    private String transport;
+
+    @Param({"dedicated", "colocate"})
+    private String loop;
+
+    private LoopResources backendLoopResources;
+    private LoopResources frontendLoopResources;
+    private LoopResources driverLoopResources;
+    private WebClientLoopResources webClientLoopResources;
+    private DisposableServer backend;
+    private DisposableServer frontend;
+    private ConnectionProvider webClientConnectionProvider;
+    private ConnectionProvider driverConnectionProvider;
+    private HttpClient driver;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        boolean preferNative = "epoll".equals(transport);
+        if (preferNative && !LoopResources.hasNativeSupport()) {
+            throw new IllegalStateException("epoll is not available on this machine");
+        }
+        backendLoopResources = LoopResources.create("benchmark-backend", THREADS, true);
+        backend = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .runOn(backendLoopResources, preferNative)
+                .route(routes -> routes.get("/anything", (request, response) -> response.sendString(Mono.just("ok"))))
+                .bindNow();
+
+        frontendLoopResources = LoopResources.create("benchmark-frontend", THREADS, true);
+        webClientLoopResources = "colocate".equals(loop)
+                ? new WebClientLoopResources(frontendLoopResources, preferNative, false)
+                : new WebClientLoopResources(LoopResources.create("benchmark-webclient", THREADS, true), preferNative, true);
+        webClientConnectionProvider = ConnectionProvider.builder("benchmark-webclient").maxConnections(CONCURRENCY).build();
+        WebClient webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(webClientConnectionProvider)
+                        .runOn(webClientLoopResources.getLoopResources(), webClientLoopResources.isPreferNative())))
+                .baseUrl("http://127.0.0.1:" + backend.port())
+                .build();
+        frontend = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .runOn(frontendLoopResources, preferNative)
+                .route(routes -> routes.get("/proxy", (request, response) ->
+                        response.sendString(webClient.get().uri("/anything").retrieve().bodyToMono(String.class))))
+                .bindNow();
+
+        driverLoopResources = LoopResources.create("benchmark-driver", THREADS, true);
+        driverConnectionProvider = ConnectionProvider.builder("benchmark-driver").maxConnections(CONCURRENCY).build();
+        driver = HttpClient.create(driverConnectionProvider)
+                .runOn(driverLoopResources, preferNative)
+                .baseUrl("http://127.0.0.1:" + frontend.port());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        driverConnectionProvider.disposeLater().block();
+        webClientConnectionProvider.disposeLater().block();
+        frontend.disposeNow();
+        backend.disposeNow();
+        webClientLoopResources.destroy();
+        driverLoopResources.disposeLater().block();
+        frontendLoopResources.disposeLater().block();
+        backendLoopResources.disposeLater().block();
+    }
+
+    @Benchmark
+    public Long concurrentRequests() {
+        return Flux.range(0, CONCURRENCY)
+                .flatMap(i -> driver.get().uri("/proxy").responseContent().aggregate().asString(), CONCURRENCY)
+                .count()
+                .block();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(WebClientLoopResourcesBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
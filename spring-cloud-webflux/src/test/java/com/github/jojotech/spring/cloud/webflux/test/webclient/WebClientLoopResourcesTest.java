@@ -0,0 +1,84 @@
+package com.github.jojotech.spring.cloud.webflux.test.webclient;
+
+import com.github.jojotech.spring.cloud.webflux.webclient.WebClientLoopResources;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoop;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.netty.resources.LoopResources;
+
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class WebClientLoopResourcesTest {
+    @Test
+    public void testNioFallback() {
+        WebClientLoopResources webClientLoopResources = new WebClientLoopResources(
+                LoopResources.create("webclient-test", 2, true), false, true);
+        try {
+            //不优先使用 native 的时候一定是 NIO，不管 epoll 是否可用
+            Assertions.assertFalse(webClientLoopResources.isNative());
+            EventLoopGroup eventLoopGroup = webClientLoopResources.getLoopResources().onClient(webClientLoopResources.isPreferNative());
+            //客户端的 EventLoopGroup 是包装过的 colocated 实现，检查实际的 EventLoop
+            Assertions.assertTrue(eventLoopGroup.next() instanceof NioEventLoop);
+        } finally {
+            webClientLoopResources.destroy();
+        }
+    }
+
+    @Test
+    public void testPreferNative() {
+        WebClientLoopResources webClientLoopResources = new WebClientLoopResources(
+                LoopResources.create("webclient-test", 2, true), true, true);
+        try {
+            //epoll 不可用（例如不是 Linux）的时候退化为 NIO
+            Assertions.assertEquals(LoopResources.hasNativeSupport(), webClientLoopResources.isNative());
+            EventLoopGroup eventLoopGroup = webClientLoopResources.getLoopResources().onClient(webClientLoopResources.isPreferNative());
+            Assertions.assertEquals(!LoopResources.hasNativeSupport(), eventLoopGroup.next() instanceof NioEventLoop);
+        } finally {
+            webClientLoopResources.destroy();
+        }
+    }
+
+    @Test
+    public void testPendingTasksGauges() throws Exception {
+        WebClientLoopResources webClientLoopResources = new WebClientLoopResources(
+                LoopResources.create("webclient-test", 2, true), false, true);
+        try {
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            webClientLoopResources.bindTo(meterRegistry);
+            //每个 EventLoop 一个
+            Collection<Gauge> gauges = meterRegistry.find("webclient.event.loop.pending.tasks").tag("transport", "nio").gauges();
+            Assertions.assertEquals(2, gauges.size());
+            Gauge gauge = meterRegistry.find("webclient.event.loop.pending.tasks").tag("loop", "0").gauge();
+            Assertions.assertNotNull(gauge);
+            Assertions.assertEquals(0, gauge.value());
+            //EventLoop 被占住的时候，之后提交的任务在排队
+            EventLoopGroup eventLoopGroup = webClientLoopResources.getLoopResources().onClient(false);
+            EventLoop eventLoop = (EventLoop) eventLoopGroup.iterator().next();
+            CountDownLatch blocked = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            eventLoop.execute(() -> {
+                blocked.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Assertions.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            eventLoop.execute(() -> {
+            });
+            eventLoop.execute(() -> {
+            });
+            Assertions.assertEquals(2, gauge.value());
+            release.countDown();
+        } finally {
+            webClientLoopResources.destroy();
+        }
+    }
+}
@@ -25,7 +25,6 @@ import reactor.core.publisher.Mono;
 
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockito.Mockito.when;
 
@@ -117,11 +116,9 @@ public class WebClientTest {
             boolean hasException = false;
             //清除断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
-            long l = span.context().traceId();
             RoundRobinWithRequestSeparatedPositionLoadBalancer loadBalancerClientFactoryInstance
                     = (RoundRobinWithRequestSeparatedPositionLoadBalancer) loadBalancerClientFactory.getInstance(SERVICE_WITH_ONLY_ONE_NODE);
-            AtomicInteger atomicInteger = loadBalancerClientFactoryInstance.getPositionCache().get(l);
-            int start = atomicInteger.get();
+            long start = loadBalancerClientFactoryInstance.getChosenCount();
             try {
                 Mono<String> stringMono = webClientNamedContextFactory.getWebClient(SERVICE_WITH_ONLY_ONE_NODE)
                         .get().uri("/delay/3").retrieve()
@@ -131,13 +128,13 @@ public class WebClientTest {
                 hasException = true;
             }
             //验证请求了 3 次，通过负载均衡器被调用了几次得知请求了几次
-            Assertions.assertEquals(DEFAULT_RETRY_ATTEMPT, atomicInteger.get() - start);
+            Assertions.assertEquals(DEFAULT_RETRY_ATTEMPT, loadBalancerClientFactoryInstance.getChosenCount() - start);
             Assertions.assertTrue(hasException);
 
             //清除断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
             hasException = false;
-            start = atomicInteger.get();
+            start = loadBalancerClientFactoryInstance.getChosenCount();
             try {
                 Mono<String> stringMono = webClientNamedContextFactory.getWebClient(SERVICE_WITH_ONLY_ONE_NODE)
                         .post().uri("/delay/4").retrieve()
@@ -148,13 +145,13 @@ public class WebClientTest {
             }
             //由于 post 请求默认不重试，并且请求路径也不在重试路径中，所以只会请求一次
             //验证请求了 1 次，通过负载均衡器被调用了几次得知请求了几次
-            Assertions.assertEquals(1, atomicInteger.get() - start);
+            Assertions.assertEquals(1, loadBalancerClientFactoryInstance.getChosenCount() - start);
             Assertions.assertTrue(hasException);
 
             //清除断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
             hasException = false;
-            start = atomicInteger.get();
+            start = loadBalancerClientFactoryInstance.getChosenCount();
             try {
                 Mono<String> stringMono = webClientNamedContextFactory.getWebClient(SERVICE_WITH_ONLY_ONE_NODE)
                         .post().uri("/delay/3").retrieve()
@@ -165,7 +162,7 @@ public class WebClientTest {
             }
             //由于请求路径在重试路径中，所以会正常重试
             //验证请求了 3 次，通过负载均衡器被调用了几次得知请求了几次
-            Assertions.assertEquals(DEFAULT_RETRY_ATTEMPT, atomicInteger.get() - start);
+            Assertions.assertEquals(DEFAULT_RETRY_ATTEMPT, loadBalancerClientFactoryInstance.getChosenCount() - start);
             Assertions.assertTrue(hasException);
         }
     }
@@ -177,11 +174,9 @@ public class WebClientTest {
             boolean hasException = false;
             //清除断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
-            long l = span.context().traceId();
             RoundRobinWithRequestSeparatedPositionLoadBalancer loadBalancerClientFactoryInstance
                     = (RoundRobinWithRequestSeparatedPositionLoadBalancer) loadBalancerClientFactory.getInstance(SERVICE_WITH_ONLY_ONE_NODE);
-            AtomicInteger atomicInteger = loadBalancerClientFactoryInstance.getPositionCache().get(l);
-            int start = atomicInteger.get();
+            long start = loadBalancerClientFactoryInstance.getChosenCount();
             try {
                 Mono<String> stringMono = webClientNamedContextFactory.getWebClient(SERVICE_WITH_ONLY_ONE_NODE)
                         .get().uri("/status/500").retrieve()
@@ -191,13 +186,13 @@ public class WebClientTest {
                 hasException = true;
             }
             //验证请求了 3 次，通过负载均衡器被调用了几次得知请求了几次
-            Assertions.assertEquals(DEFAULT_RETRY_ATTEMPT, atomicInteger.get() - start);
+            Assertions.assertEquals(DEFAULT_RETRY_ATTEMPT, loadBalancerClientFactoryInstance.getChosenCount() - start);
             Assertions.assertTrue(hasException);
 
             //清除断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
             hasException = false;
-            start = atomicInteger.get();
+            start = loadBalancerClientFactoryInstance.getChosenCount();
             try {
                 Mono<String> stringMono = webClientNamedContextFactory.getWebClient(SERVICE_WITH_ONLY_ONE_NODE)
                         .post().uri("/status/500").retrieve()
@@ -208,13 +203,13 @@ public class WebClientTest {
             }
             //由于 post 请求默认不重试，并且请求路径也不在重试路径中，所以只会请求一次
             //验证请求了 1 次，通过负载均衡器被调用了几次得知请求了几次
-            Assertions.assertEquals(1, atomicInteger.get() - start);
+            Assertions.assertEquals(1, loadBalancerClientFactoryInstance.getChosenCount() - start);
             Assertions.assertTrue(hasException);
 
             //清除断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
             hasException = false;
-            start = atomicInteger.get();
+            start = loadBalancerClientFactoryInstance.getChosenCount();
             try {
                 Mono<String> stringMono = webClientNamedContextFactory.getWebClient(SERVICE_WITH_ONLY_ONE_NODE)
                         .post().uri("/status/400").retrieve()
@@ -225,7 +220,7 @@ public class WebClientTest {
             }
             //由于请求路径在重试路径中，所以会正常重试
             //验证请求了 3 次，通过负载均衡器被调用了几次得知请求了几次
-            Assertions.assertEquals(DEFAULT_RETRY_ATTEMPT, atomicInteger.get() - start);
+            Assertions.assertEquals(DEFAULT_RETRY_ATTEMPT, loadBalancerClientFactoryInstance.getChosenCount() - start);
             Assertions.assertTrue(hasException);
         }
     }
@@ -1,6 +1,7 @@
 package com.github.jojotech.spring.cloud.webmvc.config;
 
 import brave.Tracer;
+import com.github.jojotech.spring.cloud.commons.diagnostics.CallRecorder;
 import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
 import com.github.jojotech.spring.cloud.webmvc.feign.ApacheHttpClient;
 import com.github.jojotech.spring.cloud.webmvc.feign.FeignBlockingLoadBalancerClientDelegate;
@@ -52,6 +53,7 @@ public class CommonOpenFeignConfiguration {
      * @param threadPoolBulkheadRegistry
      * @param circuitBreakerRegistry
      * @param tracer
+     * @param callRecorder
      * @param properties
      * @param loadBalancerClientFactory
      * @return FeignBlockingLoadBalancerClientDelegate 为何使用这个不直接用 FeignBlockingLoadBalancerClient 请参考 FeignBlockingLoadBalancerClientDelegate 的注释
@@ -65,6 +67,7 @@ public class CommonOpenFeignConfiguration {
             ThreadPoolBulkheadRegistry threadPoolBulkheadRegistry,
             CircuitBreakerRegistry circuitBreakerRegistry,
             Tracer tracer,
+            CallRecorder callRecorder,
             LoadBalancerProperties properties,
             LoadBalancerClientFactory loadBalancerClientFactory
     ) {
@@ -73,7 +76,8 @@ public class CommonOpenFeignConfiguration {
 						serviceInstanceMetrics, apacheHttpClient,
                         threadPoolBulkheadRegistry,
                         circuitBreakerRegistry,
-                        tracer
+                        tracer,
+                        callRecorder
                 ),
                 loadBalancerClientProvider,
                 properties,
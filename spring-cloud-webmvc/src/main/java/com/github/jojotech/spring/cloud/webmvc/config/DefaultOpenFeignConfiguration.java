@@ -1,7 +1,9 @@
 package com.github.jojotech.spring.cloud.webmvc.config;
 
+import com.github.jojotech.spring.cloud.commons.diagnostics.CallRecorder;
 import com.github.jojotech.spring.cloud.webmvc.feign.DefaultErrorDecoder;
 import com.github.jojotech.spring.cloud.webmvc.feign.FeignDecoratorBuilderInterceptor;
+import com.github.jojotech.spring.cloud.webmvc.feign.LoadBalancerRequestStateFeignDecorator;
 import feign.Feign;
 import feign.codec.ErrorDecoder;
 import io.github.resilience4j.core.ConfigurationNotFoundException;
@@ -32,7 +34,7 @@ public class DefaultOpenFeignConfiguration {
             FeignDecorators.Builder builder
     ) {
         feignDecoratorBuilderInterceptors.forEach(feignDecoratorBuilderInterceptor -> feignDecoratorBuilderInterceptor.intercept(builder));
-        return Resilience4jFeign.builder(builder.build());
+        return Resilience4jFeign.builder(new LoadBalancerRequestStateFeignDecorator(builder.build()));
     }
 
 
@@ -40,7 +42,8 @@ public class DefaultOpenFeignConfiguration {
     @Bean
     public FeignDecorators.Builder defaultBuilder(
             Environment environment,
-            RetryRegistry retryRegistry
+            RetryRegistry retryRegistry,
+            CallRecorder callRecorder
     ) {
         String name = environment.getProperty("feign.client.name");
         Retry retry = null;
@@ -54,6 +57,8 @@ public class DefaultOpenFeignConfiguration {
         retry = Retry.of(name, RetryConfig.from(retry.getRetryConfig()).retryOnException(throwable -> {
             return throwable instanceof feign.RetryableException;
         }).build());
+        //重试在调用线程上同步进行，输出调用线程最近的调用记录
+        retry.getEventPublisher().onRetry(event -> callRecorder.dump("feign client " + event.getName() + " retry " + event.getNumberOfRetryAttempts()));
 
         return FeignDecorators.builder().withRetry(
                 retry
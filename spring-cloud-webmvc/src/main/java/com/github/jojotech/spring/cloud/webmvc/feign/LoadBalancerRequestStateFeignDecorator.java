@@ -0,0 +1,32 @@
+package com.github.jojotech.spring.cloud.webmvc.feign;
+
+import com.github.jojotech.spring.cloud.commons.loadbalancer.LoadBalancerRequestState;
+import feign.InvocationHandlerFactory;
+import feign.Target;
+import io.github.resilience4j.feign.FeignDecorator;
+import io.vavr.CheckedFunction1;
+
+import java.lang.reflect.Method;
+
+/**
+ * 包装在所有 FeignDecorator（包括重试）最外层，每次 Feign 调用在当前线程打开一个新的负载均衡请求状态
+ * 这样同一个请求的所有重试在负载均衡的时候共享已经调用过的网段
+ * 这里没有用 RequestTemplate 传递，因为 resilience4j 的重试每次都会重新创建 RequestTemplate
+ */
+public class LoadBalancerRequestStateFeignDecorator implements FeignDecorator {
+    private final FeignDecorator delegate;
+
+    public LoadBalancerRequestStateFeignDecorator(FeignDecorator delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public CheckedFunction1<Object[], Object> decorate(CheckedFunction1<Object[], Object> invocationCall, Method method, InvocationHandlerFactory.MethodHandler methodHandler, Target<?> target) {
+        CheckedFunction1<Object[], Object> decorated = delegate.decorate(invocationCall, method, methodHandler, target);
+        return args -> {
+            try (LoadBalancerRequestState.Scope ignored = LoadBalancerRequestState.open()) {
+                return decorated.apply(args);
+            }
+        };
+    }
+}
@@ -2,7 +2,8 @@ package com.github.jojotech.spring.cloud.webmvc.feign;
 
 import brave.Span;
 import brave.Tracer;
-import com.alibaba.fastjson.JSON;
+import com.github.jojotech.spring.cloud.commons.diagnostics.CallRecorder;
+import com.github.jojotech.spring.cloud.commons.metric.InstanceStats;
 import com.github.jojotech.spring.cloud.commons.metric.ServiceInstanceMetrics;
 import com.github.jojotech.spring.cloud.webmvc.misc.SpecialHttpStatus;
 import feign.Client;
@@ -34,6 +35,7 @@ public class Resilience4jFeignClient implements Client {
     private final ThreadPoolBulkheadRegistry threadPoolBulkheadRegistry;
     private final CircuitBreakerRegistry circuitBreakerRegistry;
     private final Tracer tracer;
+    private final CallRecorder callRecorder;
     private ApacheHttpClient apacheHttpClient;
 
 
@@ -41,13 +43,15 @@ public class Resilience4jFeignClient implements Client {
             ServiceInstanceMetrics serviceInstanceMetrics, ApacheHttpClient apacheHttpClient,
             ThreadPoolBulkheadRegistry threadPoolBulkheadRegistry,
             CircuitBreakerRegistry circuitBreakerRegistry,
-            Tracer tracer
+            Tracer tracer,
+            CallRecorder callRecorder
     ) {
         this.serviceInstanceMetrics = serviceInstanceMetrics;
         this.apacheHttpClient = apacheHttpClient;
         this.threadPoolBulkheadRegistry = threadPoolBulkheadRegistry;
         this.circuitBreakerRegistry = circuitBreakerRegistry;
         this.tracer = tracer;
+        this.callRecorder = callRecorder;
     }
 
     @Override
@@ -78,35 +82,43 @@ public class Resilience4jFeignClient implements Client {
         Span span = tracer.currentSpan();
         ThreadPoolBulkhead finalThreadPoolBulkhead = threadPoolBulkhead;
         CircuitBreaker finalCircuitBreaker = circuitBreaker;
+        ServiceInstance serviceInstance = getServiceInstance(request);
+        //整个调用都使用同一个指标对象，实例下线被回收之后，还没结束的调用也不会记录到新创建的指标上
+        InstanceStats instanceStats = serviceInstanceMetrics.getStats(serviceInstance);
         Supplier<CompletionStage<Response>> completionStageSupplier = ThreadPoolBulkhead.decorateSupplier(threadPoolBulkhead,
                 OpenfeignUtil.decorateSupplier(circuitBreaker, () -> {
                     try (Tracer.SpanInScope cleared = tracer.withSpanInScope(span)) {
-                        log.info("call url: {} -> {}, ThreadPoolStats({}): {}, CircuitBreakStats({}): {}",
-                                request.httpMethod(),
-                                request.url(),
-                                serviceInstanceId,
-                                JSON.toJSONString(finalThreadPoolBulkhead.getMetrics()),
-                                serviceInstanceMethodId,
-                                JSON.toJSONString(finalCircuitBreaker.getMetrics())
-                        );
-                        Response execute = apacheHttpClient.execute(request, options);
-                        log.info("response: {} - {}", execute.status(), execute.reason());
-                        return execute;
+                        //只统计真正发出请求的耗时，不包括在线程池排队的时间
+                        long start = System.nanoTime();
+                        try {
+                            return apacheHttpClient.execute(request, options);
+                        } finally {
+                            instanceStats.recordLatency(System.nanoTime() - start);
+                        }
                     } catch (IOException e) {
                         throw new CompletionException(e);
                     }
                 })
         );
-        ServiceInstance serviceInstance = getServiceInstance(request);
+        //调用记录在调用线程上记录，失败的时候输出调用线程最近的调用记录，代替每次调用都输出日志
+        long traceId = span == null ? 0 : span.context().traceId();
+        long start = System.nanoTime();
         try {
-            serviceInstanceMetrics.recordServiceInstanceCall(serviceInstance);
+            instanceStats.recordCall();
             Response response = Try.ofSupplier(completionStageSupplier).get().toCompletableFuture().join();
-            serviceInstanceMetrics.recordServiceInstanceCalled(serviceInstance, true);
+            instanceStats.recordCalled(true);
+            if (callRecorder.record(contextId, serviceInstanceId, request.httpMethod().name(), request.url(), response.status(), null,
+                    System.nanoTime() - start, finalCircuitBreaker, finalThreadPoolBulkhead, traceId)) {
+                callRecorder.dump("call " + serviceInstanceMethodId + " failed");
+            }
             return response;
         } catch (CompletionException e) {
-            serviceInstanceMetrics.recordServiceInstanceCalled(serviceInstance, false);
+            instanceStats.recordCalled(false);
             //内部抛出的所有异常都被封装了一层 CompletionException，所以这里需要取出里面的 Exception
             Throwable cause = e.getCause();
+            callRecorder.record(contextId, serviceInstanceId, request.httpMethod().name(), request.url(), -1, cause,
+                    System.nanoTime() - start, finalCircuitBreaker, finalThreadPoolBulkhead, traceId);
+            callRecorder.dump("call " + serviceInstanceMethodId + " failed");
             //对于断路器打开，返回对应特殊的错误码
             if (cause instanceof CallNotPermittedException) {
                 return Response.builder()
@@ -47,7 +47,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static org.mockito.Mockito.when;
@@ -192,60 +191,57 @@ public class OpenFeignClientTest {
         try (Tracer.SpanInScope cleared = tracer.withSpanInScope(span)) {
             //防止断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
-            long l = span.context().traceId();
             RoundRobinWithRequestSeparatedPositionLoadBalancer loadBalancerClientFactoryInstance
                     = (RoundRobinWithRequestSeparatedPositionLoadBalancer) loadBalancerClientFactory.getInstance(TEST_SERVICE_1);
-            AtomicInteger atomicInteger = loadBalancerClientFactoryInstance.getPositionCache().get(l);
-            int start = atomicInteger.get();
+            long start = loadBalancerClientFactoryInstance.getChosenCount();
             try {
                 //get 方法会重试
                 testService1Client.testGetRetryStatus500();
             } catch (Exception e) {
             }
-            Assertions.assertEquals(DEFAULT_RETRY, atomicInteger.get() - start);
+            Assertions.assertEquals(DEFAULT_RETRY, loadBalancerClientFactoryInstance.getChosenCount() - start);
 
             //防止断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
-            start = atomicInteger.get();
+            start = loadBalancerClientFactoryInstance.getChosenCount();
             try {
                 //post 方法不会重试
                 testService1Client.testPostRetryStatus500();
             } catch (Exception e) {
             }
-            Assertions.assertEquals(atomicInteger.get() - start, 1);
+            Assertions.assertEquals(loadBalancerClientFactoryInstance.getChosenCount() - start, 1);
 
             //防止断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
             loadBalancerClientFactoryInstance
                     = (RoundRobinWithRequestSeparatedPositionLoadBalancer) loadBalancerClientFactory.getInstance(TEST_SERVICE_2);
-            atomicInteger = loadBalancerClientFactoryInstance.getPositionCache().get(l);
-            start = atomicInteger.get();
+            start = loadBalancerClientFactoryInstance.getChosenCount();
             try {
                 //get 方法会重试，针对 testservice 2 我们配置了不同的重试次数
                 testService2Client.testGetRetryStatus500();
             } catch (Exception e) {
             }
-            Assertions.assertEquals(atomicInteger.get() - start, TEST_SERVICE_2_RETRY);
+            Assertions.assertEquals(loadBalancerClientFactoryInstance.getChosenCount() - start, TEST_SERVICE_2_RETRY);
 
             //防止断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
-            start = atomicInteger.get();
+            start = loadBalancerClientFactoryInstance.getChosenCount();
             try {
                 //默认 post 不会重试
                 testService2Client.testPostRetryStatus500();
             } catch (Exception e) {
             }
-            Assertions.assertEquals(atomicInteger.get() - start, 1);
+            Assertions.assertEquals(loadBalancerClientFactoryInstance.getChosenCount() - start, 1);
 
             //防止断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
-            start = atomicInteger.get();
+            start = loadBalancerClientFactoryInstance.getChosenCount();
             try {
                 //带了注解，会重试
                 testService2Client.testPostWithAnnotationRetryStatus500();
             } catch (Exception e) {
             }
-            Assertions.assertEquals(atomicInteger.get() - start, TEST_SERVICE_2_RETRY);
+            Assertions.assertEquals(loadBalancerClientFactoryInstance.getChosenCount() - start, TEST_SERVICE_2_RETRY);
         }
     }
 
@@ -547,50 +543,47 @@ public class OpenFeignClientTest {
         try (Tracer.SpanInScope cleared = tracer.withSpanInScope(span)) {
             //防止断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
-            long l = span.context().traceId();
             RoundRobinWithRequestSeparatedPositionLoadBalancer loadBalancerClientFactoryInstance
                     = (RoundRobinWithRequestSeparatedPositionLoadBalancer) loadBalancerClientFactory.getInstance(TEST_SERVICE_1);
-            AtomicInteger atomicInteger = loadBalancerClientFactoryInstance.getPositionCache().get(l);
-            int start = atomicInteger.get();
+            long start = loadBalancerClientFactoryInstance.getChosenCount();
             //不超时，则不会有重试，也不会有异常导致 fallback
             String s = testService1Client.testGetDelayOneSecond();
             Assertions.assertNotEquals(s, "fallback");
             //没有重试，只会请求一次
-            Assertions.assertEquals(1, atomicInteger.get() - start);
+            Assertions.assertEquals(1, loadBalancerClientFactoryInstance.getChosenCount() - start);
 
             //防止断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
-            start = atomicInteger.get();
+            start = loadBalancerClientFactoryInstance.getChosenCount();
             //超时，并且方法可以重试，所以会请求 3 次
             s = testService1Client.testGetDelayThreeSeconds();
             Assertions.assertEquals(s, "fallback");
-            Assertions.assertEquals(DEFAULT_RETRY, atomicInteger.get() - start);
+            Assertions.assertEquals(DEFAULT_RETRY, loadBalancerClientFactoryInstance.getChosenCount() - start);
 
             //防止断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
-            start = atomicInteger.get();
+            start = loadBalancerClientFactoryInstance.getChosenCount();
             //超时
             s = testService1Client.testPostDelayThreeSeconds();
             Assertions.assertEquals(s, "fallback");
             //因为 post 方法默认不重试，所以只有一次
-            Assertions.assertEquals(1, atomicInteger.get() - start);
+            Assertions.assertEquals(1, loadBalancerClientFactoryInstance.getChosenCount() - start);
 
             //防止断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
             loadBalancerClientFactoryInstance
                     = (RoundRobinWithRequestSeparatedPositionLoadBalancer) loadBalancerClientFactory.getInstance(TEST_SERVICE_2);
-            atomicInteger = loadBalancerClientFactoryInstance.getPositionCache().get(l);
-            start = atomicInteger.get();
+            start = loadBalancerClientFactoryInstance.getChosenCount();
             //不超时
             s = testService2Client.testGetDelayOneSecond();
-            Assertions.assertEquals(1, atomicInteger.get() - start);
+            Assertions.assertEquals(1, loadBalancerClientFactoryInstance.getChosenCount() - start);
 
             //防止断路器影响
             circuitBreakerRegistry.getAllCircuitBreakers().asJava().forEach(CircuitBreaker::reset);
-            start = atomicInteger.get();
+            start = loadBalancerClientFactoryInstance.getChosenCount();
             //验证不同微服务配置是否生效，对于 testService2Client 不超时
             s = testService2Client.testGetDelayThreeSeconds();
-            Assertions.assertEquals(1, atomicInteger.get() - start);
+            Assertions.assertEquals(1, loadBalancerClientFactoryInstance.getChosenCount() - start);
         }
     }
 }
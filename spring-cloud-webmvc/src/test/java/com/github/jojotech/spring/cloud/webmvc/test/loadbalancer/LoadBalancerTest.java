@@ -1,7 +1,6 @@
 package com.github.jojotech.spring.cloud.webmvc.test.loadbalancer;
 
-import brave.Span;
-import brave.Tracer;
+import com.github.jojotech.spring.cloud.commons.loadbalancer.LoadBalancerRequestState;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -46,10 +45,13 @@ public class LoadBalancerTest {
             );
             when(zone1Instance1.getMetadata()).thenReturn(zone1);
             when(zone1Instance1.getInstanceId()).thenReturn("instance1");
+            when(zone1Instance1.getHost()).thenReturn("10.238.1.1");
             when(zone1Instance2.getMetadata()).thenReturn(zone1);
             when(zone1Instance2.getInstanceId()).thenReturn("instance2");
+            when(zone1Instance2.getHost()).thenReturn("10.238.2.2");
             when(zone2Instance3.getMetadata()).thenReturn(zone2);
             when(zone2Instance3.getInstanceId()).thenReturn("instance3");
+            when(zone2Instance3.getHost()).thenReturn("10.238.3.3");
             DiscoveryClient spy = Mockito.spy(DiscoveryClient.class);
             Mockito.when(spy.getInstances("testService"))
                     .thenReturn(List.of(zone1Instance1, zone1Instance2, zone2Instance3));
@@ -59,8 +61,6 @@ public class LoadBalancerTest {
 
     @SpyBean
     private LoadBalancerClientFactory loadBalancerClientFactory;
-    @SpyBean
-    private Tracer tracer;
 
     /**
      * 只返回同一个 zone 下的实例
@@ -83,9 +83,9 @@ public class LoadBalancerTest {
     public void testReturnNext() {
         ReactiveLoadBalancer<ServiceInstance> testService =
                 loadBalancerClientFactory.getInstance("testService");
-        Span span = tracer.nextSpan();
         for (int i = 0; i < 100; i++) {
-            try (Tracer.SpanInScope cleared = tracer.withSpanInScope(span)) {
+            //同一个请求状态下（例如同一个请求的重试），返回不同的实例
+            try (LoadBalancerRequestState.Scope scope = LoadBalancerRequestState.open()) {
                 ServiceInstance server1 = Mono.from(testService.choose()).block().getServer();
                 ServiceInstance server2 = Mono.from(testService.choose()).block().getServer();
                 //每次选择的是不同实例
@@ -95,22 +95,22 @@ public class LoadBalancerTest {
     }
 
     /**
-     * 跨线程，默认情况下是可能返回同一实例的，在我们的实现下，保持
-     * span 则会返回下一个实例，这样保证多线程环境同一个 request 重试会返回下一实例
+     * 跨线程，默认情况下是可能返回同一实例的，在我们的实现下，传递
+     * 请求状态则会返回下一个实例，这样保证多线程环境同一个 request 重试会返回下一实例
      *
      * @throws Exception
      */
     @Test
-    public void testSameSpanReturnNext() throws Exception {
-        Span span = tracer.nextSpan();
+    public void testSameRequestStateReturnNext() throws Exception {
         for (int i = 0; i < 100; i++) {
-            try (Tracer.SpanInScope cleared = tracer.withSpanInScope(span)) {
+            LoadBalancerRequestState state = new LoadBalancerRequestState();
+            try (LoadBalancerRequestState.Scope scope = LoadBalancerRequestState.open(state)) {
                 ReactiveLoadBalancer<ServiceInstance> testService =
                         loadBalancerClientFactory.getInstance("testService");
                 ServiceInstance server1 = Mono.from(testService.choose()).block().getServer();
                 AtomicReference<ServiceInstance> server2 = new AtomicReference<>();
                 Thread thread = new Thread(() -> {
-                    try (Tracer.SpanInScope cleared2 = tracer.withSpanInScope(span)) {
+                    try (LoadBalancerRequestState.Scope scope2 = LoadBalancerRequestState.open(state)) {
                         server2.set(Mono.from(testService.choose()).block().getServer());
                     }
                 });